@@ -0,0 +1,40 @@
+package com.oakmac.standardclojurestyle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * BuildInfo reads build.properties, which the generateBuildInfo task of the Gradle build writes
+ * next to the classes: the project version, and a hash of the main sources that changes whenever
+ * the code does, even between two builds of the same snapshot version.
+ */
+final class BuildInfo {
+  private static final Properties PROPS = load();
+
+  /** The project version, or "unknown" when the classes were not built by Gradle. */
+  static final String VERSION = PROPS.getProperty("version", "unknown");
+
+  /** The hash of the main sources, or null when the classes were not built by Gradle. */
+  static final String BUILD_HASH = PROPS.getProperty("buildHash");
+
+  private BuildInfo() {}
+
+  private static Properties load() {
+    Properties props = new Properties();
+    try (InputStream in = BuildInfo.class.getResourceAsStream("build.properties")) {
+      if (in != null) props.load(in);
+    } catch (IOException e) {
+      // treated like a missing file
+    }
+    return props;
+  }
+
+  /**
+   * Returns the key of data that is only valid for the build that wrote it, such as a FormatCache,
+   * or null when the build is not known.
+   */
+  static String buildKey() {
+    return BUILD_HASH == null ? null : VERSION + "+" + BUILD_HASH;
+  }
+}
@@ -0,0 +1,381 @@
+package com.oakmac.standardclojurestyle;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The standard-clj command-line tool. Formats files and directory trees in parallel on every
+ * available core:
+ *
+ * <pre>
+ * standard-clj fix [--ext clj,cljs,cljc,edn] &lt;path&gt;...    format files in place
+ * standard-clj check [--ext clj,cljs,cljc,edn] &lt;path&gt;...  exit 1 if any file is not formatted
+ * standard-clj list [--ext clj,cljs,cljc,edn] &lt;path&gt;...   print the files to format
+ * </pre>
+ *
+ * Directories are searched recursively for files with one of the extensions. Files named on the
+ * command line are always included. With --cache &lt;file&gt;, fix and check skip the files that a
+ * FormatCache saved in that file knows are already formatted.
+ *
+ * <p>To avoid JVM startup on every run, start a Daemon with "standard-clj daemon" and pass
+ * --daemon: the command is then sent to the daemon, or run here if no daemon is running.
+ * "standard-clj daemon-status" and "standard-clj daemon-stop" report on and stop the daemon.
+ *
+ * <p>"standard-clj watch fix|check ..." processes the files once and then keeps watching them
+ * with a Watcher, processing the files that change.
+ *
+ * <p>"standard-clj lsp" runs a LanguageServer on stdin and stdout, for editors.
+ */
+public final class Cli {
+  static final List<String> DEFAULT_EXTENSIONS = Arrays.asList("clj", "cljs", "cljc", "edn");
+
+  static final String USAGE =
+      "Usage: standard-clj <fix|check|list> [--ext clj,cljs,cljc,edn] [--cache <file>] [--daemon]"
+          + " <path>...\n"
+          + "       standard-clj watch <fix|check> [--ext clj,cljs,cljc,edn] [--cache <file>]"
+          + " <path>...\n"
+          + "       standard-clj daemon [--idle-timeout <minutes>]\n"
+          + "       standard-clj <daemon-status|daemon-stop>\n"
+          + "       standard-clj lsp";
+
+  private Cli() {}
+
+  public static void main(String[] args) {
+    System.exit(run(args, System.out, System.err));
+  }
+
+  /** Runs the tool and returns the exit code: 0 on success, 1 on failure, 2 for bad arguments. */
+  static int run(String[] args, PrintStream out, PrintStream err) {
+    if (args.length > 0 && args[0].startsWith("daemon")) {
+      return runDaemonCommand(args, Daemon.defaultStateFile(), out, err);
+    }
+    if (args.length > 0 && args[0].equals("watch")) {
+      return runWatch(args, out, err);
+    }
+    if (args.length > 0 && args[0].equals("lsp")) {
+      if (args.length != 1) {
+        err.println(USAGE);
+        return 2;
+      }
+      try {
+        return new LanguageServer(System.in, out).run();
+      } catch (IOException e) {
+        err.println("Language server error: " + e.getMessage());
+        return 1;
+      }
+    }
+    if (Arrays.asList(args).contains("--daemon")) {
+      List<String> daemonArgs = new ArrayList<>(Arrays.asList(args));
+      daemonArgs.remove("--daemon");
+      try {
+        DaemonClient client = DaemonClient.connect(Daemon.defaultStateFile());
+        if (client != null) {
+          DaemonClient.Response response = client.run(Paths.get(""), daemonArgs);
+          out.print(response.getOut());
+          err.print(response.getErr());
+          return response.getExitCode();
+        }
+      } catch (IOException e) {
+        // no daemon is running: run here
+      }
+      args = daemonArgs.toArray(new String[0]);
+    }
+    return run(args, null, new StandardClojureStyle(), out, err);
+  }
+
+  /**
+   * Runs the tool with relative paths resolved against cwd, or against the working directory of
+   * the process if cwd is null. Paths under cwd are printed relative to it.
+   */
+  static int run(
+      String[] args, Path cwd, StandardClojureStyle scsLib, PrintStream out, PrintStream err) {
+    if (args.length == 0) {
+      err.println(USAGE);
+      return 2;
+    }
+    String command = args[0];
+    if (!command.equals("fix") && !command.equals("check") && !command.equals("list")) {
+      err.println("Unknown command: " + command);
+      err.println(USAGE);
+      return 2;
+    }
+
+    Options options = parseOptions(args, 1, cwd);
+    if (options == null) {
+      err.println(USAGE);
+      return 2;
+    }
+
+    List<Path> files;
+    try {
+      files = findFiles(options.paths, options.extensions);
+    } catch (IOException e) {
+      err.println("Unable to read " + e.getMessage());
+      return 1;
+    }
+
+    if (command.equals("list")) {
+      for (Path file : files) {
+        out.println(display(cwd, file.toString()));
+      }
+      return 0;
+    }
+
+    FormatCache cache = options.cacheFile == null ? null : loadCache(options.cacheFile, err);
+    boolean fix = command.equals("fix");
+    long numBytes = totalSize(files);
+    long startTime = System.nanoTime();
+    List<StandardClojureStyle.BatchResult> results;
+    try {
+      results = scsLib.formatFiles(files, fix, cache);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      err.println("Interrupted");
+      return 1;
+    }
+    if (cache != null) saveCache(cache, options.cacheFile, err);
+    return report(results, fix, numBytes, System.nanoTime() - startTime, cwd, out, err);
+  }
+
+  /** The options and paths of fix, check and list. */
+  private static final class Options {
+    List<String> extensions = DEFAULT_EXTENSIONS;
+    Path cacheFile = null;
+    final List<Path> paths = new ArrayList<>();
+  }
+
+  // Returns the options in args from index start, or null if they are invalid
+  private static Options parseOptions(String[] args, int start, Path cwd) {
+    Options options = new Options();
+    for (int i = start; i < args.length; i++) {
+      boolean isOption = args[i].equals("--ext") || args[i].equals("--cache");
+      if (isOption && i + 1 == args.length) return null;
+      if (args[i].equals("--ext")) {
+        options.extensions = Arrays.asList(args[++i].split(","));
+      } else if (args[i].equals("--cache")) {
+        options.cacheFile = resolve(cwd, args[++i]);
+      } else {
+        options.paths.add(resolve(cwd, args[i]));
+      }
+    }
+    return options.paths.isEmpty() ? null : options;
+  }
+
+  private static FormatCache loadCache(Path cacheFile, PrintStream err) {
+    try {
+      return FormatCache.load(cacheFile);
+    } catch (IOException e) {
+      err.println("Unable to read cache " + cacheFile + ": " + e.getMessage());
+      return FormatCache.empty();
+    }
+  }
+
+  private static void saveCache(FormatCache cache, Path cacheFile, PrintStream err) {
+    try {
+      cache.save(cacheFile);
+    } catch (IOException e) {
+      err.println("Unable to write cache " + cacheFile + ": " + e.getMessage());
+    }
+  }
+
+  private static long totalSize(List<Path> files) {
+    long numBytes = 0;
+    for (Path file : files) {
+      try {
+        numBytes += Files.size(file);
+      } catch (IOException e) {
+        // reported as an error by formatFiles
+      }
+    }
+    return numBytes;
+  }
+
+  // Prints the files that changed or failed and a summary line, and returns the exit code
+  private static int report(
+      List<StandardClojureStyle.BatchResult> results,
+      boolean fix,
+      long numBytes,
+      long nanos,
+      Path cwd,
+      PrintStream out,
+      PrintStream err) {
+    double seconds = Math.max(nanos, 1) / 1e9;
+
+    int numChanged = 0;
+    int numErrors = 0;
+    int numCached = 0;
+    for (StandardClojureStyle.BatchResult result : results) {
+      if (result.isCached()) numCached++;
+      if (result.getStatus().equals("changed")) {
+        numChanged++;
+        out.println((fix ? "Formatted " : "Not formatted: ") + display(cwd, result.getName()));
+      } else if (result.getStatus().equals("error")) {
+        numErrors++;
+        err.println("Error in " + display(cwd, result.getName()) + ": " + result.getReason());
+      }
+    }
+
+    out.println(
+        String.format(
+            Locale.ROOT,
+            "%d files, %d %s, %d errors, %d cached in %.2fs (%.0f files/s, %.1f MB/s)",
+            results.size(),
+            numChanged,
+            fix ? "formatted" : "not formatted",
+            numErrors,
+            numCached,
+            seconds,
+            results.size() / seconds,
+            numBytes / seconds / (1024 * 1024)));
+
+    if (numErrors > 0) return 1;
+    return !fix && numChanged > 0 ? 1 : 0;
+  }
+
+  // Processes the files once, then processes the files that change until interrupted. The
+  // FormatCache stays in memory, and is also saved after every batch if --cache is given.
+  private static int runWatch(String[] args, PrintStream out, PrintStream err) {
+    boolean isCommand = args.length > 1 && (args[1].equals("fix") || args[1].equals("check"));
+    // absolute, like the paths of the Watcher events
+    Path cwd = Paths.get("").toAbsolutePath();
+    Options options = isCommand ? parseOptions(args, 2, cwd) : null;
+    if (options == null) {
+      err.println(USAGE);
+      return 2;
+    }
+    boolean fix = args[1].equals("fix");
+    FormatCache cache =
+        options.cacheFile == null ? FormatCache.empty() : loadCache(options.cacheFile, err);
+    StandardClojureStyle scsLib = new StandardClojureStyle(new FormCache(64L << 20));
+
+    Watcher.Listener listener =
+        (files, results, nanos) -> {
+          // skip the batches of files that are known to be formatted, eg: the files just fixed
+          if (results.stream().allMatch(StandardClojureStyle.BatchResult::isCached)) return;
+          report(results, fix, totalSize(files), nanos, cwd, out, err);
+          if (options.cacheFile != null) saveCache(cache, options.cacheFile, err);
+        };
+    // watch first, so that no change is missed between the first pass and the watching
+    try (Watcher watcher =
+        new Watcher(
+            options.paths,
+            options.extensions,
+            scsLib,
+            fix,
+            cache,
+            Watcher.DEFAULT_DEBOUNCE,
+            listener)) {
+      List<Path> files = findFiles(options.paths, options.extensions);
+      long numBytes = totalSize(files);
+      long startTime = System.nanoTime();
+      List<StandardClojureStyle.BatchResult> results = scsLib.formatFiles(files, fix, cache);
+      report(results, fix, numBytes, System.nanoTime() - startTime, cwd, out, err);
+      if (options.cacheFile != null) saveCache(cache, options.cacheFile, err);
+      out.println("Watching " + watcher.getNumWatchedDirs() + " directories for changes");
+      watcher.run();
+      return 0;
+    } catch (IOException e) {
+      err.println("Unable to watch " + e.getMessage());
+      return 1;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return 1;
+    }
+  }
+
+  private static Path resolve(Path cwd, String path) {
+    return cwd == null ? Paths.get(path) : cwd.resolve(path);
+  }
+
+  private static String display(Path cwd, String path) {
+    if (cwd == null) return path;
+    Path p = Paths.get(path);
+    return p.startsWith(cwd) ? cwd.relativize(p).toString() : path;
+  }
+
+  static int runDaemonCommand(String[] args, Path stateFile, PrintStream out, PrintStream err) {
+    String command = args[0];
+    if (command.equals("daemon")) {
+      Duration idleTimeout = Daemon.DEFAULT_IDLE_TIMEOUT;
+      if (args.length == 3 && args[1].equals("--idle-timeout")) {
+        try {
+          idleTimeout = Duration.ofMinutes(Long.parseLong(args[2]));
+        } catch (NumberFormatException e) {
+          err.println(USAGE);
+          return 2;
+        }
+      } else if (args.length != 1) {
+        err.println(USAGE);
+        return 2;
+      }
+      try {
+        Daemon daemon = Daemon.start(stateFile, idleTimeout);
+        out.println("standard-clj daemon listening on port " + daemon.getPort());
+        daemon.awaitStop();
+        return 0;
+      } catch (IOException e) {
+        err.println("Unable to start the daemon: " + e.getMessage());
+        return 1;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return 1;
+      }
+    }
+
+    if (args.length != 1 || (!command.equals("daemon-status") && !command.equals("daemon-stop"))) {
+      err.println("Unknown command: " + command);
+      err.println(USAGE);
+      return 2;
+    }
+    try {
+      DaemonClient client = DaemonClient.connect(stateFile);
+      if (client == null) {
+        err.println("The daemon is not running");
+        return 1;
+      }
+      DaemonClient.Response response =
+          command.equals("daemon-status") ? client.status() : client.stop();
+      out.print(response.getOut());
+      err.print(response.getErr());
+      return response.getExitCode();
+    } catch (IOException e) {
+      err.println("The daemon is not running: " + e.getMessage());
+      return 1;
+    }
+  }
+
+  /** Returns the files to format: every file in paths and matching files under directories. */
+  static List<Path> findFiles(List<Path> paths, List<String> extensions) throws IOException {
+    TreeSet<Path> files = new TreeSet<>();
+    for (Path path : paths) {
+      if (!Files.isDirectory(path)) {
+        files.add(path);
+        continue;
+      }
+      try (Stream<Path> stream = Files.walk(path)) {
+        files.addAll(
+            stream
+                .filter(p -> Files.isRegularFile(p) && hasExtension(p, extensions))
+                .collect(Collectors.toList()));
+      }
+    }
+    return new ArrayList<>(files);
+  }
+
+  private static boolean hasExtension(Path path, List<String> extensions) {
+    String fileName = path.getFileName().toString();
+    int dotIdx = fileName.lastIndexOf('.');
+    return dotIdx > 0 && extensions.contains(fileName.substring(dotIdx + 1));
+  }
+}
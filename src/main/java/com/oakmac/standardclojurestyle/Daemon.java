@@ -0,0 +1,399 @@
+package com.oakmac.standardclojurestyle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A long-running formatter process, so that editors and hooks do not pay for JVM startup and JIT
+ * warm-up on every file. The daemon listens on a localhost TCP port and writes the port and a
+ * secret token to a state file that only its owner can read. Requests without the token are
+ * refused.
+ *
+ * <p>Every request is one connection. The client sends a header line and a body:
+ *
+ * <pre>
+ * &lt;token&gt; &lt;command&gt; &lt;body length in bytes&gt;\n&lt;body&gt;
+ * </pre>
+ *
+ * and the daemon answers with the exit code and the output and error text:
+ *
+ * <pre>
+ * &lt;exit code&gt; &lt;out length in bytes&gt; &lt;err length in bytes&gt;\n&lt;out&gt;&lt;err&gt;
+ * </pre>
+ *
+ * Commands:
+ *
+ * <ul>
+ *   <li>"run" - the body is the working directory of the client and then the standard-clj
+ *       arguments, one per line, eg: fix src
+ *   <li>"format" - the body is Clojure source. The output is the formatted source, or the exit
+ *       code is 1 and the error text is the reason it cannot be formatted
+ *   <li>"status" - the output is the number of requests and their latencies
+ *   <li>"stop" - stops the daemon
+ * </ul>
+ *
+ * Requests are handled concurrently. The daemon stops by itself when it has not had a request
+ * for the idle timeout.
+ */
+public final class Daemon {
+  /** Stop after an hour without requests. */
+  public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofHours(1);
+
+  private static final int MAX_HEADER_LENGTH = 256;
+  private static final int MAX_BODY_LENGTH = 256 << 20;
+  // how often the accept loop wakes up to check the idle timeout
+  private static final int ACCEPT_TIMEOUT_MILLIS = 250;
+  // a client that stops sending in the middle of a request is dropped
+  private static final int READ_TIMEOUT_MILLIS = 60_000;
+  private static final int NUM_LATENCIES = 1024;
+
+  private final ServerSocket serverSocket;
+  private final Path stateFile;
+  private final String token;
+  private final long idleTimeoutNanos;
+  private final StandardClojureStyle scsLib = new StandardClojureStyle(new FormCache(64L << 20));
+  private final ExecutorService workers =
+      Executors.newCachedThreadPool(
+          r -> {
+            Thread thread = new Thread(r, "standard-clj-daemon-worker");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private final CountDownLatch stopped = new CountDownLatch(1);
+
+  private final long startTime = System.nanoTime();
+  private volatile long lastRequestTime = startTime;
+  private final AtomicInteger activeRequests = new AtomicInteger();
+  private final Map<String, LongAdder> requestCounts = new ConcurrentHashMap<>();
+  private final LongAdder failedRequests = new LongAdder();
+  // the most recent request latencies, in nanoseconds
+  private final long[] latencies = new long[NUM_LATENCIES];
+  private long numLatencies = 0;
+  private long maxLatency = 0;
+
+  private Daemon(ServerSocket serverSocket, Path stateFile, String token, Duration idleTimeout) {
+    this.serverSocket = serverSocket;
+    this.stateFile = stateFile;
+    this.token = token;
+    this.idleTimeoutNanos = idleTimeout.toNanos();
+  }
+
+  /** The state file that the daemon and its clients use by default: ~/.standard-clj/daemon */
+  public static Path defaultStateFile() {
+    return Paths.get(System.getProperty("user.home"), ".standard-clj", "daemon");
+  }
+
+  /**
+   * Starts a daemon on a free localhost port and writes the port and token to stateFile. The
+   * daemon runs on a background thread until stop() is called, a client sends "stop", or it has
+   * had no requests for idleTimeout.
+   */
+  public static Daemon start(Path stateFile, Duration idleTimeout) throws IOException {
+    byte[] tokenBytes = new byte[16];
+    new SecureRandom().nextBytes(tokenBytes);
+    StringBuilder token = new StringBuilder();
+    for (byte b : tokenBytes) {
+      token.append(String.format("%02x", b));
+    }
+
+    ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    Daemon daemon = new Daemon(serverSocket, stateFile, token.toString(), idleTimeout);
+    try {
+      serverSocket.setSoTimeout(ACCEPT_TIMEOUT_MILLIS);
+      daemon.writeStateFile();
+    } catch (IOException e) {
+      serverSocket.close();
+      throw e;
+    }
+    Thread acceptThread = new Thread(daemon::acceptLoop, "standard-clj-daemon");
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+    return daemon;
+  }
+
+  // the state file is created readable by its owner only, then moved into place
+  private void writeStateFile() throws IOException {
+    Path dir = stateFile.toAbsolutePath().getParent();
+    Files.createDirectories(dir);
+    Path tmpFile = Files.createTempFile(dir, stateFile.getFileName().toString(), ".tmp");
+    try {
+      try {
+        Files.setPosixFilePermissions(tmpFile, PosixFilePermissions.fromString("rw-------"));
+      } catch (UnsupportedOperationException e) {
+        // not a POSIX file system: the file keeps the default permissions of the directory
+      }
+      String state = getPort() + " " + token + "\n";
+      Files.write(tmpFile, state.getBytes(StandardCharsets.UTF_8));
+      try {
+        Files.move(
+            tmpFile,
+            stateFile,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmpFile, stateFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmpFile);
+    }
+  }
+
+  /** The localhost port that the daemon listens on. */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /** Stops accepting requests. Requests that are being handled are finished. */
+  public synchronized void stop() {
+    if (stopped.getCount() == 0) return;
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      // already closed
+    }
+    workers.shutdown();
+    try {
+      // another daemon may have replaced the state file since
+      List<String> state = Files.readAllLines(stateFile, StandardCharsets.UTF_8);
+      if (!state.isEmpty() && state.get(0).endsWith(" " + token)) Files.delete(stateFile);
+    } catch (IOException e) {
+      // already gone
+    }
+    stopped.countDown();
+  }
+
+  /** Waits until the daemon has stopped. */
+  public void awaitStop() throws InterruptedException {
+    stopped.await();
+  }
+
+  private void acceptLoop() {
+    while (!serverSocket.isClosed()) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (SocketTimeoutException e) {
+        boolean idle = System.nanoTime() - lastRequestTime > idleTimeoutNanos;
+        if (idle && activeRequests.get() == 0) break;
+        continue;
+      } catch (IOException e) {
+        break;
+      }
+
+      activeRequests.incrementAndGet();
+      lastRequestTime = System.nanoTime();
+      try {
+        workers.execute(() -> handle(socket));
+      } catch (RejectedExecutionException e) {
+        activeRequests.decrementAndGet();
+        closeQuietly(socket);
+      }
+    }
+    stop();
+  }
+
+  private void handle(Socket socket) {
+    long requestStart = System.nanoTime();
+    String command = "invalid";
+    boolean failed = true;
+    try {
+      socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+      String[] header = readHeader(in).split(" ");
+      if (header.length != 3 || !isToken(header[0])) {
+        writeResponse(out, 2, "", "Invalid request\n");
+        return;
+      }
+      int bodyLength = Integer.parseInt(header[2]);
+      if (bodyLength < 0 || bodyLength > MAX_BODY_LENGTH) {
+        writeResponse(out, 2, "", "Invalid request\n");
+        return;
+      }
+      byte[] body = new byte[bodyLength];
+      in.readFully(body);
+      command = header[1];
+      failed = !handleCommand(command, new String(body, StandardCharsets.UTF_8), out);
+    } catch (IOException | RuntimeException e) {
+      // the client went away, or sent a malformed request
+    } finally {
+      closeQuietly(socket);
+      record(command, failed, System.nanoTime() - requestStart);
+      lastRequestTime = System.nanoTime();
+      activeRequests.decrementAndGet();
+    }
+  }
+
+  // returns false if the command is unknown
+  private boolean handleCommand(String command, String body, OutputStream out)
+      throws IOException {
+    switch (command) {
+      case "run":
+        {
+          List<String> lines = Arrays.asList(body.split("\n", -1));
+          Path cwd = Paths.get(lines.get(0));
+          String[] args = lines.subList(1, lines.size()).toArray(new String[0]);
+          ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+          ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+          int exitCode =
+              Cli.run(
+                  args,
+                  cwd,
+                  scsLib,
+                  new PrintStream(outBytes, true, StandardCharsets.UTF_8),
+                  new PrintStream(errBytes, true, StandardCharsets.UTF_8));
+          writeResponse(
+              out,
+              exitCode,
+              outBytes.toString(StandardCharsets.UTF_8),
+              errBytes.toString(StandardCharsets.UTF_8));
+          return true;
+        }
+      case "format":
+        {
+          Map<String, Object> result = scsLib.format(body);
+          if ("success".equals(result.get("status"))) {
+            writeResponse(out, 0, (String) result.get("out"), "");
+          } else {
+            writeResponse(out, 1, "", result.get("reason") + "\n");
+          }
+          return true;
+        }
+      case "status":
+        writeResponse(out, 0, status(), "");
+        return true;
+      case "stop":
+        writeResponse(out, 0, "", "");
+        stop();
+        return true;
+      default:
+        writeResponse(out, 2, "", "Unknown command: " + command + "\n");
+        return false;
+    }
+  }
+
+  private static String readHeader(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b < 0 || bytes.size() == MAX_HEADER_LENGTH) throw new IOException("Invalid header");
+      bytes.write(b);
+    }
+    return bytes.toString(StandardCharsets.UTF_8);
+  }
+
+  // compares in constant time, so the token cannot be guessed one char at a time
+  private boolean isToken(String s) {
+    return MessageDigest.isEqual(
+        token.getBytes(StandardCharsets.UTF_8), s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void writeResponse(OutputStream out, int exitCode, String outTxt, String errTxt)
+      throws IOException {
+    byte[] outBytes = outTxt.getBytes(StandardCharsets.UTF_8);
+    byte[] errBytes = errTxt.getBytes(StandardCharsets.UTF_8);
+    String header = exitCode + " " + outBytes.length + " " + errBytes.length + "\n";
+    out.write(header.getBytes(StandardCharsets.UTF_8));
+    out.write(outBytes);
+    out.write(errBytes);
+    out.flush();
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // nothing to do
+    }
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // Status
+
+  private void record(String command, boolean failed, long nanos) {
+    requestCounts.computeIfAbsent(command, k -> new LongAdder()).increment();
+    if (failed) failedRequests.increment();
+    synchronized (latencies) {
+      latencies[(int) (numLatencies % NUM_LATENCIES)] = nanos;
+      numLatencies++;
+      maxLatency = Math.max(maxLatency, nanos);
+    }
+  }
+
+  private String status() {
+    long[] recent;
+    long max;
+    synchronized (latencies) {
+      recent = Arrays.copyOf(latencies, (int) Math.min(numLatencies, NUM_LATENCIES));
+      max = maxLatency;
+    }
+    Arrays.sort(recent);
+
+    long total = 0;
+    Map<String, Long> counts = new TreeMap<>();
+    for (Map.Entry<String, LongAdder> entry : requestCounts.entrySet()) {
+      counts.put(entry.getKey(), entry.getValue().sum());
+      total += entry.getValue().sum();
+    }
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format(Locale.ROOT, "version %s%n", StandardClojureStyle.VERSION));
+    sb.append(String.format(Locale.ROOT, "port %d%n", getPort()));
+    sb.append(
+        String.format(Locale.ROOT, "uptime %.1fs%n", (System.nanoTime() - startTime) / 1e9));
+    sb.append(String.format(Locale.ROOT, "active requests %d%n", activeRequests.get()));
+    sb.append(String.format(Locale.ROOT, "requests %d", total));
+    for (Map.Entry<String, Long> entry : counts.entrySet()) {
+      sb.append(String.format(Locale.ROOT, ", %s %d", entry.getKey(), entry.getValue()));
+    }
+    sb.append(String.format(Locale.ROOT, ", failed %d%n", failedRequests.sum()));
+    if (recent.length > 0) {
+      sb.append(
+          String.format(
+              Locale.ROOT,
+              "latency p50 %.2fms, p90 %.2fms, p99 %.2fms, max %.2fms (last %d requests)%n",
+              percentile(recent, 50) / 1e6,
+              percentile(recent, 90) / 1e6,
+              percentile(recent, 99) / 1e6,
+              max / 1e6,
+              recent.length));
+    }
+    return sb.toString();
+  }
+
+  private static long percentile(long[] sorted, int p) {
+    return sorted[(int) Math.min(sorted.length - 1, (long) sorted.length * p / 100)];
+  }
+}
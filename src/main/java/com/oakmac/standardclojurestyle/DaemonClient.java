@@ -0,0 +1,127 @@
+package com.oakmac.standardclojurestyle;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+
+/** Sends requests to a running Daemon. See Daemon for the protocol. */
+public final class DaemonClient {
+  /** The answer to a request. */
+  public static final class Response {
+    final int exitCode;
+    final String out;
+    final String err;
+
+    Response(int exitCode, String out, String err) {
+      this.exitCode = exitCode;
+      this.out = out;
+      this.err = err;
+    }
+
+    /** 0 on success, 1 on failure, 2 for a bad request. */
+    public int getExitCode() {
+      return exitCode;
+    }
+
+    public String getOut() {
+      return out;
+    }
+
+    public String getErr() {
+      return err;
+    }
+  }
+
+  private final int port;
+  private final String token;
+
+  private DaemonClient(int port, String token) {
+    this.port = port;
+    this.token = token;
+  }
+
+  /**
+   * Returns a client for the daemon that wrote stateFile, or null if there is no state file. The
+   * daemon may have gone away without removing it, in which case requests throw an IOException.
+   */
+  public static DaemonClient connect(Path stateFile) throws IOException {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(stateFile, StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    String[] state = lines.isEmpty() ? new String[0] : lines.get(0).split(" ");
+    if (state.length != 2) throw new IOException("Invalid daemon state file " + stateFile);
+    try {
+      return new DaemonClient(Integer.parseInt(state[0]), state[1]);
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid daemon state file " + stateFile);
+    }
+  }
+
+  /** Runs standard-clj with args, resolving relative paths against cwd. */
+  public Response run(Path cwd, List<String> args) throws IOException {
+    StringBuilder body = new StringBuilder(cwd.toAbsolutePath().toString());
+    for (String arg : args) {
+      body.append('\n').append(arg);
+    }
+    return send("run", body.toString());
+  }
+
+  /** Formats Clojure source. */
+  public Response format(String txt) throws IOException {
+    return send("format", txt);
+  }
+
+  /** Returns the request counts and latencies of the daemon. */
+  public Response status() throws IOException {
+    return send("status", "");
+  }
+
+  /** Stops the daemon. */
+  public Response stop() throws IOException {
+    return send("stop", "");
+  }
+
+  /** Sends one request. */
+  public Response send(String command, String body) throws IOException {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+      OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+      String header = token + " " + command + " " + bodyBytes.length + "\n";
+      out.write(header.getBytes(StandardCharsets.UTF_8));
+      out.write(bodyBytes);
+      out.flush();
+
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+      int b;
+      while ((b = in.read()) != '\n') {
+        if (b < 0) throw new IOException("The daemon closed the connection");
+        headerBytes.write(b);
+      }
+      String[] response = headerBytes.toString(StandardCharsets.UTF_8).split(" ");
+      if (response.length != 3) throw new IOException("Invalid response from the daemon");
+      byte[] outBytes = new byte[Integer.parseInt(response[1])];
+      in.readFully(outBytes);
+      byte[] errBytes = new byte[Integer.parseInt(response[2])];
+      in.readFully(errBytes);
+      return new Response(
+          Integer.parseInt(response[0]),
+          new String(outBytes, StandardCharsets.UTF_8),
+          new String(errBytes, StandardCharsets.UTF_8));
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid response from the daemon");
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package com.oakmac.standardclojurestyle;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * FormCache keeps the formatted output of top-level forms in memory, so that formatting a file
+ * again after a small edit only parses and formats the forms that changed. Use one FormCache for a
+ * long-running process such as an editor integration:
+ *
+ * <pre>
+ * StandardClojureStyle scsLib = new StandardClojureStyle(new FormCache(16L &lt;&lt; 20));
+ * </pre>
+ *
+ * A form is looked up by its source text and by the columns it starts at in the input and in the
+ * output. A form with a comment that may align with the line before the form also records that
+ * line. Together these are all of the context that the formatting of a form depends on. The least
+ * recently used forms are evicted once the cache holds more than maxBytes. FormCache is
+ * thread-safe.
+ */
+public final class FormCache {
+  // rough size of an Entry, its Key and their map node, in bytes
+  private static final int ENTRY_OVERHEAD = 160;
+
+  static final class Key {
+    final String src;
+    final int origCol;
+    final int outCol;
+    private final int hash;
+
+    Key(String src, int origCol, int outCol) {
+      this.src = src;
+      this.origCol = origCol;
+      this.outCol = outCol;
+      this.hash = (src.hashCode() * 31 + origCol) * 31 + outCol;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      return hash == other.hash
+          && origCol == other.origCol
+          && outCol == other.outCol
+          && src.equals(other.src);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /** The first node of a printed line, which a comment on the next line may align with. */
+  static final class LineStart {
+    final boolean valid;
+    final int origCol;
+    final int outCol;
+    final int depth;
+
+    LineStart(boolean valid, int origCol, int outCol, int depth) {
+      this.valid = valid;
+      this.origCol = origCol;
+      this.outCol = outCol;
+      this.depth = depth;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof LineStart)) return false;
+      LineStart other = (LineStart) o;
+      return valid == other.valid
+          && origCol == other.origCol
+          && outCol == other.outCol
+          && depth == other.depth;
+    }
+
+    @Override
+    public int hashCode() {
+      return Boolean.hashCode(valid) + 31 * (origCol + 31 * (outCol + 31 * depth));
+    }
+  }
+
+  /** The formatted form and the formatter state after it. */
+  static final class Entry {
+    // output up to and including the last code char, and the comments and newlines after it
+    final String committed;
+    final String tail;
+    // offset of the last line start in committed + tail, -1 if it has no newline
+    final int lastLineStart;
+    final int lastKind;
+    final int pendingNewlines;
+    // the line start that the form was formatted after, if the form depends on it
+    final LineStart prevBefore;
+    // the last line start inside the form, null if it has none
+    final LineStart prevAfter;
+
+    Entry(
+        String committed,
+        String tail,
+        int lastKind,
+        int pendingNewlines,
+        LineStart prevBefore,
+        LineStart prevAfter) {
+      this.committed = committed;
+      this.tail = tail;
+      int tailNewline = tail.lastIndexOf('\n');
+      this.lastLineStart =
+          tailNewline >= 0 ? committed.length() + tailNewline + 1 : lastNewline(committed);
+      this.lastKind = lastKind;
+      this.pendingNewlines = pendingNewlines;
+      this.prevBefore = prevBefore;
+      this.prevAfter = prevAfter;
+    }
+
+    private static int lastNewline(String txt) {
+      int idx = txt.lastIndexOf('\n');
+      return idx >= 0 ? idx + 1 : -1;
+    }
+  }
+
+  private final long maxBytes;
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+  private long bytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+
+  /** Creates an empty cache that holds at most about maxBytes of source and output text. */
+  public FormCache(long maxBytes) {
+    if (maxBytes < 0) throw new IllegalArgumentException("maxBytes must not be negative");
+    this.maxBytes = maxBytes;
+  }
+
+  private static long sizeOf(Key key, Entry entry) {
+    return 2L * (key.src.length() + entry.committed.length() + entry.tail.length())
+        + ENTRY_OVERHEAD;
+  }
+
+  /** Returns the Entry for key if it was formatted after prev or does not depend on it. */
+  synchronized Entry get(Key key, LineStart prev) {
+    Entry entry = entries.get(key);
+    if (entry != null && entry.prevBefore != null && !entry.prevBefore.equals(prev)) {
+      entry = null;
+    }
+    if (entry == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return entry;
+  }
+
+  synchronized void put(Key key, Entry entry) {
+    long size = sizeOf(key, entry);
+    if (size > maxBytes) return;
+    Entry old = entries.put(key, entry);
+    if (old != null) bytes -= sizeOf(key, old);
+    bytes += size;
+
+    Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+    while (bytes > maxBytes && it.hasNext()) {
+      Map.Entry<Key, Entry> eldest = it.next();
+      bytes -= sizeOf(eldest.getKey(), eldest.getValue());
+      it.remove();
+    }
+  }
+
+  /** Returns the number of forms in the cache. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Returns the approximate size of the cached forms in bytes. */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /** Returns the number of lookups that found a form. */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /** Returns the number of lookups that did not find a form. */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /** Removes every form from the cache. */
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+}
@@ -0,0 +1,198 @@
+package com.oakmac.standardclojurestyle;
+
+/**
+ * FormScanner has cheap character-level helpers for skipping over Clojure source text without
+ * building any Nodes. Every char it looks for is ASCII, so it works the same on a String and on a
+ * Utf8Source.
+ *
+ * <p>Index arguments point at the first char of the thing being skipped. Methods return the index
+ * just after it, or -1 when the input ends before it is closed.
+ */
+final class FormScanner {
+  private FormScanner() {}
+
+  static boolean isWhitespace(char c) {
+    return c == ' ' || c == ',' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+  }
+
+  static boolean isOpener(char c) {
+    return c == '(' || c == '[' || c == '{';
+  }
+
+  static boolean isCloser(char c) {
+    return c == ')' || c == ']' || c == '}';
+  }
+
+  static boolean isDelimiter(char c) {
+    return isWhitespace(c) || isOpener(c) || isCloser(c) || c == '"' || c == ';';
+  }
+
+  /** Returns the index of the first char at or after idx that is not whitespace or a comma. */
+  static int skipWhitespace(CharSequence txt, int idx) {
+    int len = txt.length();
+    while (idx < len && isWhitespace(txt.charAt(idx))) {
+      idx++;
+    }
+    return idx;
+  }
+
+  static int skipToken(CharSequence txt, int idx) {
+    int len = txt.length();
+    while (idx < len && !isDelimiter(txt.charAt(idx))) {
+      idx++;
+    }
+    return idx;
+  }
+
+  /** Is token at idx, followed by a delimiter or the end of input? */
+  static boolean tokenAt(CharSequence txt, int idx, String token) {
+    int len = txt.length();
+    int endIdx = idx + token.length();
+    if (endIdx > len) return false;
+    for (int i = 0; i < token.length(); i++) {
+      if (txt.charAt(idx + i) != token.charAt(i)) return false;
+    }
+    return endIdx == len || isDelimiter(txt.charAt(endIdx));
+  }
+
+  /**
+   * Is the form at idx a directive like :standard-clj/ignore or {:standard-clj/ignore true}?
+   * Leading whitespace is skipped. This is used on the text that follows a #_ marker.
+   */
+  static boolean directiveAt(CharSequence txt, int idx, String keyword) {
+    idx = skipWhitespace(txt, idx);
+    if (tokenAt(txt, idx, keyword)) return true;
+    if (idx >= txt.length() || txt.charAt(idx) != '{') return false;
+
+    idx = skipWhitespace(txt, idx + 1);
+    if (!tokenAt(txt, idx, keyword)) return false;
+    idx = skipWhitespace(txt, idx + keyword.length());
+    return tokenAt(txt, idx, "true");
+  }
+
+  /** Skips a ; comment up to (not including) the newline. */
+  static int skipComment(CharSequence txt, int idx) {
+    int len = txt.length();
+    while (idx < len && txt.charAt(idx) != '\n') {
+      idx++;
+    }
+    return idx;
+  }
+
+  /** Skips a String starting at its opening double quote. */
+  static int skipString(CharSequence txt, int idx) {
+    int len = txt.length();
+    idx++;
+    while (idx < len) {
+      char c = txt.charAt(idx);
+      if (c == '\\') {
+        idx += 2;
+      } else if (c == '"') {
+        return idx + 1;
+      } else {
+        idx++;
+      }
+    }
+    return -1;
+  }
+
+  /** Skips a character literal like \a, \( or \newline */
+  static int skipCharLiteral(CharSequence txt, int idx) {
+    if (idx + 1 >= txt.length()) return -1;
+    return skipToken(txt, idx + 2);
+  }
+
+  /**
+   * Skips one form: a collection, a String, a regex, a character literal or a token, along with
+   * the reader macro prefixes (quote, syntax quote, unquote, deref, var quote, tags) and metadata
+   * before it. Returns -1 for a #_ discard so that the caller can fall back to the Parser for it.
+   */
+  static int skipForm(CharSequence txt, int idx) {
+    int len = txt.length();
+    while (true) {
+      if (idx >= len) return -1;
+      int prefixEnd = skipPrefix(txt, idx);
+      if (prefixEnd < 0) return -1;
+      if (prefixEnd == idx) break;
+      idx = skipGap(txt, prefixEnd);
+    }
+    char c = txt.charAt(idx);
+
+    if (c == '"') return skipString(txt, idx);
+    if (c == '\\') return skipCharLiteral(txt, idx);
+    if (isOpener(c)) return skipBalanced(txt, idx);
+    if (isCloser(c) || c == ';') return -1;
+    if (c == '#') {
+      if (idx + 1 >= len) return -1;
+      char next = txt.charAt(idx + 1);
+      if (next == '"') return skipString(txt, idx + 1);
+      if (next == '_') return -1;
+      // #{} #() #?() #?@() #:foo{}
+      int openerIdx = skipToken(txt, idx + 1);
+      if (openerIdx < len && isOpener(txt.charAt(openerIdx))) return skipBalanced(txt, openerIdx);
+      return -1;
+    }
+    return skipToken(txt, idx);
+  }
+
+  // Skips a reader macro prefix, or ^metadata and its value. Returns idx if there is no prefix at
+  // idx, or -1 if the metadata value cannot be skipped.
+  private static int skipPrefix(CharSequence txt, int idx) {
+    int len = txt.length();
+    char c = txt.charAt(idx);
+    char next = idx + 1 < len ? txt.charAt(idx + 1) : 0;
+    if (c == '\'' || c == '`' || c == '@') return idx + 1;
+    if (c == '~') return next == '@' ? idx + 2 : idx + 1;
+    if (c == '^') return skipForm(txt, skipGap(txt, idx + 1));
+    if (c == '#') {
+      if (next == '\'') return idx + 2;
+      if (next == '^') return skipForm(txt, skipGap(txt, idx + 2));
+      // a tagged literal, ie: #inst "2024-01-01". #js{} is a collection
+      if (Character.isLetter(next)) {
+        int tagEnd = skipToken(txt, idx + 1);
+        if (tagEnd < len && !isOpener(txt.charAt(tagEnd))) return tagEnd;
+      }
+    }
+    return idx;
+  }
+
+  // skips the whitespace and comments between a prefix and its form
+  private static int skipGap(CharSequence txt, int idx) {
+    idx = skipWhitespace(txt, idx);
+    while (idx < txt.length() && txt.charAt(idx) == ';') {
+      idx = skipWhitespace(txt, skipComment(txt, idx));
+    }
+    return idx;
+  }
+
+  // skips a collection starting at its opener; brackets are only counted, not matched
+  private static int skipBalanced(CharSequence txt, int idx) {
+    int len = txt.length();
+    int depth = 0;
+    while (idx < len) {
+      char c = txt.charAt(idx);
+      if (c == '"') {
+        idx = skipString(txt, idx);
+        if (idx < 0) return -1;
+      } else if (c == ';') {
+        idx = skipComment(txt, idx);
+      } else if (c == '\\') {
+        idx = skipCharLiteral(txt, idx);
+        if (idx < 0) return -1;
+      } else if (c == '#' && idx + 1 < len && txt.charAt(idx + 1) == '"') {
+        idx = skipString(txt, idx + 1);
+        if (idx < 0) return -1;
+      } else if (isOpener(c)) {
+        depth++;
+        idx++;
+      } else if (isCloser(c)) {
+        depth--;
+        idx++;
+        if (depth == 0) return idx;
+      } else {
+        idx++;
+      }
+    }
+    return -1;
+  }
+}
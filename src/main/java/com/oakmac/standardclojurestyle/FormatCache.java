@@ -0,0 +1,261 @@
+package com.oakmac.standardclojurestyle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FormatCache remembers which files are already formatted, so a rerun over an unchanged tree does
+ * not parse them again. A file is known to be formatted when its size and modification time match
+ * the cache, or else when the SHA-256 of its content matches the content of any file that was
+ * formatted before.
+ *
+ * <p>The cache file records the build (the version and a hash of the sources, see BuildInfo) and
+ * a hash of the formatting options. A cache written by another build or with other options is
+ * ignored, as is a corrupt cache file. So is every cache file when the build is not known.
+ * FormatCache is thread-safe, and several processes can save to the same cache file: save() holds
+ * a file lock while it merges with what is on disk and replaces the file.
+ */
+public final class FormatCache {
+  private static final int MAGIC = 0x53434643; // "SCFC"
+  private static final int FILE_VERSION = 1;
+  // modification times this close to now are not trusted: the file could change again within the
+  // same clock tick without its size or modification time changing
+  private static final long RACY_MILLIS = 2000;
+  // FileLock is held per JVM, so threads saving at the same time must take turns
+  private static final Object SAVE_LOCK = new Object();
+
+  /** A 128-bit content hash. */
+  static final class Digest {
+    final long hi;
+    final long lo;
+
+    Digest(long hi, long lo) {
+      this.hi = hi;
+      this.lo = lo;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Digest)) return false;
+      Digest other = (Digest) o;
+      return hi == other.hi && lo == other.lo;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(hi ^ lo);
+    }
+  }
+
+  // a formatted file, by absolute path
+  private static final class Entry {
+    final long size;
+    final long lastModified;
+    final Digest digest;
+
+    Entry(long size, long lastModified, Digest digest) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.digest = digest;
+    }
+  }
+
+  private final long configHash;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final Set<Digest> digests = ConcurrentHashMap.newKeySet();
+
+  private FormatCache(long configHash) {
+    this.configHash = configHash;
+  }
+
+  /** Returns an empty cache for the default formatting options. */
+  public static FormatCache empty() {
+    return new FormatCache(0);
+  }
+
+  /** Loads a cache file for the default formatting options. */
+  public static FormatCache load(Path cacheFile) throws IOException {
+    return load(cacheFile, 0);
+  }
+
+  /**
+   * Loads a cache file written by save(). Returns an empty cache when cacheFile does not exist,
+   * cannot be parsed, or was written by another build or with another configHash.
+   */
+  public static FormatCache load(Path cacheFile, long configHash) throws IOException {
+    FormatCache cache = new FormatCache(configHash);
+    String buildKey = BuildInfo.buildKey();
+    if (buildKey == null || !Files.exists(cacheFile)) return cache;
+
+    // read, not mapped: save() replaces the file, which Windows refuses while it is mapped
+    ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(cacheFile));
+    try {
+      if (buf.getInt() != MAGIC || buf.getInt() != FILE_VERSION) return cache;
+      if (!buildKey.equals(readString(buf))) return cache;
+      if (buf.getLong() != configHash) return cache;
+
+      int numEntries = buf.getInt();
+      for (int i = 0; i < numEntries; i++) {
+        String path = readString(buf);
+        long size = buf.getLong();
+        long lastModified = buf.getLong();
+        Digest digest = new Digest(buf.getLong(), buf.getLong());
+        cache.entries.put(path, new Entry(size, lastModified, digest));
+        cache.digests.add(digest);
+      }
+    } catch (RuntimeException e) {
+      // BufferUnderflowException, NegativeArraySizeException, etc: start over
+      return new FormatCache(configHash);
+    }
+    return cache;
+  }
+
+  // strings are an int byte length followed by UTF-8 bytes
+  private static String readString(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.getInt()];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /** Returns the number of files in the cache. */
+  public int size() {
+    return entries.size();
+  }
+
+  /** Returns the SHA-256 of content, truncated to 128 bits. */
+  static Digest digest(byte[] content) {
+    try {
+      ByteBuffer hash = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(content));
+      return new Digest(hash.getLong(), hash.getLong());
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String key(Path path) {
+    return path.toAbsolutePath().normalize().toString();
+  }
+
+  /** Returns true if path had this size and modification time when it was known to be formatted. */
+  boolean isFormatted(Path path, long size, long lastModified) {
+    Entry entry = entries.get(key(path));
+    return entry != null && entry.size == size && entry.lastModified == lastModified;
+  }
+
+  /** Returns true if content with this digest is known to be formatted. */
+  boolean isFormatted(Digest digest) {
+    return digests.contains(digest);
+  }
+
+  /** Records that path, with this size, modification time and content digest, is formatted. */
+  void markFormatted(Path path, long size, long lastModified, Digest digest) {
+    if (Math.abs(System.currentTimeMillis() - lastModified) < RACY_MILLIS) lastModified = -1;
+    entries.put(key(path), new Entry(size, lastModified, digest));
+    digests.add(digest);
+  }
+
+  /**
+   * Writes the cache to cacheFile, merged with any entries that other processes saved there in
+   * the meantime. Entries for files that no longer exist are dropped, and so are the digests that
+   * only they referenced. The file is replaced atomically where the OS supports it.
+   */
+  public void save(Path cacheFile) throws IOException {
+    Path dir = cacheFile.toAbsolutePath().getParent();
+    Files.createDirectories(dir);
+    Path lockFile = dir.resolve(cacheFile.getFileName() + ".lock");
+    synchronized (SAVE_LOCK) {
+      try (FileChannel lockChannel =
+          FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+        FileLock lock = lockChannel.lock();
+        try {
+          FormatCache onDisk = load(cacheFile, configHash);
+          for (Map.Entry<String, Entry> entry : onDisk.entries.entrySet()) {
+            entries.putIfAbsent(entry.getKey(), entry.getValue());
+          }
+          prune();
+          write(cacheFile, dir);
+        } finally {
+          lock.release();
+        }
+      }
+    }
+  }
+
+  // drops the entries of files that no longer exist and the digests that no entry references. A
+  // digest that is added meanwhile can be dropped too, which only costs a cache miss
+  private void prune() {
+    entries.keySet().removeIf(path -> !Files.exists(Paths.get(path)));
+    Set<Digest> referenced = new HashSet<>();
+    for (Entry entry : entries.values()) {
+      referenced.add(entry.digest);
+    }
+    digests.retainAll(referenced);
+    digests.addAll(referenced);
+  }
+
+  private void write(Path cacheFile, Path dir) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(MAGIC);
+      out.writeInt(FILE_VERSION);
+      String buildKey = BuildInfo.buildKey();
+      writeString(out, buildKey != null ? buildKey : "");
+      out.writeLong(configHash);
+      // entries can be added while saving, so count them as they are written
+      ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+      int numEntries = 0;
+      try (DataOutputStream entryOut = new DataOutputStream(entryBytes)) {
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+          writeString(entryOut, entry.getKey());
+          entryOut.writeLong(entry.getValue().size);
+          entryOut.writeLong(entry.getValue().lastModified);
+          entryOut.writeLong(entry.getValue().digest.hi);
+          entryOut.writeLong(entry.getValue().digest.lo);
+          numEntries++;
+        }
+      }
+      out.writeInt(numEntries);
+      entryBytes.writeTo(out);
+    }
+
+    Path tmpFile = Files.createTempFile(dir, cacheFile.getFileName().toString(), ".tmp");
+    try {
+      Files.write(tmpFile, bytes.toByteArray());
+      try {
+        Files.move(
+            tmpFile,
+            cacheFile,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmpFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmpFile);
+    }
+  }
+}
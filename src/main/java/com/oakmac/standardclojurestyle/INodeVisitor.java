@@ -0,0 +1,10 @@
+package com.oakmac.standardclojurestyle;
+
+/** Callbacks for TreeCursor.walk. depth is 0 for the root Node. */
+public interface INodeVisitor {
+  /** Called before the children of n are visited. Return false to skip the subtree. */
+  boolean enter(Node n, int depth);
+
+  /** Called after the children of n (if any) have been visited. */
+  void exit(Node n, int depth);
+}
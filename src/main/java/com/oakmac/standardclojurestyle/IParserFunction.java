@@ -1,5 +1,5 @@
 package com.oakmac.standardclojurestyle;
 
 public interface IParserFunction {
-  Node parse(String text, int position);
+  Node parse(CharSequence text, int position);
 }
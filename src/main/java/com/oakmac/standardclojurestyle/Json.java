@@ -0,0 +1,261 @@
+package com.oakmac.standardclojurestyle;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal JSON reader and writer for the language server, so that the library does not need a
+ * JSON dependency. Objects are read as LinkedHashMaps, arrays as ArrayLists, numbers as Longs or
+ * Doubles, and true, false and null as Booleans and null.
+ */
+final class Json {
+  private final String txt;
+  private int pos = 0;
+
+  private Json(String txt) {
+    this.txt = txt;
+  }
+
+  /** Parses a JSON value. Throws IllegalArgumentException for invalid JSON. */
+  static Object parse(String txt) {
+    Json json = new Json(txt);
+    Object value = json.readValue();
+    json.skipWhitespace();
+    if (json.pos != txt.length()) throw json.error("Unexpected text");
+    return value;
+  }
+
+  /** Returns value as JSON text. */
+  static String write(Object value) {
+    StringBuilder sb = new StringBuilder();
+    write(value, sb);
+    return sb.toString();
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at offset " + pos + " of JSON text");
+  }
+
+  private void skipWhitespace() {
+    while (pos < txt.length()) {
+      char c = txt.charAt(pos);
+      if (c != ' ' && c != '\t' && c != '\n' && c != '\r') return;
+      pos++;
+    }
+  }
+
+  private Object readValue() {
+    skipWhitespace();
+    if (pos >= txt.length()) throw error("Unexpected end");
+    char c = txt.charAt(pos);
+    switch (c) {
+      case '{':
+        return readObject();
+      case '[':
+        return readArray();
+      case '"':
+        return readString();
+      case 't':
+        return readLiteral("true", Boolean.TRUE);
+      case 'f':
+        return readLiteral("false", Boolean.FALSE);
+      case 'n':
+        return readLiteral("null", null);
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) return readNumber();
+        throw error("Unexpected char");
+    }
+  }
+
+  private Map<String, Object> readObject() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    pos++;
+    skipWhitespace();
+    if (pos < txt.length() && txt.charAt(pos) == '}') {
+      pos++;
+      return map;
+    }
+    while (true) {
+      skipWhitespace();
+      if (pos >= txt.length() || txt.charAt(pos) != '"') throw error("Expected a key");
+      String key = readString();
+      skipWhitespace();
+      expect(':');
+      map.put(key, readValue());
+      skipWhitespace();
+      if (pos < txt.length() && txt.charAt(pos) == ',') {
+        pos++;
+      } else {
+        expect('}');
+        return map;
+      }
+    }
+  }
+
+  private List<Object> readArray() {
+    List<Object> list = new ArrayList<>();
+    pos++;
+    skipWhitespace();
+    if (pos < txt.length() && txt.charAt(pos) == ']') {
+      pos++;
+      return list;
+    }
+    while (true) {
+      list.add(readValue());
+      skipWhitespace();
+      if (pos < txt.length() && txt.charAt(pos) == ',') {
+        pos++;
+      } else {
+        expect(']');
+        return list;
+      }
+    }
+  }
+
+  private void expect(char c) {
+    if (pos >= txt.length() || txt.charAt(pos) != c) throw error("Expected '" + c + "'");
+    pos++;
+  }
+
+  private String readString() {
+    pos++;
+    StringBuilder sb = new StringBuilder();
+    while (true) {
+      if (pos >= txt.length()) throw error("Unterminated string");
+      char c = txt.charAt(pos++);
+      if (c == '"') return sb.toString();
+      if (c != '\\') {
+        sb.append(c);
+        continue;
+      }
+      if (pos >= txt.length()) throw error("Unterminated string");
+      char escaped = txt.charAt(pos++);
+      switch (escaped) {
+        case 'b':
+          sb.append('\b');
+          break;
+        case 'f':
+          sb.append('\f');
+          break;
+        case 'n':
+          sb.append('\n');
+          break;
+        case 'r':
+          sb.append('\r');
+          break;
+        case 't':
+          sb.append('\t');
+          break;
+        case 'u':
+          if (pos + 4 > txt.length()) throw error("Invalid escape");
+          try {
+            sb.append((char) Integer.parseInt(txt.substring(pos, pos + 4), 16));
+          } catch (NumberFormatException e) {
+            throw error("Invalid escape");
+          }
+          pos += 4;
+          break;
+        default:
+          sb.append(escaped);
+      }
+    }
+  }
+
+  private Object readLiteral(String literal, Object value) {
+    if (!txt.startsWith(literal, pos)) throw error("Unexpected char");
+    pos += literal.length();
+    return value;
+  }
+
+  private Object readNumber() {
+    int start = pos;
+    boolean isInteger = true;
+    while (pos < txt.length()) {
+      char c = txt.charAt(pos);
+      if (c == '.' || c == 'e' || c == 'E') {
+        isInteger = false;
+      } else if (c != '-' && c != '+' && (c < '0' || c > '9')) {
+        break;
+      }
+      pos++;
+    }
+    String number = txt.substring(start, pos);
+    try {
+      if (isInteger) {
+        try {
+          return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+          // too large for a long
+        }
+      }
+      return Double.parseDouble(number);
+    } catch (NumberFormatException e) {
+      throw error("Invalid number");
+    }
+  }
+
+  private static void write(Object value, StringBuilder sb) {
+    if (value == null) {
+      sb.append("null");
+    } else if (value instanceof String) {
+      writeString((String) value, sb);
+    } else if (value instanceof Map) {
+      sb.append('{');
+      boolean first = true;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        if (!first) sb.append(',');
+        first = false;
+        writeString(String.valueOf(entry.getKey()), sb);
+        sb.append(':');
+        write(entry.getValue(), sb);
+      }
+      sb.append('}');
+    } else if (value instanceof List) {
+      sb.append('[');
+      boolean first = true;
+      for (Object item : (List<?>) value) {
+        if (!first) sb.append(',');
+        first = false;
+        write(item, sb);
+      }
+      sb.append(']');
+    } else if (value instanceof Number || value instanceof Boolean) {
+      sb.append(value);
+    } else {
+      throw new IllegalArgumentException("Cannot write " + value.getClass() + " as JSON");
+    }
+  }
+
+  private static void writeString(String s, StringBuilder sb) {
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    sb.append('"');
+  }
+}
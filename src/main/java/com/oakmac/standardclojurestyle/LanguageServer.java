@@ -0,0 +1,556 @@
+package com.oakmac.standardclojurestyle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A Language Server Protocol server that formats Clojure documents for an editor. Messages are
+ * JSON-RPC with Content-Length headers over a pair of streams, normally stdin and stdout:
+ * "standard-clj lsp".
+ *
+ * <p>The server keeps the text of every open document and applies the incremental edits of
+ * textDocument/didChange to it. It serves:
+ *
+ * <ul>
+ *   <li>textDocument/formatting - the minimal edits that format the whole document
+ *   <li>textDocument/rangeFormatting - formats the top-level forms that overlap the range
+ *   <li>textDocument/onTypeFormatting - after a newline, indents the new line; after a closing
+ *       bracket, formats the top-level form it closes
+ *   <li>standard-clj/stats - the number of requests and their latencies
+ * </ul>
+ *
+ * Formatted top-level forms are kept in a FormCache, so after an edit only the changed forms are
+ * parsed and formatted again. The time taken by every request is sent to the client as a
+ * window/logMessage.
+ */
+public final class LanguageServer {
+  private static final int NUM_LATENCIES = 1024;
+  private static final int MAX_HEADER_LENGTH = 1024;
+
+  // JSON-RPC and LSP error codes
+  private static final int INVALID_REQUEST = -32600;
+  private static final int METHOD_NOT_FOUND = -32601;
+  private static final int INVALID_PARAMS = -32602;
+  private static final int INTERNAL_ERROR = -32603;
+  private static final int PARSE_ERROR = -32700;
+  private static final int SERVER_NOT_INITIALIZED = -32002;
+  private static final int REQUEST_FAILED = -32803;
+
+  // window/logMessage types
+  private static final int MESSAGE_TYPE_ERROR = 1;
+  private static final int MESSAGE_TYPE_LOG = 4;
+
+  private static final String CURSOR_MARKER = "standard-clj-cursor";
+
+  private final InputStream in;
+  private final OutputStream out;
+  private final StandardClojureStyle scsLib = new StandardClojureStyle(new FormCache(64L << 20));
+  private final Map<String, Document> documents = new HashMap<>();
+
+  private boolean initialized = false;
+  private boolean shutdownRequested = false;
+  private boolean exitRequested = false;
+
+  private final Map<String, Long> requestCounts = new TreeMap<>();
+  private long failedRequests = 0;
+  // the most recent request latencies, in nanoseconds
+  private final long[] latencies = new long[NUM_LATENCIES];
+  private long numLatencies = 0;
+  private long maxLatency = 0;
+
+  /** An error to send back as the response to a request. */
+  private static final class RequestException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final int code;
+
+    RequestException(int code, String message) {
+      super(message);
+      this.code = code;
+    }
+  }
+
+  /** An open document. */
+  private static final class Document {
+    String text;
+    // built on demand after every change
+    LineIndex lines;
+
+    Document(String text) {
+      this.text = text;
+    }
+
+    LineIndex lines() {
+      if (lines == null) lines = LineIndex.fromText(text);
+      return lines;
+    }
+
+    void setText(String text) {
+      this.text = text;
+      this.lines = null;
+    }
+
+    // Returns the offset of an LSP position, clamped to the document.
+    int offsetAt(Map<?, ?> position) {
+      int line = intParam(position, "line");
+      int character = intParam(position, "character");
+      LineIndex lines = lines();
+      if (line >= lines.getNumLines()) return text.length();
+      int lineStart = lines.getLineStart(line);
+      int lineEnd = text.length();
+      if (line + 1 < lines.getNumLines()) {
+        lineEnd = lines.getLineStart(line + 1) - 1;
+        if (lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r') lineEnd--;
+      }
+      return lineStart + Math.min(character, lineEnd - lineStart);
+    }
+
+    Map<String, Object> position(int offset) {
+      Map<String, Object> position = new LinkedHashMap<>();
+      position.put("line", lines().lineOf(offset));
+      position.put("character", lines().columnOf(offset));
+      return position;
+    }
+
+    Map<String, Object> textEdit(int start, int end, String newText) {
+      Map<String, Object> range = new LinkedHashMap<>();
+      range.put("start", position(start));
+      range.put("end", position(end));
+      Map<String, Object> edit = new LinkedHashMap<>();
+      edit.put("range", range);
+      edit.put("newText", newText);
+      return edit;
+    }
+  }
+
+  /** A server that reads messages from in and writes messages to out. */
+  public LanguageServer(InputStream in, OutputStream out) {
+    this.in = new BufferedInputStream(in);
+    this.out = new BufferedOutputStream(out);
+  }
+
+  /**
+   * Serves requests until the client sends "exit" or closes the input. Returns the exit code: 0 if
+   * the client sent "shutdown" first, else 1.
+   */
+  public int run() throws IOException {
+    while (!exitRequested) {
+      String message = readMessage();
+      if (message == null) break;
+      Object parsed;
+      try {
+        parsed = Json.parse(message);
+      } catch (IllegalArgumentException e) {
+        sendError(null, PARSE_ERROR, e.getMessage());
+        continue;
+      } catch (StackOverflowError e) {
+        sendError(null, PARSE_ERROR, "JSON text is too deeply nested");
+        continue;
+      }
+      if (!(parsed instanceof Map)) {
+        sendError(null, INVALID_REQUEST, "Expected a JSON object");
+        continue;
+      }
+      handle((Map<?, ?>) parsed);
+    }
+    out.flush();
+    return shutdownRequested ? 0 : 1;
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // Messages
+
+  // Returns the next message, or null at the end of the input.
+  private String readMessage() throws IOException {
+    int contentLength = -1;
+    while (true) {
+      String header = readHeaderLine();
+      if (header == null) return null;
+      if (header.isEmpty()) break;
+      int colon = header.indexOf(':');
+      if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+        try {
+          contentLength = Integer.parseInt(header.substring(colon + 1).trim());
+        } catch (NumberFormatException e) {
+          throw new IOException("Invalid header: " + header);
+        }
+      }
+    }
+    if (contentLength < 0) throw new IOException("Missing Content-Length header");
+    byte[] content = in.readNBytes(contentLength);
+    if (content.length < contentLength) return null;
+    return new String(content, StandardCharsets.UTF_8);
+  }
+
+  // Returns a header line without its line ending, or null at the end of the input.
+  private String readHeaderLine() throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b < 0) return null;
+      if (line.size() >= MAX_HEADER_LENGTH) throw new IOException("Header is too long");
+      if (b != '\r') line.write(b);
+    }
+    return line.toString(StandardCharsets.US_ASCII);
+  }
+
+  private void send(Map<String, Object> message) throws IOException {
+    message.put("jsonrpc", "2.0");
+    byte[] content = Json.write(message).getBytes(StandardCharsets.UTF_8);
+    String header = "Content-Length: " + content.length + "\r\n\r\n";
+    out.write(header.getBytes(StandardCharsets.US_ASCII));
+    out.write(content);
+    out.flush();
+  }
+
+  private void sendResult(Object id, Object result) throws IOException {
+    Map<String, Object> message = new LinkedHashMap<>();
+    message.put("id", id);
+    message.put("result", result);
+    send(message);
+  }
+
+  private void sendError(Object id, int code, String errorMessage) throws IOException {
+    Map<String, Object> error = new LinkedHashMap<>();
+    error.put("code", code);
+    error.put("message", errorMessage);
+    Map<String, Object> message = new LinkedHashMap<>();
+    message.put("id", id);
+    message.put("error", error);
+    send(message);
+  }
+
+  private void logMessage(int type, String logMessage) throws IOException {
+    Map<String, Object> params = new LinkedHashMap<>();
+    params.put("type", type);
+    params.put("message", logMessage);
+    Map<String, Object> message = new LinkedHashMap<>();
+    message.put("method", "window/logMessage");
+    message.put("params", params);
+    send(message);
+  }
+
+  private void handle(Map<?, ?> message) throws IOException {
+    Object methodValue = message.get("method");
+    // a response to a request from the server: there are none
+    if (!(methodValue instanceof String)) return;
+    String method = (String) methodValue;
+    boolean isRequest = message.containsKey("id");
+    Object id = message.get("id");
+    Object params = message.get("params");
+
+    long startTime = System.nanoTime();
+    Object result = null;
+    RequestException error = null;
+    try {
+      result = dispatch(method, isRequest, params instanceof Map ? (Map<?, ?>) params : Map.of());
+    } catch (RequestException e) {
+      error = e;
+    } catch (RuntimeException e) {
+      error = new RequestException(INTERNAL_ERROR, String.valueOf(e));
+    } catch (StackOverflowError e) {
+      // the Parser is recursive: a deeply nested document fails the request, not the server
+      error = new RequestException(REQUEST_FAILED, "The document is too deeply nested to format");
+    }
+    long nanos = System.nanoTime() - startTime;
+    record(method, error != null, nanos);
+
+    if (isRequest) {
+      if (error != null) {
+        sendError(id, error.code, error.getMessage());
+      } else {
+        sendResult(id, result);
+      }
+    } else if (error != null) {
+      logMessage(MESSAGE_TYPE_ERROR, method + ": " + error.getMessage());
+    }
+    if (method.startsWith("textDocument/") && initialized && !exitRequested) {
+      logMessage(MESSAGE_TYPE_LOG, String.format(Locale.ROOT, "%s %.2fms", method, nanos / 1e6));
+    }
+  }
+
+  private Object dispatch(String method, boolean isRequest, Map<?, ?> params) {
+    if (method.equals("exit")) {
+      exitRequested = true;
+      return null;
+    }
+    if (!initialized && !method.equals("initialize")) {
+      if (isRequest) throw new RequestException(SERVER_NOT_INITIALIZED, "Not initialized");
+      return null;
+    }
+    if (shutdownRequested && isRequest) {
+      throw new RequestException(INVALID_REQUEST, "The server is shutting down");
+    }
+
+    switch (method) {
+      case "initialize":
+        initialized = true;
+        return initializeResult();
+      case "initialized":
+        return null;
+      case "shutdown":
+        shutdownRequested = true;
+        return null;
+      case "textDocument/didOpen":
+        {
+          Map<?, ?> textDocument = mapParam(params, "textDocument");
+          String uri = stringParam(textDocument, "uri");
+          documents.put(uri, new Document(stringParam(textDocument, "text")));
+          return null;
+        }
+      case "textDocument/didChange":
+        didChange(params);
+        return null;
+      case "textDocument/didClose":
+        documents.remove(stringParam(mapParam(params, "textDocument"), "uri"));
+        return null;
+      case "textDocument/formatting":
+        return formatting(document(params));
+      case "textDocument/rangeFormatting":
+        {
+          Document doc = document(params);
+          Map<?, ?> range = mapParam(params, "range");
+          int start = doc.offsetAt(mapParam(range, "start"));
+          int end = Math.max(start, doc.offsetAt(mapParam(range, "end")));
+          Map<String, Object> result = scsLib.formatRange(doc.text, start, end);
+          if (!"success".equals(result.get("status"))) {
+            throw new RequestException(REQUEST_FAILED, (String) result.get("reason"));
+          }
+          return rangeEdits(doc, result);
+        }
+      case "textDocument/onTypeFormatting":
+        {
+          Document doc = document(params);
+          int offset = doc.offsetAt(mapParam(params, "position"));
+          return onTypeFormatting(doc, offset, stringParam(params, "ch"));
+        }
+      case "standard-clj/stats":
+        return stats();
+      default:
+        // notifications that start with "$/" may be ignored, eg: $/cancelRequest
+        if (isRequest) throw new RequestException(METHOD_NOT_FOUND, "Unknown method: " + method);
+        return null;
+    }
+  }
+
+  private static Map<String, Object> initializeResult() {
+    Map<String, Object> textDocumentSync = new LinkedHashMap<>();
+    textDocumentSync.put("openClose", true);
+    // incremental
+    textDocumentSync.put("change", 2);
+
+    Map<String, Object> onTypeFormatting = new LinkedHashMap<>();
+    onTypeFormatting.put("firstTriggerCharacter", "\n");
+    onTypeFormatting.put("moreTriggerCharacter", Arrays.asList(")", "]", "}"));
+
+    Map<String, Object> capabilities = new LinkedHashMap<>();
+    capabilities.put("textDocumentSync", textDocumentSync);
+    capabilities.put("documentFormattingProvider", true);
+    capabilities.put("documentRangeFormattingProvider", true);
+    capabilities.put("documentOnTypeFormattingProvider", onTypeFormatting);
+
+    Map<String, Object> serverInfo = new LinkedHashMap<>();
+    serverInfo.put("name", "standard-clj");
+    serverInfo.put("version", StandardClojureStyle.VERSION);
+
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("capabilities", capabilities);
+    result.put("serverInfo", serverInfo);
+    return result;
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // Documents
+
+  private Document document(Map<?, ?> params) {
+    String uri = stringParam(mapParam(params, "textDocument"), "uri");
+    Document doc = documents.get(uri);
+    if (doc == null) throw new RequestException(INVALID_PARAMS, "Unknown document: " + uri);
+    return doc;
+  }
+
+  private void didChange(Map<?, ?> params) {
+    Document doc = document(params);
+    Object changes = params.get("contentChanges");
+    if (!(changes instanceof List)) throw invalidParam("contentChanges");
+    for (Object changeValue : (List<?>) changes) {
+      if (!(changeValue instanceof Map)) throw invalidParam("contentChanges");
+      Map<?, ?> change = (Map<?, ?>) changeValue;
+      String text = stringParam(change, "text");
+      Object range = change.get("range");
+      if (range == null) {
+        doc.setText(text);
+        continue;
+      }
+      if (!(range instanceof Map)) throw invalidParam("range");
+      int start = doc.offsetAt(mapParam((Map<?, ?>) range, "start"));
+      int end = Math.max(start, doc.offsetAt(mapParam((Map<?, ?>) range, "end")));
+      doc.setText(
+          new StringBuilder(doc.text.length() - (end - start) + text.length())
+              .append(doc.text, 0, start)
+              .append(text)
+              .append(doc.text, end, doc.text.length())
+              .toString());
+    }
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // Formatting
+
+  private List<Object> formatting(Document doc) {
+    Map<String, Object> result = scsLib.formatEdits(doc.text);
+    if (!"success".equals(result.get("status"))) {
+      throw new RequestException(REQUEST_FAILED, (String) result.get("reason"));
+    }
+    @SuppressWarnings("unchecked")
+    List<StandardClojureStyle.TextEdit> edits =
+        (List<StandardClojureStyle.TextEdit>) result.get("edits");
+    List<Object> textEdits = new ArrayList<>(edits.size());
+    for (StandardClojureStyle.TextEdit edit : edits) {
+      int start = edit.getOffset();
+      textEdits.add(doc.textEdit(start, start + edit.getLength(), edit.getReplacement()));
+    }
+    return textEdits;
+  }
+
+  // Returns the edit for a formatRange result, trimmed to the text that changed.
+  private static List<Object> rangeEdits(Document doc, Map<String, Object> result) {
+    int start = (Integer) result.get("start");
+    int end = (Integer) result.get("end");
+    return trimmedEdits(doc, start, end, (String) result.get("out"));
+  }
+
+  // Returns an edit that replaces [start, end) of the document with newText, without the prefix
+  // and suffix that they have in common.
+  private static List<Object> trimmedEdits(Document doc, int start, int end, String newText) {
+    int prefix = 0;
+    int maxPrefix = Math.min(end - start, newText.length());
+    while (prefix < maxPrefix && doc.text.charAt(start + prefix) == newText.charAt(prefix)) {
+      prefix++;
+    }
+    int suffix = 0;
+    int maxSuffix = maxPrefix - prefix;
+    while (suffix < maxSuffix
+        && doc.text.charAt(end - 1 - suffix) == newText.charAt(newText.length() - 1 - suffix)) {
+      suffix++;
+    }
+    if (prefix + suffix == end - start && prefix + suffix == newText.length()) {
+      return Collections.emptyList();
+    }
+    return Collections.singletonList(
+        doc.textEdit(
+            start + prefix, end - suffix, newText.substring(prefix, newText.length() - suffix)));
+  }
+
+  // Code is often unbalanced while it is being typed, so on-type formatting returns no edits
+  // rather than an error when the form cannot be formatted.
+  private List<Object> onTypeFormatting(Document doc, int offset, String ch) {
+    String text = doc.text;
+    if (!ch.equals("\n")) {
+      Map<String, Object> result = scsLib.formatRange(text, Math.max(0, offset - 1), offset);
+      if (!"success".equals(result.get("status"))) return Collections.emptyList();
+      return rangeEdits(doc, result);
+    }
+
+    // The new line is blank until something is typed on it, and the formatter would remove its
+    // indentation, so format with a marker symbol at the cursor and then take the marker out.
+    int restStart = offset;
+    while (restStart < text.length()
+        && (text.charAt(restStart) == ' ' || text.charAt(restStart) == '\t')) {
+      restStart++;
+    }
+    char next = restStart < text.length() ? text.charAt(restStart) : '\n';
+    String separator = "\r\n)]}".indexOf(next) >= 0 ? "" : " ";
+    String marker = CURSOR_MARKER;
+    for (int i = 1; text.contains(marker); i++) {
+      marker = CURSOR_MARKER + i;
+    }
+    String marked = text.substring(0, offset) + marker + separator + text.substring(restStart);
+    Map<String, Object> result = scsLib.formatRange(marked, offset, offset + marker.length());
+    if (!"success".equals(result.get("status"))) return Collections.emptyList();
+
+    String formatted = (String) result.get("out");
+    int markerIdx = formatted.indexOf(marker);
+    if (markerIdx < 0) return Collections.emptyList();
+    int markerEnd = markerIdx + marker.length();
+    if (formatted.startsWith(separator, markerEnd)) markerEnd += separator.length();
+    formatted = formatted.substring(0, markerIdx) + formatted.substring(markerEnd);
+
+    int start = (Integer) result.get("start");
+    int end = (Integer) result.get("end") - marker.length() - separator.length();
+    return trimmedEdits(doc, start, end + (restStart - offset), formatted);
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // Stats
+
+  private void record(String method, boolean failed, long nanos) {
+    requestCounts.merge(method, 1L, Long::sum);
+    if (failed) failedRequests++;
+    latencies[(int) (numLatencies % NUM_LATENCIES)] = nanos;
+    numLatencies++;
+    maxLatency = Math.max(maxLatency, nanos);
+  }
+
+  private Map<String, Object> stats() {
+    long[] recent = Arrays.copyOf(latencies, (int) Math.min(numLatencies, NUM_LATENCIES));
+    Arrays.sort(recent);
+
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("requests", new LinkedHashMap<String, Object>(requestCounts));
+    stats.put("failed", failedRequests);
+    stats.put("openDocuments", documents.size());
+    if (recent.length > 0) {
+      stats.put("p50Millis", percentile(recent, 50) / 1e6);
+      stats.put("p90Millis", percentile(recent, 90) / 1e6);
+      stats.put("p99Millis", percentile(recent, 99) / 1e6);
+      stats.put("maxMillis", maxLatency / 1e6);
+    }
+    return stats;
+  }
+
+  private static long percentile(long[] sorted, int p) {
+    return sorted[(int) Math.min(sorted.length - 1, (long) sorted.length * p / 100)];
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // Params
+
+  private static RequestException invalidParam(String name) {
+    return new RequestException(INVALID_PARAMS, "Invalid param: " + name);
+  }
+
+  private static Map<?, ?> mapParam(Map<?, ?> params, String name) {
+    Object value = params.get(name);
+    if (!(value instanceof Map)) throw invalidParam(name);
+    return (Map<?, ?>) value;
+  }
+
+  private static String stringParam(Map<?, ?> params, String name) {
+    Object value = params.get(name);
+    if (!(value instanceof String)) throw invalidParam(name);
+    return (String) value;
+  }
+
+  private static int intParam(Map<?, ?> params, String name) {
+    Object value = params.get(name);
+    if (!(value instanceof Long) || (Long) value < 0 || (Long) value > Integer.MAX_VALUE) {
+      throw invalidParam(name);
+    }
+    return ((Long) value).intValue();
+  }
+}
@@ -0,0 +1,78 @@
+package com.oakmac.standardclojurestyle;
+
+import java.util.Arrays;
+
+/**
+ * LineIndex is a compact table of line start offsets. Pass one to Parser.parse via the
+ * "lineIndex" option and it will be filled in while the input is scanned, then any Node offset can
+ * be turned into a line / column with a binary search.
+ *
+ * <p>Lines and columns are zero-based. Offsets are the same unit as Node startIdx / endIdx (chars
+ * for a String, bytes for a Utf8Source).
+ */
+public class LineIndex {
+  private int[] lineStarts = new int[64];
+  private int numLines = 1;
+
+  /** Builds a LineIndex by scanning txt for newline chars. */
+  public static LineIndex fromText(CharSequence txt) {
+    LineIndex lines = new LineIndex();
+    int len = txt.length();
+    for (int i = 0; i < len; i++) {
+      if (txt.charAt(i) == '\n') lines.addNewline(i);
+    }
+    return lines;
+  }
+
+  /**
+   * Records a newline char at newlineIdx. Newlines are normally added in order, but the Parser can
+   * backtrack and scan the same text twice, so duplicates are ignored and out-of-order offsets are
+   * inserted in place.
+   */
+  void addNewline(int newlineIdx) {
+    int lineStart = newlineIdx + 1;
+    if (lineStart > lineStarts[numLines - 1]) {
+      if (numLines == lineStarts.length) {
+        lineStarts = Arrays.copyOf(lineStarts, numLines * 2);
+      }
+      lineStarts[numLines] = lineStart;
+      numLines++;
+      return;
+    }
+
+    int searchIdx = Arrays.binarySearch(lineStarts, 0, numLines, lineStart);
+    if (searchIdx >= 0) return;
+
+    int insertIdx = -searchIdx - 1;
+    if (numLines == lineStarts.length) {
+      lineStarts = Arrays.copyOf(lineStarts, numLines * 2);
+    }
+    System.arraycopy(lineStarts, insertIdx, lineStarts, insertIdx + 1, numLines - insertIdx);
+    lineStarts[insertIdx] = lineStart;
+    numLines++;
+  }
+
+  public int getNumLines() {
+    return numLines;
+  }
+
+  /** Returns the offset of the first char on a line. */
+  public int getLineStart(int lineIdx) {
+    if (lineIdx < 0 || lineIdx >= numLines) {
+      throw new IndexOutOfBoundsException("line " + lineIdx + " of " + numLines);
+    }
+    return lineStarts[lineIdx];
+  }
+
+  /** Returns the line that contains offset. */
+  public int lineOf(int offset) {
+    int searchIdx = Arrays.binarySearch(lineStarts, 0, numLines, offset);
+    if (searchIdx >= 0) return searchIdx;
+    return -searchIdx - 2;
+  }
+
+  /** Returns the column of offset within its line. */
+  public int columnOf(int offset) {
+    return offset - lineStarts[lineOf(offset)];
+  }
+}
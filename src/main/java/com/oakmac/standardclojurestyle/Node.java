@@ -11,6 +11,7 @@ public class Node {
   private String name;
   private int startIdx;
   private String text;
+  private CharSequence source;
   private Map<String, Object> attributes;
 
   public Node(Map<String, Object> opts) {
@@ -20,6 +21,8 @@ public class Node {
     this.name = (String) opts.get("name");
     this.startIdx = opts.containsKey("startIdx") ? ((Number) opts.get("startIdx")).intValue() : 0;
     this.text = (String) opts.get("text");
+    // text can be provided lazily as a slice of the source (see Utf8Source)
+    this.source = (CharSequence) opts.get("source");
     this.attributes = new HashMap<>();
   }
 
@@ -45,6 +48,10 @@ public class Node {
   }
 
   public String getText() {
+    CharSequence src = source;
+    if (text == null && src != null) {
+      text = src.subSequence(startIdx, endIdx).toString();
+    }
     return text;
   }
 
@@ -69,7 +76,7 @@ public class Node {
         + ", endIdx="
         + endIdx
         + ", text='"
-        + text
+        + getText()
         + '\''
         + ", id="
         + id
@@ -0,0 +1,120 @@
+package com.oakmac.standardclojurestyle;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the text of a Node tree to a destination without first building the whole text as one
+ * String. Output is staged in a fixed size buffer, so memory use does not grow with the size of
+ * the tree.
+ */
+public class NodeTextWriter {
+  private static final int BUFFER_SIZE = 8192;
+
+  /** Writes the text of every Node under root to out. Writers are written in buffered chunks. */
+  public static void write(Node root, Appendable out) throws IOException {
+    TreeCursor cursor = new TreeCursor(root);
+
+    // a StringBuilder is already an in-memory buffer
+    if (out instanceof StringBuilder) {
+      StringBuilder sb = (StringBuilder) out;
+      while (cursor.next()) {
+        String txt = cursor.node().getText();
+        if (txt != null) sb.append(txt);
+      }
+      return;
+    }
+
+    char[] buf = new char[BUFFER_SIZE];
+    int bufLen = 0;
+    while (cursor.next()) {
+      String txt = cursor.node().getText();
+      if (txt == null) continue;
+      int txtIdx = 0;
+      int txtLen = txt.length();
+      while (txtIdx < txtLen) {
+        int numChars = Math.min(txtLen - txtIdx, BUFFER_SIZE - bufLen);
+        txt.getChars(txtIdx, txtIdx + numChars, buf, bufLen);
+        txtIdx += numChars;
+        bufLen += numChars;
+        if (bufLen == BUFFER_SIZE) {
+          flushChars(buf, bufLen, out);
+          bufLen = 0;
+        }
+      }
+    }
+    if (bufLen > 0) flushChars(buf, bufLen, out);
+    if (out instanceof Writer) ((Writer) out).flush();
+  }
+
+  /** Writes the text of every Node under root to channel, encoded as UTF-8. */
+  public static void write(Node root, WritableByteChannel channel) throws IOException {
+    CharsetEncoder encoder =
+        StandardCharsets.UTF_8
+            .newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 3);
+
+    TreeCursor cursor = new TreeCursor(root);
+    while (cursor.next()) {
+      String txt = cursor.node().getText();
+      if (txt == null) continue;
+      int txtIdx = 0;
+      int txtLen = txt.length();
+      while (txtIdx < txtLen) {
+        int numChars = Math.min(txtLen - txtIdx, chars.remaining());
+        chars.put(txt, txtIdx, txtIdx + numChars);
+        txtIdx += numChars;
+        if (!chars.hasRemaining()) {
+          encodeChars(encoder, chars, bytes, channel, false);
+        }
+      }
+    }
+    encodeChars(encoder, chars, bytes, channel, true);
+    while (encoder.flush(bytes) == CoderResult.OVERFLOW) {
+      writeBytes(bytes, channel);
+    }
+    writeBytes(bytes, channel);
+  }
+
+  private static void flushChars(char[] buf, int len, Appendable out) throws IOException {
+    if (out instanceof Writer) {
+      ((Writer) out).write(buf, 0, len);
+    } else {
+      out.append(CharBuffer.wrap(buf, 0, len));
+    }
+  }
+
+  // encodes the pending chars; a trailing high surrogate is kept for the next call
+  private static void encodeChars(
+      CharsetEncoder encoder,
+      CharBuffer chars,
+      ByteBuffer bytes,
+      WritableByteChannel channel,
+      boolean endOfInput)
+      throws IOException {
+    chars.flip();
+    while (encoder.encode(chars, bytes, endOfInput) == CoderResult.OVERFLOW) {
+      writeBytes(bytes, channel);
+    }
+    chars.compact();
+  }
+
+  private static void writeBytes(ByteBuffer bytes, WritableByteChannel channel)
+      throws IOException {
+    bytes.flip();
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+    bytes.clear();
+  }
+}
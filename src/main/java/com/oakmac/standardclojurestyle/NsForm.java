@@ -0,0 +1,754 @@
+package com.oakmac.standardclojurestyle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * NsForm is a typed model of a parsed ns form. Lists are kept in their final sort order, and every
+ * entry that needs to be sorted carries a precomputed sort key. toMap() returns the same Map format
+ * as ParseNs.parseNs, plus "load" and "requireFlags", which only NsFormParser collects.
+ *
+ * <p>A null field means the key was not present in the ns form.
+ */
+public final class NsForm {
+  // symbol first, then entries without a platform, then by platform
+  private static String sortKey(String symbol, String platform) {
+    if (platform == null) return symbol + '\u0000';
+    return symbol + '\u0000' + '\u0001' + platform;
+  }
+
+  /** A symbol, optionally inside of a reader conditional platform. */
+  public static final class SymbolRef {
+    static final Comparator<SymbolRef> BY_SYMBOL = Comparator.comparing(s -> s.symbol);
+    static final Comparator<SymbolRef> BY_SORT_KEY = Comparator.comparing(s -> s.sortKey);
+
+    final String symbol;
+    final String platform;
+    final String sortKey;
+
+    public SymbolRef(String symbol, String platform) {
+      this.symbol = symbol;
+      this.platform = platform;
+      this.sortKey = sortKey(symbol, platform);
+    }
+
+    public String getSymbol() {
+      return symbol;
+    }
+
+    public String getPlatform() {
+      return platform;
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> m = new HashMap<>();
+      m.put("symbol", symbol);
+      if (platform != null) m.put("platform", platform);
+      return m;
+    }
+  }
+
+  /** One entry of a :rename map. */
+  public static final class Rename {
+    static final Comparator<Rename> BY_FROM_SYMBOL = Comparator.comparing(r -> r.fromSymbol);
+
+    final String fromSymbol;
+    final String toSymbol;
+    final String platform;
+
+    public Rename(String fromSymbol, String toSymbol, String platform) {
+      this.fromSymbol = fromSymbol;
+      this.toSymbol = toSymbol;
+      this.platform = platform;
+    }
+
+    public String getFromSymbol() {
+      return fromSymbol;
+    }
+
+    public String getToSymbol() {
+      return toSymbol;
+    }
+
+    public String getPlatform() {
+      return platform;
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> m = new HashMap<>();
+      m.put("fromSymbol", fromSymbol);
+      m.put("toSymbol", toSymbol);
+      if (platform != null) m.put("platform", platform);
+      return m;
+    }
+  }
+
+  /** A namespace from :require or :require-macros. */
+  public static final class Require {
+    static final Comparator<Require> BY_SORT_KEY = Comparator.comparing(r -> r.sortKey);
+
+    final String symbol;
+    final String platform;
+    final String sortKey;
+    String as;
+    String asAlias;
+    String defaultSymbol;
+    boolean referAll = false;
+    List<SymbolRef> refer;
+    List<String> referMacros;
+    List<SymbolRef> exclude;
+    List<Rename> rename;
+    Boolean includeMacros;
+    Boolean symbolIsString;
+    List<String> commentsAbove;
+    String commentAfter;
+    // requires from the same prefix list share comments, see ParseNs
+    String prefixListId;
+
+    public Require(String symbol, String platform) {
+      this.symbol = symbol;
+      this.platform = platform;
+      this.sortKey = sortKey(symbol, platform);
+    }
+
+    public String getSymbol() {
+      return symbol;
+    }
+
+    public String getPlatform() {
+      return platform;
+    }
+
+    public String getAs() {
+      return as;
+    }
+
+    public String getAsAlias() {
+      return asAlias;
+    }
+
+    public String getDefault() {
+      return defaultSymbol;
+    }
+
+    /** true for :refer :all */
+    public boolean isReferAll() {
+      return referAll;
+    }
+
+    public List<SymbolRef> getRefer() {
+      return refer;
+    }
+
+    public List<String> getReferMacros() {
+      return referMacros;
+    }
+
+    public List<SymbolRef> getExclude() {
+      return exclude;
+    }
+
+    public List<Rename> getRename() {
+      return rename;
+    }
+
+    public Boolean getIncludeMacros() {
+      return includeMacros;
+    }
+
+    public Boolean getSymbolIsString() {
+      return symbolIsString;
+    }
+
+    public List<String> getCommentsAbove() {
+      return commentsAbove;
+    }
+
+    public String getCommentAfter() {
+      return commentAfter;
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> m = new HashMap<>();
+      m.put("symbol", symbol);
+      if (platform != null) m.put("platform", platform);
+      if (as != null) m.put("as", as);
+      if (asAlias != null) m.put("asAlias", asAlias);
+      if (defaultSymbol != null) m.put("default", defaultSymbol);
+      if (referAll) {
+        m.put("refer", "all");
+      } else if (refer != null) {
+        m.put("refer", symbolsToMaps(refer));
+      }
+      if (referMacros != null) m.put("referMacros", new ArrayList<>(referMacros));
+      if (exclude != null) m.put("exclude", symbolsToMaps(exclude));
+      if (rename != null) m.put("rename", renamesToMaps(rename));
+      if (includeMacros != null) m.put("includeMacros", includeMacros);
+      if (symbolIsString != null) m.put("symbolIsString", symbolIsString);
+      if (commentsAbove != null) m.put("commentsAbove", new ArrayList<>(commentsAbove));
+      if (commentAfter != null) m.put("commentAfter", commentAfter);
+      return m;
+    }
+  }
+
+  /** A Java package and the classes imported from it. */
+  public static final class Import {
+    final String packageName;
+    final List<String> classes;
+    String platform;
+    List<String> commentsAbove;
+    String commentAfter;
+    // classes from more than one line had a comment at the end of the line, so none of them is
+    // known to be the comment of this import
+    boolean commentIsAmbiguous = false;
+
+    public Import(String packageName, List<String> classes) {
+      this.packageName = packageName;
+      this.classes = classes;
+    }
+
+    public String getPackage() {
+      return packageName;
+    }
+
+    public List<String> getClasses() {
+      return classes;
+    }
+
+    public String getPlatform() {
+      return platform;
+    }
+
+    public List<String> getCommentsAbove() {
+      return commentsAbove;
+    }
+
+    public String getCommentAfter() {
+      return commentAfter;
+    }
+
+    public boolean isCommentAmbiguous() {
+      return commentIsAmbiguous;
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> m = new HashMap<>();
+      m.put("package", packageName);
+      m.put("classes", new ArrayList<>(classes));
+      if (platform != null) m.put("platform", platform);
+      if (commentsAbove != null) m.put("commentsAbove", new ArrayList<>(commentsAbove));
+      if (commentAfter != null) m.put("commentAfter", commentAfter);
+      return m;
+    }
+  }
+
+  /** :refer-clojure :exclude / :only / :rename */
+  public static final class ReferClojure {
+    List<SymbolRef> exclude;
+    List<SymbolRef> only;
+    List<Rename> rename;
+
+    public List<SymbolRef> getExclude() {
+      return exclude;
+    }
+
+    public List<SymbolRef> getOnly() {
+      return only;
+    }
+
+    public List<Rename> getRename() {
+      return rename;
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> m = new HashMap<>();
+      if (exclude != null) m.put("exclude", symbolsToMaps(exclude));
+      if (only != null) m.put("only", symbolsToMaps(only));
+      if (rename != null) m.put("rename", renamesToMaps(rename));
+      return m;
+    }
+  }
+
+  /** (:load ...) */
+  public static final class Load {
+    // the String literals, with their quotes, in the order they appear in the ns form
+    final List<String> paths = new ArrayList<>();
+    String platform;
+    List<String> commentsAbove;
+    String commentAfter;
+
+    public List<String> getPaths() {
+      return Collections.unmodifiableList(paths);
+    }
+
+    public String getPlatform() {
+      return platform;
+    }
+
+    public List<String> getCommentsAbove() {
+      return commentsAbove;
+    }
+
+    public String getCommentAfter() {
+      return commentAfter;
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> m = new HashMap<>();
+      m.put("paths", new ArrayList<>(paths));
+      if (platform != null) m.put("platform", platform);
+      if (commentsAbove != null) m.put("commentsAbove", new ArrayList<>(commentsAbove));
+      if (commentAfter != null) m.put("commentAfter", commentAfter);
+      return m;
+    }
+  }
+
+  /**
+   * The value of one :gen-class option. value is a String, a Boolean or null. The values of
+   * :implements, :constructors, :methods, :exposes and :exposes-methods are the source text of
+   * their vector or map.
+   */
+  public static final class GenClassValue {
+    Object value;
+    boolean hasValue = false;
+    List<String> commentsAbove;
+    String commentAfter;
+
+    public Object getValue() {
+      return value;
+    }
+
+    public List<String> getCommentsAbove() {
+      return commentsAbove;
+    }
+
+    public String getCommentAfter() {
+      return commentAfter;
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> m = new HashMap<>();
+      if (hasValue) m.put("value", value);
+      if (commentsAbove != null) m.put("commentsAbove", new ArrayList<>(commentsAbove));
+      if (commentAfter != null) m.put("commentAfter", commentAfter);
+      return m;
+    }
+  }
+
+  /** (:gen-class ...) */
+  public static final class GenClass {
+    boolean isEmpty = true;
+    String platform;
+    List<String> commentsAbove;
+    String commentAfter;
+    // in the order they appear in the ns form
+    final Map<String, GenClassValue> options = new LinkedHashMap<>();
+
+    public boolean isEmpty() {
+      return isEmpty;
+    }
+
+    public String getPlatform() {
+      return platform;
+    }
+
+    public List<String> getCommentsAbove() {
+      return commentsAbove;
+    }
+
+    public String getCommentAfter() {
+      return commentAfter;
+    }
+
+    public Map<String, GenClassValue> getOptions() {
+      return Collections.unmodifiableMap(options);
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> m = new HashMap<>();
+      m.put("isEmpty", isEmpty);
+      if (platform != null) m.put("platform", platform);
+      if (commentsAbove != null) m.put("commentsAbove", new ArrayList<>(commentsAbove));
+      if (commentAfter != null) m.put("commentAfter", commentAfter);
+      for (Map.Entry<String, GenClassValue> entry : options.entrySet()) {
+        m.put(entry.getKey(), entry.getValue().toMap());
+      }
+      return m;
+    }
+  }
+
+  String nsSymbol;
+  String docstring;
+  // key / value pairs, ie: {"key": "author", "value": "\"Chris\""}
+  List<String[]> nsMetadata;
+  ReferClojure referClojure;
+  List<String> referClojureCommentsAbove;
+  String referClojureCommentAfter;
+  List<Require> requires;
+  List<String> requireCommentsAbove;
+  String requireCommentAfter;
+  // :reload, :reload-all and :verbose
+  List<String> requireFlags;
+  List<Require> requireMacros;
+  List<String> requireMacrosCommentsAbove;
+  List<Import> imports;
+  List<String> importCommentsAbove;
+  String importCommentAfter;
+  Load load;
+  GenClass genClass;
+  String commentOutsideNsForm;
+
+  public String getNsSymbol() {
+    return nsSymbol;
+  }
+
+  public String getDocstring() {
+    return docstring;
+  }
+
+  /** Returns the ns metadata as [key, value] pairs. */
+  public List<String[]> getNsMetadata() {
+    return nsMetadata;
+  }
+
+  public ReferClojure getReferClojure() {
+    return referClojure;
+  }
+
+  public List<String> getReferClojureCommentsAbove() {
+    return referClojureCommentsAbove;
+  }
+
+  public String getReferClojureCommentAfter() {
+    return referClojureCommentAfter;
+  }
+
+  public List<Require> getRequires() {
+    return requires;
+  }
+
+  public List<String> getRequireCommentsAbove() {
+    return requireCommentsAbove;
+  }
+
+  public String getRequireCommentAfter() {
+    return requireCommentAfter;
+  }
+
+  public List<String> getRequireFlags() {
+    return requireFlags;
+  }
+
+  public List<Require> getRequireMacros() {
+    return requireMacros;
+  }
+
+  public List<String> getRequireMacrosCommentsAbove() {
+    return requireMacrosCommentsAbove;
+  }
+
+  public List<Import> getImports() {
+    return imports;
+  }
+
+  public List<String> getImportCommentsAbove() {
+    return importCommentsAbove;
+  }
+
+  public String getImportCommentAfter() {
+    return importCommentAfter;
+  }
+
+  public Load getLoad() {
+    return load;
+  }
+
+  public GenClass getGenClass() {
+    return genClass;
+  }
+
+  public String getCommentOutsideNsForm() {
+    return commentOutsideNsForm;
+  }
+
+  /**
+   * Puts every list in its final order. prefixListComments are the comments recorded for
+   * prefix lists, keyed by prefixListId; they are attached to the first require (after sorting)
+   * from that prefix list.
+   */
+  @SuppressWarnings("unchecked")
+  void sort(Map<String, Map<String, Object>> prefixListComments) {
+    if (referClojure != null) {
+      if (referClojure.exclude != null) referClojure.exclude.sort(SymbolRef.BY_SORT_KEY);
+      if (referClojure.only != null) referClojure.only.sort(SymbolRef.BY_SORT_KEY);
+      if (referClojure.rename != null) referClojure.rename.sort(Rename.BY_FROM_SYMBOL);
+    }
+
+    if (requireMacros != null) {
+      requireMacros.sort(Require.BY_SORT_KEY);
+      for (Require req : requireMacros) {
+        if (req.refer != null) req.refer.sort(SymbolRef.BY_SYMBOL);
+      }
+    }
+
+    if (requires != null) {
+      requires.sort(Require.BY_SORT_KEY);
+      for (Require req : requires) {
+        if (req.prefixListId != null) {
+          Map<String, Object> comments = prefixListComments.remove(req.prefixListId);
+          if (comments != null) {
+            if (comments.containsKey("commentsAbove")) {
+              req.commentsAbove = (List<String>) comments.get("commentsAbove");
+            }
+            if (comments.containsKey("commentAfter")) {
+              req.commentAfter = (String) comments.get("commentAfter");
+            }
+          }
+          req.prefixListId = null;
+        }
+        if (req.refer != null) req.refer.sort(SymbolRef.BY_SYMBOL);
+        if (req.exclude != null) req.exclude.sort(SymbolRef.BY_SYMBOL);
+        if (req.rename != null) req.rename.sort(Rename.BY_FROM_SYMBOL);
+      }
+    }
+
+    if (imports != null) {
+      for (Import imp : imports) {
+        Collections.sort(imp.classes);
+      }
+      imports.sort(Comparator.comparing(imp -> imp.packageName));
+    }
+
+    // only the last value of a repeated metadata key is kept, in the position of the last one
+    if (nsMetadata != null && nsMetadata.size() > 1) {
+      Map<String, String> lastValues = new HashMap<>();
+      for (String[] kv : nsMetadata) {
+        lastValues.put(kv[0], kv[1]);
+      }
+      List<String[]> merged = new ArrayList<>();
+      for (int i = nsMetadata.size() - 1; i >= 0; i--) {
+        String key = nsMetadata.get(i)[0];
+        if (lastValues.containsKey(key)) {
+          merged.add(new String[] {key, lastValues.remove(key)});
+        }
+      }
+      Collections.reverse(merged);
+      nsMetadata = merged;
+    }
+  }
+
+  /** Returns the Map format used by ParseNs.parseNs and parse_ns_tests.json. */
+  public Map<String, Object> toMap() {
+    Map<String, Object> m = new HashMap<>();
+    m.put("nsSymbol", nsSymbol);
+    if (docstring != null) m.put("docstring", docstring);
+    if (nsMetadata != null) {
+      List<Map<String, Object>> metadata = new ArrayList<>();
+      for (String[] kv : nsMetadata) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("key", kv[0]);
+        item.put("value", kv[1]);
+        metadata.add(item);
+      }
+      m.put("nsMetadata", metadata);
+    }
+    if (referClojure != null) m.put("referClojure", referClojure.toMap());
+    putIfPresent(m, "referClojureCommentsAbove", referClojureCommentsAbove);
+    putIfPresent(m, "referClojureCommentAfter", referClojureCommentAfter);
+    if (requires != null) m.put("requires", requiresToMaps(requires));
+    putIfPresent(m, "requireCommentsAbove", requireCommentsAbove);
+    putIfPresent(m, "requireCommentAfter", requireCommentAfter);
+    putIfPresent(m, "requireFlags", requireFlags);
+    if (requireMacros != null) m.put("requireMacros", requiresToMaps(requireMacros));
+    putIfPresent(m, "requireMacrosCommentsAbove", requireMacrosCommentsAbove);
+    if (imports != null) {
+      List<Map<String, Object>> importMaps = new ArrayList<>(imports.size());
+      for (Import imp : imports) {
+        importMaps.add(imp.toMap());
+      }
+      m.put("imports", importMaps);
+    }
+    putIfPresent(m, "importCommentsAbove", importCommentsAbove);
+    putIfPresent(m, "importCommentAfter", importCommentAfter);
+    if (load != null) m.put("load", load.toMap());
+    if (genClass != null) m.put("genClass", genClass.toMap());
+    putIfPresent(m, "commentOutsideNsForm", commentOutsideNsForm);
+    return m;
+  }
+
+  private static void putIfPresent(Map<String, Object> m, String key, String value) {
+    if (value != null) m.put(key, value);
+  }
+
+  private static void putIfPresent(Map<String, Object> m, String key, List<String> value) {
+    if (value != null) m.put(key, new ArrayList<>(value));
+  }
+
+  private static List<Map<String, Object>> symbolsToMaps(List<SymbolRef> symbols) {
+    List<Map<String, Object>> maps = new ArrayList<>(symbols.size());
+    for (SymbolRef s : symbols) {
+      maps.add(s.toMap());
+    }
+    return maps;
+  }
+
+  private static List<Map<String, Object>> renamesToMaps(List<Rename> renames) {
+    List<Map<String, Object>> maps = new ArrayList<>(renames.size());
+    for (Rename r : renames) {
+      maps.add(r.toMap());
+    }
+    return maps;
+  }
+
+  private static List<Map<String, Object>> requiresToMaps(List<Require> reqs) {
+    List<Map<String, Object>> maps = new ArrayList<>(reqs.size());
+    for (Require req : reqs) {
+      maps.add(req.toMap());
+    }
+    return maps;
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // Conversion from the Map that the ParseNs loop builds
+
+  /**
+   * Converts the unsorted Map built by the ParseNs loop into an NsForm and sorts it. Keys that are
+   * not part of the ns format are ignored.
+   */
+  @SuppressWarnings("unchecked")
+  static NsForm fromParseResult(
+      Map<String, Object> result, Map<String, Object> prefixListComments) {
+    NsForm ns = new NsForm();
+    ns.nsSymbol = (String) result.get("nsSymbol");
+    ns.docstring = (String) result.get("docstring");
+
+    List<Map<String, Object>> metadata = (List<Map<String, Object>>) result.get("nsMetadata");
+    if (metadata != null) {
+      ns.nsMetadata = new ArrayList<>(metadata.size());
+      for (Map<String, Object> item : metadata) {
+        ns.nsMetadata.add(new String[] {(String) item.get("key"), (String) item.get("value")});
+      }
+    }
+
+    Map<String, Object> referClojure = (Map<String, Object>) result.get("referClojure");
+    if (referClojure != null) {
+      ns.referClojure = new ReferClojure();
+      ns.referClojure.exclude = symbolsFromMaps(referClojure.get("exclude"));
+      ns.referClojure.only = symbolsFromMaps(referClojure.get("only"));
+      ns.referClojure.rename = renamesFromMaps(referClojure.get("rename"));
+    }
+    ns.referClojureCommentsAbove = (List<String>) result.get("referClojureCommentsAbove");
+    ns.referClojureCommentAfter = (String) result.get("referClojureCommentAfter");
+
+    ns.requires = requiresFromMaps(result.get("requires"));
+    ns.requireCommentsAbove = (List<String>) result.get("requireCommentsAbove");
+    ns.requireCommentAfter = (String) result.get("requireCommentAfter");
+    ns.requireMacros = requiresFromMaps(result.get("requireMacros"));
+    ns.requireMacrosCommentsAbove = (List<String>) result.get("requireMacrosCommentsAbove");
+
+    Map<String, Object> importsObj = (Map<String, Object>) result.get("importsObj");
+    if (importsObj != null) {
+      ns.imports = new ArrayList<>(importsObj.size());
+      for (Map.Entry<String, Object> entry : importsObj.entrySet()) {
+        Map<String, Object> importInfo = (Map<String, Object>) entry.getValue();
+        Import imp = new Import(entry.getKey(), (List<String>) importInfo.get("classes"));
+        imp.platform = (String) importInfo.get("platform");
+        imp.commentsAbove = (List<String>) importInfo.get("commentsAbove");
+        imp.commentAfter = (String) importInfo.get("commentAfter");
+        ns.imports.add(imp);
+      }
+    }
+    ns.importCommentsAbove = (List<String>) result.get("importCommentsAbove");
+    ns.importCommentAfter = (String) result.get("importCommentAfter");
+
+    Map<String, Object> genClass = (Map<String, Object>) result.get("genClass");
+    if (genClass != null) {
+      ns.genClass = new GenClass();
+      for (Map.Entry<String, Object> entry : genClass.entrySet()) {
+        String key = entry.getKey();
+        if (key.equals("isEmpty")) {
+          ns.genClass.isEmpty = (Boolean) entry.getValue();
+        } else if (key.equals("platform")) {
+          ns.genClass.platform = (String) entry.getValue();
+        } else if (key.equals("commentsAbove")) {
+          ns.genClass.commentsAbove = (List<String>) entry.getValue();
+        } else if (key.equals("commentAfter")) {
+          ns.genClass.commentAfter = (String) entry.getValue();
+        } else {
+          Map<String, Object> valueMap = (Map<String, Object>) entry.getValue();
+          GenClassValue value = new GenClassValue();
+          value.hasValue = valueMap.containsKey("value");
+          value.value = valueMap.get("value");
+          value.commentsAbove = (List<String>) valueMap.get("commentsAbove");
+          value.commentAfter = (String) valueMap.get("commentAfter");
+          ns.genClass.options.put(key, value);
+        }
+      }
+    }
+    ns.commentOutsideNsForm = (String) result.get("commentOutsideNsForm");
+
+    Map<String, Map<String, Object>> comments = new HashMap<>();
+    for (Map.Entry<String, Object> entry : prefixListComments.entrySet()) {
+      comments.put(entry.getKey(), (Map<String, Object>) entry.getValue());
+    }
+    ns.sort(comments);
+    return ns;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<SymbolRef> symbolsFromMaps(Object maps) {
+    if (maps == null) return null;
+    List<SymbolRef> symbols = new ArrayList<>();
+    for (Map<String, Object> m : (List<Map<String, Object>>) maps) {
+      symbols.add(new SymbolRef((String) m.get("symbol"), (String) m.get("platform")));
+    }
+    return symbols;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Rename> renamesFromMaps(Object maps) {
+    if (maps == null) return null;
+    List<Rename> renames = new ArrayList<>();
+    for (Map<String, Object> m : (List<Map<String, Object>>) maps) {
+      String fromSymbol = (String) m.get("fromSymbol");
+      String toSymbol = (String) m.get("toSymbol");
+      renames.add(new Rename(fromSymbol, toSymbol, (String) m.get("platform")));
+    }
+    return renames;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Require> requiresFromMaps(Object maps) {
+    if (maps == null) return null;
+    List<Require> reqs = new ArrayList<>();
+    for (Map<String, Object> m : (List<Map<String, Object>>) maps) {
+      Require req = new Require((String) m.get("symbol"), (String) m.get("platform"));
+      req.as = (String) m.get("as");
+      req.asAlias = (String) m.get("asAlias");
+      req.defaultSymbol = (String) m.get("default");
+      Object refer = m.get("refer");
+      if ("all".equals(refer)) {
+        req.referAll = true;
+      } else {
+        req.refer = symbolsFromMaps(refer);
+      }
+      if (m.containsKey("referMacros")) {
+        req.referMacros = (List<String>) m.get("referMacros");
+      }
+      req.exclude = symbolsFromMaps(m.get("exclude"));
+      req.rename = renamesFromMaps(m.get("rename"));
+      req.includeMacros = (Boolean) m.get("includeMacros");
+      req.symbolIsString = (Boolean) m.get("symbolIsString");
+      req.commentsAbove = (List<String>) m.get("commentsAbove");
+      req.commentAfter = (String) m.get("commentAfter");
+      req.prefixListId = (String) m.get("prefixListId");
+      reqs.add(req);
+    }
+    return reqs;
+  }
+}
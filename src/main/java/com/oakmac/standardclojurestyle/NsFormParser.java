@@ -0,0 +1,890 @@
+package com.oakmac.standardclojurestyle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * NsFormParser reads the ns form from a parsed tree and builds an NsForm directly. It is an
+ * explicit state machine: every Node is reduced to a token class, and a state x token class table
+ * selects the action to run. Whitespace without a newline and Nodes without text never reach an
+ * action, and strings, discards and metadata values are consumed as a single token without
+ * visiting their children, as are the vector and map values of :gen-class options.
+ *
+ * <p>It produces the same results as ParseNs.parseNs, but walks the tree with a TreeCursor instead
+ * of a flattened Node list.
+ */
+public final class NsFormParser {
+  // token classes
+  private static final int T_NONE = 0; // containers, .body nodes, markers
+  private static final int T_SPACE = 1; // whitespace without a newline
+  private static final int T_NEWLINE = 2; // whitespace with at least one newline
+  private static final int T_COMMENT = 3; // ; comments and #_ discards
+  private static final int T_OPEN = 4;
+  private static final int T_RC_OPEN = 5; // #?( and #?@(
+  private static final int T_CLOSE = 6;
+  private static final int T_KEYWORD = 7;
+  private static final int T_SYMBOL = 8;
+  private static final int T_STRING = 9;
+  private static final int T_META = 10; // the value of ^metadata
+  private static final int T_MAP = 11; // a {} map, before its "{" opener
+  private static final int T_VECTOR = 12; // a [] vector, before its "[" opener
+  private static final int NUM_TOKEN_CLASSES = 13;
+
+  // states
+  private static final int S_BEFORE_NS = 0;
+  private static final int S_NS_HEAD = 1; // ns symbol, metadata, docstring, attr-map
+  private static final int S_NS_BODY = 2; // between the ns sections
+  private static final int S_REFER_CLOJURE = 3;
+  private static final int S_REQUIRE = 4;
+  private static final int S_REQUIRE_MACROS = 5;
+  private static final int S_IMPORT = 6;
+  private static final int S_LOAD = 7;
+  private static final int S_GEN_CLASS = 8;
+  private static final int S_AFTER_NS = 9; // comments on the lines after the ns form
+  private static final int S_DONE = 10;
+  private static final int NUM_STATES = 11;
+
+  // actions
+  private static final byte A_NONE = 0;
+  private static final byte A_NEWLINE = 1;
+  private static final byte A_OPEN = 2;
+  private static final byte A_CLOSE = 3;
+  private static final byte A_COMMENT = 4;
+  private static final byte A_FIND_NS = 5;
+  private static final byte A_HEAD_TOKEN = 6;
+  private static final byte A_HEAD_STRING = 7;
+  private static final byte A_HEAD_META = 8;
+  private static final byte A_HEAD_MAP = 9;
+  private static final byte A_BODY_TOKEN = 10;
+  private static final byte A_REFER_CLOJURE_TOKEN = 11;
+  private static final byte A_REQUIRE_TOKEN = 12;
+  private static final byte A_REQUIRE_STRING = 13;
+  private static final byte A_REQUIRE_MACROS_TOKEN = 14;
+  private static final byte A_IMPORT_TOKEN = 15;
+  private static final byte A_GEN_CLASS_TOKEN = 16;
+  private static final byte A_GEN_CLASS_STRING = 17;
+  private static final byte A_GEN_CLASS_FORM = 18;
+  private static final byte A_LOAD_STRING = 19;
+
+  private static final byte[][] TRANSITIONS = new byte[NUM_STATES][NUM_TOKEN_CLASSES];
+
+  private static void on(int state, int tokenClass, byte action) {
+    TRANSITIONS[state][tokenClass] = action;
+  }
+
+  private static void onTokens(int state, byte action) {
+    on(state, T_KEYWORD, action);
+    on(state, T_SYMBOL, action);
+  }
+
+  static {
+    for (int state = S_BEFORE_NS; state < S_DONE; state++) {
+      on(state, T_NEWLINE, A_NEWLINE);
+      on(state, T_OPEN, A_OPEN);
+      on(state, T_RC_OPEN, A_OPEN);
+      on(state, T_CLOSE, A_CLOSE);
+      if (state != S_BEFORE_NS) on(state, T_COMMENT, A_COMMENT);
+    }
+
+    on(S_BEFORE_NS, T_SYMBOL, A_FIND_NS);
+
+    onTokens(S_NS_HEAD, A_HEAD_TOKEN);
+    on(S_NS_HEAD, T_STRING, A_HEAD_STRING);
+    on(S_NS_HEAD, T_META, A_HEAD_META);
+    on(S_NS_HEAD, T_MAP, A_HEAD_MAP);
+
+    onTokens(S_NS_BODY, A_BODY_TOKEN);
+    onTokens(S_REFER_CLOJURE, A_REFER_CLOJURE_TOKEN);
+    onTokens(S_REQUIRE, A_REQUIRE_TOKEN);
+    on(S_REQUIRE, T_STRING, A_REQUIRE_STRING);
+    onTokens(S_REQUIRE_MACROS, A_REQUIRE_MACROS_TOKEN);
+    onTokens(S_IMPORT, A_IMPORT_TOKEN);
+    on(S_LOAD, T_STRING, A_LOAD_STRING);
+    onTokens(S_GEN_CLASS, A_GEN_CLASS_TOKEN);
+    on(S_GEN_CLASS, T_STRING, A_GEN_CLASS_STRING);
+    on(S_GEN_CLASS, T_MAP, A_GEN_CLASS_FORM);
+    on(S_GEN_CLASS, T_VECTOR, A_GEN_CLASS_FORM);
+  }
+
+  private final TreeCursor cursor = new TreeCursor();
+  private final TreeCursor lookahead = new TreeCursor();
+  private final NsForm ns = new NsForm();
+
+  private int state = S_BEFORE_NS;
+  private int lineNo = 0;
+  private int depth = 0;
+  private boolean atLineStart = false;
+  // the previous significant token was an opener, ie: the next token is the head of a list
+  private boolean listHeadPending = false;
+  private int nsDepth = -1;
+  private int nsEndLineNo = -1;
+  private int sectionDepth = -1;
+  private boolean nsSymbolFound = false;
+  private boolean eolCommentsGoToReferClojure = false;
+  private List<String> pendingComments = new ArrayList<>();
+  private int lineOfLastCommentRecording = -1;
+
+  // reader conditionals
+  private boolean insideReaderConditional = false;
+  private int readerConditionalDepth = -1;
+  private String platform = null;
+
+  // :refer-clojure
+  private boolean collectReferClojureExclude = false;
+  private boolean collectReferClojureOnly = false;
+  private boolean collectReferClojureRename = false;
+  private final List<String> renamesTmp = new ArrayList<>();
+
+  // :require
+  private int requireFormLineNo = -1;
+  private NsForm.Require activeRequire = null;
+  private boolean insideRequireList = false;
+  private int requireListDepth = -1;
+  private boolean requireSymbolFound = false;
+  private boolean nextTokenIsAs = false;
+  private boolean nextTokenIsAsAlias = false;
+  private boolean nextTokenIsDefault = false;
+  private boolean insideIncludeMacros = false;
+  private int referDepth = -1;
+  private int referMacrosDepth = -1;
+  private int excludeDepth = -1;
+  private boolean collectExclude = false;
+  private int renameDepth = -1;
+  private boolean insidePrefixList = false;
+  private String prefixListPrefix = null;
+  private int prefixListLineNo = -1;
+  private String currentPrefixListId = null;
+  private int numPrefixLists = 0;
+  private final Map<String, Map<String, Object>> prefixListComments = new HashMap<>();
+
+  // :require-macros
+  private int requireMacrosLineNo = -1;
+  private NsForm.Require activeRequireMacro = null;
+  private boolean collectRequireMacrosRefer = false;
+  private boolean nextTokenIsRequireMacrosAs = false;
+  private boolean collectRequireMacrosRename = false;
+
+  // :import
+  private int importFormLineNo = -1;
+  private int importDepth = -1;
+  private Map<String, NsForm.Import> importsByPackage = null;
+  private NsForm.Import activeImport = null;
+  private boolean insideImportPackageList = false;
+  private NsForm.Import importPackageListImport = null;
+
+  // :load
+  private int loadLineNo = -1;
+
+  // :gen-class
+  private int genClassLineNo = -1;
+  private int genClassValueLineNo = -1;
+  private boolean lookingForGenClassValue = false;
+  private String genClassKey = null;
+
+  private NsFormParser() {}
+
+  /**
+   * Parses the ns form from a tree returned by Parser.parse. Throws an IllegalArgumentException if
+   * the ns form uses :use.
+   */
+  public static NsForm parse(Node root) {
+    NsFormParser p = new NsFormParser();
+    p.run(root);
+    return p.finish();
+  }
+
+  private void run(Node root) {
+    cursor.reset(root);
+    while (state != S_DONE && cursor.next()) {
+      Node node = cursor.node();
+      int tokenClass = classify(node);
+      if (tokenClass == T_NONE) continue;
+
+      switch (TRANSITIONS[state][tokenClass]) {
+        case A_NEWLINE:
+          onNewline(node);
+          break;
+        case A_OPEN:
+          onOpen(node);
+          break;
+        case A_CLOSE:
+          onClose();
+          break;
+        case A_COMMENT:
+          onComment(node);
+          break;
+        case A_FIND_NS:
+          onFindNs(node);
+          break;
+        case A_HEAD_TOKEN:
+          onHeadToken(node);
+          break;
+        case A_HEAD_STRING:
+          if (depth == nsDepth) ns.docstring = Utils.getTextFromStringNode(node);
+          break;
+        case A_HEAD_META:
+          if (!nsSymbolFound) collectMetadata(node);
+          break;
+        case A_HEAD_MAP:
+          collectMetadata(node);
+          break;
+        case A_BODY_TOKEN:
+          if (!collectPlatform(node)) startSection(node);
+          break;
+        case A_REFER_CLOJURE_TOKEN:
+          onReferClojureToken(node);
+          break;
+        case A_REQUIRE_TOKEN:
+          onRequireToken(node);
+          break;
+        case A_REQUIRE_STRING:
+          onRequireString(node);
+          break;
+        case A_REQUIRE_MACROS_TOKEN:
+          onRequireMacrosToken(node);
+          break;
+        case A_IMPORT_TOKEN:
+          onImportToken(node);
+          break;
+        case A_GEN_CLASS_TOKEN:
+          onGenClassToken(node);
+          break;
+        case A_GEN_CLASS_STRING:
+          if (lookingForGenClassValue && genClassKey.equals("prefix")) {
+            setGenClassValue("\"" + Utils.getTextFromStringNode(node) + "\"");
+          }
+          break;
+        case A_GEN_CLASS_FORM:
+          if (lookingForGenClassValue && Utils.isGenClassCollectionKey(genClassKey)) {
+            setGenClassValue(Utils.getTextFromRootNode(node));
+          }
+          break;
+        case A_LOAD_STRING:
+          ns.load.paths.add("\"" + Utils.getTextFromStringNode(node) + "\"");
+          loadLineNo = lineNo;
+          break;
+        default:
+          break;
+      }
+
+      if (tokenClass == T_STRING
+          || tokenClass == T_COMMENT
+          || tokenClass == T_META
+          || (tokenClass == T_MAP && state == S_NS_HEAD)
+          || ((tokenClass == T_MAP || tokenClass == T_VECTOR) && state == S_GEN_CLASS)) {
+        skipSubtree();
+      }
+      if (tokenClass != T_SPACE && tokenClass != T_NEWLINE && tokenClass != T_COMMENT) {
+        listHeadPending = tokenClass == T_OPEN;
+      }
+      atLineStart = tokenClass == T_NEWLINE;
+    }
+  }
+
+  private static int classify(Node n) {
+    String name = n.getName();
+    if (name == null) return T_NONE;
+    switch (name) {
+      case "whitespace":
+        return n.getText().indexOf('\n') >= 0 ? T_NEWLINE : T_SPACE;
+      case "comment":
+      case "discard":
+        return T_COMMENT;
+      case "token":
+        return n.getText().startsWith(":") ? T_KEYWORD : T_SYMBOL;
+      case "string":
+        return T_STRING;
+      case ".meta":
+        return T_META;
+      case "braces":
+        return T_MAP;
+      case "brackets":
+        return T_VECTOR;
+      case ".open":
+        if (!Utils.isParenOpener(n)) return T_NONE;
+        return Utils.isReaderConditionalOpener(n) ? T_RC_OPEN : T_OPEN;
+      case ".close":
+        return Utils.isParenCloser(n) ? T_CLOSE : T_NONE;
+      default:
+        return T_NONE;
+    }
+  }
+
+  private NsForm finish() {
+    if (importsByPackage != null) ns.imports = new ArrayList<>(importsByPackage.values());
+    ns.sort(prefixListComments);
+    return ns;
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // Line and nesting bookkeeping
+
+  private static int countNewlines(String txt) {
+    int n = 0;
+    for (int i = txt.indexOf('\n'); i >= 0; i = txt.indexOf('\n', i + 1)) {
+      n++;
+    }
+    return n;
+  }
+
+  // steps over the children of the current Node, keeping count of their newlines
+  private void skipSubtree() {
+    Node n = cursor.node();
+    if (n.getChildren() != null) {
+      lookahead.reset(n);
+      while (lookahead.next()) {
+        String txt = lookahead.node().getText();
+        if (txt != null) lineNo += countNewlines(txt);
+      }
+    }
+    cursor.skipChildren();
+  }
+
+  private void onNewline(Node node) {
+    lineNo += countNewlines(node.getText());
+    if (state == S_AFTER_NS && lineNo >= nsEndLineNo + 2) state = S_DONE;
+  }
+
+  private boolean insideNsForm() {
+    return state >= S_NS_HEAD && state <= S_GEN_CLASS;
+  }
+
+  private void onOpen(Node node) {
+    depth++;
+    if (insideNsForm() && Utils.isReaderConditionalOpener(node)) {
+      insideReaderConditional = true;
+      platform = null;
+      readerConditionalDepth = depth;
+    } else if (state == S_REQUIRE) {
+      insideRequireList = true;
+      requireListDepth = depth;
+    } else if (state == S_IMPORT && depth > importDepth) {
+      insideImportPackageList = true;
+    }
+  }
+
+  private void onClose() {
+    depth--;
+
+    if (insideImportPackageList) {
+      insideImportPackageList = false;
+      importPackageListImport = null;
+    } else if (state == S_REQUIRE && depth < sectionDepth) {
+      // the :require form ends below
+    } else if (insideRequireList && depth < requireListDepth) {
+      insideRequireList = false;
+      requireListDepth = -1;
+      renameDepth = -1;
+    }
+
+    if (state >= S_REFER_CLOJURE && state <= S_GEN_CLASS && depth < sectionDepth) {
+      state = S_NS_BODY;
+      sectionDepth = -1;
+    } else if ((state == S_NS_HEAD || state == S_NS_BODY) && depth < nsDepth) {
+      state = S_AFTER_NS;
+      nsEndLineNo = lineNo;
+    }
+
+    if (state == S_REFER_CLOJURE && depth <= sectionDepth) {
+      collectReferClojureExclude = false;
+      collectReferClojureOnly = false;
+      collectReferClojureRename = false;
+    }
+    if (referDepth != -1 && depth < referDepth) {
+      referDepth = -1;
+      nextTokenIsDefault = false;
+    }
+    if (state == S_REQUIRE) {
+      requireSymbolFound = false;
+      insidePrefixList = false;
+      prefixListPrefix = null;
+    }
+    if (insideReaderConditional && depth == readerConditionalDepth - 1) {
+      insideReaderConditional = false;
+      platform = null;
+      readerConditionalDepth = -1;
+    }
+    if (depth <= referMacrosDepth) referMacrosDepth = -1;
+    if (collectExclude && depth < excludeDepth) {
+      collectExclude = false;
+      excludeDepth = -1;
+    }
+    if (state == S_REQUIRE && depth < renameDepth) renameDepth = -1;
+
+    collectRequireMacrosRefer = false;
+    collectRequireMacrosRename = false;
+  }
+
+  // reader conditional platform keywords, ie: the :clj in #?(:clj ...)
+  private boolean collectPlatform(Node node) {
+    if (insideReaderConditional && depth == readerConditionalDepth && Utils.isKeywordNode(node)) {
+      platform = node.getText();
+      return true;
+    }
+    return false;
+  }
+
+  private String currentPlatform() {
+    return insideReaderConditional ? platform : null;
+  }
+
+  private List<String> takePendingComments() {
+    if (pendingComments.isEmpty()) return null;
+    List<String> comments = pendingComments;
+    pendingComments = new ArrayList<>();
+    return comments;
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // Comments
+
+  private void onComment(Node node) {
+    String txt =
+        Utils.isCommentNode(node) ? node.getText() : Utils.getTextFromRootNode(node);
+    boolean insideNs = insideNsForm();
+    if (atLineStart) {
+      if (insideNs) pendingComments.add(txt);
+      return;
+    }
+
+    // a comment at the end of a line
+    if (prefixListLineNo == lineNo) {
+      prefixListComments
+          .computeIfAbsent(currentPrefixListId, k -> new HashMap<>())
+          .put("commentAfter", txt);
+      lineOfLastCommentRecording = lineNo;
+    } else if (requireFormLineNo == lineNo && activeRequire == null) {
+      ns.requireCommentAfter = txt;
+      lineOfLastCommentRecording = lineNo;
+    } else if (requireFormLineNo == lineNo) {
+      activeRequire.commentAfter = txt;
+      lineOfLastCommentRecording = lineNo;
+    } else if (eolCommentsGoToReferClojure && ns.referClojure != null) {
+      ns.referClojureCommentAfter = txt;
+      lineOfLastCommentRecording = lineNo;
+    } else if (importFormLineNo == lineNo && importsByPackage == null) {
+      ns.importCommentAfter = txt;
+      lineOfLastCommentRecording = lineNo;
+    } else if (importFormLineNo == lineNo) {
+      if (activeImport.commentAfter != null) activeImport.commentIsAmbiguous = true;
+      activeImport.commentAfter = txt;
+      lineOfLastCommentRecording = lineNo;
+    } else if (requireMacrosLineNo == lineNo && activeRequireMacro != null) {
+      activeRequireMacro.commentAfter = txt;
+      lineOfLastCommentRecording = lineNo;
+    } else if (loadLineNo == lineNo) {
+      ns.load.commentAfter = txt;
+      lineOfLastCommentRecording = lineNo;
+    } else if (genClassLineNo == lineNo) {
+      ns.genClass.commentAfter = txt;
+      lineOfLastCommentRecording = lineNo;
+    } else if (genClassValueLineNo == lineNo) {
+      ns.genClass.options.get(genClassKey).commentAfter = txt;
+      lineOfLastCommentRecording = lineNo;
+    }
+
+    if (!insideNs && lineNo == lineOfLastCommentRecording) {
+      ns.commentOutsideNsForm = txt;
+    }
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // ns symbol, metadata and docstring
+
+  private void onFindNs(Node node) {
+    if (listHeadPending && depth == 1 && node.getText().equals("ns")) {
+      state = S_NS_HEAD;
+      nsDepth = depth;
+    }
+  }
+
+  private void onHeadToken(Node node) {
+    if (!nsSymbolFound) {
+      ns.nsSymbol = node.getText();
+      nsSymbolFound = true;
+    } else if (!collectPlatform(node)) {
+      startSection(node);
+    }
+  }
+
+  // collects ^:shorthand metadata, or the keys and values of a {} metadata map
+  private void collectMetadata(Node n) {
+    Node metaValue = n;
+    if (n.getName().equals(".meta")) {
+      metaValue = null;
+      for (Node child : n.getChildren()) {
+        if (!Utils.isWhitespaceNode(child)) {
+          metaValue = child;
+          break;
+        }
+      }
+      if (metaValue != null && Utils.isTokenNode(metaValue)) {
+        addMetadata(metaValue.getText(), "true");
+        return;
+      }
+    }
+    if (metaValue == null || !metaValue.getName().equals("braces")) return;
+    for (Node child : metaValue.getChildren()) {
+      if (!child.getName().equals(".body")) continue;
+      String key = null;
+      for (Node item : child.getChildren()) {
+        if (Utils.isWhitespaceNode(item)
+            || Utils.isCommentNode(item)
+            || Utils.isReaderCommentNode(item)) {
+          continue;
+        }
+        if (key == null) {
+          if (Utils.isTokenNode(item)) key = item.getText();
+        } else {
+          addMetadata(key, Utils.getTextFromRootNode(item));
+          key = null;
+        }
+      }
+    }
+  }
+
+  private void addMetadata(String key, String value) {
+    if (ns.nsMetadata == null) ns.nsMetadata = new ArrayList<>();
+    ns.nsMetadata.add(new String[] {key, value});
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // ns sections: (:require ...), (:import ...), etc
+
+  private void startSection(Node node) {
+    if (!listHeadPending) return;
+    String txt = node.getText();
+    switch (txt) {
+      case ":refer-clojure":
+      case "refer-clojure":
+        state = S_REFER_CLOJURE;
+        collectReferClojureExclude = false;
+        collectReferClojureOnly = false;
+        collectReferClojureRename = false;
+        eolCommentsGoToReferClojure = true;
+        List<String> referClojureComments = takePendingComments();
+        if (referClojureComments != null) ns.referClojureCommentsAbove = referClojureComments;
+        break;
+      case ":require":
+      case "require":
+        state = S_REQUIRE;
+        requireFormLineNo = lineNo;
+        eolCommentsGoToReferClojure = false;
+        List<String> requireComments = takePendingComments();
+        if (requireComments != null) ns.requireCommentsAbove = requireComments;
+        break;
+      case ":import":
+      case "import":
+        state = S_IMPORT;
+        importFormLineNo = lineNo;
+        importDepth = depth;
+        eolCommentsGoToReferClojure = false;
+        List<String> importComments = takePendingComments();
+        if (importComments != null) ns.importCommentsAbove = importComments;
+        break;
+      case ":require-macros":
+        state = S_REQUIRE_MACROS;
+        requireMacrosLineNo = lineNo;
+        eolCommentsGoToReferClojure = false;
+        break;
+      case ":load":
+        state = S_LOAD;
+        eolCommentsGoToReferClojure = false;
+        if (ns.load == null) {
+          ns.load = new NsForm.Load();
+          ns.load.platform = currentPlatform();
+        }
+        List<String> loadComments = takePendingComments();
+        if (loadComments != null) ns.load.commentsAbove = loadComments;
+        loadLineNo = lineNo;
+        break;
+      case ":gen-class":
+        state = S_GEN_CLASS;
+        eolCommentsGoToReferClojure = false;
+        ns.genClass = new NsForm.GenClass();
+        ns.genClass.platform = currentPlatform();
+        ns.genClass.commentsAbove = takePendingComments();
+        genClassLineNo = lineNo;
+        lookingForGenClassValue = false;
+        break;
+      case ":use":
+        throw new IllegalArgumentException(
+            "Standard Clojure Style does not support :use inside of the ns form. "
+                + "Please refactor with :require as appropriate.");
+      default:
+        return;
+    }
+    sectionDepth = depth;
+  }
+
+  private void onReferClojureToken(Node node) {
+    if (collectPlatform(node)) return;
+    String txt = node.getText();
+
+    if (txt.equals(":exclude")) {
+      if (referClojure().exclude == null) ns.referClojure.exclude = new ArrayList<>();
+      collectReferClojureExclude = true;
+    } else if (collectReferClojureExclude && depth >= 3) {
+      ns.referClojure.exclude.add(new NsForm.SymbolRef(txt, currentPlatform()));
+    } else if (txt.equals(":only")) {
+      referClojure().only = new ArrayList<>();
+      collectReferClojureOnly = true;
+    } else if (collectReferClojureOnly && depth >= 3) {
+      ns.referClojure.only.add(new NsForm.SymbolRef(txt, currentPlatform()));
+    } else if (txt.equals(":rename")) {
+      referClojure().rename = new ArrayList<>();
+      collectReferClojureRename = true;
+    } else if (collectReferClojureRename && depth >= 3) {
+      NsForm.Rename rename = collectRename(txt);
+      if (rename != null) ns.referClojure.rename.add(rename);
+    }
+  }
+
+  private NsForm.ReferClojure referClojure() {
+    if (ns.referClojure == null) ns.referClojure = new NsForm.ReferClojure();
+    return ns.referClojure;
+  }
+
+  // :rename maps are collected two symbols at a time
+  private NsForm.Rename collectRename(String txt) {
+    renamesTmp.add(txt);
+    if (renamesTmp.size() < 2) return null;
+    NsForm.Rename rename =
+        new NsForm.Rename(renamesTmp.get(0), renamesTmp.get(1), currentPlatform());
+    renamesTmp.clear();
+    return rename;
+  }
+
+  private NsForm.Require addRequire(String symbol, String requirePlatform) {
+    if (ns.requires == null) ns.requires = new ArrayList<>();
+    NsForm.Require req = new NsForm.Require(symbol, requirePlatform);
+    ns.requires.add(req);
+    activeRequire = req;
+    requireFormLineNo = lineNo;
+    return req;
+  }
+
+  private void onRequireToken(Node node) {
+    if (collectPlatform(node)) return;
+    String txt = node.getText();
+    boolean isKeyword = txt.startsWith(":");
+
+    if (!insideRequireList && isRequireFlag(txt)) {
+      if (ns.requireFlags == null) ns.requireFlags = new ArrayList<>();
+      if (!ns.requireFlags.contains(txt)) ns.requireFlags.add(txt);
+    } else if (txt.equals(":as")) {
+      nextTokenIsAs = true;
+    } else if (nextTokenIsAs) {
+      nextTokenIsAs = false;
+      activeRequire.as = txt;
+    } else if (nextTokenIsAsAlias) {
+      nextTokenIsAsAlias = false;
+      activeRequire.asAlias = txt;
+    } else if (txt.equals(":include-macros")) {
+      insideIncludeMacros = true;
+    } else if (insideIncludeMacros && (txt.equals("true") || txt.equals("false"))) {
+      activeRequire.includeMacros = txt.equals("true");
+      insideIncludeMacros = false;
+    } else if (txt.equals(":refer-macros")) {
+      referMacrosDepth = depth;
+    } else if (referMacrosDepth != -1 && depth == referMacrosDepth + 1) {
+      if (activeRequire.referMacros == null) activeRequire.referMacros = new ArrayList<>();
+      activeRequire.referMacros.add(txt);
+    } else if (txt.equals(":refer")) {
+      referDepth = depth;
+    } else if (txt.equals(":default")) {
+      nextTokenIsDefault = true;
+    } else if (collectExclude && depth > excludeDepth) {
+      activeRequire.exclude.add(new NsForm.SymbolRef(txt, null));
+    } else if (txt.equals(":exclude")) {
+      activeRequire.exclude = new ArrayList<>();
+      collectExclude = true;
+      excludeDepth = depth;
+    } else if (txt.equals(":as-alias")) {
+      nextTokenIsAsAlias = true;
+    } else if (txt.equals(":all")) {
+      activeRequire.referAll = true;
+      activeRequire.refer = null;
+    } else if (nextTokenIsDefault) {
+      activeRequire.defaultSymbol = txt;
+      nextTokenIsDefault = false;
+    } else if (insideRequireList && renameDepth != -1 && depth > renameDepth) {
+      NsForm.Rename rename = collectRename(txt);
+      if (rename != null) {
+        if (activeRequire.rename == null) activeRequire.rename = new ArrayList<>();
+        activeRequire.rename.add(rename);
+      }
+    } else if (referDepth != -1 && depth > referDepth) {
+      if (activeRequire.refer == null) activeRequire.refer = new ArrayList<>();
+      activeRequire.refer.add(new NsForm.SymbolRef(txt, null));
+    } else if (!insideRequireList && !isKeyword) {
+      NsForm.Require req = addRequire(txt, currentPlatform());
+      req.commentsAbove = takePendingComments();
+    } else if (insidePrefixList) {
+      NsForm.Require req = addRequire(prefixListPrefix + "." + txt, null);
+      req.prefixListId = currentPrefixListId;
+      requireSymbolFound = true;
+    } else if (insideRequireList && !requireSymbolFound && !isKeyword) {
+      Node nextToken = findNextTokenInList();
+      if (nextToken != null && !Utils.isKeywordNode(nextToken)) {
+        // (prefix suffix1 suffix2 ...)
+        numPrefixLists++;
+        currentPrefixListId = String.valueOf(numPrefixLists);
+        insidePrefixList = true;
+        prefixListLineNo = lineNo;
+        prefixListPrefix = txt;
+        List<String> comments = takePendingComments();
+        if (comments != null) {
+          Map<String, Object> itm = new HashMap<>();
+          itm.put("commentsAbove", comments);
+          prefixListComments.put(currentPrefixListId, itm);
+        }
+      } else {
+        NsForm.Require req = addRequire(txt, currentPlatform());
+        requireSymbolFound = true;
+        insidePrefixList = false;
+        prefixListLineNo = -1;
+        req.commentsAbove = takePendingComments();
+      }
+    } else if (insideRequireList && txt.equals(":rename")) {
+      renameDepth = depth;
+      renamesTmp.clear();
+    }
+  }
+
+  private static boolean isRequireFlag(String txt) {
+    return txt.equals(":reload") || txt.equals(":reload-all") || txt.equals(":verbose");
+  }
+
+  // the first token after the current Node inside of the same list, looking into nested forms
+  private Node findNextTokenInList() {
+    List<Node> siblings = cursor.parent().getChildren();
+    for (int i = cursor.childIndex() + 1; i < siblings.size(); i++) {
+      Node n = siblings.get(i);
+      if (Utils.isTokenNode(n)) return n;
+      if (n.getChildren() == null || Utils.isReaderCommentNode(n) || Utils.isStringNode(n)) {
+        continue;
+      }
+      lookahead.reset(n);
+      while (lookahead.next()) {
+        Node inner = lookahead.node();
+        if (Utils.isParenCloser(inner)) return null;
+        if (Utils.isTokenNode(inner)) return inner;
+      }
+    }
+    return null;
+  }
+
+  // ClojureScript allows Strings as require symbols
+  private void onRequireString(Node node) {
+    if (!insideRequireList) return;
+    NsForm.Require req =
+        addRequire("\"" + Utils.getTextFromStringNode(node) + "\"", currentPlatform());
+    req.commentsAbove = takePendingComments();
+    req.symbolIsString = true;
+  }
+
+  private void onRequireMacrosToken(Node node) {
+    if (collectPlatform(node)) return;
+    String txt = node.getText();
+
+    if (collectRequireMacrosRefer) {
+      if (activeRequireMacro.refer == null) activeRequireMacro.refer = new ArrayList<>();
+      activeRequireMacro.refer.add(new NsForm.SymbolRef(txt, currentPlatform()));
+    } else if (nextTokenIsRequireMacrosAs) {
+      activeRequireMacro.as = txt;
+      nextTokenIsRequireMacrosAs = false;
+    } else if (collectRequireMacrosRename) {
+      if (activeRequireMacro.rename == null) activeRequireMacro.rename = new ArrayList<>();
+      NsForm.Rename rename = collectRename(txt);
+      if (rename != null) activeRequireMacro.rename.add(rename);
+    } else if (txt.equals(":refer")) {
+      collectRequireMacrosRefer = true;
+    } else if (txt.equals(":as")) {
+      nextTokenIsRequireMacrosAs = true;
+    } else if (txt.equals(":rename")) {
+      collectRequireMacrosRename = true;
+      renamesTmp.clear();
+    } else {
+      if (ns.requireMacros == null) {
+        ns.requireMacros = new ArrayList<>();
+        ns.requireMacrosCommentsAbove = takePendingComments();
+      }
+      NsForm.Require req = new NsForm.Require(txt, currentPlatform());
+      req.commentsAbove = takePendingComments();
+      ns.requireMacros.add(req);
+      activeRequireMacro = req;
+      requireMacrosLineNo = lineNo;
+    }
+  }
+
+  private NsForm.Import getImport(String packageName) {
+    if (importsByPackage == null) importsByPackage = new HashMap<>();
+    NsForm.Import imp = importsByPackage.get(packageName);
+    if (imp == null) {
+      imp = new NsForm.Import(packageName, new ArrayList<>());
+      importsByPackage.put(packageName, imp);
+    }
+    List<String> comments = takePendingComments();
+    if (comments != null) imp.commentsAbove = comments;
+    String importPlatform = currentPlatform();
+    if (importPlatform != null) imp.platform = importPlatform;
+    activeImport = imp;
+    importFormLineNo = lineNo;
+    return imp;
+  }
+
+  private void onImportToken(Node node) {
+    if (collectPlatform(node)) return;
+    String txt = node.getText();
+
+    if (!insideImportPackageList) {
+      // java.util.Date
+      Map<String, Object> packageParsed = Utils.parseJavaPackageWithClass(txt);
+      NsForm.Import imp = getImport((String) packageParsed.get("package"));
+      imp.classes.add((String) packageParsed.get("className"));
+    } else if (importPackageListImport == null) {
+      // (java.util Date UUID)
+      importPackageListImport = getImport(txt);
+    } else {
+      importPackageListImport.classes.add(txt);
+    }
+  }
+
+  private void onGenClassToken(Node node) {
+    if (collectPlatform(node)) return;
+    String txt = node.getText();
+
+    if (!lookingForGenClassValue && Utils.isGenClassKeyword(node)) {
+      ns.genClass.isEmpty = false;
+      genClassKey = txt.substring(1); // remove leading ':'
+      NsForm.GenClassValue value = new NsForm.GenClassValue();
+      value.commentsAbove = takePendingComments();
+      ns.genClass.options.put(genClassKey, value);
+      lookingForGenClassValue = true;
+    } else if (lookingForGenClassValue) {
+      // :name, :extends, :init, :post-init, :factory, :state, :impl-ns
+      if (Utils.isGenClassNameKey(genClassKey)) {
+        setGenClassValue(txt);
+        // :main, :load-impl-ns
+      } else if (Utils.isGenClassBooleanKey(genClassKey)) {
+        if (txt.equals("true")) {
+          setGenClassValue(Boolean.TRUE);
+        } else if (txt.equals("false")) {
+          setGenClassValue(Boolean.FALSE);
+        }
+      }
+      // the vector and map values are collected by A_GEN_CLASS_FORM
+    }
+  }
+
+  private void setGenClassValue(Object value) {
+    NsForm.GenClassValue genClassValue = ns.genClass.options.get(genClassKey);
+    genClassValue.value = value;
+    genClassValue.hasValue = true;
+    lookingForGenClassValue = false;
+    genClassValueLineNo = lineNo;
+  }
+}
@@ -0,0 +1,718 @@
+package com.oakmac.standardclojurestyle;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Prints an NsForm "from scratch" in the canonical Standard Clojure Style layout: docstring and
+ * metadata first, then :refer-clojure, :require-macros, :require, :import, :load and :gen-class.
+ * Sections where every entry belongs to the same reader conditional platform are wrapped in #?(),
+ * other platform-specific entries are grouped at the end of their section with #?@().
+ */
+final class NsFormPrinter {
+  // the order that :gen-class options are printed in
+  private static final String[] GEN_CLASS_KEYS = {
+    "name",
+    "extends",
+    "implements",
+    "init",
+    "constructors",
+    "post-init",
+    "methods",
+    "main",
+    "factory",
+    "state",
+    "exposes",
+    "exposes-methods",
+    "prefix",
+    "impl-ns",
+    "load-impl-ns"
+  };
+
+  private final StringBuilder outTxt = new StringBuilder();
+  // an end-of-line comment that will be printed before the next newline
+  private String lineComment = null;
+  private String commentOutsideNsForm = null;
+  private boolean usedCommentOutsideNsForm = false;
+
+  private NsFormPrinter() {}
+
+  /**
+   * Returns the text of the ns form. The text never ends with a newline. If it ends with a
+   * comment, endsWithComment(txt) is true and nothing else should be printed on that line.
+   */
+  static String print(NsForm ns) {
+    return printNsForm(ns).getText();
+  }
+
+  /** Same as print(ns), but returns the printer so usedCommentOutsideNsForm() can be asked. */
+  static NsFormPrinter printNsForm(NsForm ns) {
+    NsFormPrinter p = new NsFormPrinter();
+    p.printNs(ns);
+    return p;
+  }
+
+  String getText() {
+    return outTxt.toString();
+  }
+
+  /**
+   * Was ns.getCommentOutsideNsForm() printed as the comment of one of the entries, or left out as
+   * an ambiguous import comment? If so the original comment after the ns form must not be printed
+   * again, otherwise it must be.
+   */
+  boolean usedCommentOutsideNsForm() {
+    return usedCommentOutsideNsForm;
+  }
+
+  static boolean endsWithComment(String txt) {
+    return !txt.endsWith(")");
+  }
+
+  /**
+   * Does printed hold every symbol, keyword and String of the ns form? If not, the ns form has
+   * code that the NsForm does not model, and printing it would delete that code. Symbols are
+   * compared by their dot-separated parts without a leading colon, because the printer joins
+   * prefix lists, splits imports and turns require into :require.
+   *
+   * <p>The metadata before the first section is not compared: it is kept as key / value pairs,
+   * where a later value for a key replaces an earlier one.
+   */
+  static boolean keepsAllCode(Node nsForm, String printed) {
+    Set<String> printedParts = new HashSet<>();
+    addCodeParts(Parser.parse(printed), false, printedParts);
+    Set<String> parts = new HashSet<>();
+    boolean inHead = true;
+    for (Node child : nsForm.getChildren()) {
+      if (!".body".equals(child.getName())) continue;
+      for (Node item : child.getChildren()) {
+        if (item.getName().equals("parens")) inHead = false;
+        if (inHead && item.getName().equals("braces")) continue;
+        addCodeParts(item, inHead, parts);
+      }
+    }
+    return printedParts.containsAll(parts);
+  }
+
+  private static void addCodeParts(Node node, boolean skipMetadata, Set<String> parts) {
+    TreeCursor cursor = new TreeCursor(node);
+    while (cursor.next()) {
+      Node n = cursor.node();
+      String name = n.getName();
+      if (name == null) continue;
+      if (name.equals("comment")
+          || name.equals("discard")
+          || (skipMetadata && name.equals(".meta"))) {
+        cursor.skipChildren();
+      } else if (name.equals("string")) {
+        parts.add(Utils.getTextFromRootNode(n));
+        cursor.skipChildren();
+      } else if (name.equals("token")) {
+        String txt = n.getText();
+        int start = 0;
+        while (start < txt.length() && txt.charAt(start) == ':') start++;
+        for (String part : txt.substring(start).split("\\.")) {
+          if (!part.isEmpty()) parts.add(part);
+        }
+      }
+    }
+  }
+
+  private void printNs(NsForm ns) {
+    commentOutsideNsForm = ns.getCommentOutsideNsForm();
+    outTxt.append("(ns ").append(ns.getNsSymbol());
+
+    if (ns.getDocstring() != null) {
+      newline(2);
+      outTxt.append('"').append(ns.getDocstring()).append('"');
+    }
+
+    List<String[]> metadata = ns.getNsMetadata();
+    if (metadata != null && !metadata.isEmpty()) {
+      for (int i = 0; i < metadata.size(); i++) {
+        String[] kv = metadata.get(i);
+        newline(i == 0 ? 2 : 3);
+        if (i == 0) outTxt.append('{');
+        outTxt.append(kv[0]).append(' ').append(kv[1]);
+      }
+      outTxt.append('}');
+    }
+
+    printReferClojure(ns);
+    printRequires(
+        ":require-macros", ns.getRequireMacros(), ns.getRequireMacrosCommentsAbove(), null, null);
+    printRequires(
+        ":require",
+        ns.getRequires(),
+        ns.getRequireCommentsAbove(),
+        ns.getRequireCommentAfter(),
+        ns.getRequireFlags());
+    printImports(ns);
+    printLoad(ns);
+    printGenClass(ns);
+
+    outTxt.append(')');
+    if (lineComment != null) {
+      outTxt.append(' ').append(lineComment);
+      lineComment = null;
+    }
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // Helpers
+
+  private void newline(int indent) {
+    if (lineComment != null) {
+      outTxt.append(' ').append(lineComment);
+      lineComment = null;
+    }
+    outTxt.append('\n');
+    spaces(indent);
+  }
+
+  private void spaces(int n) {
+    for (int i = 0; i < n; i++) {
+      outTxt.append(' ');
+    }
+  }
+
+  private void commentAfter(String comment) {
+    if (comment == null) return;
+    // the same String instance: another entry can have an equal comment
+    if (comment == commentOutsideNsForm) usedCommentOutsideNsForm = true;
+    lineComment = lineComment == null ? comment : lineComment + " " + comment;
+  }
+
+  private void commentsAbove(List<String> comments, int indent) {
+    if (comments == null) return;
+    for (String comment : comments) {
+      newline(indent);
+      outTxt.append(comment);
+    }
+  }
+
+  private int column() {
+    return outTxt.length() - (outTxt.lastIndexOf("\n") + 1);
+  }
+
+  // prints a form from the source, formatted, with its later lines indented from the current
+  // column. Lines that start inside of a String are left as they are.
+  private void appendForm(String txt) {
+    String formatted = StandardClojureStyle.formatForm(txt);
+    int col = column();
+    int len = formatted.length();
+    int idx = 0;
+    while (idx < len) {
+      char c = formatted.charAt(idx);
+      int next = idx + 1;
+      if (c == '"') {
+        next = FormScanner.skipString(formatted, idx);
+      } else if (c == '#' && idx + 1 < len && formatted.charAt(idx + 1) == '"') {
+        next = FormScanner.skipString(formatted, idx + 1);
+      } else if (c == '\\') {
+        next = FormScanner.skipCharLiteral(formatted, idx);
+      } else if (c == ';') {
+        next = FormScanner.skipComment(formatted, idx);
+      } else if (c == '\n') {
+        outTxt.append('\n');
+        if (next < len && formatted.charAt(next) != '\n') spaces(col);
+        idx = next;
+        continue;
+      }
+      if (next < 0) next = len;
+      outTxt.append(formatted, idx, next);
+      idx = next;
+    }
+  }
+
+  // :clj and :cljs first, :default always last, everything else sorted alphabetically
+  private static int comparePlatforms(String a, String b) {
+    boolean aIsDefault = a.equals(":default");
+    boolean bIsDefault = b.equals(":default");
+    if (aIsDefault || bIsDefault) return Boolean.compare(aIsDefault, bIsDefault);
+    return a.compareTo(b);
+  }
+
+  private static <T> Map<String, List<T>> newPlatformMap() {
+    return new TreeMap<>(NsFormPrinter::comparePlatforms);
+  }
+
+  // returns the platform shared by every entry, or null if any entry is outside of #?()
+  private static String sharedPlatform(List<String> platforms) {
+    if (platforms.isEmpty()) return null;
+    String first = platforms.get(0);
+    if (first == null) return null;
+    for (String platform : platforms) {
+      if (!first.equals(platform)) return null;
+    }
+    return first;
+  }
+
+  // prints "#?(:platform" and returns the indentation for the form inside of it
+  private int openWrapper(String platform) {
+    newline(2);
+    outTxt.append("#?(").append(platform);
+    return 5;
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // :refer-clojure
+
+  private void printReferClojure(NsForm ns) {
+    NsForm.ReferClojure rc = ns.getReferClojure();
+    if (rc == null) {
+      commentsAbove(ns.getReferClojureCommentsAbove(), 2);
+      return;
+    }
+
+    List<String> platforms = new ArrayList<>();
+    if (rc.getExclude() != null) {
+      for (NsForm.SymbolRef s : rc.getExclude()) platforms.add(s.getPlatform());
+    }
+    if (rc.getOnly() != null) {
+      for (NsForm.SymbolRef s : rc.getOnly()) platforms.add(s.getPlatform());
+    }
+    if (rc.getRename() != null) {
+      for (NsForm.Rename r : rc.getRename()) platforms.add(r.getPlatform());
+    }
+    String wrapPlatform = sharedPlatform(platforms);
+
+    int indent = 2;
+    if (wrapPlatform != null) indent = openWrapper(wrapPlatform);
+    commentsAbove(ns.getReferClojureCommentsAbove(), indent);
+    newline(indent);
+    outTxt.append("(:refer-clojure");
+
+    int numClauses = 0;
+    boolean hasPlatforms = false;
+    if (rc.getExclude() != null) {
+      numClauses++;
+      hasPlatforms |= hasOtherPlatform(rc.getExclude(), wrapPlatform);
+    }
+    if (rc.getOnly() != null) {
+      numClauses++;
+      hasPlatforms |= hasOtherPlatform(rc.getOnly(), wrapPlatform);
+    }
+    if (rc.getRename() != null) {
+      numClauses++;
+      for (NsForm.Rename r : rc.getRename()) {
+        if (r.getPlatform() != null && !r.getPlatform().equals(wrapPlatform)) hasPlatforms = true;
+      }
+    }
+
+    // one simple clause fits on the first line, otherwise every clause gets its own line
+    boolean oneLine = numClauses == 1 && !hasPlatforms;
+    int clauseIndent = indent + 2;
+    if (rc.getExclude() != null) {
+      startClause(oneLine, clauseIndent);
+      printSymbolsClause(":exclude", rc.getExclude(), wrapPlatform);
+    }
+    if (rc.getOnly() != null) {
+      startClause(oneLine, clauseIndent);
+      printSymbolsClause(":only", rc.getOnly(), wrapPlatform);
+    }
+    if (rc.getRename() != null) {
+      startClause(oneLine, clauseIndent);
+      printRenameClause(rc.getRename(), wrapPlatform);
+    }
+    outTxt.append(')');
+    if (wrapPlatform != null) outTxt.append(')');
+    commentAfter(ns.getReferClojureCommentAfter());
+  }
+
+  private static boolean hasOtherPlatform(List<NsForm.SymbolRef> symbols, String wrapPlatform) {
+    for (NsForm.SymbolRef s : symbols) {
+      if (s.getPlatform() != null && !s.getPlatform().equals(wrapPlatform)) return true;
+    }
+    return false;
+  }
+
+  private void startClause(boolean oneLine, int indent) {
+    if (oneLine) {
+      outTxt.append(' ');
+    } else {
+      newline(indent);
+    }
+  }
+
+  // :exclude [a b #?@(:clj [c] :cljs [d])], or :exclude #?@(...) if every symbol has a platform
+  private void printSymbolsClause(
+      String keyword, List<NsForm.SymbolRef> symbols, String wrapPlatform) {
+    List<String> common = new ArrayList<>();
+    Map<String, List<String>> byPlatform = newPlatformMap();
+    for (NsForm.SymbolRef s : symbols) {
+      String platform = s.getPlatform();
+      if (platform == null || platform.equals(wrapPlatform)) {
+        common.add(s.getSymbol());
+      } else {
+        byPlatform.computeIfAbsent(platform, k -> new ArrayList<>()).add(s.getSymbol());
+      }
+    }
+
+    outTxt.append(keyword).append(' ');
+    if (byPlatform.isEmpty()) {
+      outTxt.append('[').append(String.join(" ", common)).append(']');
+      return;
+    }
+    if (common.isEmpty()) {
+      printSplicedPlatforms(byPlatform);
+      return;
+    }
+    outTxt.append('[').append(String.join(" ", common));
+    int col = column() - String.join(" ", common).length();
+    newline(col);
+    printSplicedPlatforms(byPlatform);
+    outTxt.append(']');
+  }
+
+  private void printRenameClause(List<NsForm.Rename> renames, String wrapPlatform) {
+    List<String> common = new ArrayList<>();
+    Map<String, List<String>> byPlatform = newPlatformMap();
+    for (NsForm.Rename r : renames) {
+      String pair = r.getFromSymbol() + " " + r.getToSymbol();
+      String platform = r.getPlatform();
+      if (platform == null || platform.equals(wrapPlatform)) {
+        common.add(pair);
+      } else {
+        byPlatform.computeIfAbsent(platform, k -> new ArrayList<>()).add(pair);
+      }
+    }
+
+    outTxt.append(":rename {").append(String.join(", ", common));
+    if (!byPlatform.isEmpty()) {
+      if (!common.isEmpty()) {
+        int col = column() - String.join(", ", common).length();
+        newline(col);
+      }
+      printSplicedPlatforms(byPlatform);
+    }
+    outTxt.append('}');
+  }
+
+  // #?@(:clj [a b]
+  //     :cljs [c])
+  private void printSplicedPlatforms(Map<String, List<String>> byPlatform) {
+    int platformCol = column() + 4;
+    outTxt.append("#?@(");
+    boolean first = true;
+    for (Map.Entry<String, List<String>> entry : byPlatform.entrySet()) {
+      if (!first) newline(platformCol);
+      first = false;
+      outTxt.append(entry.getKey()).append(" [").append(String.join(" ", entry.getValue()));
+      outTxt.append(']');
+    }
+    outTxt.append(')');
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // :require and :require-macros
+
+  private void printRequires(
+      String keyword,
+      List<NsForm.Require> reqs,
+      List<String> comments,
+      String commentAfter,
+      List<String> flags) {
+    if ((reqs == null || reqs.isEmpty()) && flags == null) {
+      commentsAbove(comments, 2);
+      return;
+    }
+    if (reqs == null) reqs = List.of();
+
+    List<String> platforms = new ArrayList<>(reqs.size());
+    for (NsForm.Require req : reqs) platforms.add(req.getPlatform());
+    String wrapPlatform = sharedPlatform(platforms);
+
+    int indent = 2;
+    if (wrapPlatform != null) indent = openWrapper(wrapPlatform);
+    commentsAbove(comments, indent);
+    newline(indent);
+    outTxt.append('(').append(keyword);
+    commentAfter(commentAfter);
+
+    Map<String, List<NsForm.Require>> byPlatform = newPlatformMap();
+    for (NsForm.Require req : reqs) {
+      String platform = req.getPlatform();
+      if (platform == null || platform.equals(wrapPlatform)) {
+        printEntry(requireText(req), req.getCommentsAbove(), req.getCommentAfter(), indent + 1);
+      } else {
+        byPlatform.computeIfAbsent(platform, k -> new ArrayList<>()).add(req);
+      }
+    }
+
+    if (!byPlatform.isEmpty()) {
+      List<List<String[]>> groups = new ArrayList<>();
+      for (List<NsForm.Require> group : byPlatform.values()) {
+        List<String[]> entries = new ArrayList<>(group.size());
+        for (NsForm.Require req : group) {
+          entries.add(new String[] {requireText(req), req.getCommentAfter()});
+        }
+        groups.add(entries);
+      }
+      printSplicedEntries(byPlatform, groups, indent + 1);
+    }
+
+    // :reload, :reload-all and :verbose
+    if (flags != null) {
+      for (String flag : flags) {
+        newline(indent + 1);
+        outTxt.append(flag);
+      }
+    }
+
+    outTxt.append(')');
+    if (wrapPlatform != null) outTxt.append(')');
+  }
+
+  private static String requireText(NsForm.Require req) {
+    StringBuilder s = new StringBuilder();
+    s.append('[').append(req.getSymbol());
+    if (req.getAs() != null) s.append(" :as ").append(req.getAs());
+    if (req.getAsAlias() != null) s.append(" :as-alias ").append(req.getAsAlias());
+    if (req.getDefault() != null) s.append(" :default ").append(req.getDefault());
+    if (req.isReferAll()) {
+      s.append(" :refer :all");
+    } else if (req.getRefer() != null) {
+      s.append(" :refer [");
+      appendSymbols(s, req.getRefer());
+      s.append(']');
+    }
+    if (req.getExclude() != null) {
+      s.append(" :exclude [");
+      appendSymbols(s, req.getExclude());
+      s.append(']');
+    }
+    if (req.getRename() != null) {
+      s.append(" :rename {");
+      for (int i = 0; i < req.getRename().size(); i++) {
+        NsForm.Rename r = req.getRename().get(i);
+        if (i > 0) s.append(", ");
+        s.append(r.getFromSymbol()).append(' ').append(r.getToSymbol());
+      }
+      s.append('}');
+    }
+    if (req.getIncludeMacros() != null) {
+      s.append(" :include-macros ").append(req.getIncludeMacros());
+    }
+    if (req.getReferMacros() != null) {
+      s.append(" :refer-macros [").append(String.join(" ", req.getReferMacros())).append(']');
+    }
+    return s.append(']').toString();
+  }
+
+  private static void appendSymbols(StringBuilder s, List<NsForm.SymbolRef> symbols) {
+    for (int i = 0; i < symbols.size(); i++) {
+      if (i > 0) s.append(' ');
+      s.append(symbols.get(i).getSymbol());
+    }
+  }
+
+  private void printEntry(String txt, List<String> comments, String comment, int indent) {
+    commentsAbove(comments, indent);
+    newline(indent);
+    outTxt.append(txt);
+    commentAfter(comment);
+  }
+
+  // #?@(:clj
+  //     [[aaa]
+  //      [bbb]]
+  //
+  //     :cljs
+  //     [[ccc]])
+  private <T> void printSplicedEntries(
+      Map<String, List<T>> byPlatform, List<List<String[]>> groups, int indent) {
+    if (allSingletons(groups)) {
+      printPlatformEntries(byPlatform, groups, indent);
+      return;
+    }
+    newline(indent);
+    outTxt.append("#?@(");
+    int platformIndent = indent + 4;
+    int groupIdx = 0;
+    for (Map.Entry<String, List<T>> entry : byPlatform.entrySet()) {
+      if (groupIdx > 0) {
+        newline(0);
+        newline(platformIndent);
+      }
+      outTxt.append(entry.getKey());
+      List<String[]> entries = groups.get(groupIdx);
+      List<T> items = entry.getValue();
+      for (int i = 0; i < entries.size(); i++) {
+        List<String> comments = commentsAboveOf(items.get(i));
+        if (i == 0) {
+          commentsAbove(comments, platformIndent);
+          newline(platformIndent);
+          outTxt.append('[');
+        } else {
+          commentsAbove(comments, platformIndent + 1);
+          newline(platformIndent + 1);
+        }
+        outTxt.append(entries.get(i)[0]);
+        if (i == entries.size() - 1) outTxt.append(']');
+        commentAfter(entries.get(i)[1]);
+      }
+      groupIdx++;
+    }
+    outTxt.append(')');
+  }
+
+  private static boolean allSingletons(List<List<String[]>> groups) {
+    for (List<String[]> group : groups) {
+      if (group.size() != 1) return false;
+    }
+    return true;
+  }
+
+  // #?(:clj [aaa]
+  //    :cljs [bbb])
+  private <T> void printPlatformEntries(
+      Map<String, List<T>> byPlatform, List<List<String[]>> groups, int indent) {
+    int platformIndent = indent + 3;
+    int groupIdx = 0;
+    for (Map.Entry<String, List<T>> entry : byPlatform.entrySet()) {
+      String[] item = groups.get(groupIdx).get(0);
+      List<String> comments = commentsAboveOf(entry.getValue().get(0));
+      if (groupIdx == 0) {
+        commentsAbove(comments, indent);
+        newline(indent);
+        outTxt.append("#?(");
+      } else {
+        commentsAbove(comments, platformIndent);
+        newline(platformIndent);
+      }
+      outTxt.append(entry.getKey()).append(' ').append(item[0]);
+      commentAfter(item[1]);
+      groupIdx++;
+    }
+    outTxt.append(')');
+  }
+
+  private static List<String> commentsAboveOf(Object item) {
+    if (item instanceof NsForm.Require) return ((NsForm.Require) item).getCommentsAbove();
+    if (item instanceof NsForm.Import) return ((NsForm.Import) item).getCommentsAbove();
+    return null;
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // :import
+
+  private void printImports(NsForm ns) {
+    List<NsForm.Import> imports = ns.getImports();
+    if (imports == null || imports.isEmpty()) {
+      commentsAbove(ns.getImportCommentsAbove(), 2);
+      return;
+    }
+
+    List<String> platforms = new ArrayList<>(imports.size());
+    for (NsForm.Import imp : imports) platforms.add(imp.getPlatform());
+    String wrapPlatform = sharedPlatform(platforms);
+
+    int indent = 2;
+    if (wrapPlatform != null) indent = openWrapper(wrapPlatform);
+    commentsAbove(ns.getImportCommentsAbove(), indent);
+    newline(indent);
+    outTxt.append("(:import");
+    commentAfter(ns.getImportCommentAfter());
+
+    Map<String, List<NsForm.Import>> byPlatform = newPlatformMap();
+    for (NsForm.Import imp : imports) {
+      String platform = imp.getPlatform();
+      if (platform == null || platform.equals(wrapPlatform)) {
+        printEntry(importText(imp), imp.getCommentsAbove(), importCommentAfter(imp), indent + 1);
+      } else {
+        byPlatform.computeIfAbsent(platform, k -> new ArrayList<>()).add(imp);
+      }
+    }
+
+    if (!byPlatform.isEmpty()) {
+      List<List<String[]>> groups = new ArrayList<>();
+      for (List<NsForm.Import> group : byPlatform.values()) {
+        List<String[]> entries = new ArrayList<>(group.size());
+        for (NsForm.Import imp : group) {
+          entries.add(new String[] {importText(imp), importCommentAfter(imp)});
+        }
+        groups.add(entries);
+      }
+      printSplicedEntries(byPlatform, groups, indent + 1);
+    }
+
+    outTxt.append(')');
+    if (wrapPlatform != null) outTxt.append(')');
+  }
+
+  // an ambiguous import comment is left out, even when it is the comment after the ns form
+  private String importCommentAfter(NsForm.Import imp) {
+    if (!imp.isCommentAmbiguous()) return imp.getCommentAfter();
+    if (imp.getCommentAfter() == commentOutsideNsForm) usedCommentOutsideNsForm = true;
+    return null;
+  }
+
+  private static String importText(NsForm.Import imp) {
+    List<String> classes = imp.getClasses();
+    if (classes == null || classes.isEmpty()) return imp.getPackage();
+    return "(" + imp.getPackage() + " " + String.join(" ", classes) + ")";
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // :load
+
+  // the paths are loaded in order, so they are not sorted
+  private void printLoad(NsForm ns) {
+    NsForm.Load load = ns.getLoad();
+    if (load == null) return;
+
+    int indent = 2;
+    String platform = load.getPlatform();
+    if (platform != null) indent = openWrapper(platform);
+    commentsAbove(load.getCommentsAbove(), indent);
+    newline(indent);
+    outTxt.append("(:load");
+    for (String path : load.getPaths()) {
+      outTxt.append(' ').append(path);
+    }
+    outTxt.append(')');
+    if (platform != null) outTxt.append(')');
+    commentAfter(load.getCommentAfter());
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // :gen-class
+
+  private void printGenClass(NsForm ns) {
+    NsForm.GenClass genClass = ns.getGenClass();
+    if (genClass == null) return;
+
+    int indent = 2;
+    String platform = genClass.getPlatform();
+    if (platform != null) indent = openWrapper(platform);
+    commentsAbove(genClass.getCommentsAbove(), indent);
+    newline(indent);
+    outTxt.append("(:gen-class");
+    commentAfter(genClass.getCommentAfter());
+
+    if (!genClass.isEmpty()) {
+      Map<String, NsForm.GenClassValue> options = genClass.getOptions();
+      for (String key : GEN_CLASS_KEYS) {
+        NsForm.GenClassValue value = options.get(key);
+        if (value == null || value.getValue() == null) continue;
+        commentsAbove(value.getCommentsAbove(), indent + 1);
+        newline(indent + 1);
+        outTxt.append(':').append(key).append(' ');
+        if (Utils.isGenClassCollectionKey(key)) {
+          appendForm((String) value.getValue());
+        } else {
+          outTxt.append(value.getValue());
+        }
+        commentAfter(value.getCommentAfter());
+      }
+    }
+
+    outTxt.append(')');
+    if (platform != null) outTxt.append(')');
+  }
+}
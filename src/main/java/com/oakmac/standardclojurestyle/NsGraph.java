@@ -0,0 +1,483 @@
+package com.oakmac.standardclojurestyle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * NsGraph is the namespace dependency graph of a source tree: which namespaces every ns form
+ * requires (including :require-macros), and on which platform. A .clj and a .cljs file with the
+ * same ns symbol are two nodes, one per platform; a .cljc file is a node on both platforms.
+ *
+ * <p>Files are parsed in parallel with ParseNs.parseNsFormHead, so only the top of every file is
+ * read. Each file is parsed independently: a file that cannot be read or parsed is recorded in
+ * getErrors() and the rest of the graph is still built.
+ */
+public final class NsGraph {
+  /**
+   * An edge of the graph. platform is the platform of the file (":clj" or ":cljs"), or for a .cljc
+   * file the platform of the reader conditional the require is in, null if there is none.
+   */
+  public static final class Edge {
+    final String from;
+    final String to;
+    final String platform;
+
+    Edge(String from, String to, String platform) {
+      this.from = from;
+      this.to = to;
+      this.platform = platform;
+    }
+
+    public String getFrom() {
+      return from;
+    }
+
+    public String getTo() {
+      return to;
+    }
+
+    public String getPlatform() {
+      return platform;
+    }
+  }
+
+  // the result of parsing one file
+  private static final class FileResult {
+    final Path path;
+    final NsForm ns;
+    final String error;
+
+    FileResult(Path path, NsForm ns, String error) {
+      this.path = path;
+      this.ns = ns;
+      this.error = error;
+    }
+  }
+
+  private final Map<Path, String> files = new TreeMap<>();
+  private final Map<Path, String> errors = new TreeMap<>();
+  private final Map<String, List<Edge>> edges = new TreeMap<>();
+  private final Map<String, List<Edge>> reverseEdges = new TreeMap<>();
+  // the platforms every namespace with an ns form is defined on
+  private final Map<String, Set<String>> nsPlatforms = new TreeMap<>();
+
+  private static final List<String> PLATFORMS = Arrays.asList(":clj", ":cljs");
+
+  private NsGraph() {}
+
+  static boolean isClojureFile(Path path) {
+    String fileName = path.getFileName().toString();
+    return fileName.endsWith(".clj") || fileName.endsWith(".cljs") || fileName.endsWith(".cljc");
+  }
+
+  // returns ":clj" or ":cljs", or null for a .cljc file
+  static String filePlatform(Path path) {
+    String fileName = path.getFileName().toString();
+    if (fileName.endsWith(".clj")) return ":clj";
+    if (fileName.endsWith(".cljs")) return ":cljs";
+    return null;
+  }
+
+  /** Builds the graph of all .clj, .cljs and .cljc files under root using every available core. */
+  public static NsGraph build(Path root) throws IOException, InterruptedException {
+    return build(root, Runtime.getRuntime().availableProcessors());
+  }
+
+  /** Builds the graph of all .clj, .cljs and .cljc files under root using numThreads threads. */
+  public static NsGraph build(Path root, int numThreads) throws IOException, InterruptedException {
+    List<Path> paths;
+    try (Stream<Path> stream = Files.walk(root)) {
+      paths =
+          stream
+              .filter(p -> Files.isRegularFile(p) && isClojureFile(p))
+              .sorted()
+              .collect(Collectors.toList());
+    }
+    return build(paths, numThreads);
+  }
+
+  /** Builds the graph of a list of files using numThreads threads. */
+  public static NsGraph build(List<Path> paths, int numThreads) throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, numThreads));
+    try {
+      List<Future<FileResult>> futures = new ArrayList<>(paths.size());
+      for (Path path : paths) {
+        futures.add(executor.submit(() -> parseFile(path)));
+      }
+
+      NsGraph graph = new NsGraph();
+      for (Future<FileResult> future : futures) {
+        try {
+          graph.add(future.get());
+        } catch (ExecutionException e) {
+          // parseFile catches everything, this is an Error thrown by the JVM
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+      return graph;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static FileResult parseFile(Path path) {
+    try {
+      Utf8Source src = Utf8Source.wrap(Files.readAllBytes(path));
+      return new FileResult(path, ParseNs.parseNsFormHead(src), null);
+    } catch (IOException | RuntimeException e) {
+      String msg = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+      return new FileResult(path, null, msg);
+    } catch (StackOverflowError e) {
+      // the Parser is recursive
+      return new FileResult(path, null, "too deeply nested to parse");
+    }
+  }
+
+  private void add(FileResult result) {
+    if (result.error != null) {
+      errors.put(result.path, result.error);
+      return;
+    }
+    NsForm ns = result.ns;
+    if (ns.getNsSymbol() == null) return;
+
+    String from = ns.getNsSymbol();
+    String filePlatform = filePlatform(result.path);
+    files.put(result.path, from);
+    edges.computeIfAbsent(from, k -> new ArrayList<>());
+    Set<String> platforms = nsPlatforms.computeIfAbsent(from, k -> new TreeSet<>());
+    if (filePlatform != null) {
+      platforms.add(filePlatform);
+    } else {
+      platforms.addAll(PLATFORMS);
+    }
+    addEdges(from, filePlatform, ns.getRequires());
+    addEdges(from, filePlatform, ns.getRequireMacros());
+  }
+
+  private void addEdges(String from, String filePlatform, List<NsForm.Require> requires) {
+    if (requires == null) return;
+    for (NsForm.Require req : requires) {
+      // ClojureScript allows Strings for npm dependencies, which are not namespaces
+      if (Boolean.TRUE.equals(req.getSymbolIsString())) continue;
+
+      String platform = filePlatform != null ? filePlatform : req.getPlatform();
+      Edge edge = new Edge(from, req.getSymbol(), platform);
+      edges.get(from).add(edge);
+      reverseEdges.computeIfAbsent(edge.to, k -> new ArrayList<>()).add(edge);
+    }
+  }
+
+  /** Returns the ns symbol of every file that has an ns form. */
+  public Map<Path, String> getFiles() {
+    return Collections.unmodifiableMap(files);
+  }
+
+  /** Returns the files that could not be read or parsed, and why. */
+  public Map<Path, String> getErrors() {
+    return Collections.unmodifiableMap(errors);
+  }
+
+  /** Returns every namespace: the ones with an ns form, and every namespace they require. */
+  public Set<String> getNamespaces() {
+    Set<String> namespaces = new TreeSet<>(edges.keySet());
+    namespaces.addAll(reverseEdges.keySet());
+    return namespaces;
+  }
+
+  /** Returns the outgoing edges of a namespace. */
+  public List<Edge> getEdges(String ns) {
+    return Collections.unmodifiableList(edges.getOrDefault(ns, Collections.emptyList()));
+  }
+
+  /** Returns the namespaces that ns requires on any platform. */
+  public Set<String> getRequires(String ns) {
+    Set<String> requires = new TreeSet<>();
+    for (Edge edge : getEdges(ns)) {
+      requires.add(edge.to);
+    }
+    return requires;
+  }
+
+  /**
+   * Returns the namespaces that ns requires on one platform (ie: ":clj" or ":cljs"): the requires
+   * outside of any reader conditional plus the ones for that platform.
+   */
+  public Set<String> getRequires(String ns, String platform) {
+    Set<String> requires = new TreeSet<>();
+    for (Edge edge : getEdges(ns)) {
+      if (edge.platform == null || edge.platform.equals(platform)) requires.add(edge.to);
+    }
+    return requires;
+  }
+
+  /** Returns the namespaces that require ns. */
+  public Set<String> getRequiredBy(String ns) {
+    Set<String> requiredBy = new TreeSet<>();
+    for (Edge edge : reverseEdges.getOrDefault(ns, Collections.emptyList())) {
+      requiredBy.add(edge.from);
+    }
+    return requiredBy;
+  }
+
+  // the requires of ns on platform, or on any platform when platform is null
+  private Set<String> requiresOn(String ns, String platform) {
+    if (platform == null) return getRequires(ns);
+    if (!nsPlatforms.getOrDefault(ns, Collections.emptySet()).contains(platform)) {
+      return Collections.emptySet();
+    }
+    return getRequires(ns, platform);
+  }
+
+  // dense ids for the namespaces so the graph algorithms can work on int arrays
+  private static final class IndexedGraph {
+    final List<String> names;
+    final int[][] successors;
+
+    // platform null merges the nodes of all platforms
+    IndexedGraph(NsGraph graph, String platform) {
+      Set<String> nodes = new TreeSet<>();
+      for (String ns : graph.edges.keySet()) {
+        Set<String> requires = graph.requiresOn(ns, platform);
+        if (platform == null || graph.nsPlatforms.get(ns).contains(platform)) nodes.add(ns);
+        nodes.addAll(requires);
+      }
+      if (platform == null) nodes.addAll(graph.reverseEdges.keySet());
+
+      names = new ArrayList<>(nodes);
+      Map<String, Integer> ids = new HashMap<>();
+      for (int i = 0; i < names.size(); i++) {
+        ids.put(names.get(i), i);
+      }
+      successors = new int[names.size()][];
+      for (int i = 0; i < names.size(); i++) {
+        successors[i] =
+            graph.requiresOn(names.get(i), platform).stream().mapToInt(ids::get).toArray();
+      }
+    }
+  }
+
+  /**
+   * Returns the require cycles of the graph (the strongly connected components with more than one
+   * namespace, or a namespace that requires itself) on any platform. A require from a .clj file
+   * and one back from a .cljs file are not a cycle.
+   */
+  public List<List<String>> findCycles() {
+    List<List<String>> cycles = new ArrayList<>();
+    for (String platform : PLATFORMS) {
+      for (List<String> cycle : findCycles(platform)) {
+        if (!cycles.contains(cycle)) cycles.add(cycle);
+      }
+    }
+    return cycles;
+  }
+
+  /** Returns the require cycles on one platform (ie: ":clj") using Tarjan's algorithm. */
+  public List<List<String>> findCycles(String platform) {
+    IndexedGraph g = new IndexedGraph(this, platform);
+    int n = g.names.size();
+    int[] index = new int[n];
+    int[] lowLink = new int[n];
+    boolean[] onStack = new boolean[n];
+    int[] nextSuccessor = new int[n];
+    Arrays.fill(index, -1);
+    Deque<Integer> sccStack = new ArrayDeque<>();
+    // explicit call stack so that long require chains can not overflow the thread stack
+    Deque<Integer> callStack = new ArrayDeque<>();
+    int nextIndex = 0;
+    List<List<String>> cycles = new ArrayList<>();
+
+    for (int start = 0; start < n; start++) {
+      if (index[start] != -1) continue;
+      callStack.push(start);
+      while (!callStack.isEmpty()) {
+        int v = callStack.peek();
+        if (index[v] == -1) {
+          index[v] = nextIndex;
+          lowLink[v] = nextIndex;
+          nextIndex++;
+          sccStack.push(v);
+          onStack[v] = true;
+        }
+
+        if (nextSuccessor[v] < g.successors[v].length) {
+          int w = g.successors[v][nextSuccessor[v]++];
+          if (index[w] == -1) {
+            callStack.push(w);
+          } else if (onStack[w]) {
+            lowLink[v] = Math.min(lowLink[v], index[w]);
+          }
+          continue;
+        }
+
+        callStack.pop();
+        if (!callStack.isEmpty()) {
+          int parent = callStack.peek();
+          lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+        }
+        if (lowLink[v] == index[v]) {
+          List<String> component = new ArrayList<>();
+          int w;
+          do {
+            w = sccStack.pop();
+            onStack[w] = false;
+            component.add(g.names.get(w));
+          } while (w != v);
+          boolean selfLoop = false;
+          for (int s : g.successors[v]) {
+            if (s == v) selfLoop = true;
+          }
+          if (component.size() > 1 || selfLoop) {
+            Collections.sort(component);
+            cycles.add(component);
+          }
+        }
+      }
+    }
+    return cycles;
+  }
+
+  /**
+   * Returns the namespaces in dependency order: every namespace comes after the namespaces it
+   * requires (Kahn's algorithm). Namespaces that are part of a cycle, and the namespaces that
+   * depend on them, have no valid position and are left out; see findCycles().
+   *
+   * <p>The nodes of all platforms are merged, so a namespace comes after what it requires on every
+   * platform. Use topologicalOrder(platform) for the load order of one platform.
+   */
+  public List<String> topologicalOrder() {
+    return topologicalOrder(null);
+  }
+
+  /**
+   * Returns the namespaces of one platform (ie: ":cljs") in dependency order; platform null merges
+   * all platforms.
+   */
+  public List<String> topologicalOrder(String platform) {
+    IndexedGraph g = new IndexedGraph(this, platform);
+    int n = g.names.size();
+    int[] numUnresolved = new int[n];
+    List<List<Integer>> dependents = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      dependents.add(new ArrayList<>());
+    }
+    for (int v = 0; v < n; v++) {
+      numUnresolved[v] = g.successors[v].length;
+      for (int w : g.successors[v]) {
+        dependents.get(w).add(v);
+      }
+    }
+
+    // names are sorted, so the order is stable from run to run
+    Deque<Integer> ready = new ArrayDeque<>();
+    for (int v = 0; v < n; v++) {
+      if (numUnresolved[v] == 0) ready.add(v);
+    }
+    List<String> order = new ArrayList<>(n);
+    while (!ready.isEmpty()) {
+      int v = ready.poll();
+      order.add(g.names.get(v));
+      for (int dependent : dependents.get(v)) {
+        numUnresolved[dependent]--;
+        if (numUnresolved[dependent] == 0) ready.add(dependent);
+      }
+    }
+    return order;
+  }
+
+  /**
+   * Prints a summary of the namespace graph of a directory.
+   *
+   * <p>Usage: NsGraph [--threads N] [--platform P] [--topo] [--requires NS] [--required-by NS]
+   * DIR
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Map<String, String> opts = new LinkedHashMap<>();
+    Path root = null;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("--topo")) {
+        opts.put(arg, "true");
+      } else if (arg.startsWith("--") && i + 1 < args.length) {
+        opts.put(arg, args[++i]);
+      } else if (root == null && !arg.startsWith("--")) {
+        root = Paths.get(arg);
+      } else {
+        root = null;
+        break;
+      }
+    }
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    if (opts.containsKey("--threads")) {
+      try {
+        numThreads = Integer.parseInt(opts.get("--threads"));
+      } catch (NumberFormatException e) {
+        numThreads = 0;
+      }
+      if (numThreads < 1) root = null;
+    }
+    String platform = opts.get("--platform");
+    if (root == null) {
+      System.err.println(
+          "Usage: NsGraph [--threads N] [--platform P] [--topo] [--requires NS] [--required-by NS]"
+              + " DIR");
+      System.exit(2);
+      return;
+    }
+
+    long startTime = System.nanoTime();
+    NsGraph graph = build(root, numThreads);
+    long elapsedMs = (System.nanoTime() - startTime) / 1_000_000;
+
+    if (opts.containsKey("--requires")) {
+      String ns = opts.get("--requires");
+      Set<String> requires =
+          platform != null ? graph.getRequires(ns, platform) : graph.getRequires(ns);
+      requires.forEach(System.out::println);
+    } else if (opts.containsKey("--required-by")) {
+      graph.getRequiredBy(opts.get("--required-by")).forEach(System.out::println);
+    } else if (opts.containsKey("--topo")) {
+      graph.topologicalOrder(platform).forEach(System.out::println);
+    } else {
+      List<List<String>> cycles =
+          platform != null ? graph.findCycles(platform) : graph.findCycles();
+      int numEdges = 0;
+      for (List<Edge> nsEdges : graph.edges.values()) {
+        numEdges += nsEdges.size();
+      }
+      System.out.println("files:      " + graph.files.size());
+      System.out.println("namespaces: " + graph.getNamespaces().size());
+      System.out.println("requires:   " + numEdges);
+      System.out.println("cycles:     " + cycles.size());
+      System.out.println("errors:     " + graph.errors.size());
+      System.out.println("time:       " + elapsedMs + "ms (" + numThreads + " threads)");
+      for (List<String> cycle : cycles) {
+        System.out.println("cycle: " + String.join(", ", cycle));
+      }
+    }
+
+    for (Map.Entry<Path, String> error : graph.errors.entrySet()) {
+      System.err.println(error.getKey() + ": " + error.getValue());
+    }
+  }
+}
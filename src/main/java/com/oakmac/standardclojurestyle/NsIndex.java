@@ -0,0 +1,348 @@
+package com.oakmac.standardclojurestyle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * NsIndex stores the ns analysis of every file in a source tree in a compact binary file, so that
+ * a later run only needs to parse the files that changed. A file is parsed again when its size and
+ * modification time differ from the index and the SHA-256 of its content does too.
+ *
+ * <p>Queries like getFilesRequiring and getFilesImporting are answered from inverted maps built
+ * when the index is loaded, without reading any source file.
+ */
+public final class NsIndex {
+  private static final int MAGIC = 0x4e534958; // "NSIX"
+  private static final int VERSION = 2;
+
+  /** The ns analysis of one file. Paths are relative to the indexed root and use '/'. */
+  public static final class Entry {
+    final String path;
+    final long size;
+    final long lastModified;
+    final FormatCache.Digest digest;
+    final String nsSymbol;
+    final List<NsForm.SymbolRef> requires;
+    final List<String> imports;
+
+    Entry(
+        String path,
+        long size,
+        long lastModified,
+        FormatCache.Digest digest,
+        String nsSymbol,
+        List<NsForm.SymbolRef> requires,
+        List<String> imports) {
+      this.path = path;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.digest = digest;
+      this.nsSymbol = nsSymbol;
+      this.requires = requires;
+      this.imports = imports;
+    }
+
+    // same analysis, new modification time
+    Entry touch(long newLastModified) {
+      return new Entry(path, size, newLastModified, digest, nsSymbol, requires, imports);
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    /** Returns null for files without an ns form. */
+    public String getNsSymbol() {
+      return nsSymbol;
+    }
+
+    /** Returns the required namespaces, with their reader conditional platform. */
+    public List<NsForm.SymbolRef> getRequires() {
+      return Collections.unmodifiableList(requires);
+    }
+
+    /** Returns the imported classes as fully qualified names, ie: java.util.Date */
+    public List<String> getImports() {
+      return Collections.unmodifiableList(imports);
+    }
+  }
+
+  private final Map<String, Entry> entries = new TreeMap<>();
+  private Map<String, Set<String>> filesByRequire = new HashMap<>();
+  private Map<String, Set<String>> filesByImportPackage = new HashMap<>();
+  private int numParsed = 0;
+
+  private NsIndex() {}
+
+  /** Returns an empty index. */
+  public static NsIndex empty() {
+    return new NsIndex();
+  }
+
+  /**
+   * Loads an index file written by save(). Returns an empty index when indexFile does not exist.
+   * Throws an IOException when indexFile is not an index, or was written by another version.
+   */
+  public static NsIndex load(Path indexFile) throws IOException {
+    NsIndex index = new NsIndex();
+    if (!Files.exists(indexFile)) return index;
+
+    // read, not mapped: a mapped file cannot be replaced on Windows until the mapping is freed
+    ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+    try {
+      if (buf.getInt() != MAGIC) throw new IOException("Not an NsIndex file: " + indexFile);
+      if (buf.getInt() != VERSION) throw new IOException("Unsupported NsIndex version");
+
+      int numEntries = buf.getInt();
+      for (int i = 0; i < numEntries; i++) {
+        String path = readString(buf);
+        long size = buf.getLong();
+        long lastModified = buf.getLong();
+        FormatCache.Digest digest = new FormatCache.Digest(buf.getLong(), buf.getLong());
+        String nsSymbol = readString(buf);
+        int numRequires = buf.getInt();
+        List<NsForm.SymbolRef> requires = new ArrayList<>(numRequires);
+        for (int j = 0; j < numRequires; j++) {
+          requires.add(new NsForm.SymbolRef(readString(buf), readString(buf)));
+        }
+        int numImports = buf.getInt();
+        List<String> imports = new ArrayList<>(numImports);
+        for (int j = 0; j < numImports; j++) {
+          imports.add(readString(buf));
+        }
+        index.entries.put(
+            path, new Entry(path, size, lastModified, digest, nsSymbol, requires, imports));
+      }
+    } catch (RuntimeException e) {
+      // BufferUnderflowException, NegativeArraySizeException, etc
+      throw new IOException("Corrupt NsIndex file: " + indexFile, e);
+    }
+    index.buildInvertedMaps();
+    return index;
+  }
+
+  // strings are an int byte length followed by UTF-8 bytes; -1 is null
+  private static String readString(ByteBuffer buf) {
+    int len = buf.getInt();
+    if (len < 0) return null;
+    byte[] bytes = new byte[len];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /** Writes the index to indexFile. The file is replaced atomically where the OS supports it. */
+  public void save(Path indexFile) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(entries.size());
+      for (Entry entry : entries.values()) {
+        writeString(out, entry.path);
+        out.writeLong(entry.size);
+        out.writeLong(entry.lastModified);
+        out.writeLong(entry.digest.hi);
+        out.writeLong(entry.digest.lo);
+        writeString(out, entry.nsSymbol);
+        out.writeInt(entry.requires.size());
+        for (NsForm.SymbolRef req : entry.requires) {
+          writeString(out, req.getSymbol());
+          writeString(out, req.getPlatform());
+        }
+        out.writeInt(entry.imports.size());
+        for (String imp : entry.imports) {
+          writeString(out, imp);
+        }
+      }
+    }
+
+    Path dir = indexFile.toAbsolutePath().getParent();
+    Files.createDirectories(dir);
+    Path tmpFile = Files.createTempFile(dir, indexFile.getFileName().toString(), ".tmp");
+    try {
+      Files.write(tmpFile, bytes.toByteArray());
+      try {
+        Files.move(
+            tmpFile,
+            indexFile,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmpFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmpFile);
+    }
+  }
+
+  /**
+   * Brings the index up to date with the .clj, .cljs and .cljc files under root: new and changed
+   * files are parsed, and deleted files are removed. Returns the number of files that were parsed.
+   */
+  public int update(Path root) throws IOException {
+    List<Path> paths;
+    try (Stream<Path> stream = Files.walk(root)) {
+      paths =
+          stream
+              .filter(p -> Files.isRegularFile(p) && NsGraph.isClojureFile(p))
+              .collect(Collectors.toList());
+    }
+
+    Set<String> seen = new HashSet<>();
+    List<Path> changed = new ArrayList<>();
+    for (Path path : paths) {
+      String relPath = root.relativize(path).toString().replace('\\', '/');
+      seen.add(relPath);
+      BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+      Entry entry = entries.get(relPath);
+      if (entry == null
+          || entry.size != attrs.size()
+          || entry.lastModified != attrs.lastModifiedTime().toMillis()) {
+        changed.add(path);
+      }
+    }
+    entries.keySet().retainAll(seen);
+
+    List<Entry> newEntries =
+        changed.parallelStream().map(p -> analyze(root, p)).collect(Collectors.toList());
+    numParsed = 0;
+    for (Entry entry : newEntries) {
+      if (entry == null) continue;
+      if (entry.requires != null) numParsed++;
+      Entry oldEntry = entries.get(entry.path);
+      entries.put(entry.path, entry.requires != null ? entry : oldEntry.touch(entry.lastModified));
+    }
+
+    buildInvertedMaps();
+    return numParsed;
+  }
+
+  // Reads and parses one file. Returns an Entry with null requires when the content matches the
+  // current entry (only the modification time changed), or null when the file can not be read.
+  private Entry analyze(Path root, Path path) {
+    String relPath = root.relativize(path).toString().replace('\\', '/');
+    try {
+      long lastModified = Files.getLastModifiedTime(path).toMillis();
+      byte[] bytes = Files.readAllBytes(path);
+      FormatCache.Digest digest = FormatCache.digest(bytes);
+
+      Entry oldEntry = entries.get(relPath);
+      if (oldEntry != null && oldEntry.size == bytes.length && oldEntry.digest.equals(digest)) {
+        return new Entry(relPath, bytes.length, lastModified, digest, null, null, null);
+      }
+
+      String nsSymbol = null;
+      List<NsForm.SymbolRef> requires = new ArrayList<>();
+      List<String> imports = new ArrayList<>();
+      try {
+        NsForm ns = ParseNs.parseNsFormHead(Utf8Source.wrap(bytes));
+        nsSymbol = ns.getNsSymbol();
+        addRequires(requires, ns.getRequires());
+        addRequires(requires, ns.getRequireMacros());
+        if (ns.getImports() != null) {
+          for (NsForm.Import imp : ns.getImports()) {
+            for (String className : imp.getClasses()) {
+              imports.add(imp.getPackage() + "." + className);
+            }
+          }
+        }
+      } catch (RuntimeException | StackOverflowError e) {
+        // stored without an ns form, so it is not parsed again until it changes. The Parser is
+        // recursive, so a deeply nested file overflows the stack
+      }
+      return new Entry(relPath, bytes.length, lastModified, digest, nsSymbol, requires, imports);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static void addRequires(List<NsForm.SymbolRef> acc, List<NsForm.Require> requires) {
+    if (requires == null) return;
+    for (NsForm.Require req : requires) {
+      if (!Boolean.TRUE.equals(req.getSymbolIsString())) {
+        acc.add(new NsForm.SymbolRef(req.getSymbol(), req.getPlatform()));
+      }
+    }
+  }
+
+  private void buildInvertedMaps() {
+    Map<String, Set<String>> byRequire = new HashMap<>();
+    Map<String, Set<String>> byImportPackage = new HashMap<>();
+    for (Entry entry : entries.values()) {
+      for (NsForm.SymbolRef req : entry.requires) {
+        byRequire.computeIfAbsent(req.getSymbol(), k -> new TreeSet<>()).add(entry.path);
+      }
+      for (String imp : entry.imports) {
+        int dotIdx = imp.lastIndexOf('.');
+        String packageName = dotIdx > 0 ? imp.substring(0, dotIdx) : imp;
+        byImportPackage.computeIfAbsent(packageName, k -> new TreeSet<>()).add(entry.path);
+        byImportPackage.computeIfAbsent(imp, k -> new TreeSet<>()).add(entry.path);
+      }
+    }
+    filesByRequire = byRequire;
+    filesByImportPackage = byImportPackage;
+  }
+
+  /** Returns the number of files parsed by the last call to update(). */
+  public int getNumParsed() {
+    return numParsed;
+  }
+
+  /** Returns every entry keyed by its relative path. */
+  public Map<String, Entry> getEntries() {
+    return Collections.unmodifiableMap(entries);
+  }
+
+  /** Returns the entry for a relative path, or null. */
+  public Entry get(String relPath) {
+    return entries.get(relPath);
+  }
+
+  /** Returns the files whose ns form requires ns. */
+  public Set<String> getFilesRequiring(String ns) {
+    return Collections.unmodifiableSet(filesByRequire.getOrDefault(ns, Collections.emptySet()));
+  }
+
+  /** Returns the files that import a class, or any class of a package (ie: "java.util"). */
+  public Set<String> getFilesImporting(String packageOrClass) {
+    return Collections.unmodifiableSet(
+        filesByImportPackage.getOrDefault(packageOrClass, Collections.emptySet()));
+  }
+}
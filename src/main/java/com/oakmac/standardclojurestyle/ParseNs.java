@@ -1,10 +1,11 @@
 package com.oakmac.standardclojurestyle;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * ParseNs parses the Clojure/ClojureScript ns form and returns a structured data format that can be
@@ -12,10 +13,10 @@ import java.util.Map;
  */
 public class ParseNs {
 
-  private static int prefixListIdCounter = 0;
+  private static final AtomicInteger prefixListIdCounter = new AtomicInteger();
 
   private static int createPrefixListId() {
-    return ++prefixListIdCounter;
+    return prefixListIdCounter.incrementAndGet();
   }
 
   /**
@@ -23,12 +24,26 @@ public class ParseNs {
    * form that can be used to "print from scratch"
    */
   public static Map<String, Object> parseNs(List<Node> nodesArr) {
+    return parseNs(nodesArr, null);
+  }
+
+  /**
+   * Same as parseNs(nodesArr), but uses a LineIndex recorded by the Parser to find the line of
+   * each node instead of counting newline nodes. This also accounts for multi-line strings and
+   * whitespace nodes that span several lines.
+   */
+  public static Map<String, Object> parseNs(List<Node> nodesArr, LineIndex lines) {
+    return parseNsForm(nodesArr, lines).toMap();
+  }
+
+  /** Same as parseNs(nodesArr, lines), but returns the typed NsForm model. lines is optional. */
+  public static NsForm parseNsForm(List<Node> nodesArr, LineIndex lines) {
     int idx = 0;
     int numNodes = nodesArr.size();
     Map<String, Object> result = new HashMap<>();
     result.put("nsSymbol", null);
 
-    boolean continueParsingNsForm = true;
+    boolean continueParsingNsForm = numNodes > 0;
     int nsFormEndsLineIdx = -1;
     int parenNestingDepth = 0;
     int lineNo = 0;
@@ -1128,9 +1143,9 @@ public class ParseNs {
       }
 
       // increment the lineNo for the next node if we are on a newline node
-      // NOTE: this lineNo variable does not account for newlines inside of multi-line strings
-      // but we can ignore that for the purposes of ns parsing here
-      if (currentNodeIsNewline) {
+      // NOTE: without a LineIndex this lineNo variable does not account for newlines inside of
+      // multi-line strings, but we can ignore that for the purposes of ns parsing here
+      if (lines == null && currentNodeIsNewline) {
         lineNo++;
       }
       prevNodeIsNewline = currentNodeIsNewline;
@@ -1141,296 +1156,205 @@ public class ParseNs {
       // exit if we are at the end of the nodes
       if (idx >= numNodes) {
         continueParsingNsForm = false;
+      } else {
+        if (lines != null) {
+          lineNo = lines.lineOf(nodesArr.get(idx).getStartIdx());
+        }
+
         // exit if we have finished parsing the ns form
-      } else if (nsNodeIdx > 0 && !insideNsForm && lineNo >= nsFormEndsLineIdx + 2) {
-        continueParsingNsForm = false;
+        if (nsNodeIdx > 0 && !insideNsForm && lineNo >= nsFormEndsLineIdx + 2) {
+          continueParsingNsForm = false;
+        }
       }
     }
 
-    return sortNsResult(result, prefixListComments);
+    return NsForm.fromParseResult(result, prefixListComments);
   }
 
   /**
-   * Search for a #_ :standard-clj/ignore-file or similar forms stopping when we reach the first
-   * (ns) form
+   * Parses the ns form straight from source text without parsing the whole file. Top-level items
+   * are parsed one at a time, and parsing stops at the first top-level form that is not an ns
+   * form, or two lines after the end of the ns form (the same place parseNs stops). Returns the
+   * same result as parseNs(Utils.flattenTree(Parser.parse(inputTxt))) for files that start with
+   * their ns form.
    */
-  public static boolean lookForIgnoreFile(List<Node> nodesArr) {
-    // TODO: implement lookForIgnoreFile
-
-    return false;
+  public static Map<String, Object> parseNsHead(CharSequence inputTxt) {
+    return parseNsFormHead(inputTxt).toMap();
   }
 
-  @SuppressWarnings("unchecked")
-  private static Map<String, Object> sortNsResult(
-      Map<String, Object> result, Map<String, Object> prefixListComments) {
-    // sort :refer-clojure :exclude symbols
-    if (result.containsKey("referClojure")
-        && ((Map<String, Object>) result.get("referClojure")).containsKey("exclude")) {
-      List<Map<String, Object>> excludeList =
-          (List<Map<String, Object>>)
-              ((Map<String, Object>) result.get("referClojure")).get("exclude");
-      excludeList.sort(
-          (a, b) -> {
-            String symbolA = (String) a.get("symbol");
-            String symbolB = (String) b.get("symbol");
-
-            if (symbolA.compareTo(symbolB) > 0) return 1;
-            if (symbolA.compareTo(symbolB) < 0) return -1;
-
-            if (a.containsKey("platform") && !b.containsKey("platform")) return 1;
-            if (!a.containsKey("platform") && b.containsKey("platform")) return -1;
-
-            if (a.containsKey("platform") && b.containsKey("platform")) {
-              String platformA = (String) a.get("platform");
-              String platformB = (String) b.get("platform");
-              if (platformA.compareTo(platformB) > 0) return 1;
-              if (platformA.compareTo(platformB) < 0) return -1;
-            }
-            return 0;
-          });
-    }
-
-    // sort :refer-clojure :only symbols
-    if (result.containsKey("referClojure")
-        && ((Map<String, Object>) result.get("referClojure")).containsKey("only")) {
-      List<Map<String, Object>> onlyList =
-          (List<Map<String, Object>>)
-              ((Map<String, Object>) result.get("referClojure")).get("only");
-      onlyList.sort(
-          (a, b) -> {
-            String symbolA = (String) a.get("symbol");
-            String symbolB = (String) b.get("symbol");
-
-            if (symbolA.compareTo(symbolB) > 0) return 1;
-            if (symbolA.compareTo(symbolB) < 0) return -1;
-
-            if (a.containsKey("platform") && !b.containsKey("platform")) return 1;
-            if (!a.containsKey("platform") && b.containsKey("platform")) return -1;
-
-            if (a.containsKey("platform") && b.containsKey("platform")) {
-              String platformA = (String) a.get("platform");
-              String platformB = (String) b.get("platform");
-              if (platformA.compareTo(platformB) > 0) return 1;
-              if (platformA.compareTo(platformB) < 0) return -1;
-            }
-            return 0;
-          });
-    }
-
-    // sort :refer-clojure :rename symbols
-    if (result.containsKey("referClojure")
-        && ((Map<String, Object>) result.get("referClojure")).containsKey("rename")) {
-      List<Map<String, Object>> renameList =
-          (List<Map<String, Object>>)
-              ((Map<String, Object>) result.get("referClojure")).get("rename");
-      renameList.sort(
-          (a, b) -> {
-            String fromA = (String) a.get("fromSymbol");
-            String fromB = (String) b.get("fromSymbol");
-            return fromA.compareTo(fromB);
-          });
-    }
-
-    // sort :require-macros symbols
-    if (result.containsKey("requireMacros")) {
-      List<Map<String, Object>> requireMacros =
-          (List<Map<String, Object>>) result.get("requireMacros");
-      requireMacros.sort(
-          (a, b) -> {
-            String symbolA = (String) a.get("symbol");
-            String symbolB = (String) b.get("symbol");
-
-            if (symbolA.compareTo(symbolB) > 0) return 1;
-            if (symbolA.compareTo(symbolB) < 0) return -1;
-
-            if (a.containsKey("platform") && !b.containsKey("platform")) return 1;
-            if (!a.containsKey("platform") && b.containsKey("platform")) return -1;
-
-            if (a.containsKey("platform") && b.containsKey("platform")) {
-              String platformA = (String) a.get("platform");
-              String platformB = (String) b.get("platform");
-              if (platformA.compareTo(platformB) > 0) return 1;
-              if (platformA.compareTo(platformB) < 0) return -1;
-            }
-            return 0;
-          });
-
-      // sort :refer symbols
-      int rmIdx = 0;
-      while (rmIdx < requireMacros.size()) {
-        Map<String, Object> macroEntry = requireMacros.get(rmIdx);
-        if (macroEntry.containsKey("refer")) {
-          List<Map<String, Object>> referList = (List<Map<String, Object>>) macroEntry.get("refer");
-          referList.sort(
-              (a, b) -> {
-                String symbolA = (String) a.get("symbol");
-                String symbolB = (String) b.get("symbol");
-                return symbolA.compareTo(symbolB);
-              });
-        }
-        rmIdx++;
+  /** Same as parseNsHead(inputTxt), but returns the typed NsForm model. */
+  public static NsForm parseNsFormHead(CharSequence inputTxt) {
+    LineIndex lines = new LineIndex();
+    List<Node> nodes = new ArrayList<>();
+    TreeCursor cursor = new TreeCursor();
+    int nsFormEndLineIdx = -1;
+    int pos = 0;
+
+    Node item = Parser.parseTopLevelItem(inputTxt, pos, lines);
+    while (item != null) {
+      boolean isGap = isGapNode(item);
+      if (nsFormEndLineIdx < 0) {
+        if (!isGap && !isNsForm(item)) break;
+      } else {
+        int itemLineIdx = lines.lineOf(item.getStartIdx());
+        if (itemLineIdx >= nsFormEndLineIdx + 2) break;
+        if (!isGap && itemLineIdx > nsFormEndLineIdx) break;
       }
-    }
 
-    // sort the requires symbols
-    if (result.containsKey("requires")) {
-      List<Map<String, Object>> requires = (List<Map<String, Object>>) result.get("requires");
-      requires.sort(
-          (a, b) -> {
-            String symbolA = (String) a.get("symbol");
-            String symbolB = (String) b.get("symbol");
-
-            if (symbolA.compareTo(symbolB) > 0) return 1;
-            if (symbolA.compareTo(symbolB) < 0) return -1;
-
-            if (a.containsKey("platform") && !b.containsKey("platform")) return 1;
-            if (!a.containsKey("platform") && b.containsKey("platform")) return -1;
-
-            if (a.containsKey("platform") && b.containsKey("platform")) {
-              String platformA = (String) a.get("platform");
-              String platformB = (String) b.get("platform");
-              if (platformA.compareTo(platformB) > 0) return 1;
-              if (platformA.compareTo(platformB) < 0) return -1;
-            }
-            return 0;
-          });
-
-      // Process each require entry
-      int requiresIdx = 0;
-      while (requiresIdx < requires.size()) {
-        Map<String, Object> req = requires.get(requiresIdx);
-
-        // attach prefix list comments to the first require with the same id
-        if (req.containsKey("prefixListId")) {
-          String prefixListId = (String) req.get("prefixListId");
-          if (prefixListComments.containsKey(prefixListId)) {
-            Map<String, Object> comments =
-                (Map<String, Object>) prefixListComments.get(prefixListId);
-            if (comments.containsKey("commentsAbove")) {
-              req.put("commentsAbove", comments.get("commentsAbove"));
-            }
-            if (comments.containsKey("commentAfter")) {
-              req.put("commentAfter", comments.get("commentAfter"));
-            }
-            prefixListComments.remove(prefixListId);
-          }
+      cursor.reset(item);
+      while (cursor.next()) {
+        nodes.add(cursor.node());
+      }
+      if (nsFormEndLineIdx < 0 && !isGap) {
+        nsFormEndLineIdx = lines.lineOf(item.getEndIdx() - 1);
+      }
 
-          // delete prefixListIds from the result
-          req.remove("prefixListId");
-        }
+      pos = item.getEndIdx();
+      item = Parser.parseTopLevelItem(inputTxt, pos, lines);
+    }
 
-        // sort :require :refer symbols
-        if (req.containsKey("refer") && req.get("refer") instanceof List) {
-          List<Map<String, Object>> referList = (List<Map<String, Object>>) req.get("refer");
-          referList.sort(
-              (a, b) -> {
-                String symbolA = (String) a.get("symbol");
-                String symbolB = (String) b.get("symbol");
-                return symbolA.compareTo(symbolB);
-              });
-        }
+    return parseNsForm(nodes, lines);
+  }
 
-        // sort :require :exclude symbols
-        if (req.containsKey("exclude")) {
-          List<Map<String, Object>> excludeList = (List<Map<String, Object>>) req.get("exclude");
-          excludeList.sort(
-              (a, b) -> {
-                String symbolA = (String) a.get("symbol");
-                String symbolB = (String) b.get("symbol");
-                return symbolA.compareTo(symbolB);
-              });
-        }
+  private static boolean isGapNode(Node n) {
+    return Utils.isWhitespaceNode(n) || Utils.isCommentNode(n) || Utils.isReaderCommentNode(n);
+  }
 
-        // sort :require :rename symbols
-        if (req.containsKey("rename")) {
-          List<Map<String, Object>> renameList = (List<Map<String, Object>>) req.get("rename");
-          renameList.sort(
-              (a, b) -> {
-                String fromA = (String) a.get("fromSymbol");
-                String fromB = (String) b.get("fromSymbol");
-                return fromA.compareTo(fromB);
-              });
+  // is n a list whose first form is the ns symbol?
+  private static boolean isNsForm(Node n) {
+    if (!n.getName().equals("parens") || !n.getChildren().get(0).getText().equals("(")) {
+      return false;
+    }
+    for (Node child : n.getChildren()) {
+      if (child.getName().equals(".body")) {
+        for (Node bodyChild : child.getChildren()) {
+          if (!isGapNode(bodyChild)) return Utils.isNsNode(bodyChild);
         }
-
-        requiresIdx++;
       }
     }
+    return false;
+  }
 
-    // convert and sort the imports
-    if (result.containsKey("importsObj")) {
-      List<Map<String, Object>> importsList = new ArrayList<>();
-      Map<String, Object> importsObj = (Map<String, Object>) result.get("importsObj");
-
-      for (Map.Entry<String, Object> entry : importsObj.entrySet()) {
-        String packageName = entry.getKey();
-        Map<String, Object> importInfo = (Map<String, Object>) entry.getValue();
-
-        // Sort the classes list
-        List<String> classes = (List<String>) importInfo.get("classes");
-        Collections.sort(classes);
-
-        Map<String, Object> importObj = new HashMap<>();
-        importObj.put("package", packageName);
-        importObj.put("classes", classes);
+  private static final String IGNORE_FILE_KEYWORD = ":standard-clj/ignore-file";
 
-        if (importInfo.containsKey("commentsAbove")) {
-          importObj.put("commentsAbove", importInfo.get("commentsAbove"));
-        }
-        if (importInfo.containsKey("commentAfter")) {
-          importObj.put("commentAfter", importInfo.get("commentAfter"));
-        }
-        if (importInfo.containsKey("platform")) {
-          importObj.put("platform", importInfo.get("platform"));
+  /**
+   * Search for a #_ :standard-clj/ignore-file or similar forms stopping when we reach the first
+   * top-level (ns) form
+   */
+  public static boolean lookForIgnoreFile(List<Node> nodesArr) {
+    int depth = 0;
+    for (int idx = 0; idx < nodesArr.size(); idx++) {
+      Node node = nodesArr.get(idx);
+      if (node.getName() == null) continue;
+      if (Utils.isReaderCommentNode(node) && isIgnoreFileDiscard(node)) return true;
+      if (Utils.isParenOpener(node)) {
+        // the same rule as the text scan: a depth 0 "(" followed by the ns token
+        if (depth == 0 && node.getText().endsWith("(") && isNsNodeAfter(nodesArr, idx + 1)) {
+          return false;
         }
-
-        importsList.add(importObj);
+        depth++;
+      } else if (Utils.isParenCloser(node)) {
+        depth = Math.max(0, depth - 1);
       }
+    }
+    return false;
+  }
 
-      // Sort imports by package name
-      importsList.sort(
-          (a, b) -> {
-            String pkgA = (String) a.get("package");
-            String pkgB = (String) b.get("package");
-            return pkgA.compareTo(pkgB);
-          });
-
-      result.put("imports", importsList);
-      result.remove("importsObj");
+  // is the first node at or after idx that is not whitespace the ns token?
+  private static boolean isNsNodeAfter(List<Node> nodesArr, int idx) {
+    for (; idx < nodesArr.size(); idx++) {
+      Node node = nodesArr.get(idx);
+      if (node.getName() == null || node.getName().equals(".body")) continue;
+      if (!Utils.isWhitespaceNode(node)) return Utils.isNsNode(node);
     }
+    return false;
+  }
 
-    // merge nsMetadata keys
-    if (result.containsKey("nsMetadata")) {
-      List<Map<String, Object>> metadata = (List<Map<String, Object>>) result.get("nsMetadata");
-      if (metadata.size() > 1) {
-        Map<String, Object> metadataObj = new HashMap<>();
-        List<String> metadataKeys = new ArrayList<>();
-
-        for (Map<String, Object> metadataItem : metadata) {
-          String key = (String) metadataItem.get("key");
-          Object value = metadataItem.get("value");
-          metadataObj.put(key, value);
-          metadataKeys.add(key);
-        }
+  // #_ :standard-clj/ignore-file or #_ {:standard-clj/ignore-file true}
+  private static boolean isIgnoreFileDiscard(Node discardNode) {
+    Node form = firstNonWhitespaceChild(discardNode);
+    if (form != null && form.getName().equals(".body")) form = firstNonWhitespaceChild(form);
+    if (form == null) return false;
+    if (Utils.isTokenNode(form)) return form.getText().equals(IGNORE_FILE_KEYWORD);
+    if (!form.getName().equals("braces")) return false;
+
+    for (Node child : form.getChildren()) {
+      if (child.getName().equals(".body")) {
+        List<Node> items = new ArrayList<>();
+        for (Node item : child.getChildren()) {
+          if (!Utils.isWhitespaceNode(item)) items.add(item);
+        }
+        return items.size() >= 2
+            && Utils.isTokenNode(items.get(0))
+            && items.get(0).getText().equals(IGNORE_FILE_KEYWORD)
+            && Utils.isTokenNode(items.get(1))
+            && items.get(1).getText().equals("true");
+      }
+    }
+    return false;
+  }
 
-        List<Map<String, Object>> newMetadata = new ArrayList<>();
-
-        // Process keys in reverse order
-        for (int i = metadataKeys.size() - 1; i >= 0; i--) {
-          String key = metadataKeys.get(i);
-          if (metadataObj.containsKey(key)) {
-            Map<String, Object> metadataItem = new HashMap<>();
-            metadataItem.put("key", key);
-            metadataItem.put("value", metadataObj.get(key));
-            newMetadata.add(metadataItem);
-            metadataObj.remove(key);
-          }
-        }
+  private static Node firstNonWhitespaceChild(Node n) {
+    if (n.getChildren() == null) return null;
+    for (Node child : n.getChildren()) {
+      if (!Utils.isWhitespaceNode(child) && !child.getName().equals("marker")) return child;
+    }
+    return null;
+  }
 
-        Collections.reverse(newMetadata);
-        result.put("nsMetadata", newMetadata);
+  /**
+   * Same as lookForIgnoreFile(nodesArr), but scans the source text directly without building any
+   * Nodes. Scanning stops at the first top-level (ns) form, so files that opt out of formatting
+   * can be recognized before they are parsed.
+   */
+  public static boolean lookForIgnoreFile(CharSequence inputTxt) {
+    int len = inputTxt.length();
+    int idx = 0;
+    int depth = 0;
+    while (idx >= 0 && idx < len) {
+      char c = inputTxt.charAt(idx);
+      char next = idx + 1 < len ? inputTxt.charAt(idx + 1) : '\0';
+      if (FormScanner.isWhitespace(c)) {
+        idx++;
+      } else if (c == ';') {
+        idx = FormScanner.skipComment(inputTxt, idx);
+      } else if (c == '"') {
+        idx = FormScanner.skipString(inputTxt, idx);
+      } else if (c == '\\') {
+        idx = FormScanner.skipCharLiteral(inputTxt, idx);
+      } else if (c == '#' && next == '"') {
+        idx = FormScanner.skipString(inputTxt, idx + 1);
+      } else if (c == '#' && next == '_') {
+        if (FormScanner.directiveAt(inputTxt, idx + 2, IGNORE_FILE_KEYWORD)) return true;
+        idx += 2;
+      } else if (c == '(') {
+        int headIdx = FormScanner.skipWhitespace(inputTxt, idx + 1);
+        if (depth == 0 && FormScanner.tokenAt(inputTxt, headIdx, "ns")) return false;
+        depth++;
+        idx++;
+      } else if (FormScanner.isOpener(c)) {
+        depth++;
+        idx++;
+      } else if (FormScanner.isCloser(c)) {
+        depth = Math.max(0, depth - 1);
+        idx++;
+      } else {
+        idx = FormScanner.skipToken(inputTxt, idx);
       }
     }
+    return false;
+  }
 
-    return result;
+  /** Same as lookForIgnoreFile(inputTxt) for UTF-8 encoded bytes. */
+  public static boolean lookForIgnoreFileUtf8(byte[] inputBytes) {
+    return lookForIgnoreFile(Utf8Source.wrap(inputBytes));
+  }
+
+  /**
+   * Same as lookForIgnoreFile(inputTxt) for the remaining bytes of a UTF-8 encoded ByteBuffer,
+   * which can be a MappedByteBuffer. The position of inputBuf is not modified.
+   */
+  public static boolean lookForIgnoreFileUtf8(ByteBuffer inputBuf) {
+    return lookForIgnoreFile(Utf8Source.wrap(inputBuf));
   }
 }
@@ -1,21 +1,29 @@
 package com.oakmac.standardclojurestyle;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Parser {
-  private static int idCounter = 0;
-  private static final Map<String, IParserFunction> parsers = new HashMap<>();
+  private static final AtomicInteger idCounter = new AtomicInteger();
+
+  // LineIndex being filled by the current parse on this thread (see parse(CharSequence, Map))
+  private static final ThreadLocal<LineIndex> activeLineIndex = new ThreadLocal<>();
+
+  // the "skipIgnoredForms" option of the current parse on this thread
+  private static final ThreadLocal<Boolean> activeSkipIgnoredForms = new ThreadLocal<>();
+
+  private static final String IGNORE_KEYWORD = ":standard-clj/ignore";
 
   public static int createId() {
-    return ++idCounter;
+    return idCounter.incrementAndGet();
   }
 
   // ---------------------------------------------------------------------------
@@ -38,14 +46,7 @@ public class Parser {
   // ---------------------------------------------------------------------------
   // String Utils
 
-  private static String charAt(String s, int n) {
-    if (n < 0 || n >= s.length()) {
-      return "";
-    }
-    return String.valueOf(s.charAt(n));
-  }
-
-  private static String substr(String s, int startIdx, int endIdx) {
+  private static String substr(CharSequence s, int startIdx, int endIdx) {
     if (startIdx == endIdx) return "";
     if (endIdx < 0) {
       endIdx = s.length();
@@ -56,7 +57,29 @@ public class Parser {
     if (endIdx > s.length()) {
       endIdx = s.length();
     }
-    return s.substring(startIdx, endIdx);
+    return s.subSequence(startIdx, endIdx).toString();
+  }
+
+  private static boolean startsWithAt(CharSequence s, String prefix, int pos) {
+    if (pos < 0 || pos + prefix.length() > s.length()) return false;
+    for (int i = 0; i < prefix.length(); i++) {
+      if (s.charAt(pos + i) != prefix.charAt(i)) return false;
+    }
+    return true;
+  }
+
+  // Adds the text of txt between startIdx and endIdx to nodeOpts.
+  // Strings are sliced right away. Other inputs (ie: Utf8Source) are only decoded when the Node
+  // text is requested.
+  private static void putText(
+      Map<String, Object> nodeOpts, CharSequence txt, int startIdx, int endIdx) {
+    if (txt instanceof String) {
+      nodeOpts.put("text", substr(txt, startIdx, endIdx));
+    } else if (startIdx == endIdx) {
+      nodeOpts.put("text", "");
+    } else {
+      nodeOpts.put("source", txt);
+    }
   }
 
   public static Map<String, Object> Named(final Map<String, Object> opts) {
@@ -105,33 +128,41 @@ public class Parser {
         "parse",
         (IParserFunction)
             (txt, pos) -> {
-              // Get the substring from pos to end
-              String innerTxt = substr(txt, pos, -1);
+              if (pos < 0 || pos > txt.length()) {
+                return null;
+              }
 
-              // Create matcher
-              Matcher matcher = regex.matcher(innerTxt);
+              // Match from pos to the end of the input without copying it
+              Matcher matcher = regex.matcher(txt);
+              matcher.region(pos, txt.length());
 
-              // Check for match at start of string
+              // Check for match at start of the region
               if (!matcher.lookingAt()) {
                 return null;
               }
 
               // Determine which group to use
-              String matchedStr = null;
+              int matchGroup = -1;
               if (groupIdx != null
                   && matcher.groupCount() >= groupIdx
                   && matcher.group(groupIdx + 1) != null) {
-                matchedStr = matcher.group(groupIdx + 1);
+                matchGroup = groupIdx + 1;
               } else if (matcher.group(0) != null) {
-                matchedStr = matcher.group(0);
+                matchGroup = 0;
               }
 
-              if (matchedStr != null) {
+              if (matchGroup >= 0) {
+                int matchStart = matcher.start(matchGroup);
+                int matchEnd = matcher.end(matchGroup);
                 Map<String, Object> nodeOpts = new HashMap<>();
-                nodeOpts.put("endIdx", pos + matchedStr.length());
+                nodeOpts.put("endIdx", pos + (matchEnd - matchStart));
                 nodeOpts.put("name", name);
                 nodeOpts.put("startIdx", pos);
-                nodeOpts.put("text", matchedStr);
+                if (matchStart == pos) {
+                  putText(nodeOpts, txt, matchStart, matchEnd);
+                } else {
+                  nodeOpts.put("text", substr(txt, matchStart, matchEnd));
+                }
                 return new Node(nodeOpts);
               }
 
@@ -141,7 +172,7 @@ public class Parser {
     return parser;
   }
 
-  private static Node stringBodyParser(String txt, int pos) {
+  private static Node stringBodyParser(CharSequence txt, int pos) {
     int maxLength = txt.length();
     if (maxLength == 0) {
       return null;
@@ -149,31 +180,27 @@ public class Parser {
 
     int charIdx = pos;
     int endIdx = -1;
-    boolean keepSearching = true;
-    StringBuilder parsedTxt = new StringBuilder();
-
-    while (keepSearching) {
-      String ch = charAt(txt, charIdx);
-      if (ch == null || ch.isEmpty()) {
-        keepSearching = false;
-      } else if (ch.equals("\\")) {
-        String nextChar = charAt(txt, charIdx + 1);
-        if (nextChar != null && !nextChar.isEmpty()) {
-          parsedTxt.append(ch).append(nextChar);
-          charIdx++;
-        } else {
+    LineIndex lines = activeLineIndex.get();
+
+    while (charIdx < maxLength) {
+      char ch = txt.charAt(charIdx);
+      if (ch == '\\') {
+        // an escaped char is always part of the body
+        if (charIdx + 1 >= maxLength) {
           return null;
         }
-      } else if (ch.equals("\"")) {
-        keepSearching = false;
+        if (txt.charAt(charIdx + 1) == '\n' && lines != null) {
+          lines.addNewline(charIdx + 1);
+        }
+        charIdx += 2;
+      } else if (ch == '"') {
         endIdx = charIdx;
+        break;
       } else {
-        parsedTxt.append(ch);
-      }
-
-      charIdx++;
-      if (charIdx > maxLength) {
-        keepSearching = false;
+        if (ch == '\n' && lines != null) {
+          lines.addNewline(charIdx);
+        }
+        charIdx++;
       }
     }
 
@@ -182,175 +209,154 @@ public class Parser {
       nodeOpts.put("endIdx", endIdx);
       nodeOpts.put("name", ".body");
       nodeOpts.put("startIdx", pos);
-      nodeOpts.put("text", parsedTxt.toString());
+      putText(nodeOpts, txt, pos, endIdx);
       return new Node(nodeOpts);
     }
 
     return null;
   }
 
-  private static final Set<String> whitespaceChars =
-      new HashSet<>(
-          Arrays.asList(
-              " ",
-              ",",
-              "\n",
-              "\r",
-              "\t",
-              "\f",
-              // Unicode chars
-              "\u000B",
-              "\u001C",
-              "\u001D",
-              "\u001E",
-              "\u001F",
-              "\u2028",
-              "\u2029",
-              "\u1680",
-              "\u2000",
-              "\u2001",
-              "\u2002",
-              "\u2003",
-              "\u2004",
-              "\u2005",
-              "\u2006",
-              "\u2008",
-              "\u2009",
-              "\u200a",
-              "\u205f",
-              "\u3000"));
-
-  private static final Set<String> invalidTokenHeadChars =
-      new HashSet<>(
-          Arrays.asList("(", ")", "[", "]", "{", "}", "\"", "@", "~", "^", ";", "`", "#", "'"));
-
-  private static final Set<String> invalidTokenTailChars =
-      new HashSet<>(Arrays.asList("(", ")", "[", "]", "{", "}", "\"", "@", "^", ";", "`"));
-
-  private static boolean isValidTokenHeadChar(String ch) {
-    return !whitespaceChars.contains(ch) && !invalidTokenHeadChars.contains(ch);
+  private static boolean isWhitespaceChar(char ch) {
+    switch (ch) {
+      case ' ':
+      case ',':
+      case '\n':
+      case '\r':
+      case '\t':
+      case '\f':
+      // Unicode chars
+      case '\u000B':
+      case '\u001C':
+      case '\u001D':
+      case '\u001E':
+      case '\u001F':
+      case '\u2028':
+      case '\u2029':
+      case '\u1680':
+      case '\u2000':
+      case '\u2001':
+      case '\u2002':
+      case '\u2003':
+      case '\u2004':
+      case '\u2005':
+      case '\u2006':
+      case '\u2008':
+      case '\u2009':
+      case '\u200a':
+      case '\u205f':
+      case '\u3000':
+        return true;
+      default:
+        return false;
+    }
   }
 
-  private static boolean isValidTokenTailChar(String ch) {
-    return !whitespaceChars.contains(ch) && !invalidTokenTailChars.contains(ch);
+  private static boolean isInvalidTokenTailChar(char ch) {
+    switch (ch) {
+      case '(':
+      case ')':
+      case '[':
+      case ']':
+      case '{':
+      case '}':
+      case '"':
+      case '@':
+      case '^':
+      case ';':
+      case '`':
+        return true;
+      default:
+        return false;
+    }
   }
 
-  private static Node tokenParser(String txt, int pos) {
+  private static boolean isInvalidTokenHeadChar(char ch) {
+    return isInvalidTokenTailChar(ch) || ch == '~' || ch == '#' || ch == '\'';
+  }
+
+  private static boolean isValidTokenHeadChar(char ch) {
+    return !isWhitespaceChar(ch) && !isInvalidTokenHeadChar(ch);
+  }
+
+  private static boolean isValidTokenTailChar(char ch) {
+    return !isWhitespaceChar(ch) && !isInvalidTokenTailChar(ch);
+  }
+
+  private static Node tokenParser(CharSequence txt, int pos) {
     int maxLength = txt.length();
     if (maxLength == 0) {
       return null;
     }
 
     int charIdx = pos;
-    int endIdx = -1;
-    boolean keepSearching = true;
-    StringBuilder parsedTxt = new StringBuilder();
-    boolean firstChar = true;
 
     // Check for ## prefix
-    String firstTwoChars = substr(txt, pos, pos + 2);
-    if (firstTwoChars.equals("##")) {
-      parsedTxt.append("##");
+    if (startsWithAt(txt, "##", pos)) {
       charIdx += 2;
     }
 
-    while (keepSearching) {
-      String ch = charAt(txt, charIdx);
-      if (ch == null || ch.isEmpty()) {
-        keepSearching = false;
-      } else if (firstChar) {
-        if (isValidTokenHeadChar(ch)) {
-          parsedTxt.append(ch);
-          endIdx = charIdx;
-          firstChar = false;
-        } else {
-          return null;
-        }
-      } else if (isValidTokenTailChar(ch)) {
-        parsedTxt.append(ch);
-        endIdx = charIdx;
-      } else {
-        keepSearching = false;
-      }
-
-      charIdx++;
-      if (charIdx > maxLength) {
-        keepSearching = false;
-      }
+    if (charIdx >= maxLength || !isValidTokenHeadChar(txt.charAt(charIdx))) {
+      return null;
     }
+    charIdx++;
 
-    if (endIdx > -1) {
-      Map<String, Object> nodeOpts = new HashMap<>();
-      nodeOpts.put("endIdx", endIdx + 1);
-      nodeOpts.put("name", "token");
-      nodeOpts.put("startIdx", pos);
-      nodeOpts.put("text", parsedTxt.toString());
-      return new Node(nodeOpts);
+    while (charIdx < maxLength && isValidTokenTailChar(txt.charAt(charIdx))) {
+      charIdx++;
     }
 
-    return null;
+    Map<String, Object> nodeOpts = new HashMap<>();
+    nodeOpts.put("endIdx", charIdx);
+    nodeOpts.put("name", "token");
+    nodeOpts.put("startIdx", pos);
+    putText(nodeOpts, txt, pos, charIdx);
+    return new Node(nodeOpts);
   }
 
-  private static final Set<String> specialChars =
-      new HashSet<>(
-          Arrays.asList("(", ")", "[", "]", "{", "}", "\"", "@", "^", ";", "`", ",", " "));
+  private static boolean isSpecialChar(char ch) {
+    return isInvalidTokenTailChar(ch) || ch == ',' || ch == ' ';
+  }
 
-  private static Node specialCharParser(String txt, int pos) {
+  private static Node specialCharParser(CharSequence txt, int pos) {
     int maxLength = txt.length();
     if (maxLength == 0) {
       return null;
     }
 
-    String firstChar = charAt(txt, pos);
-    if (firstChar.equals("\\")) {
-      String secondChar = charAt(txt, pos + 1);
-      if (specialChars.contains(secondChar)) {
-        Map<String, Object> nodeOpts = new HashMap<>();
-        nodeOpts.put("endIdx", pos + 2);
-        nodeOpts.put("name", "token");
-        nodeOpts.put("startIdx", pos);
-        nodeOpts.put("text", firstChar + secondChar);
-        return new Node(nodeOpts);
-      }
+    if (pos + 1 < maxLength && txt.charAt(pos) == '\\' && isSpecialChar(txt.charAt(pos + 1))) {
+      Map<String, Object> nodeOpts = new HashMap<>();
+      nodeOpts.put("endIdx", pos + 2);
+      nodeOpts.put("name", "token");
+      nodeOpts.put("startIdx", pos);
+      putText(nodeOpts, txt, pos, pos + 2);
+      return new Node(nodeOpts);
     }
 
     return null;
   }
 
-  private static Node whitespaceParser(String txt, int pos) {
+  private static Node whitespaceParser(CharSequence txt, int pos) {
     int maxLength = txt.length();
     if (maxLength == 0) {
       return null;
     }
 
     int charIdx = pos;
-    int endIdx = -1;
-    boolean keepSearching = true;
-    StringBuilder parsedTxt = new StringBuilder();
-
-    while (keepSearching) {
-      String ch = charAt(txt, charIdx);
-      if (ch == null || ch.isEmpty()) {
-        keepSearching = false;
-      } else if (whitespaceChars.contains(ch)) {
-        parsedTxt.append(ch);
-        endIdx = charIdx;
-      } else {
-        keepSearching = false;
+    LineIndex lines = activeLineIndex.get();
+    while (charIdx < maxLength) {
+      char ch = txt.charAt(charIdx);
+      if (!isWhitespaceChar(ch)) break;
+      if (ch == '\n' && lines != null) {
+        lines.addNewline(charIdx);
       }
-
       charIdx++;
-      if (charIdx > maxLength) {
-        keepSearching = false;
-      }
     }
 
-    if (endIdx > -1) {
+    if (charIdx > pos) {
       Map<String, Object> nodeOpts = new HashMap<>();
-      nodeOpts.put("endIdx", endIdx + 1);
+      nodeOpts.put("endIdx", charIdx);
       nodeOpts.put("name", "whitespace");
       nodeOpts.put("startIdx", pos);
-      nodeOpts.put("text", parsedTxt.toString());
+      putText(nodeOpts, txt, pos, charIdx);
       return new Node(nodeOpts);
     }
 
@@ -449,17 +455,13 @@ public class Parser {
         "parse",
         (IParserFunction)
             (txt, pos) -> {
-              int len = str.length();
-              if (pos + len <= txt.length()) {
-                String strToCompare = substr(txt, pos, pos + len);
-                if (str.equals(strToCompare)) {
-                  Map<String, Object> nodeOpts = new HashMap<>();
-                  nodeOpts.put("endIdx", pos + len);
-                  nodeOpts.put("name", name);
-                  nodeOpts.put("startIdx", pos);
-                  nodeOpts.put("text", str);
-                  return new Node(nodeOpts);
-                }
+              if (startsWithAt(txt, str, pos)) {
+                Map<String, Object> nodeOpts = new HashMap<>();
+                nodeOpts.put("endIdx", pos + str.length());
+                nodeOpts.put("name", name);
+                nodeOpts.put("startIdx", pos);
+                nodeOpts.put("text", str);
+                return new Node(nodeOpts);
               }
               return null;
             });
@@ -610,624 +612,204 @@ public class Parser {
     }
   }
 
-  // One-time initialization of all parsers
-  static {
-    // string parser
-    parsers.put(
-        "string",
-        (IParserFunction)
-            (txt, pos) -> {
-              List<Map<String, Object>> seqParsers = new ArrayList<>();
-
-              // String open quote
-              Map<String, Object> openQuoteOpts = new HashMap<>();
-              openQuoteOpts.put("regex", "#?\"");
-              openQuoteOpts.put("name", ".open");
-              seqParsers.add(Regex(openQuoteOpts));
-
-              // Optional string body
-              Map<String, Object> bodyParser = new HashMap<>();
-              bodyParser.put("parse", (IParserFunction) Parser::stringBodyParser);
-              seqParsers.add(Optional(bodyParser));
-
-              // Optional closing quote
-              Map<String, Object> closeQuoteOpts = new HashMap<>();
-              closeQuoteOpts.put("char", "\"");
-              closeQuoteOpts.put("name", ".close");
-              seqParsers.add(Optional(Char(closeQuoteOpts)));
-
-              Map<String, Object> seqOpts = new HashMap<>();
-              seqOpts.put("name", "string");
-              seqOpts.put("parsers", seqParsers);
-              return ((IParserFunction) Seq(seqOpts).get("parse")).parse(txt, pos);
-            });
-
-    // token parser
-    parsers.put(
-        "token",
-        (IParserFunction)
-            (txt, pos) -> {
-              List<Map<String, Object>> choices = new ArrayList<>();
-              Map<String, Object> specialCharParserOpts = new HashMap<>();
-              specialCharParserOpts.put("parse", (IParserFunction) Parser::specialCharParser);
-              choices.add(specialCharParserOpts);
-
-              Map<String, Object> tokenParserOpts = new HashMap<>();
-              tokenParserOpts.put("parse", (IParserFunction) Parser::tokenParser);
-              choices.add(tokenParserOpts);
-
-              Map<String, Object> choiceOpts = new HashMap<>();
-              choiceOpts.put("parsers", choices);
-              return ((IParserFunction) Choice(choiceOpts).get("parse")).parse(txt, pos);
-            });
-
-    // whitespace parser (_ws)
-    parsers.put("_ws", (IParserFunction) Parser::whitespaceParser);
-
-    // comment parser
-    Map<String, Object> commentOpts = new HashMap<>();
-    commentOpts.put("regex", ";[^\\n]*");
-    commentOpts.put("name", "comment");
-    parsers.put("comment", (IParserFunction) Regex(commentOpts).get("parse"));
-
-    // discard parser
-    List<Map<String, Object>> discardParsers = new ArrayList<>();
-    Map<String, Object> markerOpts = new HashMap<>();
-    markerOpts.put("str", "#_");
-    markerOpts.put("name", "marker");
-    discardParsers.add(StringParser(markerOpts));
-    discardParsers.add(
-        Repeat(
-            new HashMap<String, Object>() {
-              {
-                put("parser", "_gap");
-              }
-            }));
-    discardParsers.add(
-        Named(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".body");
-                put("parser", "_form");
-              }
-            }));
-    Map<String, Object> discardOpts = new HashMap<>();
-    discardOpts.put("name", "discard");
-    discardOpts.put("parsers", discardParsers);
-    parsers.put("discard", (IParserFunction) Seq(discardOpts).get("parse"));
-
-    // braces parser
-    List<Map<String, Object>> bracesParsers = new ArrayList<>();
-
-    // First the opening brace options
-    List<Map<String, Object>> openChoices = new ArrayList<>();
-    openChoices.add(
-        Char(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".open");
-                put("char", "{");
-              }
-            }));
-    openChoices.add(
-        StringParser(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".open");
-                put("str", "#{");
-              }
-            }));
-    openChoices.add(
-        StringParser(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".open");
-                put("str", "#::{");
-              }
-            }));
-    openChoices.add(
-        Regex(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".open");
-                put("regex", "#:{1,2}[a-zA-Z][a-zA-Z0-9\\.\\-_]*\\{");
-              }
-            }));
+  // Returns the parse function of a parser Map
+  private static IParserFunction parseFn(Map<String, Object> parser) {
+    return (IParserFunction) parser.get("parse");
+  }
 
-    bracesParsers.add(
-        Choice(
-            new HashMap<String, Object>() {
-              {
-                put("parsers", openChoices);
-              }
-            }));
+  // Returns a parser options Map from alternating keys and values
+  private static Map<String, Object> opts(Object... keysAndValues) {
+    Map<String, Object> opts = new HashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      opts.put((String) keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return opts;
+  }
 
-    // Then the body
+  // Returns the parser of a collection: one of the openers, then gaps and forms (a stray closing
+  // char of another collection is an error node), then an optional closer
+  private static IParserFunction collectionParser(
+      String name, List<Object> openChoices, String closeChar) {
     List<Object> bodyChoices = new ArrayList<>();
     bodyChoices.add("_gap");
     bodyChoices.add("_form");
-    bodyChoices.add(
-        NotChar(
-            new HashMap<String, Object>() {
-              {
-                put("name", "error");
-                put("char", "}");
-              }
-            }));
-
-    bracesParsers.add(
-        Repeat(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".body");
-                put(
-                    "parser",
-                    Choice(
-                        new HashMap<String, Object>() {
-                          {
-                            put("parsers", bodyChoices);
-                          }
-                        }));
-              }
-            }));
-
-    // Finally the closing brace
-    bracesParsers.add(
-        Optional(
-            Char(
-                new HashMap<String, Object>() {
-                  {
-                    put("name", ".close");
-                    put("char", "}");
-                  }
-                })));
-
-    // Create the braces parser
-    Map<String, Object> bracesOpts = new HashMap<>();
-    bracesOpts.put("name", "braces");
-    bracesOpts.put("parsers", bracesParsers);
-    parsers.put("braces", (IParserFunction) Seq(bracesOpts).get("parse"));
-
-    // brackets parser
-    List<Map<String, Object>> bracketsParsers = new ArrayList<>();
-
-    // Opening bracket
-    bracketsParsers.add(
-        Char(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".open");
-                put("char", "[");
-              }
-            }));
-
-    // Body of the brackets
-    List<Object> bracketBodyChoices = new ArrayList<>();
-    bracketBodyChoices.add("_gap");
-    bracketBodyChoices.add("_form");
-    bracketBodyChoices.add(
-        NotChar(
-            new HashMap<String, Object>() {
-              {
-                put("name", "error");
-                put("char", "]");
-              }
-            }));
-
-    Map<String, Object> choiceOpts = new HashMap<>();
-    choiceOpts.put("parsers", bracketBodyChoices);
-
-    Map<String, Object> repeatOpts = new HashMap<>();
-    repeatOpts.put("name", ".body");
-    repeatOpts.put("parser", Choice(choiceOpts));
-    bracketsParsers.add(Repeat(repeatOpts));
-
-    // Closing bracket (optional)
-    bracketsParsers.add(
-        Optional(
-            Char(
-                new HashMap<String, Object>() {
-                  {
-                    put("name", ".close");
-                    put("char", "]");
-                  }
-                })));
-
-    // Create the brackets parser
-    Map<String, Object> bracketsOpts = new HashMap<>();
-    bracketsOpts.put("name", "brackets");
-    bracketsOpts.put("parsers", bracketsParsers);
-    parsers.put("brackets", (IParserFunction) Seq(bracketsOpts).get("parse"));
-
-    // parens parser
-    List<Map<String, Object>> parensParsers = new ArrayList<>();
-
-    // Opening paren choices first
-    List<Map<String, Object>> openParenChoices = new ArrayList<>();
-    openParenChoices.add(
-        Char(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".open");
-                put("char", "(");
-              }
-            }));
-    openParenChoices.add(
-        Regex(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".open");
-                put("regex", "#\\?@\\(");
-              }
-            }));
-    openParenChoices.add(
-        Regex(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".open");
-                put("regex", "#\\?\\(");
-              }
-            }));
-    openParenChoices.add(
-        Regex(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".open");
-                put("regex", "#=\\(");
-              }
-            }));
-    openParenChoices.add(
-        Regex(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".open");
-                put("regex", "#\\(");
-              }
-            }));
+    bodyChoices.add(NotChar(opts("name", "error", "char", closeChar)));
 
-    parensParsers.add(
-        Choice(
-            new HashMap<String, Object>() {
-              {
-                put("parsers", openParenChoices);
-              }
-            }));
-
-    // Body choices
-    List<Object> parenBodyChoices = new ArrayList<>();
-    parenBodyChoices.add("_gap");
-    parenBodyChoices.add("_form");
-    parenBodyChoices.add(
-        NotChar(
-            new HashMap<String, Object>() {
-              {
-                put("name", "error");
-                put("char", ")");
-              }
-            }));
-
-    parensParsers.add(
-        Repeat(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".body");
-                put(
-                    "parser",
-                    Choice(
-                        new HashMap<String, Object>() {
-                          {
-                            put("parsers", parenBodyChoices);
-                          }
-                        }));
-              }
-            }));
-
-    // Optional closing paren
-    parensParsers.add(
-        Optional(
-            Char(
-                new HashMap<String, Object>() {
-                  {
-                    put("name", ".close");
-                    put("char", ")");
-                  }
-                })));
-
-    parsers.put(
-        "parens",
-        (IParserFunction)
-            Seq(
-                    new HashMap<String, Object>() {
-                      {
-                        put("name", "parens");
-                        put("parsers", parensParsers);
-                      }
-                    })
-                .get("parse"));
-
-    // _gap parser
-    List<Map<String, Object>> gapChoices = new ArrayList<>();
-
-    // Create wrapper objects for each parser reference
-    Map<String, Object> wsRef = new HashMap<>();
-    wsRef.put("parse", parsers.get("_ws"));
-    gapChoices.add(wsRef);
-
-    Map<String, Object> commentRef = new HashMap<>();
-    commentRef.put("parse", parsers.get("comment"));
-    gapChoices.add(commentRef);
-
-    Map<String, Object> discardRef = new HashMap<>();
-    discardRef.put("parse", parsers.get("discard"));
-    gapChoices.add(discardRef);
-
-    parsers.put(
-        "_gap",
-        (IParserFunction)
-            Choice(
-                    new HashMap<String, Object>() {
-                      {
-                        put("parsers", gapChoices);
-                      }
-                    })
-                .get("parse"));
-
-    // meta parser
-    List<Map<String, Object>> metaParsers = new ArrayList<>();
-
-    List<Map<String, Object>> metaSeqParsers = new ArrayList<>();
-    metaSeqParsers.add(
-        Regex(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".marker");
-                put("regex", "#?\\^");
-              }
-            }));
-    metaSeqParsers.add(
-        Repeat(
-            new HashMap<String, Object>() {
-              {
-                put("parser", "_gap");
-              }
-            }));
-    metaSeqParsers.add(
-        Named(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".meta");
-                put("parser", "_form");
-              }
-            }));
-    metaSeqParsers.add(
-        Repeat(
-            new HashMap<String, Object>() {
-              {
-                put("parser", "_gap");
-              }
-            }));
-
-    metaParsers.add(
-        Repeat(
-            new HashMap<String, Object>() {
-              {
-                put("minMatches", 1);
-                put(
-                    "parser",
-                    Seq(
-                        new HashMap<String, Object>() {
-                          {
-                            put("parsers", metaSeqParsers);
-                          }
-                        }));
-              }
-            }));
-
-    metaParsers.add(
-        Named(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".body");
-                put("parser", "_form");
-              }
-            }));
+    List<Map<String, Object>> seqParsers = new ArrayList<>();
+    seqParsers.add(Choice(opts("parsers", openChoices)));
+    seqParsers.add(Repeat(opts("name", ".body", "parser", Choice(opts("parsers", bodyChoices)))));
+    seqParsers.add(Optional(Char(opts("name", ".close", "char", closeChar))));
+    return parseFn(Seq(opts("name", name, "parsers", seqParsers)));
+  }
 
-    parsers.put(
-        "meta",
-        (IParserFunction)
-            Seq(
-                    new HashMap<String, Object>() {
-                      {
-                        put("name", "meta");
-                        put("parsers", metaParsers);
-                      }
-                    })
-                .get("parse"));
-
-    // wrap parser
-    List<Map<String, Object>> wrapParsers = new ArrayList<>();
-
-    List<Map<String, Object>> wrapMarkerChoices = new ArrayList<>();
-    wrapMarkerChoices.add(
-        Regex(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".marker");
-                put("regex", "~@");
-              }
-            }));
-    wrapMarkerChoices.add(
-        Regex(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".marker");
-                put("regex", "#'");
-              }
-            }));
-    wrapMarkerChoices.add(
-        Char(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".marker");
-                put("char", "@");
-              }
-            }));
-    wrapMarkerChoices.add(
-        Char(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".marker");
-                put("char", "'");
-              }
-            }));
-    wrapMarkerChoices.add(
-        Char(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".marker");
-                put("char", "`");
-              }
-            }));
-    wrapMarkerChoices.add(
-        Char(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".marker");
-                put("char", "~");
-              }
-            }));
+  /**
+   * The parsers of the named grammar rules. They are built the first time a rule is used rather
+   * than when Parser is loaded, so the combinators above can be used on their own. The grammar is
+   * never changed after it is built, and is shared by every thread.
+   */
+  private static final class Grammar {
+    static final Map<String, IParserFunction> PARSERS = Collections.unmodifiableMap(build());
+
+    private static Map<String, IParserFunction> build() {
+      Map<String, IParserFunction> parsers = new HashMap<>();
+
+      // string parser
+      List<Map<String, Object>> stringParsers = new ArrayList<>();
+      stringParsers.add(Regex(opts("name", ".open", "regex", "#?\"")));
+      stringParsers.add(Optional(opts("parse", (IParserFunction) Parser::stringBodyParser)));
+      stringParsers.add(Optional(Char(opts("name", ".close", "char", "\""))));
+      parsers.put("string", parseFn(Seq(opts("name", "string", "parsers", stringParsers))));
+
+      // token parser
+      List<Object> tokenChoices = new ArrayList<>();
+      tokenChoices.add(opts("parse", (IParserFunction) Parser::specialCharParser));
+      tokenChoices.add(opts("parse", (IParserFunction) Parser::tokenParser));
+      parsers.put("token", parseFn(Choice(opts("parsers", tokenChoices))));
+
+      // whitespace parser (_ws)
+      parsers.put("_ws", Parser::whitespaceParser);
+
+      // comment parser
+      parsers.put("comment", parseFn(Regex(opts("name", "comment", "regex", ";[^\\n]*"))));
+
+      // discard parser
+      List<Map<String, Object>> discardParsers = new ArrayList<>();
+      discardParsers.add(StringParser(opts("name", "marker", "str", "#_")));
+      discardParsers.add(Repeat(opts("parser", "_gap")));
+      discardParsers.add(Named(opts("name", ".body", "parser", "_form")));
+      parsers.put("discard", parseFn(Seq(opts("name", "discard", "parsers", discardParsers))));
+
+      // braces parser
+      List<Object> openBraceChoices = new ArrayList<>();
+      openBraceChoices.add(Char(opts("name", ".open", "char", "{")));
+      openBraceChoices.add(StringParser(opts("name", ".open", "str", "#{")));
+      openBraceChoices.add(StringParser(opts("name", ".open", "str", "#::{")));
+      openBraceChoices.add(
+          Regex(opts("name", ".open", "regex", "#:{1,2}[a-zA-Z][a-zA-Z0-9\\.\\-_]*\\{")));
+      parsers.put("braces", collectionParser("braces", openBraceChoices, "}"));
+
+      // brackets parser
+      List<Object> openBracketChoices = new ArrayList<>();
+      openBracketChoices.add(Char(opts("name", ".open", "char", "[")));
+      parsers.put("brackets", collectionParser("brackets", openBracketChoices, "]"));
+
+      // parens parser
+      List<Object> openParenChoices = new ArrayList<>();
+      openParenChoices.add(Char(opts("name", ".open", "char", "(")));
+      openParenChoices.add(StringParser(opts("name", ".open", "str", "#?@(")));
+      openParenChoices.add(StringParser(opts("name", ".open", "str", "#?(")));
+      openParenChoices.add(StringParser(opts("name", ".open", "str", "#=(")));
+      openParenChoices.add(StringParser(opts("name", ".open", "str", "#(")));
+      parsers.put("parens", collectionParser("parens", openParenChoices, ")"));
+
+      // _gap parser
+      List<Object> gapChoices = new ArrayList<>();
+      gapChoices.add(opts("parse", parsers.get("_ws")));
+      gapChoices.add(opts("parse", parsers.get("comment")));
+      gapChoices.add(opts("parse", (IParserFunction) Parser::discardOrIgnoredForm));
+      parsers.put("_gap", parseFn(Choice(opts("parsers", gapChoices))));
+
+      // meta parser
+      List<Map<String, Object>> metaSeqParsers = new ArrayList<>();
+      metaSeqParsers.add(Regex(opts("name", ".marker", "regex", "#?\\^")));
+      metaSeqParsers.add(Repeat(opts("parser", "_gap")));
+      metaSeqParsers.add(Named(opts("name", ".meta", "parser", "_form")));
+      metaSeqParsers.add(Repeat(opts("parser", "_gap")));
+
+      List<Map<String, Object>> metaParsers = new ArrayList<>();
+      metaParsers.add(
+          Repeat(opts("minMatches", 1, "parser", Seq(opts("parsers", metaSeqParsers)))));
+      metaParsers.add(Named(opts("name", ".body", "parser", "_form")));
+      parsers.put("meta", parseFn(Seq(opts("name", "meta", "parsers", metaParsers))));
+
+      // wrap parser
+      List<Object> wrapMarkerChoices = new ArrayList<>();
+      wrapMarkerChoices.add(StringParser(opts("name", ".marker", "str", "~@")));
+      wrapMarkerChoices.add(StringParser(opts("name", ".marker", "str", "#'")));
+      for (String marker : Arrays.asList("@", "'", "`", "~")) {
+        wrapMarkerChoices.add(Char(opts("name", ".marker", "char", marker)));
+      }
 
-    wrapParsers.add(
-        Choice(
-            new HashMap<String, Object>() {
-              {
-                put("parsers", wrapMarkerChoices);
-              }
-            }));
+      List<Map<String, Object>> wrapParsers = new ArrayList<>();
+      wrapParsers.add(Choice(opts("parsers", wrapMarkerChoices)));
+      wrapParsers.add(Repeat(opts("parser", "_gap")));
+      wrapParsers.add(Named(opts("name", ".body", "parser", "_form")));
+      parsers.put("wrap", parseFn(Seq(opts("name", "wrap", "parsers", wrapParsers))));
+
+      // tagged parser
+      List<Map<String, Object>> taggedParsers = new ArrayList<>();
+      taggedParsers.add(Char(opts("char", "#")));
+      taggedParsers.add(Repeat(opts("parser", "_gap")));
+      taggedParsers.add(Named(opts("name", ".tag", "parser", "token")));
+      taggedParsers.add(Repeat(opts("parser", "_gap")));
+      taggedParsers.add(Named(opts("name", ".body", "parser", "_form")));
+      parsers.put("tagged", parseFn(Seq(opts("name", "tagged", "parsers", taggedParsers))));
+
+      // _form parser
+      List<Object> formChoices =
+          Arrays.asList(
+              "token", "string", "parens", "brackets", "braces", "wrap", "meta", "tagged");
+      parsers.put("_form", parseFn(Choice(opts("parsers", formChoices))));
+
+      // source parser
+      List<Object> sourceChoices = new ArrayList<>();
+      sourceChoices.add(opts("parse", parsers.get("_gap")));
+      sourceChoices.add(opts("parse", parsers.get("_form")));
+      sourceChoices.add(AnyChar(opts("name", "error")));
+      parsers.put("_sourceItem", parseFn(Choice(opts("parsers", sourceChoices))));
+      parsers.put("source", parseFn(Repeat(opts("name", "source", "parser", "_sourceItem"))));
+
+      return parsers;
+    }
+  }
 
-    wrapParsers.add(
-        Repeat(
-            new HashMap<String, Object>() {
-              {
-                put("parser", "_gap");
-              }
-            }));
-
-    wrapParsers.add(
-        Named(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".body");
-                put("parser", "_form");
-              }
-            }));
+  /**
+   * Parses a discard. When the "skipIgnoredForms" option is set and the discard is an ignore
+   * directive (#_ :standard-clj/ignore or #_ {:standard-clj/ignore true}), the whitespace and
+   * form that follow it are found with a balanced-delimiter scan and returned as one "ignored"
+   * Node without children. The discard and the ignored Node are returned inside an unnamed Node
+   * so that both are spliced into the parent.
+   */
+  private static Node discardOrIgnoredForm(CharSequence txt, int pos) {
+    Node discardNode = Grammar.PARSERS.get("discard").parse(txt, pos);
+    if (discardNode == null
+        || activeSkipIgnoredForms.get() == null
+        || !FormScanner.directiveAt(txt, pos + 2, IGNORE_KEYWORD)) {
+      return discardNode;
+    }
 
-    parsers.put(
-        "wrap",
-        (IParserFunction)
-            Seq(
-                    new HashMap<String, Object>() {
-                      {
-                        put("name", "wrap");
-                        put("parsers", wrapParsers);
-                      }
-                    })
-                .get("parse"));
-
-    // tagged parser
-    List<Map<String, Object>> taggedParsers = new ArrayList<>();
-    taggedParsers.add(
-        Char(
-            new HashMap<String, Object>() {
-              {
-                put("char", "#");
-              }
-            }));
-    taggedParsers.add(
-        Repeat(
-            new HashMap<String, Object>() {
-              {
-                put("parser", "_gap");
-              }
-            }));
-    taggedParsers.add(
-        Named(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".tag");
-                put("parser", "token");
-              }
-            }));
-    taggedParsers.add(
-        Repeat(
-            new HashMap<String, Object>() {
-              {
-                put("parser", "_gap");
-              }
-            }));
-    taggedParsers.add(
-        Named(
-            new HashMap<String, Object>() {
-              {
-                put("name", ".body");
-                put("parser", "_form");
-              }
-            }));
+    int ignoredStartIdx = discardNode.getEndIdx();
+    int ignoredEndIdx = FormScanner.skipForm(txt, FormScanner.skipWhitespace(txt, ignoredStartIdx));
+    if (ignoredEndIdx < 0) return discardNode;
 
-    parsers.put(
-        "tagged",
-        (IParserFunction)
-            Seq(
-                    new HashMap<String, Object>() {
-                      {
-                        put("name", "tagged");
-                        put("parsers", taggedParsers);
-                      }
-                    })
-                .get("parse"));
-
-    // _form parser
-    List<String> formChoices =
-        new ArrayList<>(
-            Arrays.asList(
-                "token", "string", "parens", "brackets", "braces", "wrap", "meta", "tagged"));
-
-    Map<String, Object> formOpts = new HashMap<>();
-    formOpts.put("parsers", formChoices);
-    parsers.put("_form", (IParserFunction) Choice(formOpts).get("parse"));
-
-    // source parser
-    List<Object> sourceChoices = new ArrayList<>();
-    Map<String, Object> gapRef3 = new HashMap<>();
-    gapRef3.put("parse", parsers.get("_gap"));
-    sourceChoices.add(gapRef3);
-
-    Map<String, Object> formRef3 = new HashMap<>();
-    formRef3.put("parse", parsers.get("_form"));
-    sourceChoices.add(formRef3);
-
-    Map<String, Object> errorCharOpts = new HashMap<>();
-    errorCharOpts.put("name", "error");
-    sourceChoices.add(AnyChar(errorCharOpts));
-
-    Map<String, Object> sourceRepeatOpts = new HashMap<>();
-    sourceRepeatOpts.put("name", "source");
-    sourceRepeatOpts.put(
-        "parser",
-        Choice(
-            new HashMap<String, Object>() {
-              {
-                put("parsers", sourceChoices);
-              }
-            }));
+    LineIndex lines = activeLineIndex.get();
+    if (lines != null) {
+      for (int i = ignoredStartIdx; i < ignoredEndIdx; i++) {
+        if (txt.charAt(i) == '\n') lines.addNewline(i);
+      }
+    }
 
-    parsers.put("source", (IParserFunction) Repeat(sourceRepeatOpts).get("parse"));
+    Map<String, Object> ignoredOpts = new HashMap<>();
+    ignoredOpts.put("name", "ignored");
+    ignoredOpts.put("startIdx", ignoredStartIdx);
+    ignoredOpts.put("endIdx", ignoredEndIdx);
+    putText(ignoredOpts, txt, ignoredStartIdx, ignoredEndIdx);
+
+    List<Node> children = new ArrayList<>();
+    children.add(discardNode);
+    children.add(new Node(ignoredOpts));
+    Map<String, Object> nodeOpts = new HashMap<>();
+    nodeOpts.put("children", children);
+    nodeOpts.put("startIdx", pos);
+    nodeOpts.put("endIdx", ignoredEndIdx);
+    return new Node(nodeOpts);
   }
 
   // Helper to get parser by name or return direct parser object
   public static IParserFunction getParser(Object p) {
-    if (p instanceof String && parsers.containsKey(p)) {
-      return parsers.get(p);
+    if (p instanceof String) {
+      IParserFunction parser = Grammar.PARSERS.get(p);
+      if (parser != null) return parser;
     }
     if (p instanceof Map) {
       Object parse = ((Map) p).get("parse");
@@ -1239,7 +821,78 @@ public class Parser {
   }
 
   // Main parse function that kicks everything off
-  public static Node parse(String inputTxt) {
-    return ((IParserFunction) parsers.get("source")).parse(inputTxt, 0);
+  // inputTxt can be a String or a Utf8Source
+  public static Node parse(CharSequence inputTxt) {
+    return Grammar.PARSERS.get("source").parse(inputTxt, 0);
+  }
+
+  /**
+   * Parses inputTxt with options:
+   *
+   * <ul>
+   *   <li>"lineIndex" - a LineIndex that will record the start offset of every line while the
+   *       input is scanned
+   *   <li>"skipIgnoredForms" - when true, the form after a #_ :standard-clj/ignore directive is
+   *       not parsed, and is kept verbatim in a single "ignored" Node instead
+   * </ul>
+   */
+  public static Node parse(CharSequence inputTxt, Map<String, Object> opts) {
+    LineIndex lines = (LineIndex) opts.get("lineIndex");
+    activeLineIndex.set(lines);
+    if (Boolean.TRUE.equals(opts.get("skipIgnoredForms"))) activeSkipIgnoredForms.set(true);
+    try {
+      return parse(inputTxt);
+    } finally {
+      activeLineIndex.remove();
+      activeSkipIgnoredForms.remove();
+    }
+  }
+
+  /**
+   * Parses one top-level item of inputTxt at position: whitespace, a comment, a discard, a form or
+   * a single error char. Returns null at the end of the input. This is the same Node that
+   * parse(inputTxt) would have as a child of its root, so callers can parse the start of a file
+   * one item at a time and stop early. lines is optional.
+   */
+  public static Node parseTopLevelItem(CharSequence inputTxt, int position, LineIndex lines) {
+    if (position >= inputTxt.length()) return null;
+    activeLineIndex.set(lines);
+    try {
+      return Grammar.PARSERS.get("_sourceItem").parse(inputTxt, position);
+    } finally {
+      activeLineIndex.remove();
+    }
+  }
+
+  /**
+   * Same as parseTopLevelItem(inputTxt, position, lines), with the options of parse(inputTxt,
+   * opts). With "skipIgnoredForms", an ignore directive and the form after it are returned as one
+   * unnamed Node whose children are the discard and the "ignored" Node.
+   */
+  public static Node parseTopLevelItem(
+      CharSequence inputTxt, int position, Map<String, Object> opts) {
+    if (Boolean.TRUE.equals(opts.get("skipIgnoredForms"))) activeSkipIgnoredForms.set(true);
+    try {
+      return parseTopLevelItem(inputTxt, position, (LineIndex) opts.get("lineIndex"));
+    } finally {
+      activeSkipIgnoredForms.remove();
+    }
+  }
+
+  /**
+   * Parses UTF-8 encoded source text without decoding it into a String first. Node startIdx and
+   * endIdx values are byte offsets. Wrap the bytes with Utf8Source directly in order to map them
+   * back to char offsets.
+   */
+  public static Node parseUtf8(byte[] inputBytes) {
+    return parse(Utf8Source.wrap(inputBytes));
+  }
+
+  /**
+   * Parses the remaining bytes of a UTF-8 encoded ByteBuffer, which can be a MappedByteBuffer
+   * from a FileChannel.
+   */
+  public static Node parseUtf8(ByteBuffer inputBuf) {
+    return parse(Utf8Source.wrap(inputBuf));
   }
 }
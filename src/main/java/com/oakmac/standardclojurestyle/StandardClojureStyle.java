@@ -1,3 +1,1554 @@
 package com.oakmac.standardclojurestyle;
 
-public class StandardClojureStyle {}
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.IntFunction;
+
+public class StandardClojureStyle {
+  /** The library version, from the build. Output may differ between versions. */
+  public static final String VERSION = BuildInfo.VERSION;
+
+  private static final Map<String, Object> PARSE_OPTS = Map.of("skipIgnoredForms", true);
+
+  private final FormCache formCache;
+
+  public StandardClojureStyle() {
+    this(null);
+  }
+
+  /**
+   * Creates a formatter that keeps the output of top-level forms in formCache. Formatting text
+   * again after an edit then only parses and formats the forms that changed.
+   */
+  public StandardClojureStyle(FormCache formCache) {
+    this.formCache = formCache;
+  }
+
+  /**
+   * Formats inputTxt with Standard Clojure Style. Returns a Map with:
+   *
+   * <ul>
+   *   <li>"status" - "success" or "error"
+   *   <li>"out" - the formatted text (success only)
+   *   <li>"reason" - why the input could not be formatted (error only)
+   *   <li>"fileWasIgnored" - true if the file contains a :standard-clj/ignore-file directive, in
+   *       which case "out" is the input unchanged
+   * </ul>
+   */
+  public Map<String, Object> format(String inputTxt) {
+    Map<String, Object> result = new HashMap<>();
+    if (ParseNs.lookForIgnoreFile(inputTxt)) {
+      result.put("status", "success");
+      result.put("out", inputTxt);
+      result.put("fileWasIgnored", true);
+      return result;
+    }
+
+    Formatter formatter = new Formatter(inputTxt, false, formCache);
+    String reason = formatter.run();
+    if (reason != null) return error(reason);
+
+    result.put("status", "success");
+    result.put("out", formatter.out.toString());
+    result.put("fileWasIgnored", false);
+    return result;
+  }
+
+  /**
+   * Checks if inputTxt is already formatted without building the formatted text: the output is
+   * compared with the input as it is produced, and formatting stops at the first difference.
+   * Returns a Map with:
+   *
+   * <ul>
+   *   <li>"status" - "unchanged", "changed" or "error"
+   *   <li>"offset" - the index of the first char in inputTxt that would change (changed only)
+   *   <li>"line" - the line number of that char, starting at 1 (changed only)
+   *   <li>"reason" - why the input could not be formatted (error only)
+   *   <li>"fileWasIgnored" - true if the file contains a :standard-clj/ignore-file directive
+   * </ul>
+   *
+   * Because checking stops at the first difference, a reader error after it is not reported.
+   */
+  public Map<String, Object> check(String inputTxt) {
+    Map<String, Object> result = new HashMap<>();
+    if (ParseNs.lookForIgnoreFile(inputTxt)) {
+      result.put("status", "unchanged");
+      result.put("fileWasIgnored", true);
+      return result;
+    }
+
+    Formatter formatter = new Formatter(inputTxt, true, formCache);
+    String reason = formatter.run();
+    if (reason != null) return error(reason);
+
+    int diffIdx = formatter.diffIdx;
+    if (diffIdx < 0) {
+      result.put("status", "unchanged");
+    } else {
+      int line = 1;
+      for (int i = 0; i < diffIdx; i++) {
+        if (inputTxt.charAt(i) == '\n') line++;
+      }
+      result.put("status", "changed");
+      result.put("offset", diffIdx);
+      result.put("line", line);
+    }
+    result.put("fileWasIgnored", false);
+    return result;
+  }
+
+  /**
+   * Formats inputTxt like format(), but returns the changes as a list of TextEdits instead of the
+   * whole formatted text. The edits are found while formatting, not by diffing afterwards. Their
+   * offsets are into inputTxt, they are in order and do not overlap, and edits that touch are
+   * merged. Returns a Map with:
+   *
+   * <ul>
+   *   <li>"status" - "success" or "error"
+   *   <li>"edits" - a List of TextEdits, empty if inputTxt is already formatted (success only)
+   *   <li>"reason" - why the input could not be formatted (error only)
+   *   <li>"fileWasIgnored" - true if the file contains a :standard-clj/ignore-file directive, in
+   *       which case there are no edits
+   * </ul>
+   */
+  public Map<String, Object> formatEdits(String inputTxt) {
+    Map<String, Object> result = new HashMap<>();
+    if (ParseNs.lookForIgnoreFile(inputTxt)) {
+      result.put("status", "success");
+      result.put("edits", new ArrayList<TextEdit>());
+      result.put("fileWasIgnored", true);
+      return result;
+    }
+
+    Formatter formatter = new Formatter(inputTxt, false, formCache);
+    formatter.edits = new ArrayList<>();
+    String reason = formatter.run();
+    if (reason != null) return error(reason);
+
+    result.put("status", "success");
+    result.put("edits", formatter.edits);
+    result.put("fileWasIgnored", false);
+    return result;
+  }
+
+  /** A change to a text: replace length chars at offset with replacement. */
+  public static final class TextEdit {
+    final int offset;
+    final int length;
+    final String replacement;
+
+    TextEdit(int offset, int length, String replacement) {
+      this.offset = offset;
+      this.length = length;
+      this.replacement = replacement;
+    }
+
+    public int getOffset() {
+      return offset;
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    public String getReplacement() {
+      return replacement;
+    }
+
+    /** Returns txt with this edit applied. */
+    public String apply(String txt) {
+      return txt.substring(0, offset) + replacement + txt.substring(offset + length);
+    }
+
+    @Override
+    public String toString() {
+      return "TextEdit{offset=" + offset + ", length=" + length + ", replacement=" + replacement
+          + "}";
+    }
+  }
+
+  /**
+   * Formats the top-level forms of inputTxt that overlap the range [start, end), or the form at
+   * start if the range is empty. The span is widened to whole lines, so that it also includes the
+   * other forms and comments on the lines where it starts and ends. Returns a Map with:
+   *
+   * <ul>
+   *   <li>"status" - "success" or "error"
+   *   <li>"start", "end" - the span of inputTxt to replace (success only)
+   *   <li>"out" - the formatted text to replace the span with (success only)
+   *   <li>"reason" - why the span could not be formatted (error only)
+   *   <li>"fileWasIgnored" - true if the file contains a :standard-clj/ignore-file directive, in
+   *       which case "out" is the range unchanged
+   * </ul>
+   *
+   * Text outside the span is only scanned for the boundaries of top-level forms, not parsed.
+   */
+  public Map<String, Object> formatRange(String inputTxt, int start, int end) {
+    if (start < 0 || end < start || end > inputTxt.length()) {
+      throw new IllegalArgumentException(
+          "Invalid range " + start + "-" + end + " for a text of length " + inputTxt.length());
+    }
+    boolean fileWasIgnored = ParseNs.lookForIgnoreFile(inputTxt);
+    Span span = fileWasIgnored ? null : topLevelSpan(inputTxt, start, end);
+    int spanStart = span != null ? span.start : start;
+    int spanEnd = span != null ? span.end : end;
+
+    String spanTxt = inputTxt.substring(spanStart, spanEnd);
+    String out = spanTxt;
+    if (span != null) {
+      Formatter formatter = new Formatter(spanTxt, false, formCache);
+      if (span.continues) formatter.continueFrom(span.nsBefore, contextLineStart(inputTxt, span));
+      String reason = formatter.run();
+      if (reason != null) return error(reason);
+      out = formatter.out.toString();
+    }
+
+    Map<String, Object> result = new HashMap<>();
+    result.put("status", "success");
+    result.put("start", spanStart);
+    result.put("end", spanEnd);
+    result.put("out", out);
+    result.put("fileWasIgnored", fileWasIgnored);
+    return result;
+  }
+
+  /**
+   * Same as formatRange(inputTxt, start, end) for the lines startLine to endLine, counting from
+   * 1, inclusive.
+   */
+  public Map<String, Object> formatLineRange(String inputTxt, int startLine, int endLine) {
+    if (startLine < 1 || endLine < startLine) {
+      throw new IllegalArgumentException("Invalid line range " + startLine + "-" + endLine);
+    }
+    int start = -1;
+    int line = 1;
+    int idx = 0;
+    while (true) {
+      if (line == startLine) start = idx;
+      int newline = inputTxt.indexOf('\n', idx);
+      if (line == endLine || newline < 0) {
+        int end = newline < 0 ? inputTxt.length() : newline;
+        if (start < 0) start = end;
+        return formatRange(inputTxt, start, end);
+      }
+      idx = newline + 1;
+      line++;
+    }
+  }
+
+  // The top-level items that formatRange formats, and what the formatter needs to know about the
+  // text before them to print them the way format() would
+  private static final class Span {
+    int start = -1;
+    int end = -1;
+    // are there top-level items before start? Is one of them an ns form?
+    boolean continues = false;
+    boolean nsBefore = false;
+    // when the first line of the span starts with a comment, which may align with the line
+    // before it: the start of the last line before the span that starts with a form, or of the
+    // first item, and the same as continues and nsBefore for it. -1 if not needed
+    int contextStart = -1;
+    boolean contextContinues = false;
+    boolean contextNsBefore = false;
+  }
+
+  // Returns the span of the top-level items (other than whitespace) that overlap [start, end),
+  // widened to whole lines, or null if there are none. The span ends after the whitespace and
+  // commas that follow its last item on the same line, or at the end of the text after the last
+  // item, because format() removes them.
+  private static Span topLevelSpan(String txt, int start, int end) {
+    Span span = new Span();
+    // the start of the line with the first item of the current line of items
+    int lineStart = 0;
+    boolean lineContinues = false;
+    boolean lineNsBefore = false;
+    // the last line that starts with a form, see Span.contextStart
+    int anchorStart = -1;
+    boolean anchorContinues = false;
+    boolean anchorNsBefore = false;
+    boolean nsSeen = false;
+    int prevEnd = 0;
+    int pos = FormScanner.skipWhitespace(txt, 0);
+    while (pos < txt.length()) {
+      int itemEnd = topLevelItemEnd(txt, pos);
+      int newline = txt.lastIndexOf('\n', pos - 1);
+      boolean onNewLine = prevEnd == 0 || newline >= prevEnd;
+      boolean isComment = txt.charAt(pos) == ';';
+      if (onNewLine) {
+        lineStart = prevEnd == 0 ? 0 : newline + 1;
+        lineContinues = prevEnd > 0;
+        lineNsBefore = nsSeen;
+        if (!isComment || anchorStart < 0) {
+          anchorStart = lineStart;
+          anchorContinues = lineContinues;
+          anchorNsBefore = lineNsBefore;
+        }
+      }
+      boolean overlaps = pos < Math.max(end, start + 1) && itemEnd > start;
+
+      if (span.start < 0) {
+        if (overlaps) {
+          span.start = lineStart;
+          span.end = itemEnd;
+          span.continues = lineContinues;
+          span.nsBefore = lineNsBefore;
+          if (lineContinues && anchorStart < lineStart) {
+            span.contextStart = anchorStart;
+            span.contextContinues = anchorContinues;
+            span.contextNsBefore = anchorNsBefore;
+          }
+        } else if (pos >= end) {
+          break;
+        }
+      } else if (overlaps || !onNewLine) {
+        span.end = itemEnd;
+      } else {
+        break;
+      }
+      if (txt.charAt(pos) == '(' && Formatter.mayStartWithNs(txt, pos + 1)) nsSeen = true;
+      prevEnd = itemEnd;
+      pos = FormScanner.skipWhitespace(txt, itemEnd);
+    }
+    if (span.start < 0) return null;
+
+    if (FormScanner.skipWhitespace(txt, span.end) == txt.length()) {
+      // format() also removes the blank lines at the end of the file
+      span.end = txt.length();
+    } else {
+      while (txt.charAt(span.end) != '\n' && FormScanner.isWhitespace(txt.charAt(span.end))) {
+        span.end++;
+      }
+    }
+    return span;
+  }
+
+  // Formats the lines between span.contextStart and the span, and returns the first node of the
+  // last of them, which a comment at the start of the span aligns with. Returns null if there is
+  // nothing to align with.
+  private FormCache.LineStart contextLineStart(String txt, Span span) {
+    if (span.contextStart < 0) return null;
+    Formatter context =
+        new Formatter(txt.substring(span.contextStart, span.start), false, formCache);
+    if (span.contextContinues) context.continueFrom(span.contextNsBefore, null);
+    return context.run() == null ? context.lineStart() : null;
+  }
+
+  // Formats txt, a single form, as if it started at column 0. Returns txt unchanged if it cannot
+  // be formatted.
+  static String formatForm(String txt) {
+    Formatter formatter = new Formatter(txt, false, null);
+    return formatter.run() == null ? formatter.out.toString() : txt;
+  }
+
+  // scans over forms and comments, and parses the rest, ie: forms with a reader macro prefix
+  private static int topLevelItemEnd(String txt, int pos) {
+    if (txt.charAt(pos) == ';') return FormScanner.skipComment(txt, pos);
+    int end = FormScanner.skipForm(txt, pos);
+    if (end > pos) return end;
+    return Parser.parseTopLevelItem(txt, pos, PARSE_OPTS).getEndIdx();
+  }
+
+  private static Map<String, Object> error(String reason) {
+    Map<String, Object> result = new HashMap<>();
+    result.put("status", "error");
+    result.put("reason", reason);
+    result.put("fileWasIgnored", false);
+    return result;
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // Batch formatting
+
+  /** Default limit on the size of the inputs being formatted at the same time: 64 MB. */
+  public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 64L << 20;
+
+  /** The result of formatting one input of a batch. */
+  public static final class BatchResult {
+    final String name;
+    final String status;
+    final String out;
+    final String reason;
+    final boolean fileWasIgnored;
+    final boolean cached;
+    final long nanos;
+
+    BatchResult(
+        String name,
+        String status,
+        String out,
+        String reason,
+        boolean fileWasIgnored,
+        boolean cached,
+        long nanos) {
+      this.name = name;
+      this.status = status;
+      this.out = out;
+      this.reason = reason;
+      this.fileWasIgnored = fileWasIgnored;
+      this.cached = cached;
+      this.nanos = nanos;
+    }
+
+    /** The name of the source, or the path of the file. */
+    public String getName() {
+      return name;
+    }
+
+    /** "changed", "unchanged" or "error" */
+    public String getStatus() {
+      return status;
+    }
+
+    /** The formatted text of a changed source. Always null for files. */
+    public String getOut() {
+      return out;
+    }
+
+    public String getReason() {
+      return reason;
+    }
+
+    public boolean getFileWasIgnored() {
+      return fileWasIgnored;
+    }
+
+    /** True if a FormatCache showed the file was already formatted, so it was not parsed. */
+    public boolean isCached() {
+      return cached;
+    }
+
+    /** How long reading, formatting and writing this input took. */
+    public long getNanos() {
+      return nanos;
+    }
+  }
+
+  /**
+   * Formats many sources using every available core. sources maps a name (ie: a file path) to its
+   * text. Returns one BatchResult per source, in the iteration order of sources.
+   */
+  public List<BatchResult> formatSources(Map<String, String> sources) throws InterruptedException {
+    ExecutorService executor = newBatchExecutor();
+    try {
+      return formatSources(sources, executor, DEFAULT_MAX_IN_FLIGHT_BYTES);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Formats many sources on executor. The largest sources are started first, and a source is
+   * only started while the sources being formatted add up to less than maxInFlightChars (a source
+   * larger than that is formatted on its own). Returns one BatchResult per source, in the
+   * iteration order of sources.
+   */
+  public List<BatchResult> formatSources(
+      Map<String, String> sources, Executor executor, long maxInFlightChars)
+      throws InterruptedException {
+    List<String> names = new ArrayList<>(sources.keySet());
+    long[] sizes = new long[names.size()];
+    for (int i = 0; i < sizes.length; i++) {
+      sizes[i] = sources.get(names.get(i)).length();
+    }
+    return runBatch(
+        sizes,
+        executor,
+        maxInFlightChars,
+        i -> {
+          String name = names.get(i);
+          long startTime = System.nanoTime();
+          try {
+            String inputTxt = sources.get(name);
+            Map<String, Object> result = format(inputTxt);
+            boolean ignored = Boolean.TRUE.equals(result.get("fileWasIgnored"));
+            if (!"success".equals(result.get("status"))) {
+              String reason = (String) result.get("reason");
+              return errorResult(name, reason, startTime);
+            }
+            String out = (String) result.get("out");
+            String status = out.equals(inputTxt) ? "unchanged" : "changed";
+            if (status.equals("unchanged")) out = null;
+            return new BatchResult(name, status, out, null, ignored, false, elapsed(startTime));
+          } catch (RuntimeException e) {
+            return errorResult(name, message(e), startTime);
+          } catch (StackOverflowError e) {
+            return errorResult(name, TOO_DEEPLY_NESTED, startTime);
+          }
+        });
+  }
+
+  /**
+   * Formats many files using every available core. If writeChanges is true, files that change are
+   * written back. Otherwise they are only checked, see formatFiles(paths, executor,
+   * maxInFlightBytes, writeChanges).
+   */
+  public List<BatchResult> formatFiles(List<Path> paths, boolean writeChanges)
+      throws InterruptedException {
+    return formatFiles(paths, writeChanges, null);
+  }
+
+  /**
+   * Formats many files using every available core, skipping the files that cache knows are
+   * already formatted. cache can be null.
+   */
+  public List<BatchResult> formatFiles(List<Path> paths, boolean writeChanges, FormatCache cache)
+      throws InterruptedException {
+    ExecutorService executor = newBatchExecutor();
+    try {
+      return formatFiles(paths, executor, DEFAULT_MAX_IN_FLIGHT_BYTES, writeChanges, cache);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Formats many UTF-8 files on executor. The largest files are started first, and a file is only
+   * read while the files being formatted add up to less than maxInFlightBytes (a file larger than
+   * that is formatted on its own).
+   *
+   * <p>If writeChanges is true, files that change are written back. Otherwise files are only
+   * checked with check(), which is much cheaper for files that are already formatted, and nothing
+   * is written. Returns one BatchResult per path, in the order of paths. A file that cannot be
+   * read or written is an error result and does not stop the rest of the batch.
+   */
+  public List<BatchResult> formatFiles(
+      List<Path> paths, Executor executor, long maxInFlightBytes, boolean writeChanges)
+      throws InterruptedException {
+    return formatFiles(paths, executor, maxInFlightBytes, writeChanges, null);
+  }
+
+  /**
+   * Same as formatFiles(paths, executor, maxInFlightBytes, writeChanges), but files that cache
+   * knows are formatted are not parsed: a file whose size and modification time match the cache is
+   * not even read, and a file whose content hash matches is not parsed. Formatted files are added
+   * to cache. cache can be null.
+   */
+  public List<BatchResult> formatFiles(
+      List<Path> paths,
+      Executor executor,
+      long maxInFlightBytes,
+      boolean writeChanges,
+      FormatCache cache)
+      throws InterruptedException {
+    long[] sizes = new long[paths.size()];
+    for (int i = 0; i < sizes.length; i++) {
+      try {
+        sizes[i] = Files.size(paths.get(i));
+      } catch (IOException e) {
+        // reported when the file is read
+        sizes[i] = 0;
+      }
+    }
+    return runBatch(
+        sizes,
+        executor,
+        maxInFlightBytes,
+        i -> {
+          Path path = paths.get(i);
+          String name = path.toString();
+          long startTime = System.nanoTime();
+          try {
+            return formatFile(path, writeChanges, cache, startTime);
+          } catch (IOException | RuntimeException e) {
+            return errorResult(name, message(e), startTime);
+          } catch (StackOverflowError e) {
+            return errorResult(name, TOO_DEEPLY_NESTED, startTime);
+          }
+        });
+  }
+
+  private BatchResult formatFile(
+      Path path, boolean writeChanges, FormatCache cache, long startTime) throws IOException {
+    String name = path.toString();
+    BasicFileAttributes attrs = null;
+    FormatCache.Digest digest = null;
+    if (cache != null) {
+      attrs = Files.readAttributes(path, BasicFileAttributes.class);
+      long lastModified = attrs.lastModifiedTime().toMillis();
+      if (cache.isFormatted(path, attrs.size(), lastModified)) {
+        return new BatchResult(name, "unchanged", null, null, false, true, elapsed(startTime));
+      }
+    }
+
+    byte[] bytes = Files.readAllBytes(path);
+    if (cache != null) {
+      digest = FormatCache.digest(bytes);
+      if (cache.isFormatted(digest)) {
+        cache.markFormatted(path, bytes.length, attrs.lastModifiedTime().toMillis(), digest);
+        return new BatchResult(name, "unchanged", null, null, false, true, elapsed(startTime));
+      }
+    }
+
+    String inputTxt = new String(bytes, StandardCharsets.UTF_8);
+    Map<String, Object> result = writeChanges ? format(inputTxt) : check(inputTxt);
+    boolean ignored = Boolean.TRUE.equals(result.get("fileWasIgnored"));
+    Object status = result.get("status");
+    if ("error".equals(status)) {
+      return errorResult(name, (String) result.get("reason"), startTime);
+    }
+
+    boolean changed;
+    if (writeChanges) {
+      String out = (String) result.get("out");
+      changed = !out.equals(inputTxt);
+      if (changed) {
+        bytes = out.getBytes(StandardCharsets.UTF_8);
+        Files.write(path, bytes);
+        if (cache != null) digest = FormatCache.digest(bytes);
+      }
+    } else {
+      changed = "changed".equals(status);
+    }
+    // after a fix the file on disk is formatted, whether it changed or not
+    if (cache != null && (writeChanges || !changed)) {
+      cache.markFormatted(path, bytes.length, Files.getLastModifiedTime(path).toMillis(), digest);
+    }
+    String newStatus = changed ? "changed" : "unchanged";
+    return new BatchResult(name, newStatus, null, null, ignored, false, elapsed(startTime));
+  }
+
+  // the Parser is recursive, so deeply nested input overflows the stack of its thread
+  private static final String TOO_DEEPLY_NESTED = "too deeply nested to format";
+
+  private static BatchResult errorResult(String name, String reason, long startTime) {
+    return new BatchResult(name, "error", null, reason, false, false, elapsed(startTime));
+  }
+
+  private static ExecutorService newBatchExecutor() {
+    return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+  }
+
+  private static long elapsed(long startTime) {
+    return System.nanoTime() - startTime;
+  }
+
+  private static String message(Exception e) {
+    return e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+  }
+
+  // runs task(i) for every input on executor, largest first, holding a permit per byte (or char)
+  // of input while it runs
+  private static List<BatchResult> runBatch(
+      long[] sizes, Executor executor, long maxInFlight, IntFunction<BatchResult> task)
+      throws InterruptedException {
+    int numInputs = sizes.length;
+    Integer[] order = new Integer[numInputs];
+    for (int i = 0; i < numInputs; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(sizes[b], sizes[a]));
+
+    int maxPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxInFlight));
+    Semaphore inFlight = new Semaphore(maxPermits);
+    CountDownLatch done = new CountDownLatch(numInputs);
+    BatchResult[] results = new BatchResult[numInputs];
+    for (int idx : order) {
+      int permits = (int) Math.max(1, Math.min(maxPermits, sizes[idx]));
+      inFlight.acquire(permits);
+      Runnable runnable =
+          () -> {
+            try {
+              results[idx] = task.apply(idx);
+            } finally {
+              inFlight.release(permits);
+              done.countDown();
+            }
+          };
+      try {
+        executor.execute(runnable);
+      } catch (RejectedExecutionException e) {
+        inFlight.release(permits);
+        throw e;
+      }
+    }
+    done.await();
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Formats one input in a single pass over the tree. Output is written straight into a presized
+   * StringBuilder and the open lists are tracked with parallel int stacks, so formatting time is
+   * linear in the size of the input.
+   */
+  private static final class Formatter {
+    // what was printed last
+    private static final int NONE = 0;
+    private static final int OPENER = 1;
+    private static final int FORM_END = 2;
+    private static final int MARKER = 3;
+    private static final int COMMENT = 4;
+    // only used as an argument to beforeNode()
+    private static final int CLOSER = 5;
+
+    // kinds of list
+    private static final int PAREN = 0;
+    private static final int OTHER = 1;
+
+    // the first child of a list
+    private static final int CHILD_UNKNOWN = 0;
+    private static final int CHILD_TOKEN = 1;
+    private static final int CHILD_OTHER = 2;
+
+    // Rule 3: children align with a node on the first line of the list
+    private static final int RULE3_UNDECIDED = 0;
+    private static final int RULE3_NO = 1;
+    private static final int RULE3_YES = 2;
+
+    // top-level forms shorter than this are not worth caching
+    private static final int MIN_CACHED_FORM_LENGTH = 32;
+
+    private final String in;
+    private final FormCache formCache;
+    private final TreeCursor cursor = new TreeCursor();
+    // items that were parsed ahead of the formatter to read the ns form
+    private final ArrayDeque<Node> lookahead = new ArrayDeque<>();
+    private NsForm ns;
+    private boolean nsParsed = false;
+    // everything up to and including the last code char. A closer on its own line is appended
+    // here, which moves it up past any comments and newlines that are still in tail.
+    // out is null in check mode: committed text is compared with the input instead
+    final StringBuilder out;
+    private final StringBuilder tail = new StringBuilder();
+    private int outLength = 0;
+    // check mode: the first offset where the output differs from the input, -1 if none yet
+    int diffIdx = -1;
+    // edits mode: the changes to the input, and where the last code printed ends in the input and
+    // in the output. Code is printed in the same order as in the input, so only the text between
+    // code needs to be compared
+    List<TextEdit> edits = null;
+    private int codeInEnd = 0;
+    private int codeOutEnd = 0;
+
+    // positions in the output are offsets into out + tail
+    private int outLineStart = 0;
+    private int lastKind = NONE;
+
+    private int inLine = 0;
+    private int inLineStart = 0;
+
+    // whitespace to print before the next node if it is on the same line, as a slice of in
+    private int wsStart = 0;
+    private int wsEnd = 0;
+    // commas at the start of the next line, as a slice of in
+    private int commaStart = -1;
+    private int commaEnd = -1;
+    private int pendingNewlines = 0;
+    // true when the next leaf starts a direct child of the innermost list
+    private boolean childStart = false;
+
+    // open lists, innermost at top
+    private int top = -1;
+    private int[] openerCol = new int[32];
+    private int[] openerLen = new int[32];
+    private int[] listKind = new int[32];
+    private int[] openerDepth = new int[32];
+    private int[] openerLine = new int[32];
+    private int[] openerOutLineStart = new int[32];
+    private int[] firstChild = new int[32];
+    private int[] rule3 = new int[32];
+    private int[] rule3Col = new int[32];
+    private boolean[] leafSeen = new boolean[32];
+    private int[] candStart = new int[32];
+
+    // nodes on the opener line of a list that later lines may align with (Rule 3)
+    private int numCands = 0;
+    private int[] candOrigCol = new int[64];
+    private int[] candOutCol = new int[64];
+
+    // the first node of the last printed line
+    private boolean prevValid = false;
+    private int prevOrigCol = 0;
+    private int prevOutCol = 0;
+    private int prevDepth = 0;
+    // changes whenever the fields above do
+    private int prevSerial = 0;
+
+    // the top-level form being formatted after a FormCache miss
+    private FormCache.Key storeKey = null;
+    private int storeStart = 0;
+    private int storeEnd = 0;
+    private int storeSerial = 0;
+    private boolean storeReadsPrev = false;
+    private FormCache.LineStart storePrev = null;
+    // the space before the next leaf has already been printed
+    private boolean separatorDone = false;
+
+    private boolean nsPrinted = false;
+    private int skipCommentLine = -1;
+    // the input continues a file at the start of a line, see continueFrom()
+    private boolean lineStartPending = false;
+
+    Formatter(String in, boolean checkOnly, FormCache formCache) {
+      this.in = in;
+      this.formCache = formCache;
+      this.out = checkOnly ? null : new StringBuilder(in.length() + (in.length() >> 3) + 16);
+    }
+
+    /**
+     * Formats the input as the lines that follow other lines of a file, rather than as a whole
+     * file: its first line is indented like any other line. nsPrinted tells if the file has an ns
+     * form before the input, and prev is the first node of the line before the input, if known.
+     */
+    void continueFrom(boolean nsPrinted, FormCache.LineStart prev) {
+      this.lineStartPending = true;
+      this.nsPrinted = nsPrinted;
+      if (prev != null) {
+        prevValid = prev.valid;
+        prevOrigCol = prev.origCol;
+        prevOutCol = prev.outCol;
+        prevDepth = prev.depth;
+      }
+    }
+
+    /**
+     * Formats the input. Returns null on success, or the reason the input cannot be formatted.
+     * With a FormCache, top-level items are parsed one at a time, and cached forms are not parsed.
+     * So are they in check mode, so that the items after the first difference are never parsed.
+     */
+    String run() {
+      if (formCache == null && out != null) {
+        Node root = Parser.parse(in, PARSE_OPTS);
+        if (!nsPrinted) {
+          try {
+            ns = NsFormParser.parse(root);
+          } catch (IllegalArgumentException e) {
+            return e.getMessage();
+          }
+        }
+        nsParsed = true;
+        List<Node> items = root.getChildren();
+        if (items != null) {
+          for (Node item : items) {
+            String reason = formatItem(item);
+            if (reason != null) return reason;
+            if (diffIdx >= 0) return null;
+          }
+        }
+      } else {
+        int pos = 0;
+        while (true) {
+          Node item = lookahead.pollFirst();
+          if (item == null) {
+            int end = formCache != null ? cachedFormEnd(pos) : -1;
+            if (end > 0 && useCachedForm(pos, end)) {
+              if (diffIdx >= 0) return null;
+              pos = end;
+              continue;
+            }
+            item = Parser.parseTopLevelItem(in, pos, PARSE_OPTS);
+            if (item == null) break;
+          }
+          String reason = formatItem(item);
+          if (reason != null) return reason;
+          if (diffIdx >= 0) return null;
+          pos = item.getEndIdx();
+        }
+      }
+
+      if (top >= 0) {
+        return "Unclosed list opened on line " + (openerLine[top] + 1);
+      }
+      commit();
+      if (in.endsWith("\n") && outLength > 0) emit('\n');
+      if (edits != null) compareGap(in.length());
+      if (out == null && diffIdx < 0 && outLength != in.length()) {
+        diffIdx = Math.min(outLength, in.length());
+      }
+      return null;
+    }
+
+    // formats one top-level item of the input
+    private String formatItem(Node item) {
+      if (item.getName() == null) {
+        // an ignore directive and the form it ignores
+        for (Node child : item.getChildren()) {
+          String reason = formatItem(child);
+          if (reason != null || diffIdx >= 0) return reason;
+        }
+        return null;
+      }
+
+      int start = item.getStartIdx();
+      if (formCache != null && storeKey == null && cachedFormEnd(start) == item.getEndIdx()) {
+        if (useCachedForm(start, item.getEndIdx())) return null;
+      }
+
+      cursor.reset(item);
+      int event = cursor.step();
+      while (event != TreeCursor.DONE) {
+        if (event == TreeCursor.ENTER) {
+          String reason = enter(cursor);
+          if (reason != null) return reason;
+          if (diffIdx >= 0) return null;
+        }
+        event = cursor.step();
+      }
+      if (storeKey != null) storeCachedForm(item.getEndIdx());
+      return null;
+    }
+
+    private String enter(TreeCursor cursor) {
+      Node node = cursor.node();
+      String name = node.getName();
+      // top-level items are at depth 1
+      int depth = cursor.depth() + 1;
+
+      boolean isDirectChild = top < 0 ? depth == 1 : depth == openerDepth[top] + 1;
+      if (isDirectChild && !name.equals("whitespace")) {
+        childStart = true;
+        if (top >= 0 && listKind[top] == PAREN && firstChild[top] == CHILD_UNKNOWN) {
+          if (!name.equals("comment")) {
+            firstChild[top] = name.equals("token") ? CHILD_TOKEN : CHILD_OTHER;
+          }
+        }
+      }
+
+      switch (name) {
+        case "whitespace":
+          onWhitespace(node);
+          return null;
+        case "comment":
+          onComment(node);
+          return null;
+        case "string":
+          cursor.skipChildren();
+          onCode(node.getStartIdx(), in.substring(node.getStartIdx(), node.getEndIdx()), FORM_END);
+          return null;
+        case "tagged":
+          // the # of a tagged literal is not part of any child Node
+          onCode(node.getStartIdx(), "#", MARKER);
+          return null;
+        case ".marker":
+        case "marker":
+          onCode(node.getStartIdx(), node.getText(), MARKER);
+          return null;
+        case ".open":
+          onOpener(node, depth);
+          return null;
+        case ".close":
+          onCloser(node);
+          return null;
+        case "ignored":
+          onIgnored(node);
+          return null;
+        case "discard":
+          // a #_ comment after the ns form that was printed with the ns form
+          if (depth == 1 && inLine == skipCommentLine) {
+            cursor.skipChildren();
+            skipCommentLine = -1;
+            clearWhitespace();
+            skipInput(node.getStartIdx(), node.getEndIdx());
+          }
+          return null;
+        case "error":
+          return "Unexpected \"" + node.getText() + "\" on line " + (inLine + 1);
+        case "parens":
+          if (depth == 1 && !nsPrinted && startsWithNs(node)) {
+            if (!nsParsed) {
+              String reason = parseNsForm(node);
+              if (reason != null) return reason;
+            }
+            if (ns != null && ns.getNsSymbol() != null) {
+              cursor.skipChildren();
+              onNsForm(node);
+            }
+          }
+          return null;
+        default:
+          List<Node> children = node.getChildren();
+          if (node.getText() != null && (children == null || children.isEmpty())) {
+            onCode(node.getStartIdx(), node.getText(), FORM_END);
+          }
+          return null;
+      }
+    }
+
+    // -----------------------------------------------------------------------------------------
+    // Whitespace
+
+    private void onWhitespace(Node node) {
+      String txt = node.getText();
+      int start = node.getStartIdx();
+      int lastNewline = txt.lastIndexOf('\n');
+      if (lastNewline < 0 && !lineStartPending) {
+        wsStart = start;
+        wsEnd = node.getEndIdx();
+        return;
+      }
+
+      if (lastNewline >= 0) {
+        int numNewlines = 0;
+        for (int i = 0; i <= lastNewline; i++) {
+          if (txt.charAt(i) == '\n') numNewlines++;
+        }
+        inLine += numNewlines;
+        inLineStart = start + lastNewline + 1;
+
+        if (length() > 0 || lastKind != NONE) {
+          pendingNewlines = Math.max(pendingNewlines, Math.min(numNewlines, 2));
+        }
+      }
+
+      // commas at the start of a line are kept
+      wsStart = 0;
+      wsEnd = 0;
+      int firstComma = txt.indexOf(',', lastNewline + 1);
+      if (firstComma >= 0) {
+        int lastComma = txt.lastIndexOf(',');
+        commaStart = start + firstComma;
+        commaEnd = start + lastComma + 1;
+        wsStart = commaEnd;
+        wsEnd = node.getEndIdx();
+      }
+    }
+
+    private void clearWhitespace() {
+      wsStart = 0;
+      wsEnd = 0;
+      commaStart = -1;
+      commaEnd = -1;
+    }
+
+    private void appendWhitespace(boolean withCommas) {
+      for (int i = wsStart; i < wsEnd; i++) {
+        char ch = in.charAt(i);
+        if (withCommas || ch != ',') tail.append(ch);
+      }
+    }
+
+    private boolean hasWhitespace(boolean withCommas) {
+      for (int i = wsStart; i < wsEnd; i++) {
+        if (withCommas || in.charAt(i) != ',') return true;
+      }
+      return false;
+    }
+
+    // prints everything that goes between the last node and a node starting at startIdx
+    private void beforeNode(int startIdx, int kind, boolean isComment) {
+      boolean isDirectChild = childStart;
+      childStart = false;
+      if (separatorDone) {
+        separatorDone = false;
+        return;
+      }
+
+      if (lastKind == COMMENT && pendingNewlines == 0) pendingNewlines = 1;
+      if (length() == 0 && lastKind == NONE) pendingNewlines = 0;
+      // code never starts on the line after an opener
+      if (lastKind == OPENER && !isComment && commaStart < 0) pendingNewlines = 0;
+
+      if (pendingNewlines > 0 || lineStartPending) {
+        lineStartPending = false;
+        int origCol = (commaStart >= 0 ? commaStart : startIdx) - inLineStart;
+        int col = lineStartColumn(origCol, isComment, isDirectChild);
+        for (int i = 0; i < pendingNewlines; i++) {
+          tail.append('\n');
+        }
+        outLineStart = length();
+        appendSpaces(col);
+        prevValid = true;
+        prevOrigCol = origCol;
+        prevOutCol = col;
+        prevDepth = top;
+        prevSerial++;
+        pendingNewlines = 0;
+        if (commaStart >= 0) {
+          commit();
+          emit(in, commaStart, commaEnd);
+          if (kind != CLOSER) appendWhitespace(true);
+        }
+        clearWhitespace();
+        return;
+      }
+
+      // nothing goes after an opener or before a closer
+      if (lastKind == NONE || lastKind == OPENER || kind == CLOSER) {
+        clearWhitespace();
+        return;
+      }
+
+      if (isComment) {
+        // commas before a comment are dropped
+        if (hasWhitespace(false)) {
+          appendWhitespace(false);
+        } else {
+          tail.append(' ');
+        }
+      } else if (wsEnd > wsStart || lastKind == MARKER) {
+        appendWhitespace(true);
+      } else {
+        tail.append(' ');
+      }
+      clearWhitespace();
+    }
+
+    private int lineStartColumn(int origCol, boolean isComment, boolean isDirectChild) {
+      if (top < 0) {
+        if (!isComment) return 0;
+        return prevValid && prevOrigCol == origCol ? prevOutCol : origCol;
+      }
+
+      if (isDirectChild && rule3[top] == RULE3_UNDECIDED) {
+        rule3[top] = RULE3_NO;
+        for (int i = candStart[top]; i < numCands; i++) {
+          if (candOrigCol[i] == origCol) {
+            rule3[top] = RULE3_YES;
+            rule3Col[top] = candOutCol[i];
+            break;
+          }
+        }
+      }
+
+      // a comment on the first indented line of a cached form may align with the line before it
+      if (isComment && prevSerial == storeSerial) storeReadsPrev = true;
+      if (isComment && prevValid && prevDepth >= top && prevOrigCol == origCol) return prevOutCol;
+      return listIndentation(top);
+    }
+
+    private int listIndentation(int idx) {
+      if (rule3[idx] == RULE3_YES) return rule3Col[idx];
+      int col = openerCol[idx] + openerLen[idx];
+      if (listKind[idx] == PAREN && firstChild[idx] == CHILD_TOKEN) col++;
+      return col;
+    }
+
+    private void appendSpaces(int n) {
+      for (int i = 0; i < n; i++) {
+        tail.append(' ');
+      }
+    }
+
+    private int length() {
+      return outLength + tail.length();
+    }
+
+    private void commit() {
+      if (tail.length() > 0) {
+        emit(tail, 0, tail.length());
+        tail.setLength(0);
+      }
+    }
+
+    private void emit(char ch) {
+      if (out != null) {
+        out.append(ch);
+      } else if (diffIdx < 0 && (outLength >= in.length() || in.charAt(outLength) != ch)) {
+        diffIdx = outLength;
+      }
+      outLength++;
+    }
+
+    private void emit(CharSequence txt) {
+      emit(txt, 0, txt.length());
+    }
+
+    // appends txt to the output, or compares it with the input in check mode
+    private void emit(CharSequence txt, int start, int end) {
+      if (out != null) {
+        out.append(txt, start, end);
+      } else if (diffIdx < 0) {
+        int inLength = in.length();
+        for (int i = start; i < end; i++) {
+          int idx = outLength + i - start;
+          if (idx >= inLength || in.charAt(idx) != txt.charAt(i)) {
+            diffIdx = idx;
+            break;
+          }
+        }
+      }
+      outLength += end - start;
+    }
+
+    // prints code that is [inStart, inEnd) in the input
+    private void emitCode(String txt, int inStart, int inEnd) {
+      if (edits == null) {
+        emit(txt);
+        return;
+      }
+      compareGap(inStart);
+      int outStart = outLength;
+      emit(txt);
+      compare(inStart, inEnd, outStart);
+      codeInEnd = inEnd;
+      codeOutEnd = outLength;
+    }
+
+    // compares what was printed since the last code with the input up to inEnd
+    private void compareGap(int inEnd) {
+      compare(codeInEnd, inEnd, codeOutEnd);
+    }
+
+    // adds an edit if [inStart, inEnd) of the input differs from the output since outStart
+    private void compare(int inStart, int inEnd, int outStart) {
+      // leave out the unchanged start and end
+      int outEnd = outLength;
+      while (inStart < inEnd && outStart < outEnd && in.charAt(inStart) == out.charAt(outStart)) {
+        inStart++;
+        outStart++;
+      }
+      while (inStart < inEnd
+          && outStart < outEnd
+          && in.charAt(inEnd - 1) == out.charAt(outEnd - 1)) {
+        inEnd--;
+        outEnd--;
+      }
+      if (inStart < inEnd || outStart < outEnd) {
+        addEdit(inStart, inEnd - inStart, out.substring(outStart, outEnd));
+      }
+    }
+
+    private void addEdit(int offset, int length, String replacement) {
+      int last = edits.size() - 1;
+      if (last >= 0) {
+        TextEdit prev = edits.get(last);
+        if (prev.offset + prev.length == offset) {
+          edits.set(
+              last,
+              new TextEdit(prev.offset, prev.length + length, prev.replacement + replacement));
+          return;
+        }
+      }
+      edits.add(new TextEdit(offset, length, replacement));
+    }
+
+    // -----------------------------------------------------------------------------------------
+    // Nodes
+
+    private void onCode(int startIdx, String txt, int kind) {
+      beforeNode(startIdx, kind, false);
+      addCandidate(startIdx);
+      commit();
+      emitCode(txt, startIdx, startIdx + txt.length());
+      lastKind = kind;
+      afterMultilineText(txt, startIdx);
+    }
+
+    // keeps track of line starts after text that may contain newlines
+    private void afterMultilineText(String txt, int startIdx) {
+      int lastNewline = txt.lastIndexOf('\n');
+      if (lastNewline < 0) return;
+      for (int i = 0; i <= lastNewline; i++) {
+        if (txt.charAt(i) == '\n') inLine++;
+      }
+      inLineStart = startIdx + lastNewline + 1;
+      outLineStart = length() - (txt.length() - lastNewline - 1);
+    }
+
+    private void addCandidate(int startIdx) {
+      if (top < 0) return;
+      if (leafSeen[top] && inLine == openerLine[top] && rule3[top] == RULE3_UNDECIDED) {
+        if (numCands == candOrigCol.length) {
+          candOrigCol = Arrays.copyOf(candOrigCol, numCands * 2);
+          candOutCol = Arrays.copyOf(candOutCol, numCands * 2);
+        }
+        candOrigCol[numCands] = startIdx - inLineStart;
+        candOutCol[numCands] = length() - outLineStart;
+        numCands++;
+      }
+      leafSeen[top] = true;
+    }
+
+    private void onComment(Node node) {
+      if (inLine == skipCommentLine) {
+        skipCommentLine = -1;
+        clearWhitespace();
+        return;
+      }
+      beforeNode(node.getStartIdx(), COMMENT, true);
+      String txt = node.getText();
+      int semicolons = 0;
+      while (semicolons < txt.length() && txt.charAt(semicolons) == ';') {
+        semicolons++;
+      }
+      if (semicolons > 0 && semicolons < txt.length() && txt.charAt(semicolons) != ' ') {
+        tail.append(txt, 0, semicolons).append(' ').append(txt, semicolons, txt.length());
+      } else {
+        tail.append(txt);
+      }
+      lastKind = COMMENT;
+    }
+
+    private void onOpener(Node node, int depth) {
+      String txt = node.getText();
+      int startIdx = node.getStartIdx();
+      beforeNode(startIdx, OPENER, false);
+      addCandidate(startIdx);
+      int col = length() - outLineStart;
+      commit();
+      emitCode(txt, startIdx, node.getEndIdx());
+      lastKind = OPENER;
+
+      top++;
+      if (top == openerCol.length) growStack();
+      openerCol[top] = col;
+      openerLen[top] = txt.length();
+      boolean isParen = txt.endsWith("(") && !Utils.isReaderConditionalOpener(node);
+      listKind[top] = isParen ? PAREN : OTHER;
+      openerDepth[top] = depth;
+      openerLine[top] = inLine;
+      openerOutLineStart[top] = outLineStart;
+      firstChild[top] = CHILD_UNKNOWN;
+      rule3[top] = isParen ? RULE3_UNDECIDED : RULE3_NO;
+      leafSeen[top] = false;
+      candStart[top] = numCands;
+    }
+
+    private void growStack() {
+      int size = openerCol.length * 2;
+      openerCol = Arrays.copyOf(openerCol, size);
+      openerLen = Arrays.copyOf(openerLen, size);
+      listKind = Arrays.copyOf(listKind, size);
+      openerDepth = Arrays.copyOf(openerDepth, size);
+      openerLine = Arrays.copyOf(openerLine, size);
+      openerOutLineStart = Arrays.copyOf(openerOutLineStart, size);
+      firstChild = Arrays.copyOf(firstChild, size);
+      rule3 = Arrays.copyOf(rule3, size);
+      rule3Col = Arrays.copyOf(rule3Col, size);
+      leafSeen = Arrays.copyOf(leafSeen, size);
+      candStart = Arrays.copyOf(candStart, size);
+    }
+
+    private void onCloser(Node node) {
+      String txt = node.getText();
+      childStart = false;
+      if (pendingNewlines > 0 && commaStart < 0) {
+        // a closer at the start of a line moves up to the end of the last line with code
+        if (outLength < outLineStart) outLineStart += txt.length();
+        emitCode(txt, node.getStartIdx(), node.getEndIdx());
+        pop();
+        if (top >= 0 && tail.length() == 0 && openerOutLineStart[top] == outLineStart) {
+          pendingNewlines = 0;
+        }
+        clearWhitespace();
+      } else {
+        beforeNode(node.getStartIdx(), CLOSER, false);
+        commit();
+        emitCode(txt, node.getStartIdx(), node.getEndIdx());
+        pop();
+      }
+      lastKind = FORM_END;
+    }
+
+    private void pop() {
+      numCands = candStart[top];
+      top--;
+    }
+
+    private void onIgnored(Node node) {
+      String txt = node.getText();
+      clearWhitespace();
+      childStart = false;
+      commit();
+      emitCode(txt, node.getStartIdx(), node.getEndIdx());
+      lastKind = FORM_END;
+      if (txt.indexOf('\n') >= 0) {
+        prevValid = false;
+        prevSerial++;
+      }
+      afterMultilineText(txt, node.getStartIdx());
+    }
+
+    // -----------------------------------------------------------------------------------------
+    // ns form
+
+    private boolean startsWithNs(Node node) {
+      List<Node> children = node.getChildren();
+      if (children == null || children.size() < 2) return false;
+      List<Node> body = children.get(1).getChildren();
+      if (body == null) return false;
+      for (Node child : body) {
+        if (child.getName().equals("whitespace") || Utils.isCommentNode(child)) continue;
+        return Utils.isNsNode(child);
+      }
+      return false;
+    }
+
+    // Reads the ns form when top-level items are parsed one at a time. NsFormParser also looks at
+    // the comments on the lines after the ns form, so the items up to the second newline after it
+    // are parsed here and formatted later.
+    private String parseNsForm(Node nsNode) {
+      nsParsed = true;
+      List<Node> items = new ArrayList<>();
+      items.add(nsNode);
+      int pos = nsNode.getEndIdx();
+      int numNewlines = 0;
+      while (numNewlines < 2) {
+        Node item = Parser.parseTopLevelItem(in, pos, PARSE_OPTS);
+        if (item == null) break;
+        lookahead.add(item);
+        if (item.getName() == null) {
+          items.addAll(item.getChildren());
+        } else {
+          items.add(item);
+        }
+        if (item.getName() != null && item.getName().equals("whitespace")) {
+          String txt = item.getText();
+          for (int i = txt.indexOf('\n'); i >= 0; i = txt.indexOf('\n', i + 1)) {
+            numNewlines++;
+          }
+        }
+        pos = item.getEndIdx();
+      }
+
+      Map<String, Object> rootOpts = new HashMap<>();
+      rootOpts.put("name", "source");
+      rootOpts.put("children", items);
+      rootOpts.put("startIdx", nsNode.getStartIdx());
+      rootOpts.put("endIdx", pos);
+      try {
+        ns = NsFormParser.parse(new Node(rootOpts));
+      } catch (IllegalArgumentException e) {
+        return e.getMessage();
+      }
+      return null;
+    }
+
+    private void onNsForm(Node node) {
+      nsPrinted = true;
+      beforeNode(node.getStartIdx(), FORM_END, false);
+      NsFormPrinter printer = NsFormPrinter.printNsForm(ns);
+      String txt = printer.getText();
+      // printing code that the NsForm does not hold would delete it: keep the ns form as it is
+      boolean keepsAllCode = NsFormPrinter.keepsAllCode(node, txt);
+      if (!keepsAllCode) txt = in.substring(node.getStartIdx(), node.getEndIdx());
+      commit();
+      emitCode(txt, node.getStartIdx(), node.getEndIdx());
+      lastKind = NsFormPrinter.endsWithComment(txt) ? COMMENT : FORM_END;
+      prevValid = false;
+      prevSerial++;
+
+      // skip over the original text of the ns form
+      skipInput(node.getStartIdx(), node.getEndIdx());
+      int printedNewline = txt.lastIndexOf('\n');
+      if (printedNewline >= 0) outLineStart = length() - (txt.length() - printedNewline - 1);
+
+      // the comment after the ns form has already been printed (or left out) with the ns form
+      if (keepsAllCode && printer.usedCommentOutsideNsForm()) skipCommentLine = inLine;
+    }
+
+    // moves the input line past the text from start to end, which is not printed
+    private void skipInput(int start, int end) {
+      for (int i = start; i < end; i++) {
+        if (in.charAt(i) == '\n') {
+          inLine++;
+          inLineStart = i + 1;
+        }
+      }
+    }
+
+    // -----------------------------------------------------------------------------------------
+    // FormCache
+
+    // Returns the end of the top-level form at pos if its output can be cached, or -1. Only
+    // collections are cached: their first leaf is the opener at pos.
+    private int cachedFormEnd(int pos) {
+      if (pos >= in.length() || inLine == skipCommentLine) return -1;
+      char c = in.charAt(pos);
+      if (c == '#') {
+        if (!in.startsWith("#{", pos)
+            && !in.startsWith("#(", pos)
+            && !in.startsWith("#?(", pos)
+            && !in.startsWith("#?@(", pos)) {
+          return -1;
+        }
+      } else if (!FormScanner.isOpener(c)) {
+        return -1;
+      }
+      // the ns form is printed from the NsForm instead
+      if (c == '(' && mayStartWithNs(in, pos + 1)) return -1;
+
+      int end = FormScanner.skipForm(in, pos);
+      return end - pos >= MIN_CACHED_FORM_LENGTH ? end : -1;
+    }
+
+    static boolean mayStartWithNs(String txt, int idx) {
+      while (true) {
+        idx = FormScanner.skipWhitespace(txt, idx);
+        if (idx < txt.length() && (txt.charAt(idx) == ';' || txt.startsWith("#!", idx))) {
+          idx = FormScanner.skipComment(txt, idx);
+        } else {
+          return FormScanner.tokenAt(txt, idx, "ns");
+        }
+      }
+    }
+
+    // Prints the space before the top-level form [start, end) and then the form itself if it is
+    // in the cache. Otherwise prepares to store the form once it has been formatted.
+    private boolean useCachedForm(int start, int end) {
+      childStart = true;
+      beforeNode(start, OPENER, false);
+      String src = in.substring(start, end);
+      FormCache.Key key = new FormCache.Key(src, start - inLineStart, length() - outLineStart);
+      FormCache.Entry entry = formCache.get(key, lineStart());
+      if (entry == null) {
+        separatorDone = true;
+        storeKey = key;
+        storeStart = length();
+        storeEnd = end;
+        storeSerial = prevSerial;
+        storeReadsPrev = false;
+        storePrev = lineStart();
+        return false;
+      }
+
+      commit();
+      int outStart = length();
+      emitCode(entry.committed, start, end);
+      tail.append(entry.tail);
+      if (entry.lastLineStart >= 0) outLineStart = outStart + entry.lastLineStart;
+      lastKind = entry.lastKind;
+      pendingNewlines = entry.pendingNewlines;
+      if (entry.prevAfter != null) {
+        prevValid = entry.prevAfter.valid;
+        prevOrigCol = entry.prevAfter.origCol;
+        prevOutCol = entry.prevAfter.outCol;
+        prevDepth = entry.prevAfter.depth;
+        prevSerial++;
+      }
+      int lastNewline = src.lastIndexOf('\n');
+      if (lastNewline >= 0) {
+        for (int i = src.indexOf('\n'); i >= 0; i = src.indexOf('\n', i + 1)) {
+          inLine++;
+        }
+        inLineStart = start + lastNewline + 1;
+      }
+      return true;
+    }
+
+    private void storeCachedForm(int endIdx) {
+      FormCache.Key key = storeKey;
+      storeKey = null;
+      if (endIdx != storeEnd || top >= 0 || diffIdx >= 0) return;
+      String committed =
+          out != null ? out.substring(storeStart, outLength) : in.substring(storeStart, outLength);
+      formCache.put(
+          key,
+          new FormCache.Entry(
+              committed,
+              tail.toString(),
+              lastKind,
+              pendingNewlines,
+              storeReadsPrev ? storePrev : null,
+              prevSerial != storeSerial ? lineStart() : null));
+    }
+
+    FormCache.LineStart lineStart() {
+      return new FormCache.LineStart(prevValid, prevOrigCol, prevOutCol, prevDepth);
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package com.oakmac.standardclojurestyle;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TreeCursor walks a Node tree in preorder using an explicit stack instead of recursion. The stack
+ * is kept between calls to reset(), so one cursor can walk many trees without allocating anything
+ * per Node.
+ *
+ * <p>step() reports an ENTER event for every Node, and an EXIT event once all of its children have
+ * been visited. next() only reports the ENTER events, ie: the same order as Utils.flattenTree. A
+ * TreeCursor is not thread-safe.
+ */
+public class TreeCursor {
+  public static final int DONE = 0;
+  public static final int ENTER = 1;
+  public static final int EXIT = 2;
+
+  private Node root = null;
+  private Node[] nodes = new Node[32];
+  // position of nodes[i] within the children of nodes[i - 1]
+  private int[] childIdxs = new int[32];
+  private int top = -1;
+  private int lastEvent = DONE;
+  private boolean started = false;
+  private boolean skipChildren = false;
+
+  public TreeCursor() {}
+
+  public TreeCursor(Node root) {
+    reset(root);
+  }
+
+  /** Starts a new walk at root. */
+  public TreeCursor reset(Node root) {
+    Arrays.fill(nodes, 0, top + 1, null);
+    this.root = root;
+    this.top = -1;
+    this.lastEvent = DONE;
+    this.started = false;
+    this.skipChildren = false;
+    return this;
+  }
+
+  /** Moves to the next event and returns it: ENTER, EXIT or DONE. */
+  public int step() {
+    if (top < 0) {
+      if (started || root == null) return DONE;
+      started = true;
+      push(root, 0);
+      return lastEvent = ENTER;
+    }
+
+    if (lastEvent == ENTER) {
+      List<Node> children = nodes[top].getChildren();
+      if (!skipChildren && children != null && !children.isEmpty()) {
+        push(children.get(0), 0);
+        return ENTER;
+      }
+      skipChildren = false;
+      return lastEvent = EXIT;
+    }
+
+    // the node on top of the stack is finished: move to its next sibling or exit the parent
+    int childIdx = childIdxs[top];
+    nodes[top] = null;
+    top--;
+    if (top < 0) return lastEvent = DONE;
+
+    List<Node> siblings = nodes[top].getChildren();
+    if (childIdx + 1 < siblings.size()) {
+      push(siblings.get(childIdx + 1), childIdx + 1);
+      return lastEvent = ENTER;
+    }
+    return lastEvent = EXIT;
+  }
+
+  /** Moves to the next Node in preorder. Returns false when the walk is finished. */
+  public boolean next() {
+    int event = step();
+    while (event == EXIT) {
+      event = step();
+    }
+    return event == ENTER;
+  }
+
+  /** Do not descend into the current Node. Only valid right after an ENTER event. */
+  public void skipChildren() {
+    if (lastEvent == ENTER) skipChildren = true;
+  }
+
+  /** Returns the current Node, or null before the first step and after the walk is finished. */
+  public Node node() {
+    return top < 0 ? null : nodes[top];
+  }
+
+  /** Returns the depth of the current Node, 0 for the root. */
+  public int depth() {
+    return top;
+  }
+
+  /** Returns the parent of the current Node, or null for the root. */
+  public Node parent() {
+    return top < 1 ? null : nodes[top - 1];
+  }
+
+  /** Returns the position of the current Node within the children of its parent. */
+  public int childIndex() {
+    return top < 1 ? 0 : childIdxs[top];
+  }
+
+  /**
+   * Walks the tree under root once and calls every visitor for each Node. A visitor that returns
+   * false from enter() does not see that subtree (other than the exit() call for the Node itself);
+   * the subtree is only skipped entirely once no visitor is interested in it.
+   */
+  public void walk(Node root, INodeVisitor... visitors) {
+    reset(root);
+    int numVisitors = visitors.length;
+    // depth at which each visitor stopped descending, -1 when it is not skipping
+    int[] skipDepths = new int[numVisitors];
+    Arrays.fill(skipDepths, -1);
+    int numSkipping = 0;
+
+    int event = step();
+    while (event != DONE) {
+      Node n = nodes[top];
+      if (event == ENTER) {
+        for (int i = 0; i < numVisitors; i++) {
+          if (skipDepths[i] == -1 && !visitors[i].enter(n, top)) {
+            skipDepths[i] = top;
+            numSkipping++;
+          }
+        }
+        if (numSkipping == numVisitors) skipChildren();
+      } else {
+        for (int i = 0; i < numVisitors; i++) {
+          if (skipDepths[i] == -1) {
+            visitors[i].exit(n, top);
+          } else if (skipDepths[i] == top) {
+            visitors[i].exit(n, top);
+            skipDepths[i] = -1;
+            numSkipping--;
+          }
+        }
+      }
+      event = step();
+    }
+  }
+
+  private void push(Node n, int childIdx) {
+    top++;
+    if (top == nodes.length) {
+      nodes = Arrays.copyOf(nodes, top * 2);
+      childIdxs = Arrays.copyOf(childIdxs, top * 2);
+    }
+    nodes[top] = n;
+    childIdxs[top] = childIdx;
+    skipChildren = false;
+  }
+}
@@ -0,0 +1,163 @@
+package com.oakmac.standardclojurestyle;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Utf8Source is a byte-indexed CharSequence view over UTF-8 encoded source text. It allows the
+ * Parser to work directly on a byte[], a ByteBuffer or a memory-mapped file without decoding the
+ * whole input into a String first.
+ *
+ * <p>Every syntactically significant Clojure character is ASCII, so the Parser only needs to know
+ * which code point a byte belongs to: charAt(i) returns the char for the code point that contains
+ * byte i (the high surrogate for code points outside of the BMP). This means that every byte of a
+ * multi-byte sequence answers with the same char, and all Node startIdx / endIdx values are byte
+ * offsets. Text is only decoded when it is requested via subSequence() or toString(). Use
+ * charIndex() to map a byte offset back to a UTF-16 char offset.
+ */
+public class Utf8Source implements CharSequence {
+  private static final int CHAR_INDEX_STRIDE = 4096;
+  private static final char REPLACEMENT_CHAR = '\uFFFD';
+
+  private final ByteBuffer buf;
+  private int[] charIndexCheckpoints = null;
+
+  private Utf8Source(ByteBuffer buf) {
+    this.buf = buf;
+  }
+
+  public static Utf8Source wrap(byte[] bytes) {
+    return new Utf8Source(ByteBuffer.wrap(bytes));
+  }
+
+  /** Wraps the remaining bytes of buf. The position and limit of buf are not modified. */
+  public static Utf8Source wrap(ByteBuffer buf) {
+    return new Utf8Source(buf.slice());
+  }
+
+  /**
+   * Memory-maps a file read-only. The mapping stays valid until the returned object (and every
+   * Node that references it) is garbage collected.
+   */
+  public static Utf8Source map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new Utf8Source(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  @Override
+  public int length() {
+    return buf.limit();
+  }
+
+  @Override
+  public char charAt(int idx) {
+    byte b = buf.get(idx);
+    if (b >= 0) return (char) b;
+
+    // walk back to the lead byte of this sequence
+    int leadIdx = idx;
+    while (leadIdx > 0 && idx - leadIdx < 3 && isContinuationByte(b)) {
+      leadIdx--;
+      b = buf.get(leadIdx);
+    }
+
+    int lead = b & 0xFF;
+    int numBytes;
+    int codePoint;
+    if (lead >= 0xF5) {
+      return REPLACEMENT_CHAR;
+    } else if (lead >= 0xF0) {
+      numBytes = 4;
+      codePoint = lead & 0x07;
+    } else if (lead >= 0xE0) {
+      numBytes = 3;
+      codePoint = lead & 0x0F;
+    } else if (lead >= 0xC2) {
+      numBytes = 2;
+      codePoint = lead & 0x1F;
+    } else {
+      return REPLACEMENT_CHAR;
+    }
+
+    if (leadIdx + numBytes <= idx || leadIdx + numBytes > buf.limit()) return REPLACEMENT_CHAR;
+    for (int i = leadIdx + 1; i < leadIdx + numBytes; i++) {
+      byte cont = buf.get(i);
+      if (!isContinuationByte(cont)) return REPLACEMENT_CHAR;
+      codePoint = (codePoint << 6) | (cont & 0x3F);
+    }
+
+    return Character.isBmpCodePoint(codePoint)
+        ? (char) codePoint
+        : Character.highSurrogate(codePoint);
+  }
+
+  /** Decodes the bytes between startIdx and endIdx. */
+  @Override
+  public String subSequence(int startIdx, int endIdx) {
+    if (startIdx < 0 || endIdx > buf.limit() || startIdx > endIdx) {
+      throw new IndexOutOfBoundsException(
+          "subSequence(" + startIdx + ", " + endIdx + ") of length " + buf.limit());
+    }
+    int len = endIdx - startIdx;
+    if (buf.hasArray()) {
+      return new String(buf.array(), buf.arrayOffset() + startIdx, len, StandardCharsets.UTF_8);
+    }
+    byte[] bytes = new byte[len];
+    for (int i = 0; i < len; i++) {
+      bytes[i] = buf.get(startIdx + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public String toString() {
+    return subSequence(0, buf.limit());
+  }
+
+  /**
+   * Returns the UTF-16 char offset for a byte offset, ie: the position of the same character in
+   * the decoded String. The first call builds a small checkpoint table so that later lookups only
+   * have to scan a bounded number of bytes.
+   */
+  public int charIndex(int byteIdx) {
+    if (byteIdx < 0 || byteIdx > buf.limit()) {
+      throw new IndexOutOfBoundsException("byte offset " + byteIdx + " of length " + buf.limit());
+    }
+    int[] checkpoints = charIndexCheckpoints;
+    if (checkpoints == null) {
+      checkpoints = new int[buf.limit() / CHAR_INDEX_STRIDE + 1];
+      int numChars = 0;
+      for (int i = 0; i < buf.limit(); i++) {
+        if (i % CHAR_INDEX_STRIDE == 0) checkpoints[i / CHAR_INDEX_STRIDE] = numChars;
+        numChars += charsForByte(buf.get(i));
+      }
+      charIndexCheckpoints = checkpoints;
+    }
+
+    int checkpointIdx = byteIdx / CHAR_INDEX_STRIDE;
+    if (checkpointIdx >= checkpoints.length) checkpointIdx = checkpoints.length - 1;
+    int numChars = checkpoints[checkpointIdx];
+    for (int i = checkpointIdx * CHAR_INDEX_STRIDE; i < byteIdx; i++) {
+      numChars += charsForByte(buf.get(i));
+    }
+    return numChars;
+  }
+
+  private static boolean isContinuationByte(byte b) {
+    return (b & 0xC0) == 0x80;
+  }
+
+  // number of UTF-16 chars that start at this byte
+  private static int charsForByte(byte b) {
+    if (b >= 0) return 1;
+    int lead = b & 0xFF;
+    if (lead >= 0xF0) return 2;
+    if (lead >= 0xC0) return 1;
+    return 0;
+  }
+}
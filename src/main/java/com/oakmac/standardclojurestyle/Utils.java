@@ -95,15 +95,11 @@ public class Utils {
 
   public static Node getLastChildNodeWithText(Node n) {
     Node lastNode = null;
-    if (n.getChildren() != null) {
-      for (Node child : n.getChildren()) {
-        if (nodeContainsText(child)) {
-          lastNode = child;
-        }
-        Node possibleLast = getLastChildNodeWithText(child);
-        if (possibleLast != null) {
-          lastNode = possibleLast;
-        }
+    TreeCursor cursor = new TreeCursor(n);
+    cursor.next(); // skip n itself
+    while (cursor.next()) {
+      if (nodeContainsText(cursor.node())) {
+        lastNode = cursor.node();
       }
     }
     return lastNode;
@@ -155,20 +151,14 @@ public class Utils {
   }
 
   public static String getTextFromRootNode(Node node) {
-    StringBuilder text = new StringBuilder();
-    appendNodeText(node, text);
-    return text.toString();
-  }
-
-  private static void appendNodeText(Node node, StringBuilder text) {
-    if (isString(node.getText())) {
-      text.append(node.getText());
-    }
-    if (node.getChildren() != null) {
-      for (Node child : node.getChildren()) {
-        appendNodeText(child, text);
-      }
+    // endIdx - startIdx is the exact length for String input (bytes for a Utf8Source)
+    StringBuilder text = new StringBuilder(Math.max(16, node.getEndIdx() - node.getStartIdx()));
+    TreeCursor cursor = new TreeCursor(node);
+    while (cursor.next()) {
+      String nodeTxt = cursor.node().getText();
+      if (nodeTxt != null) text.append(nodeTxt);
     }
+    return text.toString();
   }
 
   public static boolean isOnlyKeyword(Node n) {
@@ -261,6 +251,14 @@ public class Utils {
         || keyTxt.equals("impl-ns");
   }
 
+  public static boolean isGenClassCollectionKey(String keyTxt) {
+    return keyTxt.equals("implements")
+        || keyTxt.equals("constructors")
+        || keyTxt.equals("methods")
+        || keyTxt.equals("exposes")
+        || keyTxt.equals("exposes-methods");
+  }
+
   public static boolean isGenClassBooleanKey(String keyTxt) {
     return keyTxt.equals("main") || keyTxt.equals("load-impl-ns");
   }
@@ -276,17 +274,11 @@ public class Utils {
 
   public static List<Node> flattenTree(Node tree) {
     List<Node> nodes = new ArrayList<>();
-    appendToFlatList(tree, nodes);
-    return nodes;
-  }
-
-  private static void appendToFlatList(Node node, List<Node> flatList) {
-    flatList.add(node);
-    if (node.getChildren() != null) {
-      for (Node child : node.getChildren()) {
-        appendToFlatList(child, flatList);
-      }
+    TreeCursor cursor = new TreeCursor(tree);
+    while (cursor.next()) {
+      nodes.add(cursor.node());
     }
+    return nodes;
   }
 
   // TODO: we should use an immutable data structure library for this instead
@@ -0,0 +1,268 @@
+package com.oakmac.standardclojurestyle;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches directory trees and formats or checks the Clojure files that change, in the same warm
+ * JVM.
+ *
+ * <p>All directories share one WatchService and one thread, so the number of watched files and
+ * directories does not add threads (on Linux each directory does use one inotify watch, see
+ * /proc/sys/fs/inotify/max_user_watches). Events are debounced: a batch is processed once no
+ * event has arrived for the debounce time, or at the latest 10 debounce times after its first
+ * event, so a burst of saves (a git checkout, code generation) becomes one batch in which every
+ * file appears once. If the WatchService drops events, every file under the roots is processed.
+ *
+ * <p>Pass a FormatCache: the files that a batch writes are marked as formatted in it, so the
+ * events caused by those writes do not format them again, and files whose content did not change
+ * are not parsed.
+ */
+public final class Watcher implements Closeable {
+  /** Process a batch 200ms after the last event. */
+  public static final Duration DEFAULT_DEBOUNCE = Duration.ofMillis(200);
+
+  /** Receives the results of every batch. */
+  public interface Listener {
+    /** Called on the watching thread with the files of a batch and their results. */
+    void onBatch(List<Path> files, List<StandardClojureStyle.BatchResult> results, long nanos);
+  }
+
+  // absolute paths
+  private final List<Path> roots = new ArrayList<>();
+  private final List<Path> dirRoots = new ArrayList<>();
+  private final List<String> extensions;
+  private final StandardClojureStyle scsLib;
+  private final boolean writeChanges;
+  private final FormatCache cache;
+  private final long debounceNanos;
+  private final Listener listener;
+
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+  // files named on their own, rather than found under a directory
+  private final Set<Path> watchedFiles = new HashSet<>();
+
+  /**
+   * Starts watching the directories under roots for files with one of the extensions, and the
+   * files in roots. Changed files are formatted in place if writeChanges is true, else checked.
+   * cache can be null. Call run() to process events.
+   */
+  public Watcher(
+      List<Path> roots,
+      List<String> extensions,
+      StandardClojureStyle scsLib,
+      boolean writeChanges,
+      FormatCache cache,
+      Duration debounce,
+      Listener listener)
+      throws IOException {
+    this.extensions = new ArrayList<>(extensions);
+    this.scsLib = scsLib;
+    this.writeChanges = writeChanges;
+    this.cache = cache;
+    this.debounceNanos = debounce.toNanos();
+    this.listener = listener;
+
+    this.watchService = roots.get(0).getFileSystem().newWatchService();
+    try {
+      for (Path root : roots) {
+        Path absolute = root.toAbsolutePath();
+        this.roots.add(absolute);
+        if (Files.isDirectory(absolute)) {
+          dirRoots.add(absolute);
+          watchTree(absolute, null);
+        } else {
+          watchedFiles.add(absolute);
+          watchDir(absolute.getParent());
+        }
+      }
+    } catch (IOException e) {
+      watchService.close();
+      throw e;
+    }
+  }
+
+  /** The number of directories being watched. */
+  public int getNumWatchedDirs() {
+    synchronized (watchedDirs) {
+      return watchedDirs.size();
+    }
+  }
+
+  private void watchDir(Path dir) throws IOException {
+    WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+    synchronized (watchedDirs) {
+      watchedDirs.put(key, dir);
+    }
+  }
+
+  // Watches dir and every directory under it. If found is not null, the matching files in them
+  // are added to it: they may have been created before the directories were watched.
+  private void watchTree(Path dir, Set<Path> found) throws IOException {
+    Files.walkFileTree(
+        dir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs)
+              throws IOException {
+            watchDir(d);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if (found != null && attrs.isRegularFile() && isWatched(file)) found.add(file);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException e) {
+            // the file was deleted or cannot be read: skip it
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private boolean isWatched(Path file) {
+    if (watchedFiles.contains(file)) return true;
+    for (Path root : dirRoots) {
+      if (file.startsWith(root)) {
+        String fileName = file.getFileName().toString();
+        int dotIdx = fileName.lastIndexOf('.');
+        return dotIdx > 0 && extensions.contains(fileName.substring(dotIdx + 1));
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Processes events until close() is called or the thread is interrupted. Each batch of changed
+   * files is formatted with every available core and reported to the listener.
+   */
+  public void run() throws InterruptedException {
+    ExecutorService executor =
+        Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    try {
+      // the files changed since the last batch, sorted
+      Set<Path> pending = new TreeSet<>();
+      boolean overflow = false;
+      long firstEventTime = 0;
+      long lastEventTime = 0;
+      while (true) {
+        WatchKey key;
+        try {
+          if (pending.isEmpty() && !overflow) {
+            key = watchService.take();
+            firstEventTime = System.nanoTime();
+          } else {
+            long now = System.nanoTime();
+            long wait =
+                Math.min(lastEventTime + debounceNanos, firstEventTime + 10 * debounceNanos) - now;
+            key = wait > 0 ? watchService.poll(wait, TimeUnit.NANOSECONDS) : null;
+          }
+        } catch (ClosedWatchServiceException e) {
+          return;
+        }
+
+        if (key == null) {
+          processBatch(pending, overflow, executor);
+          pending.clear();
+          overflow = false;
+          continue;
+        }
+
+        lastEventTime = System.nanoTime();
+        Path dir;
+        synchronized (watchedDirs) {
+          dir = watchedDirs.get(key);
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == OVERFLOW) {
+            overflow = true;
+            continue;
+          }
+          if (dir == null) continue;
+          Path path = dir.resolve((Path) event.context());
+          if (event.kind() == ENTRY_DELETE) {
+            pending.remove(path);
+          } else if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+            try {
+              watchTree(path, pending);
+            } catch (IOException e) {
+              // it was deleted again, or cannot be read
+            }
+          } else if (isWatched(path)) {
+            pending.add(path);
+          }
+        }
+        if (!key.reset()) {
+          // the directory is gone
+          synchronized (watchedDirs) {
+            watchedDirs.remove(key);
+          }
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void processBatch(Set<Path> pending, boolean overflow, ExecutorService executor)
+      throws InterruptedException {
+    List<Path> files = new ArrayList<>();
+    if (overflow) {
+      try {
+        files = Cli.findFiles(roots, extensions);
+      } catch (IOException e) {
+        // fall back to the events that did arrive
+        files.addAll(pending);
+      }
+    } else {
+      files.addAll(pending);
+    }
+    files.removeIf(file -> !Files.isRegularFile(file));
+    if (files.isEmpty()) return;
+
+    long startTime = System.nanoTime();
+    List<StandardClojureStyle.BatchResult> results =
+        scsLib.formatFiles(
+            files,
+            executor,
+            StandardClojureStyle.DEFAULT_MAX_IN_FLIGHT_BYTES,
+            writeChanges,
+            cache);
+    listener.onBatch(files, results, System.nanoTime() - startTime);
+  }
+
+  /** Stops watching. run() returns. */
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+}
@@ -0,0 +1,4 @@
+/** Standard Clojure Style: a formatter for Clojure source code, and the standard-clj tool. */
+module com.oakmac.standardclojurestyle {
+  exports com.oakmac.standardclojurestyle;
+}
@@ -0,0 +1,69 @@
+package com.oakmac.standardclojurestyle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CliTest {
+  @TempDir Path tmpDir;
+
+  private final ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+
+  private int run(String... args) {
+    outBytes.reset();
+    errBytes.reset();
+    return Cli.run(
+        args,
+        new PrintStream(outBytes, true, StandardCharsets.UTF_8),
+        new PrintStream(errBytes, true, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testCommands() throws IOException {
+    Path unformatted = TestFiles.write(tmpDir, "src/a.clj", "(def a\n1)\n");
+    Path formatted = TestFiles.write(tmpDir, "src/b/b.cljs", "(def b 2)\n");
+    TestFiles.write(tmpDir, "src/notes.md", "(def   c)");
+    String dir = tmpDir.resolve("src").toString();
+
+    assertEquals(0, run("list", dir));
+    assertEquals(unformatted + "\n" + formatted + "\n", outBytes.toString(StandardCharsets.UTF_8));
+
+    assertEquals(1, run("check", dir));
+    assertTrue(outBytes.toString(StandardCharsets.UTF_8).contains("Not formatted: " + unformatted));
+    assertTrue(outBytes.toString(StandardCharsets.UTF_8).contains("2 files, 1 not formatted"));
+    assertEquals("(def a\n1)\n", TestFiles.read(unformatted));
+
+    assertEquals(0, run("fix", dir));
+    assertEquals("(def a\n  1)\n", TestFiles.read(unformatted));
+    assertEquals(0, run("check", dir));
+    String cacheFile = tmpDir.resolve("format.cache").toString();
+    assertEquals(0, run("check", "--cache", cacheFile, dir));
+    assertEquals(0, run("check", "--cache", cacheFile, dir));
+    assertTrue(outBytes.toString(StandardCharsets.UTF_8).contains("0 errors, 2 cached"));
+
+    // --ext and files named on the command line
+    assertEquals(0, run("list", "--ext", "md", dir, unformatted.toString()));
+    assertEquals(
+        unformatted + "\n" + tmpDir.resolve("src/notes.md") + "\n",
+        outBytes.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testErrors() throws IOException {
+    assertEquals(2, run());
+    assertEquals(2, run("format", "src"));
+    assertEquals(2, run("check"));
+
+    Path bad = TestFiles.write(tmpDir, "bad.clj", "(def a))");
+    assertEquals(1, run("fix", bad.toString()));
+    assertTrue(errBytes.toString(StandardCharsets.UTF_8).contains("Error in " + bad));
+    assertEquals(1, run("check", tmpDir.resolve("missing.clj").toString()));
+  }
+}
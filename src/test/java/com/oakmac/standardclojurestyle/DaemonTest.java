@@ -0,0 +1,116 @@
+package com.oakmac.standardclojurestyle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DaemonTest {
+  @TempDir Path tmpDir;
+
+  @Test
+  public void testRequests() throws Exception {
+    Path stateFile = tmpDir.resolve("state/daemon");
+    Daemon daemon = Daemon.start(stateFile, Duration.ofMinutes(1));
+    try {
+      DaemonClient client = DaemonClient.connect(stateFile);
+      assertNotNull(client);
+
+      DaemonClient.Response response = client.format("(def a\n1)");
+      assertEquals(0, response.getExitCode());
+      assertEquals("(def a\n  1)", response.getOut());
+      response = client.format("(def a))");
+      assertEquals(1, response.getExitCode());
+      assertFalse(response.getErr().isEmpty());
+
+      // paths are relative to the client
+      Files.write(tmpDir.resolve("a.clj"), "(def a\n1)\n".getBytes(StandardCharsets.UTF_8));
+      response = client.run(tmpDir, Arrays.asList("check", "a.clj"));
+      assertEquals(1, response.getExitCode());
+      assertTrue(response.getOut().startsWith("Not formatted: a.clj\n"));
+      assertEquals(0, client.run(tmpDir, Arrays.asList("fix", ".")).getExitCode());
+      assertEquals(0, client.run(tmpDir, Arrays.asList("check", "a.clj")).getExitCode());
+      assertEquals(2, client.run(tmpDir, Arrays.asList("format")).getExitCode());
+      assertEquals(2, client.send("restart", "").getExitCode());
+
+      // concurrent requests
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      try {
+        List<Future<DaemonClient.Response>> futures = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+          String src = "(def a" + i + "\n" + i + ")";
+          futures.add(executor.submit(() -> client.format(src)));
+        }
+        for (int i = 0; i < 32; i++) {
+          assertEquals("(def a" + i + "\n  " + i + ")", futures.get(i).get().getOut());
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+
+      String status = client.status().getOut();
+      assertTrue(status.contains("requests 39, format 34, restart 1, run 4, failed 1"), status);
+      assertTrue(status.contains("latency p50"), status);
+    } finally {
+      daemon.stop();
+    }
+    assertFalse(Files.exists(stateFile));
+  }
+
+  @Test
+  public void testInvalidToken() throws Exception {
+    Path stateFile = tmpDir.resolve("daemon");
+    Daemon daemon = Daemon.start(stateFile, Duration.ofMinutes(1));
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+      socket.getOutputStream().write("0123 format 3\n(a)".getBytes(StandardCharsets.UTF_8));
+      String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+      assertEquals("2 0 16\nInvalid request\n", response);
+    } finally {
+      daemon.stop();
+    }
+  }
+
+  @Test
+  public void testStop() throws Exception {
+    Path stateFile = tmpDir.resolve("daemon");
+    Daemon daemon = Daemon.start(stateFile, Duration.ofMinutes(1));
+    ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(outBytes, true, StandardCharsets.UTF_8);
+    assertEquals(0, Cli.runDaemonCommand(new String[] {"daemon-status"}, stateFile, out, out));
+    assertTrue(outBytes.toString(StandardCharsets.UTF_8).contains("port " + daemon.getPort()));
+    assertEquals(0, Cli.runDaemonCommand(new String[] {"daemon-stop"}, stateFile, out, out));
+    daemon.awaitStop();
+    assertFalse(Files.exists(stateFile));
+    assertEquals(1, Cli.runDaemonCommand(new String[] {"daemon-stop"}, stateFile, out, out));
+
+    // idle timeout
+    daemon = Daemon.start(stateFile, Duration.ofMillis(100));
+    daemon.awaitStop();
+    assertNull(DaemonClient.connect(stateFile));
+  }
+
+  @Test
+  public void testStaleStateFile() throws IOException {
+    Path stateFile = tmpDir.resolve("daemon");
+    Daemon daemon = Daemon.start(stateFile, Duration.ofMinutes(1));
+    List<String> state = Files.readAllLines(stateFile);
+    daemon.stop();
+    Files.write(stateFile, state);
+    assertThrows(IOException.class, () -> DaemonClient.connect(stateFile).status());
+  }
+}
@@ -0,0 +1,87 @@
+package com.oakmac.standardclojurestyle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class FormCacheTest {
+  private final StandardClojureStyle uncached = new StandardClojureStyle();
+
+  @Test
+  public void testSameOutputAsWithoutCache() throws IOException {
+    FormCache cache = new FormCache(1L << 20);
+    StandardClojureStyle cached = new StandardClojureStyle(cache);
+    List<Map<String, Object>> testCases = TestFiles.loadTestCases("/format_tests.json");
+    // the second pass reuses forms cached by any test case
+    for (int pass = 0; pass < 2; pass++) {
+      for (Map<String, Object> testCase : testCases) {
+        String testName = (String) testCase.get("name");
+        for (String key : new String[] {"input", "expected"}) {
+          String input = (String) testCase.get(key);
+          assertEquals(uncached.format(input), cached.format(input), testName);
+          assertEquals(uncached.check(input), cached.check(input), testName);
+          if (!"success".equals(uncached.format(input).get("status"))) continue;
+          assertEquals(
+              uncached.format(input).get("out"),
+              StandardClojureStyleTest.applyEdits(input, cached.formatEdits(input)),
+              testName);
+        }
+      }
+    }
+    assertTrue(cache.getHits() > 0);
+  }
+
+  @Test
+  public void testEditReformatsOneForm() {
+    FormCache cache = new FormCache(1L << 20);
+    StandardClojureStyle scsLib = new StandardClojureStyle(cache);
+    String before =
+        "(ns foo\n  (:require [bar]))\n\n"
+            + "(defn add-one [x]\n\"Adds one.\"\n(inc x))\n\n"
+            + "(defn remove-one [x]\n\"Removes one.\"\n(dec x))\n\n"
+            + "(def numbers {:one 1\n:two 2\n:three 3})\n";
+    String after = before.replace("(dec x)", "(dec (dec x))");
+
+    assertEquals(uncached.format(before), scsLib.format(before));
+    assertEquals(0, cache.getHits());
+    assertEquals(3, cache.size());
+
+    assertEquals(uncached.format(after), scsLib.format(after));
+    assertEquals(2, cache.getHits());
+    assertEquals(4, cache.size());
+
+    // the same form at another column is formatted again
+    String indented = after.replace("(def numbers", "  (def numbers");
+    assertEquals(uncached.format(indented), scsLib.format(indented));
+    assertEquals(4, cache.getHits());
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    FormCache cache = new FormCache(1000);
+    StandardClojureStyle scsLib = new StandardClojureStyle(cache);
+    String form = "(defn %s [x]\n(let [y (inc x)]\n(* y y)))\n";
+    scsLib.format(String.format(form, "a"));
+    scsLib.format(String.format(form, "b"));
+    assertEquals(2, cache.size());
+    scsLib.format(String.format(form, "a"));
+    assertEquals(1, cache.getHits());
+
+    for (int i = 0; i < 10; i++) {
+      scsLib.format(String.format(form, "c" + i));
+      assertTrue(cache.getBytes() <= 1000);
+    }
+    assertTrue(cache.size() < 10);
+    scsLib.format(String.format(form, "c9"));
+    assertEquals(2, cache.getHits());
+    scsLib.format(String.format(form, "b"));
+    assertEquals(2, cache.getHits());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getBytes());
+  }
+}
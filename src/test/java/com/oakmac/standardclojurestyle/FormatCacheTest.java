@@ -0,0 +1,145 @@
+package com.oakmac.standardclojurestyle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FormatCacheTest {
+  @TempDir Path tmpDir;
+
+  private final StandardClojureStyle scsLib = new StandardClojureStyle();
+  private static final FileTime OLD_TIME = FileTime.fromMillis(1_000_000_000_000L);
+
+  private Path writeFile(String relPath, String content) throws IOException {
+    Path path = TestFiles.write(tmpDir.resolve("src"), relPath, content);
+    Files.setLastModifiedTime(path, OLD_TIME);
+    return path;
+  }
+
+  @Test
+  public void testRerunSkipsFormattedFiles() throws Exception {
+    Path cacheFile = tmpDir.resolve("cache/format.cache");
+    Path formatted = writeFile("a.clj", "(def a 1)\n");
+    Path unformatted = writeFile("b.clj", "(def b\n2)\n");
+    List<Path> paths = Arrays.asList(formatted, unformatted);
+
+    FormatCache cache = FormatCache.load(cacheFile);
+    assertEquals(0, cache.size());
+    List<StandardClojureStyle.BatchResult> results = scsLib.formatFiles(paths, false, cache);
+    assertFalse(results.get(0).isCached());
+    assertEquals("changed", results.get(1).getStatus());
+    cache.save(cacheFile);
+
+    cache = FormatCache.load(cacheFile);
+    assertEquals(1, cache.size());
+    results = scsLib.formatFiles(paths, false, cache);
+    assertTrue(results.get(0).isCached());
+    assertEquals("unchanged", results.get(0).getStatus());
+    assertFalse(results.get(1).isCached());
+    assertEquals("changed", results.get(1).getStatus());
+
+    // the same size and modification time is trusted without reading the file
+    Files.write(formatted, "(def a 2)\n".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(formatted, OLD_TIME);
+    assertTrue(scsLib.formatFiles(paths, false, cache).get(0).isCached());
+
+    // content that is known to be formatted is not parsed again
+    Path copy = writeFile("copy.clj", "(def a 1)\n");
+    assertTrue(scsLib.formatFiles(Arrays.asList(copy), false, cache).get(0).isCached());
+
+    // fixed files are formatted afterwards
+    assertEquals("changed", scsLib.formatFiles(paths, true, cache).get(1).getStatus());
+    results = scsLib.formatFiles(paths, false, cache);
+    assertTrue(results.get(1).isCached());
+    assertEquals("unchanged", results.get(1).getStatus());
+  }
+
+  @Test
+  public void testInvalidation() throws Exception {
+    Path cacheFile = tmpDir.resolve("format.cache");
+    Path formatted = writeFile("a.clj", "(def a 1)");
+    FormatCache cache = FormatCache.load(cacheFile, 42);
+    scsLib.formatFiles(Arrays.asList(formatted), false, cache);
+    cache.save(cacheFile);
+
+    assertEquals(1, FormatCache.load(cacheFile, 42).size());
+    assertEquals(0, FormatCache.load(cacheFile, 43).size());
+
+    byte[] bytes = Files.readAllBytes(cacheFile);
+    Files.write(cacheFile, Arrays.copyOf(bytes, bytes.length - 3));
+    assertEquals(0, FormatCache.load(cacheFile, 42).size());
+    Files.write(cacheFile, "not a cache".getBytes(StandardCharsets.UTF_8));
+    assertEquals(0, FormatCache.load(cacheFile, 42).size());
+  }
+
+  @Test
+  public void testOtherBuild() throws Exception {
+    Path cacheFile = tmpDir.resolve("format.cache");
+    FormatCache cache = FormatCache.empty();
+    scsLib.formatFiles(Arrays.asList(writeFile("a.clj", "(def a 1)")), false, cache);
+    cache.save(cacheFile);
+    assertEquals(1, FormatCache.load(cacheFile).size());
+
+    // the build key follows the magic number, the file version and the key length
+    String buildKey = BuildInfo.buildKey();
+    assertNotNull(buildKey);
+    byte[] bytes = Files.readAllBytes(cacheFile);
+    assertEquals(buildKey, new String(bytes, 12, buildKey.length(), StandardCharsets.UTF_8));
+    bytes[12 + buildKey.length() - 1] ^= 1;
+    Files.write(cacheFile, bytes);
+    assertEquals(0, FormatCache.load(cacheFile).size());
+  }
+
+  @Test
+  public void testSaveDropsDeletedFiles() throws Exception {
+    Path cacheFile = tmpDir.resolve("format.cache");
+    Path a = writeFile("a.clj", "(def a 1)");
+    Path b = writeFile("b.clj", "(def b 2)");
+    FormatCache cache = FormatCache.empty();
+    scsLib.formatFiles(Arrays.asList(a, b), false, cache);
+    cache.save(cacheFile);
+    assertEquals(2, FormatCache.load(cacheFile).size());
+
+    FormatCache.Digest digestA = FormatCache.digest(Files.readAllBytes(a));
+    FormatCache.Digest digestB = FormatCache.digest(Files.readAllBytes(b));
+    Files.delete(b);
+    cache.save(cacheFile);
+    assertFalse(cache.isFormatted(digestB));
+    FormatCache loaded = FormatCache.load(cacheFile);
+    assertEquals(1, loaded.size());
+    assertTrue(loaded.isFormatted(digestA));
+    assertFalse(loaded.isFormatted(digestB));
+
+    // entries on disk for deleted files are not merged back in
+    Files.delete(a);
+    FormatCache.empty().save(cacheFile);
+    assertEquals(0, FormatCache.load(cacheFile).size());
+  }
+
+  @Test
+  public void testConcurrentWritersMerge() throws Exception {
+    Path cacheFile = tmpDir.resolve("format.cache");
+    Path a = writeFile("a.clj", "(def a 1)");
+    Path b = writeFile("b.clj", "(def b 2)");
+
+    // two runs that started from the same (empty) cache file
+    FormatCache cacheA = FormatCache.load(cacheFile);
+    FormatCache cacheB = FormatCache.load(cacheFile);
+    scsLib.formatFiles(Arrays.asList(a), false, cacheA);
+    scsLib.formatFiles(Arrays.asList(b), false, cacheB);
+    cacheA.save(cacheFile);
+    cacheB.save(cacheFile);
+
+    FormatCache merged = FormatCache.load(cacheFile);
+    assertEquals(2, merged.size());
+    assertTrue(scsLib.formatFiles(Arrays.asList(a, b), false, merged).get(0).isCached());
+  }
+}
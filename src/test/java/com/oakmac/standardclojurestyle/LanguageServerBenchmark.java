@@ -0,0 +1,195 @@
+package com.oakmac.standardclojurestyle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Times textDocument/formatting after a one-line edit of a warm 10k-line document, the way an
+ * editor that formats on save sees it: from writing the request to reading the response, through
+ * the server's own JSON-RPC streams. Run it with "./gradlew lspBenchmark".
+ */
+public final class LanguageServerBenchmark {
+  private static final String URI = "file:///bench/core.clj";
+  private static final int NUM_FORMS = 1000;
+  private static final int WARMUP_EDITS = 300;
+  private static final int MEASURED_EDITS = 500;
+  private static final String NS_FORM =
+      "(ns bench.core\n  (:require\n   [clojure.string :as str]))\n\n";
+  private static final int NS_FORM_LINES = 4;
+
+  private final OutputStream toServer;
+  private final InputStream fromServer;
+  private int nextId = 1;
+
+  private LanguageServerBenchmark(OutputStream toServer, InputStream fromServer) {
+    this.toServer = toServer;
+    this.fromServer = fromServer;
+  }
+
+  // 10 lines per form
+  private static String form(int i) {
+    return "(defn handler-"
+        + i
+        + "\n  \"Handles request "
+        + i
+        + ".\"\n  [request]\n  (let [params (:params request)\n        id (get params :id "
+        + i
+        + ")]\n    (when (pos? id)\n      {:status 200\n       :body {:id id\n              :n "
+        + i
+        + "}})))\n\n";
+  }
+
+  private static Map<String, Object> map(Object... keysAndValues) {
+    Map<String, Object> map = new LinkedHashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return map;
+  }
+
+  private void send(Map<String, Object> message) throws IOException {
+    message.put("jsonrpc", "2.0");
+    byte[] content = Json.write(message).getBytes(StandardCharsets.UTF_8);
+    byte[] header =
+        ("Content-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    toServer.write(header);
+    toServer.write(content);
+    toServer.flush();
+  }
+
+  private int request(String method, Object params) throws IOException {
+    int id = nextId++;
+    send(map("id", id, "method", method, "params", params));
+    return id;
+  }
+
+  // Returns the response to request id, skipping the notifications before it.
+  private Map<?, ?> response(int id) throws IOException {
+    while (true) {
+      StringBuilder header = new StringBuilder();
+      while (header.length() < 4 || !header.toString().endsWith("\r\n\r\n")) {
+        int b = fromServer.read();
+        if (b < 0) throw new IOException("The server closed its output");
+        header.append((char) b);
+      }
+      String lengthLine = header.toString().trim();
+      int length = Integer.parseInt(lengthLine.substring(lengthLine.indexOf(':') + 1).trim());
+      byte[] content = fromServer.readNBytes(length);
+      Map<?, ?> message = (Map<?, ?>) Json.parse(new String(content, StandardCharsets.UTF_8));
+      if (Long.valueOf(id).equals(message.get("id"))) return message;
+    }
+  }
+
+  // Replaces line with newText, then times a formatting request. Returns the nanoseconds.
+  private long editAndFormat(int line, String lineText, String newText) throws IOException {
+    Map<String, Object> range =
+        map(
+            "start", map("line", line, "character", 0),
+            "end", map("line", line, "character", lineText.length()));
+    send(
+        map(
+            "method",
+            "textDocument/didChange",
+            "params",
+            map(
+                "textDocument",
+                map("uri", URI, "version", nextId),
+                "contentChanges",
+                List.of(map("range", range, "text", newText)))));
+    long startTime = System.nanoTime();
+    int id =
+        request(
+            "textDocument/formatting",
+            map("textDocument", map("uri", URI), "options", map("tabSize", 2)));
+    Map<?, ?> response = response(id);
+    long nanos = System.nanoTime() - startTime;
+    if (response.containsKey("error")) throw new IllegalStateException(response.toString());
+    if (!((List<?>) response.get("result")).isEmpty()) {
+      throw new IllegalStateException("The document is not formatted: " + response);
+    }
+    return nanos;
+  }
+
+  private long[] run() throws IOException {
+    StringBuilder doc = new StringBuilder(NS_FORM);
+    for (int i = 0; i < NUM_FORMS; i++) {
+      doc.append(form(i));
+    }
+    // no blank line at the end
+    doc.setLength(doc.length() - 1);
+    String[] lines = doc.toString().split("\n", -1);
+    response(request("initialize", map("capabilities", map())));
+    send(map("method", "initialized", "params", map()));
+    send(
+        map(
+            "method",
+            "textDocument/didOpen",
+            "params",
+            map(
+                "textDocument",
+                map("uri", URI, "languageId", "clojure", "version", 0, "text", doc.toString()))));
+
+    // edit the ":n" line of a random form: it stays formatted, so the response has no edits
+    Random random = new Random(42);
+    long[] nanos = new long[MEASURED_EDITS];
+    for (int i = 0; i < WARMUP_EDITS + MEASURED_EDITS; i++) {
+      int line = NS_FORM_LINES + random.nextInt(NUM_FORMS) * 10 + 8;
+      String lineText = lines[line];
+      String newText = lineText.replace(":n ", ":n " + i + " ");
+      long editNanos = editAndFormat(line, lineText, newText);
+      lines[line] = newText;
+      if (i >= WARMUP_EDITS) nanos[i - WARMUP_EDITS] = editNanos;
+    }
+
+    response(request("shutdown", null));
+    send(map("method", "exit", "params", null));
+    return nanos;
+  }
+
+  private static double percentileMillis(long[] sorted, int p) {
+    return sorted[Math.min(sorted.length - 1, sorted.length * p / 100)] / 1e6;
+  }
+
+  public static void main(String[] args) throws Exception {
+    PipedOutputStream toServer = new PipedOutputStream();
+    PipedInputStream serverIn = new PipedInputStream(toServer, 1 << 20);
+    PipedOutputStream serverOut = new PipedOutputStream();
+    PipedInputStream fromServer = new PipedInputStream(serverOut, 1 << 20);
+    Thread serverThread =
+        new Thread(
+            () -> {
+              try {
+                new LanguageServer(serverIn, serverOut).run();
+                serverOut.close();
+              } catch (IOException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    serverThread.start();
+
+    long[] nanos = new LanguageServerBenchmark(toServer, fromServer).run();
+    serverThread.join();
+    Arrays.sort(nanos);
+    System.out.println(
+        String.format(
+            Locale.ROOT,
+            "formatting after a one-line edit of a %d-line document (%d runs): "
+                + "median %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+            NS_FORM_LINES + NUM_FORMS * 10,
+            nanos.length,
+            percentileMillis(nanos, 50),
+            percentileMillis(nanos, 90),
+            percentileMillis(nanos, 99),
+            nanos[nanos.length - 1] / 1e6));
+  }
+}
@@ -0,0 +1,320 @@
+package com.oakmac.standardclojurestyle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class LanguageServerTest {
+  private static final String URI = "file:///src/a.clj";
+
+  // The messages to send, and then the messages the server sent back
+  private final ByteArrayOutputStream input = new ByteArrayOutputStream();
+  private final List<Map<?, ?>> responses = new ArrayList<>();
+  private final List<Map<?, ?>> notifications = new ArrayList<>();
+  private int nextId = 1;
+
+  private int request(String method, Object params) {
+    int id = nextId++;
+    Map<String, Object> message = new LinkedHashMap<>();
+    message.put("jsonrpc", "2.0");
+    message.put("id", id);
+    message.put("method", method);
+    message.put("params", params);
+    write(message);
+    return id;
+  }
+
+  private void notify(String method, Object params) {
+    Map<String, Object> message = new LinkedHashMap<>();
+    message.put("jsonrpc", "2.0");
+    message.put("method", method);
+    message.put("params", params);
+    write(message);
+  }
+
+  private void write(Map<String, Object> message) {
+    byte[] content = Json.write(message).getBytes(StandardCharsets.UTF_8);
+    byte[] header = ("Content-Length: " + content.length + "\r\n\r\n").getBytes();
+    input.write(header, 0, header.length);
+    input.write(content, 0, content.length);
+  }
+
+  private int runServer() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    LanguageServer server =
+        new LanguageServer(new ByteArrayInputStream(input.toByteArray()), output);
+    int exitCode = server.run();
+
+    String txt = output.toString(StandardCharsets.UTF_8);
+    int idx = 0;
+    while (idx < txt.length()) {
+      int headerEnd = txt.indexOf("\r\n\r\n", idx);
+      int length = Integer.parseInt(txt.substring(idx, headerEnd).split(": ")[1]);
+      int contentStart = headerEnd + 4;
+      // Content-Length is in bytes
+      String content =
+          new String(
+              txt.substring(contentStart).getBytes(StandardCharsets.UTF_8),
+              0,
+              length,
+              StandardCharsets.UTF_8);
+      Map<?, ?> message = (Map<?, ?>) Json.parse(content);
+      if (message.containsKey("id")) {
+        responses.add(message);
+      } else {
+        notifications.add(message);
+      }
+      idx = contentStart + content.length();
+    }
+    return exitCode;
+  }
+
+  private Map<?, ?> response(int id) {
+    for (Map<?, ?> response : responses) {
+      if (Long.valueOf(id).equals(response.get("id"))) return response;
+    }
+    fail("No response to request " + id);
+    return null;
+  }
+
+  private static Map<String, Object> map(Object... keysAndValues) {
+    Map<String, Object> map = new LinkedHashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return map;
+  }
+
+  private static Map<String, Object> position(int line, int character) {
+    return map("line", line, "character", character);
+  }
+
+  private static Map<String, Object> range(int startLine, int startChar, int endLine, int endChar) {
+    return map("start", position(startLine, startChar), "end", position(endLine, endChar));
+  }
+
+  private void open(String text) {
+    notify(
+        "textDocument/didOpen",
+        map(
+            "textDocument",
+            map("uri", URI, "languageId", "clojure", "version", 1, "text", text)));
+  }
+
+  // Applies the TextEdits in a response to text
+  private static String applyEdits(String text, Object edits) {
+    LineIndex lines = LineIndex.fromText(text);
+    List<?> editList = (List<?>) edits;
+    StringBuilder sb = new StringBuilder(text);
+    for (int i = editList.size() - 1; i >= 0; i--) {
+      Map<?, ?> edit = (Map<?, ?>) editList.get(i);
+      Map<?, ?> range = (Map<?, ?>) edit.get("range");
+      sb.replace(
+          offset(lines, (Map<?, ?>) range.get("start")),
+          offset(lines, (Map<?, ?>) range.get("end")),
+          (String) edit.get("newText"));
+    }
+    return sb.toString();
+  }
+
+  private static int offset(LineIndex lines, Map<?, ?> position) {
+    return lines.getLineStart(((Long) position.get("line")).intValue())
+        + ((Long) position.get("character")).intValue();
+  }
+
+  @Test
+  public void testFormatting() throws IOException {
+    int initId = request("initialize", map("processId", null, "capabilities", map()));
+    notify("initialized", map());
+    String text = "(ns foo)\n\n(defn a []\n1)\n\n(defn b []\n    2)\n";
+    open(text);
+    int formatId =
+        request("textDocument/formatting", map("textDocument", map("uri", URI), "options", map()));
+    int rangeId =
+        request(
+            "textDocument/rangeFormatting",
+            map("textDocument", map("uri", URI), "range", range(5, 0, 5, 3), "options", map()));
+    int unknownId =
+        request("textDocument/formatting", map("textDocument", map("uri", "file:///b.clj")));
+    int statsId = request("standard-clj/stats", map());
+    int shutdownId = request("shutdown", null);
+    notify("exit", null);
+    assertEquals(0, runServer());
+
+    Map<?, ?> result = (Map<?, ?>) response(initId).get("result");
+    Map<?, ?> capabilities = (Map<?, ?>) result.get("capabilities");
+    assertEquals(2L, ((Map<?, ?>) capabilities.get("textDocumentSync")).get("change"));
+    assertEquals(true, capabilities.get("documentFormattingProvider"));
+
+    assertEquals(
+        "(ns foo)\n\n(defn a []\n  1)\n\n(defn b []\n  2)\n",
+        applyEdits(text, response(formatId).get("result")));
+    assertEquals(
+        "(ns foo)\n\n(defn a []\n1)\n\n(defn b []\n  2)\n",
+        applyEdits(text, response(rangeId).get("result")));
+    assertEquals(-32602L, ((Map<?, ?>) response(unknownId).get("error")).get("code"));
+    assertTrue(response(shutdownId).containsKey("result"));
+
+    Map<?, ?> stats = (Map<?, ?>) response(statsId).get("result");
+    assertEquals(2L, ((Map<?, ?>) stats.get("requests")).get("textDocument/formatting"));
+    assertEquals(1L, stats.get("failed"));
+    assertTrue(stats.containsKey("p50Millis"));
+
+    // every textDocument message is timed
+    int logs = 0;
+    for (Map<?, ?> notification : notifications) {
+      assertEquals("window/logMessage", notification.get("method"));
+      String message = (String) ((Map<?, ?>) notification.get("params")).get("message");
+      if (message.matches("textDocument/\\w+ \\d+\\.\\d\\dms")) logs++;
+    }
+    assertEquals(4, logs);
+  }
+
+  @Test
+  public void testIncrementalChanges() throws IOException {
+    request("initialize", map("capabilities", map()));
+    String text = "(def a\n1)\n\n(def b 2)\n";
+    open(text);
+    Map<String, Object> doc = map("uri", URI, "version", 2);
+    notify(
+        "textDocument/didChange",
+        map(
+            "textDocument",
+            doc,
+            "contentChanges",
+            List.of(
+                map("range", range(3, 7, 3, 8), "text", "\n[3\n4]"),
+                map("range", range(0, 5, 0, 6), "text", "aa"))));
+    int formatId = request("textDocument/formatting", map("textDocument", map("uri", URI)));
+    notify(
+        "textDocument/didChange",
+        map("textDocument", doc, "contentChanges", List.of(map("text", "(def  c\n3)"))));
+    int formatId2 = request("textDocument/formatting", map("textDocument", map("uri", URI)));
+    // exit without shutdown
+    notify("exit", null);
+    assertEquals(1, runServer());
+
+    String changed = "(def aa\n1)\n\n(def b \n[3\n4])\n";
+    assertEquals(
+        "(def aa\n  1)\n\n(def b\n  [3\n   4])\n",
+        applyEdits(changed, response(formatId).get("result")));
+    assertEquals("(def  c\n  3)", applyEdits("(def  c\n3)", response(formatId2).get("result")));
+  }
+
+  @Test
+  public void testOnTypeFormatting() throws IOException {
+    request("initialize", map("capabilities", map()));
+    // a newline was typed after "[x]"
+    String text = "(ns foo)\n\n(defn a [x]\n\n(let [b 1]\nb))";
+    open(text);
+    int newlineId = onType(3, 0, "\n");
+    int closerId = onType(5, 3, ")");
+    notify(
+        "textDocument/didChange",
+        map(
+            "textDocument",
+            map("uri", URI, "version", 2),
+            "contentChanges",
+            List.of(map("range", range(5, 2, 5, 3), "text", ""))));
+    int unbalancedId = onType(5, 2, ")");
+    notify("exit", null);
+    runServer();
+
+    assertEquals(
+        "(ns foo)\n\n(defn a [x]\n  \n  (let [b 1]\n    b))",
+        applyEdits(text, response(newlineId).get("result")));
+    assertEquals(
+        "(ns foo)\n\n(defn a [x]\n\n  (let [b 1]\n    b))",
+        applyEdits(text, response(closerId).get("result")));
+    assertEquals(List.of(), response(unbalancedId).get("result"));
+  }
+
+  private int onType(int line, int character, String ch) {
+    return request(
+        "textDocument/onTypeFormatting",
+        map(
+            "textDocument",
+            map("uri", URI),
+            "position",
+            position(line, character),
+            "ch",
+            ch,
+            "options",
+            map()));
+  }
+
+  @Test
+  public void testErrors() throws IOException {
+    int beforeInitId = request("textDocument/formatting", map());
+    request("initialize", map("capabilities", map()));
+    int unknownId = request("foo/bar", map());
+    notify("$/cancelRequest", map("id", 1));
+    byte[] invalid = "Content-Length: 3\r\n\r\n{x}".getBytes(StandardCharsets.UTF_8);
+    input.write(invalid, 0, invalid.length);
+    open("(def a))");
+    int failedId = request("textDocument/formatting", map("textDocument", map("uri", URI)));
+    assertEquals(1, runServer());
+
+    assertEquals(-32002L, ((Map<?, ?>) response(beforeInitId).get("error")).get("code"));
+    assertEquals(-32601L, ((Map<?, ?>) response(unknownId).get("error")).get("code"));
+    assertEquals(-32803L, ((Map<?, ?>) response(failedId).get("error")).get("code"));
+    boolean parseError = false;
+    for (Map<?, ?> response : responses) {
+      Map<?, ?> error = (Map<?, ?>) response.get("error");
+      if (response.get("id") == null && error != null && error.get("code").equals(-32700L)) {
+        parseError = true;
+      }
+    }
+    assertTrue(parseError);
+  }
+
+  @Test
+  public void testDeeplyNested() throws IOException {
+    // deep enough to overflow the stack of the Parser and of the JSON parser
+    int depth = 200000;
+    request("initialize", map("capabilities", map()));
+    open("[".repeat(depth) + "]".repeat(depth));
+    int failedId = request("textDocument/formatting", map("textDocument", map("uri", URI)));
+    byte[] deepJson = ("[".repeat(depth) + "]".repeat(depth)).getBytes(StandardCharsets.UTF_8);
+    byte[] header = ("Content-Length: " + deepJson.length + "\r\n\r\n").getBytes();
+    input.write(header, 0, header.length);
+    input.write(deepJson, 0, deepJson.length);
+    int shutdownId = request("shutdown", null);
+    notify("exit", null);
+    assertEquals(0, runServer());
+
+    assertEquals(-32803L, ((Map<?, ?>) response(failedId).get("error")).get("code"));
+    assertTrue(response(shutdownId).containsKey("result"));
+    boolean parseError = false;
+    for (Map<?, ?> response : responses) {
+      Map<?, ?> error = (Map<?, ?>) response.get("error");
+      if (response.get("id") == null && error != null && error.get("code").equals(-32700L)) {
+        parseError = true;
+      }
+    }
+    assertTrue(parseError);
+  }
+
+  @Test
+  public void testJson() {
+    Object value =
+        Json.parse(
+            " {\"a\": [1, -2.5e1, true, false, null], \"b\\n\": \"x\\u00e9\\\"\", \"c\": {}}");
+    List<Object> a = Arrays.asList(1L, -25.0, true, false, null);
+    assertEquals(map("a", a, "b\n", "x\u00e9\"", "c", map()), value);
+    assertEquals(
+        "{\"a\":[1,\"\\t\\u0001\"],\"b\":null}",
+        Json.write(map("a", List.of(1, "\t\u0001"), "b", null)));
+    assertThrows(IllegalArgumentException.class, () -> Json.parse("[1,]"));
+    assertThrows(IllegalArgumentException.class, () -> Json.parse("{\"a\" 1}"));
+  }
+}
@@ -0,0 +1,77 @@
+package com.oakmac.standardclojurestyle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class LineIndexTest {
+  private static LineIndex parseWithLineIndex(String txt) {
+    LineIndex lines = new LineIndex();
+    Map<String, Object> opts = new HashMap<>();
+    opts.put("lineIndex", lines);
+    Parser.parse(txt, opts);
+    return lines;
+  }
+
+  @Test
+  public void testLineAndColumn() {
+    String txt = "(ns foo)\n\n(def a\n  \"multi\nline\")\n;; end";
+    LineIndex lines = parseWithLineIndex(txt);
+
+    assertEquals(6, lines.getNumLines());
+    assertEquals(0, lines.getLineStart(0));
+    assertEquals(9, lines.getLineStart(1));
+    assertEquals(10, lines.getLineStart(2));
+
+    int defIdx = txt.indexOf("def");
+    assertEquals(2, lines.lineOf(defIdx));
+    assertEquals(1, lines.columnOf(defIdx));
+
+    // newlines inside of strings are recorded too
+    int lineIdx = txt.indexOf("line\"");
+    assertEquals(4, lines.lineOf(lineIdx));
+    assertEquals(0, lines.columnOf(lineIdx));
+
+    int commentIdx = txt.indexOf(";; end");
+    assertEquals(5, lines.lineOf(commentIdx));
+    assertEquals(5, lines.lineOf(txt.length()));
+  }
+
+  @Test
+  public void testMatchesFromText() {
+    String[] inputs = {
+      "",
+      "\n",
+      "a\nb\n",
+      "(foo \"a\\\nb\"\n  #_(bar\n) baz)\r\n\r\n",
+      "\"unclosed\nstring",
+      "#^{:a\n1} x"
+    };
+    for (String txt : inputs) {
+      LineIndex fromParser = parseWithLineIndex(txt);
+      LineIndex fromText = LineIndex.fromText(txt);
+      assertEquals(fromText.getNumLines(), fromParser.getNumLines(), "number of lines: " + txt);
+      for (int i = 0; i < fromText.getNumLines(); i++) {
+        assertEquals(fromText.getLineStart(i), fromParser.getLineStart(i), "line start: " + txt);
+      }
+    }
+  }
+
+  @Test
+  public void testOutOfOrderNewlines() {
+    LineIndex lines = new LineIndex();
+    lines.addNewline(10);
+    lines.addNewline(3);
+    lines.addNewline(10);
+    lines.addNewline(20);
+
+    assertEquals(4, lines.getNumLines());
+    assertEquals(4, lines.getLineStart(1));
+    assertEquals(11, lines.getLineStart(2));
+    assertEquals(21, lines.getLineStart(3));
+    assertEquals(1, lines.lineOf(10));
+    assertEquals(2, lines.lineOf(11));
+  }
+}
@@ -0,0 +1,51 @@
+package com.oakmac.standardclojurestyle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+public class NodeTextWriterTest {
+  private static String bigInput() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("(ns big.example\n  (:require [clojure.string :as str]))\n\n");
+    for (int i = 0; i < 2000; i++) {
+      // non-ASCII and non-BMP chars, so encoded chunks split in the middle of a sequence
+      sb.append("(def x").append(i).append(" \"caf\u00e9 \ud83d\ude00\") ; \u00fc\n");
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testWriteToAppendable() throws Exception {
+    String input = bigInput();
+    Node root = Parser.parse(input);
+
+    StringWriter writer = new StringWriter();
+    NodeTextWriter.write(root, writer);
+    assertEquals(input, writer.toString());
+
+    StringBuilder sb = new StringBuilder();
+    NodeTextWriter.write(root, sb);
+    assertEquals(input, sb.toString());
+
+    assertEquals(input, Utils.getTextFromRootNode(root));
+  }
+
+  @Test
+  public void testWriteToChannel() throws Exception {
+    String input = bigInput();
+    Node root = Parser.parse(input);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    NodeTextWriter.write(root, Channels.newChannel(bytes));
+    assertArrayEquals(input.getBytes(StandardCharsets.UTF_8), bytes.toByteArray());
+
+    ByteArrayOutputStream empty = new ByteArrayOutputStream();
+    NodeTextWriter.write(Parser.parse(""), Channels.newChannel(empty));
+    assertEquals(0, empty.size());
+  }
+}
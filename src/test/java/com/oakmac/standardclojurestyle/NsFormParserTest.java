@@ -0,0 +1,90 @@
+package com.oakmac.standardclojurestyle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+public class NsFormParserTest {
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testParseNsTestCases() throws IOException {
+    for (Map<String, Object> testCase : TestFiles.loadTestCases("/parse_ns_tests.json")) {
+      String testName = (String) testCase.get("name");
+      Node root = Parser.parse((String) testCase.get("input"));
+      Map<String, Object> expectedObj =
+          mapper.readValue((String) testCase.get("expected"), Map.class);
+
+      if (Boolean.TRUE.equals(expectedObj.get("parsingShouldError"))) {
+        IllegalArgumentException e =
+            assertThrows(IllegalArgumentException.class, () -> NsFormParser.parse(root), testName);
+        assertEquals(expectedObj.get("errorMessage"), e.getMessage(), testName);
+        continue;
+      }
+
+      Map<String, Object> nsResult = NsFormParser.parse(root).toMap();
+      if (!Utils.deepEquals(nsResult, expectedObj)) {
+        System.out.println("NsFormParser structure does not match: " + testName);
+        System.out.println(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(nsResult));
+      }
+      assertTrue(Utils.deepEquals(nsResult, expectedObj), "parse_ns test case " + testName);
+    }
+  }
+
+  // NsFormParser and ParseNs.parseNs should agree on every ns form in the format tests
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSameResultAsParseNs() throws IOException {
+    // ParseNs.parseNs treats the ns in (defn ns ...) as an ns form
+    Set<String> skipTests = Set.of("GitHub Issue #178 - ns symbol with no ns form");
+
+    for (Map<String, Object> testCase : TestFiles.loadTestCases("/format_tests.json")) {
+      String testName = (String) testCase.get("name");
+      String input = (String) testCase.get("input");
+      if (skipTests.contains(testName) || input.contains("(:use")) continue;
+
+      Node root = Parser.parse(input);
+      Map<String, Object> expectedObj =
+          ParseNs.parseNs(Utils.flattenTree(root), LineIndex.fromText(input));
+      Map<String, Object> nsResult = NsFormParser.parse(root).toMap();
+      assertTrue(Utils.deepEquals(nsResult, expectedObj), "format test case " + testName);
+    }
+  }
+
+  @Test
+  public void testUseOutsideOfNsForm() {
+    NsForm ns = NsFormParser.parse(Parser.parse("(ns foo)\n\n(use 'bar)\n(:use baz)\n"));
+    assertEquals("foo", ns.getNsSymbol());
+    assertNull(ns.getRequires());
+  }
+
+  @Test
+  public void testDiscardedNsForm() {
+    NsForm ns = NsFormParser.parse(Parser.parse("#_(ns old)\n(ns new (:require [a.b :as ab]))"));
+    assertEquals("new", ns.getNsSymbol());
+    assertEquals("ab", ns.getRequires().get(0).getAs());
+  }
+
+  @Test
+  public void testLoadRequireFlagsAndGenClassForms() {
+    NsForm ns =
+        NsFormParser.parse(
+            Parser.parse(
+                "(ns foo\n"
+                    + "  (:require [a] :reload :verbose :reload)\n"
+                    + "  (:load \"b\" \"a\") ;; c\n"
+                    + "  (:gen-class :implements [Runnable]\n"
+                    + "    :methods [[run [] void]] :exposes {x {:get getX}}))"));
+    assertEquals(List.of(":reload", ":verbose"), ns.getRequireFlags());
+    assertEquals(List.of("\"b\"", "\"a\""), ns.getLoad().getPaths());
+    assertEquals(";; c", ns.getLoad().getCommentAfter());
+    Map<String, NsForm.GenClassValue> options = ns.getGenClass().getOptions();
+    assertEquals("[Runnable]", options.get("implements").getValue());
+    assertEquals("[[run [] void]]", options.get("methods").getValue());
+    assertEquals("{x {:get getX}}", options.get("exposes").getValue());
+  }
+}
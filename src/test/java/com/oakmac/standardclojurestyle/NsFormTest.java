@@ -0,0 +1,60 @@
+package com.oakmac.standardclojurestyle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class NsFormTest {
+  private static NsForm parse(String input) {
+    return ParseNs.parseNsForm(Utils.flattenTree(Parser.parse(input)), null);
+  }
+
+  @Test
+  public void testTypedRequires() {
+    NsForm ns =
+        parse(
+            "(ns my.app\n"
+                + "  (:require\n"
+                + "   [foo.bar :as fb :refer [z a]]\n"
+                + "   #?(:cljs [foo.bar :as fbs])\n"
+                + "   [foo :refer :all]\n"
+                + "   [foo.bar.baz :rename {y why, x ex}]))\n");
+    assertEquals("my.app", ns.getNsSymbol());
+
+    List<NsForm.Require> requires = ns.getRequires();
+    assertEquals(4, requires.size());
+    assertEquals("foo", requires.get(0).getSymbol());
+    assertTrue(requires.get(0).isReferAll());
+    assertEquals("foo.bar", requires.get(1).getSymbol());
+    assertNull(requires.get(1).getPlatform());
+    assertEquals("a", requires.get(1).getRefer().get(0).getSymbol());
+    assertEquals("foo.bar", requires.get(2).getSymbol());
+    assertEquals(":cljs", requires.get(2).getPlatform());
+    assertEquals("fbs", requires.get(2).getAs());
+    assertEquals("x", requires.get(3).getRename().get(0).getFromSymbol());
+    assertEquals("ex", requires.get(3).getRename().get(0).getToSymbol());
+  }
+
+  @Test
+  public void testPrefixSymbolsSortFirst() {
+    NsForm ns = parse("(ns a (:require [foo.bar-baz] [foo.bar] [foo.bar.a]))");
+    assertEquals("foo.bar", ns.getRequires().get(0).getSymbol());
+    assertEquals("foo.bar-baz", ns.getRequires().get(1).getSymbol());
+    assertEquals("foo.bar.a", ns.getRequires().get(2).getSymbol());
+  }
+
+  @Test
+  public void testImportsAndToMap() {
+    NsForm ns = parse("(ns a (:import (java.util Map HashMap) java.io.File))");
+    assertEquals(2, ns.getImports().size());
+    assertEquals("java.io", ns.getImports().get(0).getPackage());
+    assertEquals(List.of("HashMap", "Map"), ns.getImports().get(1).getClasses());
+    assertNull(ns.getGenClass());
+
+    assertTrue(
+        Utils.deepEquals(
+            ParseNs.parseNs(Utils.flattenTree(Parser.parse("(ns a (:import java.io.File))"))),
+            parse("(ns a (:import java.io.File))").toMap()));
+  }
+}
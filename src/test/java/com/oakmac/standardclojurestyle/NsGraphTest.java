@@ -0,0 +1,131 @@
+package com.oakmac.standardclojurestyle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class NsGraphTest {
+  @TempDir Path tmpDir;
+
+  @Test
+  public void testBuildGraph() throws Exception {
+    TestFiles.write(
+        tmpDir, "src/app/core.clj", "(ns app.core\n  (:require [app.db :as db] [app.util]))\n");
+    TestFiles.write(
+        tmpDir, "src/app/db.clj", "(ns app.db\n  (:require [app.util :refer [x]]))\n(defn q [])");
+    TestFiles.write(
+        tmpDir, "src/app/util.cljc", "(ns app.util\n  (:require #?(:cljs [goog.string])))\n");
+    TestFiles.write(
+        tmpDir, "src/app/ui.cljs", "(ns app.ui\n  (:require [\"react\" :as react] [app.util]))");
+    TestFiles.write(tmpDir, "README.md", "(ns not.clojure)");
+    TestFiles.write(tmpDir, "src/user.clj", "(println \"no ns form\")");
+
+    NsGraph graph = NsGraph.build(tmpDir, 4);
+    assertEquals(4, graph.getFiles().size());
+    assertTrue(graph.getErrors().isEmpty());
+    assertEquals(
+        Set.of("app.core", "app.db", "app.util", "app.ui", "goog.string"),
+        graph.getNamespaces());
+
+    assertEquals(Set.of("app.db", "app.util"), graph.getRequires("app.core"));
+    assertEquals(Set.of("app.core", "app.db", "app.ui"), graph.getRequiredBy("app.util"));
+    assertEquals(Set.of("app.util"), graph.getRequires("app.ui"));
+    assertEquals(Set.of("goog.string"), graph.getRequires("app.util", ":cljs"));
+    assertTrue(graph.getRequires("app.util", ":clj").isEmpty());
+    assertTrue(graph.getRequires("goog.string").isEmpty());
+
+    List<String> order = graph.topologicalOrder();
+    assertEquals(5, order.size());
+    assertTrue(order.indexOf("app.util") < order.indexOf("app.db"));
+    assertTrue(order.indexOf("app.db") < order.indexOf("app.core"));
+    assertTrue(graph.findCycles().isEmpty());
+  }
+
+  @Test
+  public void testCycles() throws Exception {
+    TestFiles.write(tmpDir, "a.clj", "(ns a (:require [b]))");
+    TestFiles.write(tmpDir, "b.clj", "(ns b (:require [c]))");
+    TestFiles.write(tmpDir, "c.clj", "(ns c (:require [a] [d]))");
+    TestFiles.write(tmpDir, "d.clj", "(ns d)");
+    TestFiles.write(tmpDir, "e.clj", "(ns e (:require [e]))");
+    TestFiles.write(tmpDir, "f.clj", "(ns f (:require [a]))");
+
+    NsGraph graph = NsGraph.build(tmpDir, 2);
+    assertEquals(
+        Arrays.asList(Arrays.asList("a", "b", "c"), Arrays.asList("e")), sortCycles(graph));
+    // namespaces in a cycle (and their dependents) have no place in the order
+    assertEquals(Arrays.asList("d"), graph.topologicalOrder());
+  }
+
+  private static List<List<String>> sortCycles(NsGraph graph) {
+    List<List<String>> cycles = graph.findCycles();
+    cycles.sort((x, y) -> x.get(0).compareTo(y.get(0)));
+    return cycles;
+  }
+
+  @Test
+  public void testPlatformPair() throws Exception {
+    TestFiles.write(tmpDir, "app/shared.clj", "(ns app.shared (:require [app.server]))");
+    TestFiles.write(tmpDir, "app/shared.cljs", "(ns app.shared (:require [app.client]))");
+    TestFiles.write(tmpDir, "app/server.cljs", "(ns app.server (:require [app.shared]))");
+    TestFiles.write(tmpDir, "app/client.cljs", "(ns app.client)");
+
+    NsGraph graph = NsGraph.build(tmpDir, 2);
+    assertEquals(4, graph.getFiles().size());
+    assertEquals(Set.of("app.server"), graph.getRequires("app.shared", ":clj"));
+    assertEquals(Set.of("app.client"), graph.getRequires("app.shared", ":cljs"));
+    for (NsGraph.Edge edge : graph.getEdges("app.shared")) {
+      assertEquals(edge.getTo().equals("app.server") ? ":clj" : ":cljs", edge.getPlatform());
+    }
+
+    // app.shared requires app.server only on :clj, app.server requires it back only on :cljs
+    assertTrue(graph.findCycles().isEmpty());
+    assertEquals(
+        Arrays.asList("app.client", "app.shared", "app.server"),
+        graph.topologicalOrder(":cljs"));
+    assertEquals(Arrays.asList("app.server", "app.shared"), graph.topologicalOrder(":clj"));
+  }
+
+  @Test
+  public void testFailuresAreIndependent() throws Exception {
+    TestFiles.write(tmpDir, "a.clj", "(ns a (:require [b]))");
+    Path missing = tmpDir.resolve("missing.clj");
+
+    NsGraph graph = NsGraph.build(Arrays.asList(tmpDir.resolve("a.clj"), missing), 2);
+    assertEquals(Set.of("b"), graph.getRequires("a"));
+    assertEquals(1, graph.getErrors().size());
+    assertTrue(graph.getErrors().containsKey(missing));
+  }
+
+  @Test
+  public void testDeeplyNestedFile() throws Exception {
+    TestFiles.write(tmpDir, "a.clj", "(ns a (:require [b]))");
+    int depth = 200000;
+    TestFiles.write(
+        tmpDir, "deep.clj", "(ns deep (:require " + "[".repeat(depth) + "]".repeat(depth) + "))");
+
+    NsGraph graph = NsGraph.build(tmpDir, 2);
+    assertEquals(Set.of("b"), graph.getRequires("a"));
+    assertEquals(Set.of(tmpDir.resolve("deep.clj")), graph.getErrors().keySet());
+  }
+
+  @Test
+  public void testLongRequireChain() throws Exception {
+    // deep enough to overflow a recursive implementation
+    int numNamespaces = 10000;
+    for (int i = 0; i < numNamespaces; i++) {
+      TestFiles.write(tmpDir, "n" + i + ".clj", "(ns n" + i + " (:require [n" + (i + 1) + "]))");
+    }
+    TestFiles.write(tmpDir, "last.clj", "(ns n" + numNamespaces + " (:require [n0]))");
+
+    NsGraph graph = NsGraph.build(tmpDir, 4);
+    List<List<String>> cycles = graph.findCycles();
+    assertEquals(1, cycles.size());
+    assertEquals(numNamespaces + 1, cycles.get(0).size());
+  }
+}
@@ -0,0 +1,116 @@
+package com.oakmac.standardclojurestyle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class NsIndexTest {
+  @TempDir Path tmpDir;
+
+  @Test
+  public void testIncrementalUpdates() throws IOException {
+    Path src = tmpDir.resolve("src");
+    Path indexFile = tmpDir.resolve("cache/ns.idx");
+    TestFiles.write(
+        tmpDir,
+        "src/app/core.clj",
+        "(ns app.core\n  (:require [app.db :as db])\n  (:import (java.util Date UUID)))");
+    Path dbFile =
+        TestFiles.write(
+            tmpDir, "src/app/db.cljc", "(ns app.db\n  (:require #?(:clj [clojure.java.jdbc])))");
+    Path utilFile =
+        TestFiles.write(tmpDir, "src/app/util.clj", "(ns app.util (:import java.io.File))");
+
+    NsIndex index = NsIndex.load(indexFile);
+    assertTrue(index.getEntries().isEmpty());
+    assertEquals(3, index.update(src));
+    index.save(indexFile);
+
+    // nothing changed
+    NsIndex loaded = NsIndex.load(indexFile);
+    assertEquals(3, loaded.getEntries().size());
+    assertEquals(0, loaded.update(src));
+    assertEquals("app.db", loaded.get("app/db.cljc").getNsSymbol());
+    assertEquals(":clj", loaded.get("app/db.cljc").getRequires().get(0).getPlatform());
+    assertEquals(Set.of("app/core.clj"), loaded.getFilesRequiring("app.db"));
+    assertEquals(Set.of("app/core.clj"), loaded.getFilesImporting("java.util"));
+    assertEquals(Set.of("app/core.clj"), loaded.getFilesImporting("java.util.UUID"));
+    assertEquals(Set.of("app/util.clj"), loaded.getFilesImporting("java.io"));
+    assertTrue(loaded.getFilesImporting("java.net").isEmpty());
+
+    // a new modification time with the same content is not parsed again
+    Files.setLastModifiedTime(utilFile, FileTime.fromMillis(1_000_000_000_000L));
+    assertEquals(0, loaded.update(src));
+    assertEquals(1_000_000_000_000L, loaded.get("app/util.clj").getLastModified());
+
+    // a change that keeps the size is parsed again
+    Files.write(utilFile, "(ns app.util (:import java.net.URI))".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(utilFile, FileTime.fromMillis(1_000_000_001_000L));
+    assertEquals(1, loaded.update(src));
+    assertEquals(Set.of("app/util.clj"), loaded.getFilesImporting("java.net.URI"));
+    assertTrue(loaded.getFilesImporting("java.io").isEmpty());
+
+    // changed, new and deleted files
+    Files.write(dbFile, "(ns app.db (:require [app.util]))".getBytes(StandardCharsets.UTF_8));
+    TestFiles.write(tmpDir, "src/app/new.cljs", "(ns app.new (:require [app.util]))");
+    Files.delete(src.resolve("app/core.clj"));
+    assertEquals(2, loaded.update(src));
+    assertEquals(3, loaded.getEntries().size());
+    assertNull(loaded.get("app/core.clj"));
+    assertTrue(loaded.getFilesRequiring("app.db").isEmpty());
+    assertEquals(Set.of("app/db.cljc", "app/new.cljs"), loaded.getFilesRequiring("app.util"));
+    loaded.save(indexFile);
+
+    assertEquals(
+        Set.of("app/db.cljc", "app/new.cljs"),
+        NsIndex.load(indexFile).getFilesRequiring("app.util"));
+  }
+
+  @Test
+  public void testFilesWithoutNsForm() throws IOException {
+    TestFiles.write(tmpDir, "src/scratch.clj", "(println \"hi\")");
+    NsIndex index = NsIndex.empty();
+    assertEquals(1, index.update(tmpDir.resolve("src")));
+    assertNull(index.get("scratch.clj").getNsSymbol());
+    assertTrue(index.get("scratch.clj").getRequires().isEmpty());
+  }
+
+  @Test
+  public void testDeeplyNestedFile() throws IOException {
+    TestFiles.write(tmpDir, "src/a.clj", "(ns a (:require [b]))");
+    int depth = 200000;
+    TestFiles.write(
+        tmpDir,
+        "src/deep.clj",
+        "(ns deep (:require " + "[".repeat(depth) + "]".repeat(depth) + "))");
+    NsIndex index = NsIndex.empty();
+    assertEquals(2, index.update(tmpDir.resolve("src")));
+    assertNull(index.get("deep.clj").getNsSymbol());
+    assertTrue(index.get("deep.clj").getRequires().isEmpty());
+    assertEquals(Set.of("a.clj"), index.getFilesRequiring("b"));
+  }
+
+  @Test
+  public void testLoadInvalidFile() throws IOException {
+    Path notAnIndex = tmpDir.resolve("bad.idx");
+    Files.write(notAnIndex, "not an index".getBytes(StandardCharsets.UTF_8));
+    assertThrows(IOException.class, () -> NsIndex.load(notAnIndex));
+
+    Path indexFile = tmpDir.resolve("ns.idx");
+    TestFiles.write(tmpDir, "src/a.clj", "(ns a (:require [b]))");
+    NsIndex index = NsIndex.empty();
+    index.update(tmpDir.resolve("src"));
+    index.save(indexFile);
+    byte[] bytes = Files.readAllBytes(indexFile);
+    Files.write(indexFile, Arrays.copyOf(bytes, bytes.length - 3));
+    assertThrows(IOException.class, () -> NsIndex.load(indexFile));
+  }
+}
@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import org.junit.jupiter.api.Test;
 
@@ -120,7 +121,103 @@ public class ParseNsTest {
   }
 
   @Test
-  public void testLookForIgnoreFile() {
-    // TODO: implement test cases for lookForIgnoreFile
+  public void testParseNsWithLineIndex() throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    List<TestCase> testCases = TestFiles.loadTestCases("/parse_ns_tests.json", TestCase.class);
+
+    // parseNs fails these without a LineIndex too: #152 is the FIXME in
+    // testBasicNamespaceParsing, which stops there before it reaches #178
+    Set<String> skipTests =
+        new HashSet<>(
+            Arrays.asList(
+                "GitHub Issue #152 - :use in the ns form should error",
+                "GitHub Issue #178 - no ns form"));
+
+    for (TestCase testCase : testCases) {
+      if (skipTests.contains(testCase.getName())) {
+        continue;
+      }
+      Map<String, Object> expectedObj = mapper.readValue(testCase.getExpected(), Map.class);
+
+      // line numbers come from the LineIndex instead of counting newline nodes
+      LineIndex lines = new LineIndex();
+      Map<String, Object> parseOpts = new HashMap<>();
+      parseOpts.put("lineIndex", lines);
+      Node parsedNodes = Parser.parse(testCase.getInput(), parseOpts);
+      Map<String, Object> nsResult = ParseNs.parseNs(Utils.flattenTree(parsedNodes), lines);
+
+      assertTrue(
+          Utils.deepEquals(nsResult, expectedObj),
+          "parse_ns test case " + testCase.getName() + " failed with a LineIndex");
+    }
+  }
+
+  @Test
+  public void testParseNsHead() throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    List<TestCase> testCases = TestFiles.loadTestCases("/parse_ns_tests.json", TestCase.class);
+
+    for (TestCase testCase : testCases) {
+      if (testCase.getName().equals("GitHub Issue #152 - :use in the ns form should error")) {
+        continue;
+      }
+      Map<String, Object> expectedObj = mapper.readValue(testCase.getExpected(), Map.class);
+      Map<String, Object> nsResult = ParseNs.parseNsHead(testCase.getInput());
+
+      assertTrue(
+          Utils.deepEquals(nsResult, expectedObj),
+          "parse_ns test case " + testCase.getName() + " failed with parseNsHead");
+    }
+  }
+
+  @Test
+  public void testParseNsHeadStopsEarly() {
+    String nsForm = "(ns foo.bar\n  (:require [baz.qux :as q]))\n";
+    // an unclosed form further down the file should never be reached
+    String input = nsForm + "\n(defn a []\n  (q/b)\n\n(def c \"unclosed";
+    Map<String, Object> nsResult = ParseNs.parseNsHead(input);
+    assertEquals("foo.bar", nsResult.get("nsSymbol"));
+    assertTrue(
+        Utils.deepEquals(ParseNs.parseNs(Utils.flattenTree(Parser.parse(nsForm))), nsResult));
+
+    assertNull(ParseNs.parseNsHead("(defn ns [] 1)\n(ns not.this.one)").get("nsSymbol"));
+    assertNull(ParseNs.parseNsHead("").get("nsSymbol"));
+    assertEquals("x", ParseNs.parseNsHead("; header\n#_(ignored)\n\n(ns x)").get("nsSymbol"));
+  }
+
+  private static void assertIgnoreFile(boolean expected, String input) {
+    assertEquals(expected, ParseNs.lookForIgnoreFile(input), input);
+    assertEquals(
+        expected, ParseNs.lookForIgnoreFile(Utils.flattenTree(Parser.parse(input))), input);
+    assertEquals(
+        expected, ParseNs.lookForIgnoreFileUtf8(input.getBytes(StandardCharsets.UTF_8)), input);
+  }
+
+  @Test
+  public void testLookForIgnoreFile() throws IOException {
+    List<TestCase> testCases = TestFiles.loadTestCases("/format_tests.json", TestCase.class);
+
+    // the ignore-file format tests leave their input untouched when the file is ignored
+    int numChecked = 0;
+    for (TestCase testCase : testCases) {
+      if (testCase.getName().startsWith(":standard-clj/ignore-file")) {
+        assertIgnoreFile(testCase.getInput().equals(testCase.getExpected()), testCase.getInput());
+        numChecked++;
+      }
+    }
+    assertEquals(9, numChecked);
+
+    assertIgnoreFile(false, "");
+    assertIgnoreFile(false, "#_");
+    assertIgnoreFile(false, "(ns foo)\n#_ :standard-clj/ignore-file");
+    assertIgnoreFile(false, "\"#_ :standard-clj/ignore-file\"\n(ns foo)");
+    assertIgnoreFile(false, "#_ :standard-clj/ignore-files\n(ns foo)");
+    assertIgnoreFile(false, "#_ {:foo true}\n(ns foo)");
+    assertIgnoreFile(true, "; caf\u00e9\n(comment \"(ns x)\")\n#_:standard-clj/ignore-file");
+    // only a top-level (ns) form stops the search
+    assertIgnoreFile(true, "(defn ns [] 1)\n#_ :standard-clj/ignore-file\n(ns foo)");
+    assertIgnoreFile(true, "(let [ns 1]\n  (ns))\n#_ :standard-clj/ignore-file");
+    assertIgnoreFile(false, "#_(ns foo)\n#_ :standard-clj/ignore-file");
+    assertIgnoreFile(false, "( ns foo)\n#_ :standard-clj/ignore-file");
   }
 }
@@ -5,6 +5,9 @@ import static org.junit.jupiter.api.Assertions.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -592,4 +595,169 @@ public class ParserTest {
       fail("Failed to read parser_tests.json: " + e.getMessage());
     }
   }
+
+  // compares a tree parsed from a String with the same tree parsed from UTF-8 bytes
+  private static void assertSameTree(Node expected, Node actual, Utf8Source src) {
+    assertEquals(expected.getName(), actual.getName(), "Node names should match");
+    assertEquals(expected.getText(), actual.getText(), "Node text should match");
+    assertEquals(expected.getStartIdx(), src.charIndex(actual.getStartIdx()), "startIdx");
+    assertEquals(expected.getEndIdx(), src.charIndex(actual.getEndIdx()), "endIdx");
+
+    List<Node> expectedChildren = expected.getChildren();
+    List<Node> actualChildren = actual.getChildren();
+    if (expectedChildren == null) {
+      assertNull(actualChildren, "Node should not have children");
+      return;
+    }
+    assertEquals(expectedChildren.size(), actualChildren.size(), "Number of children");
+    for (int i = 0; i < expectedChildren.size(); i++) {
+      assertSameTree(expectedChildren.get(i), actualChildren.get(i), src);
+    }
+  }
+
+  @Test
+  public void testParseUtf8MatchesStringParse() throws IOException {
+    List<TestCase> testCases = TestFiles.loadTestCases("/parser_tests.json", TestCase.class);
+
+    for (TestCase testCase : testCases) {
+      String input = testCase.getInput();
+      Utf8Source src = Utf8Source.wrap(input.getBytes(StandardCharsets.UTF_8));
+      assertSameTree(Parser.parse(input), Parser.parse(src), src);
+    }
+  }
+
+  @Test
+  public void testParseUtf8ByteOffsets() {
+    String input = "(str \"h\u00e9llo \ud83d\udc41\")\u2028;; \u00fc\n:bar";
+    byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+    Node root = Parser.parseUtf8(bytes);
+
+    assertEquals("source", root.getName());
+    assertEquals(bytes.length, root.getEndIdx(), "Offsets should be byte offsets");
+
+    List<Node> children = root.getChildren();
+    assertEquals(5, children.size());
+    assertEquals("parens", children.get(0).getName());
+    assertEquals("whitespace", children.get(1).getName());
+    assertEquals("\u2028", children.get(1).getText(), "Unicode whitespace is one node");
+    assertEquals(3, children.get(1).getEndIdx() - children.get(1).getStartIdx());
+    assertEquals("comment", children.get(2).getName());
+    assertEquals(";; \u00fc", children.get(2).getText());
+    assertEquals(":bar", children.get(4).getText());
+
+    Node stringNode = children.get(0).getChildren().get(1).getChildren().get(2);
+    assertEquals("string", stringNode.getName());
+    Node body = stringNode.getChildren().get(1);
+    assertEquals("h\u00e9llo \ud83d\udc41", body.getText());
+    assertEquals(6, body.getStartIdx());
+    assertEquals(17, body.getEndIdx());
+
+    Utf8Source src = Utf8Source.wrap(bytes);
+    assertEquals(6, src.charIndex(body.getStartIdx()));
+    assertEquals(14, src.charIndex(body.getEndIdx()));
+    assertEquals(input.length(), src.charIndex(bytes.length));
+  }
+
+  @Test
+  public void testParseMappedFile() throws IOException {
+    Path tmpFile = Files.createTempFile("parser-test", ".clj");
+    try {
+      String input = "(ns foo)\n\n(def \u00df 1)\n";
+      Files.write(tmpFile, input.getBytes(StandardCharsets.UTF_8));
+      Utf8Source src = Utf8Source.map(tmpFile);
+      Node root = Parser.parse(src);
+
+      assertEquals(input, Utils.getTextFromRootNode(root));
+      assertEquals(input.length() + 1, root.getEndIdx(), "Offsets should be byte offsets");
+      assertSameTree(Parser.parse(input), root, src);
+    } finally {
+      Files.delete(tmpFile);
+    }
+  }
+
+  private static List<Node> nodesNamed(Node root, String name) {
+    List<Node> nodes = new ArrayList<>();
+    for (Node n : Utils.flattenTree(root)) {
+      if (name.equals(n.getName())) nodes.add(n);
+    }
+    return nodes;
+  }
+
+  @Test
+  public void testSkipIgnoredForms() {
+    String ignoredForm = "[\"]\" \\] ; ]\n {:a #{1 2}} #\"[\"]";
+    String input = "(let [a 1\n      b #_ :standard-clj/ignore\n  " + ignoredForm + "\n      c 3])";
+    Map<String, Object> opts = new HashMap<>();
+    opts.put("skipIgnoredForms", true);
+    LineIndex lines = new LineIndex();
+    opts.put("lineIndex", lines);
+    Node root = Parser.parse(input, opts);
+
+    List<Node> ignored = nodesNamed(root, "ignored");
+    assertEquals(1, ignored.size());
+    assertEquals("\n  " + ignoredForm, ignored.get(0).getText());
+    assertNull(ignored.get(0).getChildren());
+    assertEquals(input, Utils.getTextFromRootNode(root));
+    assertEquals(LineIndex.fromText(input).getNumLines(), lines.getNumLines());
+
+    // the ignored Node takes the place of the whitespace and form after the discard
+    for (Node n : Utils.flattenTree(root)) {
+      List<Node> children = n.getChildren();
+      if (children != null && children.contains(ignored.get(0))) {
+        int ignoredIdx = children.indexOf(ignored.get(0));
+        assertEquals("discard", children.get(ignoredIdx - 1).getName());
+        assertEquals("whitespace", children.get(ignoredIdx + 1).getName());
+      }
+    }
+    assertEquals("c", nodesNamed(root, "token").get(5).getText());
+
+    // the option is off by default
+    Node fullRoot = Parser.parse(input);
+    assertTrue(nodesNamed(fullRoot, "ignored").isEmpty());
+    assertEquals(input, Utils.getTextFromRootNode(fullRoot));
+  }
+
+  @Test
+  public void testSkipIgnoredFormsVariants() {
+    Map<String, Object> opts = new HashMap<>();
+    opts.put("skipIgnoredForms", true);
+
+    Node root = Parser.parse("#_{:standard-clj/ignore true}\n(a\nb)\n(c)", opts);
+    assertEquals("\n(a\nb)", nodesNamed(root, "ignored").get(0).getText());
+    assertEquals("c", nodesNamed(root, "token").get(2).getText());
+
+    root = Parser.parse("#_:standard-clj/ignore :foo :bar", opts);
+    assertEquals(" :foo", nodesNamed(root, "ignored").get(0).getText());
+
+    // not an ignore directive
+    assertTrue(nodesNamed(Parser.parse("#_ :foo (a)", opts), "ignored").isEmpty());
+    assertTrue(
+        nodesNamed(Parser.parse("#_{:standard-clj/ignore false} (a)", opts), "ignored")
+            .isEmpty());
+    // reader macro prefixes and metadata are part of the ignored form
+    List<String> prefixedForms =
+        List.of(
+            "'(a\n  b)",
+            "`(a\n ~b ~@c)",
+            "~(a\n b)",
+            "~@(a\n b)",
+            "@(a\n b)",
+            "#'a",
+            "^:private (def a\n 1)",
+            "^{:a 1}\n^:b [c\n d]",
+            "#^String s",
+            "#inst \"2024-01-01\"",
+            "' ; c\n(a)");
+    for (String form : prefixedForms) {
+      root = Parser.parse("#_:standard-clj/ignore " + form + "\n(c)", opts);
+      assertEquals(" " + form, nodesNamed(root, "ignored").get(0).getText(), form);
+      assertEquals("c", Utils.arrayLast(nodesNamed(root, "token")).getText(), form);
+    }
+
+    // a discard after the directive and unclosed forms are parsed normally
+    assertTrue(nodesNamed(Parser.parse("#_:standard-clj/ignore #_a b", opts), "ignored").isEmpty());
+    root = Parser.parse("#_:standard-clj/ignore (a", opts);
+    assertTrue(nodesNamed(root, "ignored").isEmpty());
+    assertEquals("#_:standard-clj/ignore (a", Utils.getTextFromRootNode(root));
+  }
 }
@@ -2,6 +2,390 @@ package com.oakmac.standardclojurestyle;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
 class StandardClojureStyleTest {
   private final StandardClojureStyle scsLib = new StandardClojureStyle();
+  @TempDir Path tmpDir;
+
+  @Test
+  public void testFormatTestCases() throws IOException {
+    List<String> failures = new ArrayList<>();
+    for (Map<String, Object> testCase : TestFiles.loadTestCases("/format_tests.json")) {
+      String testName = (String) testCase.get("name");
+      String expected = (String) testCase.get("expected");
+      Map<String, Object> result = scsLib.format((String) testCase.get("input"));
+      if (!"success".equals(result.get("status")) || !expected.equals(result.get("out"))) {
+        failures.add(testName);
+        System.out.println("=== format test case failed: " + testName);
+        System.out.println(result.get("status").equals("success") ? result.get("out") : result);
+      }
+    }
+    assertEquals(Collections.emptyList(), failures);
+  }
+
+  @Test
+  public void testFormatIsIdempotent() throws IOException {
+    for (Map<String, Object> testCase : TestFiles.loadTestCases("/format_tests.json")) {
+      String expected = (String) testCase.get("expected");
+      assertEquals(expected, scsLib.format(expected).get("out"), (String) testCase.get("name"));
+    }
+  }
+
+  @Test
+  public void testCommentAfterNsForm() {
+    String input = "(ns foo\n  (:require\n   [bar])) ; keep me";
+    assertEquals(input, scsLib.format(input).get("out"));
+    assertEquals(
+        "(ns foo\n  (:require\n   [a] ; a\n   [b]))\n(def c 1)",
+        scsLib.format("(ns foo\n  (:require\n   [b]\n   [a])) ; a\n(def c 1)").get("out"));
+    assertEquals(
+        "(ns foo\n  (:require\n   [a])) #_ {:x\n 1}\n(def b\n  1)",
+        scsLib.format("(ns foo\n (:require [a])) #_ {:x\n 1}\n(def b\n1)").get("out"));
+  }
+
+  @Test
+  public void testIgnoredFormWithPrefix() {
+    for (String form : List.of("'(a\n        b)", "`(a\n   ~b)", "^:private (def a\n      1)")) {
+      String input = "#_:standard-clj/ignore\n" + form + "\n(c\nd)";
+      assertEquals(
+          "#_:standard-clj/ignore\n" + form + "\n(c\n  d)", scsLib.format(input).get("out"), form);
+    }
+  }
+
+  @Test
+  public void testNsFormKeepsAllCode() {
+    assertEquals(
+        "(ns foo\n  (:load \"bar\"))", scsLib.format("(ns foo (:load \"bar\"))").get("out"));
+    assertEquals(
+        "(ns foo\n  (:require\n   [a]\n   [b]\n   :reload-all))",
+        scsLib.format("(ns foo (:require [b] :reload-all [a]))").get("out"));
+    assertEquals(
+        "(ns foo\n"
+            + "  (:gen-class\n"
+            + "   :name foo.Bar\n"
+            + "   :implements [java.lang.Runnable\n"
+            + "                clojure.lang.IDeref]\n"
+            + "   :constructors {[String] []}\n"
+            + "   :methods [[foo [] void]\n"
+            + "             [bar [int]\n"
+            + "              String]]\n"
+            + "   :exposes {x {:get getX :set setX}}\n"
+            + "   :exposes-methods {foo superFoo}))",
+        scsLib
+            .format(
+                "(ns foo\n"
+                    + "  (:gen-class :name foo.Bar\n"
+                    + "    :implements [java.lang.Runnable\n"
+                    + "   clojure.lang.IDeref]\n"
+                    + "    :methods [[foo [] void]\n"
+                    + "              [bar [int]\n"
+                    + "       String]]\n"
+                    + "    :constructors {[String] []}\n"
+                    + "    :exposes {x {:get getX :set setX}}\n"
+                    + "    :exposes-methods {foo superFoo}))")
+            .get("out"));
+
+    // code that the ns form printer does not know about keeps the ns form as it is
+    String input = "(ns foo (:require [b] [a])\n    (:refer-global :only [Date]))\n(def a\n1)";
+    assertEquals(
+        "(ns foo (:require [b] [a])\n    (:refer-global :only [Date]))\n(def a\n  1)",
+        scsLib.format(input).get("out"));
+    input = "(ns foo\n  (:gen-class :implements #?(:clj [Runnable])))";
+    assertEquals(input, scsLib.format(input).get("out"));
+  }
+
+  private void assertCheckMatchesFormat(String input, String testName) {
+    String formatted = (String) scsLib.format(input).get("out");
+    Map<String, Object> result = scsLib.check(input);
+    if (input.equals(formatted)) {
+      assertEquals("unchanged", result.get("status"), testName);
+      return;
+    }
+    int diffIdx = 0;
+    while (diffIdx < input.length()
+        && diffIdx < formatted.length()
+        && input.charAt(diffIdx) == formatted.charAt(diffIdx)) {
+      diffIdx++;
+    }
+    assertEquals("changed", result.get("status"), testName);
+    assertEquals(diffIdx, result.get("offset"), testName);
+  }
+
+  @Test
+  public void testCheckTestCases() throws IOException {
+    for (Map<String, Object> testCase : TestFiles.loadTestCases("/format_tests.json")) {
+      String testName = (String) testCase.get("name");
+      assertCheckMatchesFormat((String) testCase.get("input"), testName);
+      assertCheckMatchesFormat((String) testCase.get("expected"), testName);
+    }
+  }
+
+  @Test
+  public void testCheck() {
+    Map<String, Object> result = scsLib.check("(ns foo)\n\n(def a\n1)");
+    assertEquals("changed", result.get("status"));
+    assertEquals(17, result.get("offset"));
+    assertEquals(4, result.get("line"));
+
+    // output that is a prefix of the input
+    assertEquals(7, scsLib.check("(def a)   ").get("offset"));
+    assertEquals("unchanged", scsLib.check("(def a)\n").get("status"));
+    assertEquals("error", scsLib.check("(def a))").get("status"));
+
+    // the forms after the first difference are not parsed: this one would overflow the stack
+    int depth = 200000;
+    String deep = "(def a\n1)\n" + "[".repeat(depth) + "]".repeat(depth);
+    assertEquals(7, scsLib.check(deep).get("offset"));
+  }
+
+  @Test
+  public void testTrailingNewline() {
+    assertEquals("(def a\n  1)\n", scsLib.format("(def a\n1)\n\n\n").get("out"));
+    assertEquals("(def a 1)", scsLib.format("\n\n(def a 1)").get("out"));
+  }
+
+  @Test
+  public void testIgnoreFile() {
+    String input = "#_:standard-clj/ignore-file\n(def   a\n1)";
+    Map<String, Object> result = scsLib.format(input);
+    assertEquals("success", result.get("status"));
+    assertEquals(input, result.get("out"));
+    assertEquals(true, result.get("fileWasIgnored"));
+  }
+
+  @Test
+  public void testErrors() {
+    Map<String, Object> useResult = scsLib.format("(ns foo (:use [bar]))");
+    assertEquals("error", useResult.get("status"));
+    assertEquals(
+        "Standard Clojure Style does not support :use inside of the ns form. "
+            + "Please refactor with :require as appropriate.",
+        useResult.get("reason"));
+
+    assertEquals("error", scsLib.format("(def a 1))").get("status"));
+    assertEquals("error", scsLib.format("(def a (b 1)").get("status"));
+  }
+
+  @SuppressWarnings("unchecked")
+  static String applyEdits(String input, Map<String, Object> result) {
+    assertEquals("success", result.get("status"));
+    List<StandardClojureStyle.TextEdit> edits =
+        (List<StandardClojureStyle.TextEdit>) result.get("edits");
+    String out = input;
+    for (int i = edits.size() - 1; i >= 0; i--) {
+      if (i > 0) {
+        StandardClojureStyle.TextEdit prev = edits.get(i - 1);
+        assertTrue(prev.getOffset() + prev.getLength() < edits.get(i).getOffset());
+      }
+      out = edits.get(i).apply(out);
+    }
+    return out;
+  }
+
+  @Test
+  public void testFormatEdits() throws IOException {
+    for (Map<String, Object> testCase : TestFiles.loadTestCases("/format_tests.json")) {
+      String testName = (String) testCase.get("name");
+      String input = (String) testCase.get("input");
+      String expected = (String) testCase.get("expected");
+      assertEquals(scsLib.format(input).get("out"), applyEdits(input, scsLib.formatEdits(input)));
+      assertEquals(
+          scsLib.format(expected).get("out"),
+          applyEdits(expected, scsLib.formatEdits(expected)),
+          testName);
+    }
+
+    Map<String, Object> result = scsLib.formatEdits("(def a\n1)\n(def b\n2)");
+    assertEquals(
+        "[TextEdit{offset=7, length=0, replacement=  }, "
+            + "TextEdit{offset=17, length=0, replacement=  }]",
+        result.get("edits").toString());
+    assertEquals(Collections.emptyList(), scsLib.formatEdits("(def a\n  1)\n").get("edits"));
+    // a closer that moves up past a comment
+    String input = "(foo ;; c\n)\n(bar)";
+    assertEquals("(foo) ;; c\n(bar)", applyEdits(input, scsLib.formatEdits(input)));
+    assertEquals("error", scsLib.formatEdits("(def a))").get("status"));
+  }
+
+  private String applyRange(String input, Map<String, Object> result) {
+    assertEquals("success", result.get("status"));
+    return input.substring(0, (Integer) result.get("start"))
+        + result.get("out")
+        + input.substring((Integer) result.get("end"));
+  }
+
+  @Test
+  public void testFormatRange() {
+    String input = "(def a\n1)\n\n\n(def b\n2)\n(def c\n3)";
+    int bIdx = input.indexOf("(def b");
+    Map<String, Object> result = scsLib.formatRange(input, bIdx + 2, bIdx + 4);
+    assertEquals(bIdx, result.get("start"));
+    assertEquals(bIdx + 9, result.get("end"));
+    assertEquals("(def b\n  2)", result.get("out"));
+    assertEquals("(def a\n1)\n\n\n(def b\n  2)\n(def c\n3)", applyRange(input, result));
+
+    // an empty range formats the form around it
+    assertEquals(result, scsLib.formatRange(input, bIdx + 8, bIdx + 8));
+    assertEquals(
+        "(def a\n  1)\n\n(def b\n  2)\n(def c\n3)",
+        applyRange(input, scsLib.formatRange(input, 0, bIdx + 1)));
+    assertEquals(
+        "(def a\n1)\n\n\n(def b\n  2)\n(def c\n  3)",
+        applyRange(input, scsLib.formatLineRange(input, 6, 7)));
+
+    // nothing to format between the forms
+    result = scsLib.formatRange(input, bIdx - 2, bIdx - 1);
+    assertEquals(input, applyRange(input, result));
+    assertEquals("\n", result.get("out"));
+
+    // whole lines: the form before on the same line and the comment after it
+    input = "  (def a 1) (def b\n2) ;; two\n(def c\n3)";
+    result = scsLib.formatRange(input, input.indexOf("b"), input.indexOf("b") + 1);
+    assertEquals(
+        "(def a 1) (def b\n            2) ;; two\n(def c\n3)", applyRange(input, result));
+
+    assertEquals("error", scsLib.formatRange("(def a))\n(def b)", 0, 3).get("status"));
+    assertEquals("success", scsLib.formatRange("(def a))\n(def b)", 9, 10).get("status"));
+    assertThrows(IllegalArgumentException.class, () -> scsLib.formatRange("(def a)", 3, 10));
+  }
+
+  @Test
+  public void testFormatRangeMatchesFormat() throws IOException {
+    for (Map<String, Object> testCase : TestFiles.loadTestCases("/format_tests.json")) {
+      String name = (String) testCase.get("name");
+      String expected = (String) testCase.get("expected");
+      for (String txt : List.of((String) testCase.get("input"), expected)) {
+        Map<String, Object> formatted = scsLib.format(txt);
+        if (!"success".equals(formatted.get("status"))
+            || Boolean.TRUE.equals(formatted.get("fileWasIgnored"))) {
+          continue;
+        }
+        assertEquals(
+            formatted.get("out"), applyRange(txt, scsLib.formatRange(txt, 0, txt.length())), name);
+      }
+
+      // any single line of formatted code is already formatted
+      int lineCount = expected.split("\n", -1).length;
+      for (int lineNo = 1; lineNo <= lineCount; lineNo++) {
+        Map<String, Object> result = scsLib.formatLineRange(expected, lineNo, lineNo);
+        if ("success".equals(result.get("status"))) {
+          assertEquals(expected, applyRange(expected, result), name + " line " + lineNo);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFormatRangeCommentAlignment() {
+    // comment lines are indented from the form before them, as format() does
+    String input = "(foo bar\n  baz\n  biz)\n  ; aaa\n  ; bbb";
+    String formatted = (String) scsLib.format(input).get("out");
+    assertEquals("(foo bar\n  baz\n  biz)\n  ; aaa\n  ; bbb", formatted);
+    assertEquals(formatted, applyRange(input, scsLib.formatLineRange(input, 4, 4)));
+    assertEquals(formatted, applyRange(input, scsLib.formatLineRange(input, 5, 5)));
+    assertEquals(formatted, applyRange(input, scsLib.formatLineRange(input, 4, 5)));
+
+    // trailing commas are removed like format() removes them
+    assertEquals("(aaa)", applyRange("(aaa),", scsLib.formatRange("(aaa),", 0, 6)));
+  }
+
+  @Test
+  public void testDeepNesting() {
+    int depth = 1000;
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < depth; i++) input.append("[\n");
+    for (int i = 0; i < depth; i++) input.append("\n]");
+    assertEquals("[".repeat(depth) + "]".repeat(depth), scsLib.format(input.toString()).get("out"));
+  }
+
+  @Test
+  public void testFormatSources() throws Exception {
+    Map<String, String> sources = new LinkedHashMap<>();
+    sources.put("a.clj", "(def a\n1)");
+    sources.put("b.clj", "(def b 2)");
+    sources.put("c.clj", "(def c))");
+    sources.put("d.clj", "#_:standard-clj/ignore-file\n(def  d)");
+    sources.put("e.clj", "(ns e (:use [f]))");
+
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      // a limit smaller than any source runs them one at a time
+      for (long maxInFlight : new long[] {1, 1000}) {
+        List<StandardClojureStyle.BatchResult> results =
+            scsLib.formatSources(sources, executor, maxInFlight);
+        assertEquals(5, results.size());
+        assertEquals("a.clj", results.get(0).getName());
+        assertEquals("changed", results.get(0).getStatus());
+        assertEquals("(def a\n  1)", results.get(0).getOut());
+        assertEquals("unchanged", results.get(1).getStatus());
+        assertNull(results.get(1).getOut());
+        assertEquals("error", results.get(2).getStatus());
+        assertNotNull(results.get(2).getReason());
+        assertEquals("unchanged", results.get(3).getStatus());
+        assertTrue(results.get(3).getFileWasIgnored());
+        assertEquals("error", results.get(4).getStatus());
+        for (StandardClojureStyle.BatchResult result : results) {
+          assertTrue(result.getNanos() >= 0);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testFormatFiles() throws Exception {
+    Path changed = tmpDir.resolve("changed.clj");
+    Path unchanged = tmpDir.resolve("unchanged.clj");
+    Path missing = tmpDir.resolve("missing.clj");
+    Files.write(changed, "(def a\n1)\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(unchanged, "(def b 2)\n".getBytes(StandardCharsets.UTF_8));
+    List<Path> paths = Arrays.asList(changed, missing, unchanged);
+
+    // check only
+    List<StandardClojureStyle.BatchResult> results = scsLib.formatFiles(paths, false);
+    assertEquals("changed", results.get(0).getStatus());
+    assertEquals("error", results.get(1).getStatus());
+    assertEquals("unchanged", results.get(2).getStatus());
+    assertEquals("(def a\n1)\n", new String(Files.readAllBytes(changed), StandardCharsets.UTF_8));
+
+    results = scsLib.formatFiles(paths, true);
+    assertEquals("changed", results.get(0).getStatus());
+    assertEquals(changed.toString(), results.get(0).getName());
+    assertNull(results.get(0).getOut());
+    assertEquals(
+        "(def a\n  1)\n", new String(Files.readAllBytes(changed), StandardCharsets.UTF_8));
+    assertEquals("unchanged", scsLib.formatFiles(paths, true).get(0).getStatus());
+  }
+
+  @Test
+  public void testBatchDeeplyNested() throws Exception {
+    // deep enough to overflow the stack of a pool thread
+    int depth = 200000;
+    String deepTxt = "[".repeat(depth) + "]".repeat(depth);
+    Map<String, String> sources = new LinkedHashMap<>();
+    sources.put("deep.edn", deepTxt);
+    sources.put("a.clj", "(def a 1)");
+    List<StandardClojureStyle.BatchResult> results = scsLib.formatSources(sources);
+    assertEquals("error", results.get(0).getStatus());
+    assertEquals("too deeply nested to format", results.get(0).getReason());
+    assertEquals("unchanged", results.get(1).getStatus());
+
+    Path deep = tmpDir.resolve("deep.edn");
+    Files.write(deep, deepTxt.getBytes(StandardCharsets.UTF_8));
+    for (boolean writeChanges : new boolean[] {false, true}) {
+      results = scsLib.formatFiles(Arrays.asList(deep), writeChanges);
+      assertEquals("error", results.get(0).getStatus());
+      assertEquals(deep.toString(), results.get(0).getName());
+    }
+  }
 }
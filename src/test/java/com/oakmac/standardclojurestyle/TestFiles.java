@@ -0,0 +1,51 @@
+package com.oakmac.standardclojurestyle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/** Helpers shared by the tests: UTF-8 files in a temporary directory, and the JSON test cases. */
+final class TestFiles {
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private TestFiles() {}
+
+  /** Writes content to dir/relPath as UTF-8, creating its parent directories. */
+  static Path write(Path dir, String relPath, String content) throws IOException {
+    Path path = dir.resolve(relPath);
+    Files.createDirectories(path.getParent());
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    return path;
+  }
+
+  /** Reads a UTF-8 file. */
+  static String read(Path path) throws IOException {
+    return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+  }
+
+  /** Loads a JSON array of test cases from a resource, ie: "/format_tests.json". */
+  static List<Map<String, Object>> loadTestCases(String resourceName) throws IOException {
+    return load(resourceName, Map.class);
+  }
+
+  /** Loads a JSON array of test cases from a resource as instances of testCaseClass. */
+  static <T> List<T> loadTestCases(String resourceName, Class<T> testCaseClass)
+      throws IOException {
+    return load(resourceName, testCaseClass);
+  }
+
+  private static <T> T load(String resourceName, Class<?> testCaseClass) throws IOException {
+    try (InputStream inputStream = TestFiles.class.getResourceAsStream(resourceName)) {
+      assertNotNull(inputStream, "Could not load " + resourceName);
+      return mapper.readValue(
+          inputStream, mapper.getTypeFactory().constructCollectionType(List.class, testCaseClass));
+    }
+  }
+}
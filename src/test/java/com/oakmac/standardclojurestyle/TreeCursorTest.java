@@ -0,0 +1,127 @@
+package com.oakmac.standardclojurestyle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class TreeCursorTest {
+  private static final String SAMPLE =
+      "(ns foo.bar\n  (:require [baz :as b]))\n\n#_(skip me) ^:meta {:a [1 #{2}]} ; comment\n";
+
+  private static void appendPreorder(Node n, List<Node> out) {
+    out.add(n);
+    if (n.getChildren() != null) {
+      for (Node child : n.getChildren()) {
+        appendPreorder(child, out);
+      }
+    }
+  }
+
+  @Test
+  public void testPreorderMatchesRecursiveWalk() {
+    Node root = Parser.parse(SAMPLE);
+    List<Node> expected = new ArrayList<>();
+    appendPreorder(root, expected);
+
+    List<Node> actual = new ArrayList<>();
+    TreeCursor cursor = new TreeCursor(root);
+    while (cursor.next()) {
+      actual.add(cursor.node());
+    }
+    assertEquals(expected, actual);
+    assertNull(cursor.node());
+    assertFalse(cursor.next(), "cursor should stay finished");
+
+    // the same cursor can be reused for another tree
+    Node other = Parser.parse("[a (b c)]");
+    List<Node> expectedOther = new ArrayList<>();
+    appendPreorder(other, expectedOther);
+    List<Node> actualOther = new ArrayList<>();
+    cursor.reset(other);
+    while (cursor.next()) {
+      actualOther.add(cursor.node());
+    }
+    assertEquals(expectedOther, actualOther);
+  }
+
+  @Test
+  public void testEnterAndExitAreBalanced() {
+    Node root = Parser.parse(SAMPLE);
+    List<Node> stack = new ArrayList<>();
+    int numEnters = 0;
+    TreeCursor cursor = new TreeCursor(root);
+    int event = cursor.step();
+    while (event != TreeCursor.DONE) {
+      if (event == TreeCursor.ENTER) {
+        assertEquals(stack.size(), cursor.depth());
+        stack.add(cursor.node());
+        numEnters++;
+      } else {
+        assertSame(stack.remove(stack.size() - 1), cursor.node());
+        assertEquals(stack.size(), cursor.depth());
+      }
+      event = cursor.step();
+    }
+    assertTrue(stack.isEmpty());
+    assertEquals(Utils.flattenTree(root).size(), numEnters);
+  }
+
+  @Test
+  public void testSkipChildren() {
+    Node root = Parser.parse("(a (b c) d)");
+    List<String> texts = new ArrayList<>();
+    TreeCursor cursor = new TreeCursor(root);
+    while (cursor.next()) {
+      Node n = cursor.node();
+      if (n.getName().equals("parens") && cursor.depth() > 2) {
+        texts.add("<skipped>");
+        cursor.skipChildren();
+      } else if (Utils.nodeContainsText(n)) {
+        texts.add(n.getText());
+      }
+    }
+    assertEquals(List.of("(", "a", " ", "<skipped>", " ", "d", ")"), texts);
+  }
+
+  @Test
+  public void testWalkWithSeveralVisitors() {
+    Node root = Parser.parse(SAMPLE);
+    StringBuilder allText = new StringBuilder();
+    List<String> outsideDiscard = new ArrayList<>();
+    int[] numExits = new int[2];
+
+    INodeVisitor textVisitor =
+        new INodeVisitor() {
+          public boolean enter(Node n, int depth) {
+            if (n.getText() != null) allText.append(n.getText());
+            return true;
+          }
+
+          public void exit(Node n, int depth) {
+            numExits[0]++;
+          }
+        };
+    INodeVisitor tokenVisitor =
+        new INodeVisitor() {
+          public boolean enter(Node n, int depth) {
+            if (Utils.isTokenNode(n)) outsideDiscard.add(n.getText());
+            return !Utils.isReaderCommentNode(n);
+          }
+
+          public void exit(Node n, int depth) {
+            numExits[1]++;
+          }
+        };
+
+    new TreeCursor().walk(root, textVisitor, tokenVisitor);
+
+    assertEquals(SAMPLE, allText.toString());
+    assertEquals(Utils.getTextFromRootNode(root), allText.toString());
+    assertFalse(outsideDiscard.contains("skip"));
+    assertTrue(outsideDiscard.contains("baz"));
+    assertEquals(Utils.flattenTree(root).size(), numExits[0]);
+    assertTrue(numExits[1] < numExits[0]);
+  }
+}
@@ -0,0 +1,88 @@
+package com.oakmac.standardclojurestyle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class WatcherTest {
+  @TempDir Path tmpDir;
+
+  private final BlockingQueue<List<StandardClojureStyle.BatchResult>> batches =
+      new LinkedBlockingQueue<>();
+
+  // Returns the results of the next batch for the files that were not known to be formatted, eg:
+  // skips the events caused by fixing files
+  private List<StandardClojureStyle.BatchResult> nextBatch() throws InterruptedException {
+    while (true) {
+      List<StandardClojureStyle.BatchResult> batch = batches.poll(10, TimeUnit.SECONDS);
+      assertNotNull(batch, "no batch");
+      batch.removeIf(StandardClojureStyle.BatchResult::isCached);
+      if (!batch.isEmpty()) return batch;
+    }
+  }
+
+  @Test
+  public void testWatch() throws Exception {
+    Path src = tmpDir.resolve("src");
+    Path a = TestFiles.write(tmpDir, "src/a.clj", "(def a 1)\n");
+    TestFiles.write(tmpDir, "src/b/b.cljs", "(def b 2)\n");
+
+    Watcher watcher =
+        new Watcher(
+            Arrays.asList(src),
+            Cli.DEFAULT_EXTENSIONS,
+            new StandardClojureStyle(),
+            true,
+            FormatCache.empty(),
+            Duration.ofMillis(100),
+            (files, results, nanos) -> batches.add(new ArrayList<>(results)));
+    assertEquals(2, watcher.getNumWatchedDirs());
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                watcher.run();
+              } catch (InterruptedException e) {
+                // done
+              }
+            });
+    thread.start();
+    try {
+      // a burst of saves is one batch, with every file once
+      for (int i = 0; i < 5; i++) {
+        TestFiles.write(tmpDir, "src/a.clj", "(def a\n" + i + ")\n");
+        TestFiles.write(tmpDir, "src/notes.txt", "(def   c)");
+      }
+      List<StandardClojureStyle.BatchResult> batch = nextBatch();
+      assertEquals(1, batch.size());
+      assertEquals(a.toAbsolutePath().toString(), batch.get(0).getName());
+      assertEquals("changed", batch.get(0).getStatus());
+      assertEquals("(def a\n  4)\n", TestFiles.read(a));
+
+      // files in new directories
+      Path c = TestFiles.write(tmpDir, "src/c/d/c.cljc", "(def c\n3)\n");
+      batch = nextBatch();
+      assertEquals(1, batch.size());
+      assertEquals("(def c\n  3)\n", TestFiles.read(c));
+      assertEquals(4, watcher.getNumWatchedDirs());
+
+      // errors are reported
+      TestFiles.write(tmpDir, "src/b/b.cljs", "(def b))\n");
+      batch = nextBatch();
+      assertEquals("error", batch.get(0).getStatus());
+    } finally {
+      watcher.close();
+      thread.join(10_000);
+    }
+    assertFalse(thread.isAlive());
+  }
+}